@@ -16,68 +16,33 @@
 package edu.emory.mathcs.nlp.dev;
 
 import java.io.BufferedReader;
-import java.io.ObjectInputStream;
+import java.io.File;
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.PriorityQueue;
-import java.util.StringJoiner;
 
-import edu.emory.mathcs.nlp.common.collection.tuple.ObjectDoublePair;
 import edu.emory.mathcs.nlp.common.util.IOUtils;
 import edu.emory.mathcs.nlp.common.util.Joiner;
-import edu.emory.mathcs.nlp.common.util.MathUtils;
 import edu.emory.mathcs.nlp.component.template.node.NLPNode;
 import edu.emory.mathcs.nlp.tokenization.EnglishTokenizer;
 import edu.emory.mathcs.nlp.tokenization.Tokenizer;
+import edu.emory.mathcs.nlp.vsm.evaluate.KnnGraphBuilder;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
 
 /**
  * @author Jinho D. Choi ({@code jinho.choi@emory.edu})
  */
 public class Tmp
 {
-	@SuppressWarnings("unchecked")
+	/** Writes the 20 nearest neighbors of every word; see {@link KnnGraphBuilder} for the options. */
 	public Tmp(String[] args) throws Exception
 	{
 		final String INPUT_FILE  = args[0];
 		final String OUTPUT_FILE = args[1];
+		final int    THREADS     = Runtime.getRuntime().availableProcessors();
 		
-		ObjectInputStream in = IOUtils.createObjectXZBufferedInputStream(INPUT_FILE);
-		Map<String,float[]> map = (Map<String,float[]>)in.readObject();
-		in.close();
-	
-		PrintStream fout = IOUtils.createBufferedPrintStream(OUTPUT_FILE);
-		List<Entry<String,float[]>> list = new ArrayList<>(map.entrySet());
-		Collections.sort(list, Entry.comparingByKey());
-		PriorityQueue<ObjectDoublePair<String>> q;
-		Entry<String,float[]> ei, ej;
-		StringJoiner join;
-		
-		for (int i=0; i<list.size(); i++)
-		{
-			ei = list.get(i);
-			q  = new PriorityQueue<>(Collections.reverseOrder());
-			
-			for (int j=0; j<list.size(); j++)
-			{
-				if (i == j) continue;
-				ej = list.get(j);
-				q.add(new ObjectDoublePair<String>(ej.getKey(), MathUtils.cosineSimilarity(ei.getValue(), ej.getValue())));
-			}
-			
-			join = new StringJoiner("\t");
-			join.add(ei.getKey());
-			
-			for (int j=0; j<20; j++)
-				join.add(q.poll().o);
-
-			fout.println(join.toString());
-		}
-
-		fout.close();
+		VectorStore vectors = VectorStore.load(new File(INPUT_FILE), THREADS);
+		KnnGraphBuilder.write(vectors, 20, 0, THREADS, new File(OUTPUT_FILE), false, false);
 	}
 	
 	public void tokenize(String[] args) throws Exception
@@ -26,9 +26,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 import edu.emory.mathcs.nlp.common.util.BinUtils;
@@ -42,7 +40,7 @@ import edu.emory.mathcs.nlp.vsm.util.Vocabulary;
  *
  * @author Austin Blodgett
  */
-public class POSContextAnalyzer extends Word2Vec
+public class ContextAnalyzer extends Word2Vec
 {
     private static final long serialVersionUID = -5597377581114506257L;
     Map<String, Map<String, Integer>> sums;
@@ -56,6 +54,13 @@ public class POSContextAnalyzer extends Word2Vec
         window = max_skip_window;
     }
 
+    @Override
+    void checkArgs()
+    {
+        super.checkArgs();
+        rejectStream();
+    }
+
 
     String getWordLabel(NLPNode word)
     {
@@ -110,53 +115,34 @@ public class POSContextAnalyzer extends Word2Vec
         
         
         //run
-        List<Reader<NLPNode>> train_readers;
-        List<Reader<NLPNode>> readers;
+        BinUtils.LOG.info("Reading vocabulary:\n");
 
-            BinUtils.LOG.info("Reading vocabulary:\n");
+        in_vocab = (out_vocab = new Vocabulary());
 
-            in_vocab = (out_vocab = new Vocabulary());
+        Reader<NLPNode> reader = new DEPTreeReader(filenames.stream().map(File::new).collect(Collectors.toList()));
+        ForkJoinPool pool = new ForkJoinPool(thread_size);
 
-            readers = new DEPTreeReader(filenames.stream().map(File::new).collect(Collectors.toList()))
-                    .splitParallel(thread_size);
-            train_readers = evaluate ? readers.subList(0,thread_size-1) : readers;
+        if (read_vocab_file == null) pool.submit(() -> in_vocab.learn(reader.addFeature(this::getWordLabel).sentences(), min_count)).get();
+        else                          in_vocab.readVocab(new File(read_vocab_file), min_count);
+        pool.submit(() -> out_vocab.learn(reader.addFeature(this::getWordLabel).sentences(), min_count)).get();
+        word_count_train = in_vocab.totalCount();
+        // -----------------------------------------------------------
 
-            if (read_vocab_file == null) in_vocab.learnParallel(train_readers.stream()
-                                                                .map(r -> r.addFeature(this::getWordLabel))
-                                                                .collect(Collectors.toList()), min_count);
-            else                          in_vocab.readVocab(new File(read_vocab_file), min_count);
-            out_vocab.learnParallel(train_readers.stream()
-                    .map(r -> r.addFeature(this::getWordLabel))
-                    .collect(Collectors.toList()), min_count);
-            word_count_train = in_vocab.totalCount();
-            // -----------------------------------------------------------
-
-            BinUtils.LOG.info(String.format("- types = %d, tokens = %d\n", in_vocab.size(), word_count_train));
+        BinUtils.LOG.info(String.format("- types = %d, tokens = %d\n", in_vocab.size(), word_count_train));
 
         BinUtils.LOG.info("Training vectors:");
         word_count_global = 0;
-        ExecutorService executor = Executors.newFixedThreadPool(thread_size);
 
         start_time = System.currentTimeMillis();
         BinUtils.LOG.info("time" + start_time   + "\n");
 
-        
-        int id = 0;
-        for (Reader<NLPNode> r: train_readers)
-        {
-            r.open();
-            executor.execute(new SynTrainTask(r,id));
-            id++;
-        }
-
-
-        executor.shutdown();
-
-        try { executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS); }
-        catch (InterruptedException e) {e.printStackTrace();}
-
-        for (Reader<NLPNode> r: train_readers)
-            r.close();
+        // parallel streams run on the pool they are submitted from
+        pool.submit(() -> reader.sentences().forEach(words -> {
+            Map<NLPNode,Set<NLPNode>> sargs = getSemanticArgumentMap(words);
+            for (int index=0; index<words.size(); index++)
+                measureContext(words, index, sargs);
+        })).get();
+        pool.shutdown();
 
         BinUtils.LOG.info("Writing output of things.\n");
         
@@ -181,58 +167,6 @@ public class POSContextAnalyzer extends Word2Vec
         
     }
 
-    class SynTrainTask implements Runnable
-    {
-        protected Reader<NLPNode> reader;
-        protected int id;
-        protected float last_progress = 0;
-        protected long num_sentences = 0;
-
-        /* Tasks are each parameterized by a reader which is dedicated to a section of the corpus
-         * (not necesarily one file). The corpus is split to divide it evenly between Tasks without breaking up sentences. */
-        public SynTrainTask(Reader<NLPNode> reader, int id)
-        {
-            this.reader = reader;
-            this.id = id;
-        }
-
-        @Override
-        public void run()
-        {
-            int     index;
-            List<NLPNode> words = null;
-            Map<NLPNode,Set<NLPNode>> sargs;
-
-            
-            BinUtils.LOG.info("Entering while Loop");
-
-            while (true)
-            {
-                try {
-                    words = reader.next();
-                    word_count_global += words == null ? 0 : words.size();
-                } catch (IOException e) {
-                    System.err.println("Reader failure: progress "+reader.progress());
-                    e.printStackTrace();
-                    System.exit(1);
-                }
-
-                if (words == null)
-                {
-                    break;
-                }
-
-                sargs = getSemanticArgumentMap(words);
-
-                for (index=0; index<words.size(); index++){
-                    //context here
-                    measureContext(words, index, sargs);
-                }
-            }
-        }
-    }
-    
-    
     void measureContext(List<NLPNode> words, int index, Map<NLPNode,Set<NLPNode>> sargs){
         NLPNode word = words.get(index);
         int word_index = out_vocab.indexOf(getWordLabel(word));
@@ -272,7 +206,8 @@ public class POSContextAnalyzer extends Word2Vec
     
 
 
-    void countContextPOS(String pos, NLPNode word, Map<NLPNode,Set<NLPNode>> sargs){
+    /* Synchronized since sentences are measured in parallel. */
+    synchronized void countContextPOS(String pos, NLPNode word, Map<NLPNode,Set<NLPNode>> sargs){
         Map<String, Integer> mapSum = sums.get(pos);
         int sum;
         int dep1Size = word.getDependentList().size();
@@ -489,5 +424,5 @@ public class POSContextAnalyzer extends Word2Vec
         out.close();
     }
 
-    static public void main(String[] args) { new POSContextAnalyzer(args); }
+    static public void main(String[] args) { new ContextAnalyzer(args); }
 }
@@ -24,9 +24,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 import edu.emory.mathcs.nlp.vsm.reader.Reader;
@@ -61,8 +61,8 @@ public class ContextSummarizer
     @Option(name="-context-types", usage="types of context to gather data for, delimited by a comma", required=true, metaVar="<String>")
     String context_types = null;
 
-    volatile Map<String,int[]> stats;
-    volatile long word_count_global;
+    Map<String,AtomicLongArray> stats;
+    LongAdder word_count_global = new LongAdder();
     long word_count_extract;
     long start_time;
     public Vocabulary in_vocab;
@@ -73,9 +73,9 @@ public class ContextSummarizer
         BinUtils.initArgs(args, this);
         contexts = context_types.split(",");
 
-        stats = new HashMap<String,int[]>();
+        stats = new HashMap<String,AtomicLongArray>();
         for ( String context : contexts )
-            stats.put(context, new int [] {0, 0, 0});
+            stats.put(context, new AtomicLongArray(3));
 
         List<String> filenames;
         try
@@ -102,121 +102,67 @@ public class ContextSummarizer
         in_vocab = new Vocabulary();
         out_vocab = new Vocabulary();
 
-        List<Reader<NLPNode>> readers = new DEPTreeReader(filenames.stream().map(File::new).collect(Collectors.toList()))
-                .splitParallel(thread_size);
-        List<Reader<NLPNode>> extract_readers = readers;
+        Reader<NLPNode> reader = new DEPTreeReader(filenames.stream().map(File::new).collect(Collectors.toList()));
+        ForkJoinPool pool = new ForkJoinPool(thread_size);
 
-        in_vocab.learnParallel(extract_readers.stream()
-                            .map(r -> r.addFeature(this::getWordLabel))
-                            .collect(Collectors.toList()), min_count);
+        pool.submit(() -> in_vocab.learn(reader.addFeature(this::getWordLabel).sentences(), min_count)).get();
         word_count_extract = in_vocab.totalCount();
         // -----------------------------------------------------------
 
         BinUtils.LOG.info(String.format("- types = %d, tokens = %d\n", in_vocab.size(), word_count_extract));
-        ExecutorService executor = Executors.newFixedThreadPool(thread_size);
         start_time = System.currentTimeMillis();
 
-        int id = 0;
-        for (Reader<NLPNode> r: extract_readers)
-        {
-            r.open();
-            executor.execute(new ExtractionTask(r,id));
-            id++;
-        }
-        // -----------------------------------------------------------
-
-        executor.shutdown();
-
-        try { executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS); }
-        catch (InterruptedException e) {e.printStackTrace();}
-
-        for (Reader<NLPNode> r: extract_readers)
-            r.close();
+        // parallel streams run on the pool they are submitted from
+        pool.submit(() -> reader.sentences().forEach(this::extractContext)).get();
+        pool.shutdown();
 
         save(new File(output_file));
     }
 
-
-    class ExtractionTask implements Runnable
+    void extractContext(List<NLPNode> words)
     {
-        protected Reader<NLPNode> reader;
-        protected int id;
-        private float last_progress = 0;
-        protected long num_sentences = 0;
-        
-        public ExtractionTask(Reader<NLPNode> nlpReader, int i)
-        {
-            reader = nlpReader;
-            id = i;
-            /* Inside Outside Count */
-        }
+        word_count_global.add(words.size());
+
+        for (int index=0; index<words.size(); index++)
+            extractContext(words, index);
+
+        for (String ctype : contexts)
+            stats.get(ctype).addAndGet(2, words.size());
+    }
 
-        @Override
-        public void run()
+    public void extractContext(List<NLPNode> words, int index){
+        List<NLPNode> context;
+        for (String context_type : contexts)
         {
-            int index;
-            List<NLPNode> words = null;
-            while (true)
-            {
-                try {
-                    words = reader.next();
-                    word_count_global += words == null ? 0 : words.size();
-                    num_sentences++;
-                } catch (IOException e) {
-                    System.err.println("Reader failure: progress "+reader.progress());
-                    e.printStackTrace();
-                    System.exit(1);
-                }
-
-                if (words == null)
-                {
-                    // readers have a built in restart button - Austin
-                    try { reader.restart(); } catch (IOException e) { e.printStackTrace(); }
-                    continue;
-                }
-
-                for (index=0; index<words.size(); index++)
-                {
-                    extractContext(words, index);
-                }
-                for (String ctype : contexts)
-                    stats.get(ctype)[2] += words.size();
+            context  = new ArrayList<NLPNode>();
+            switch(context_type){
+                case "dep1h":
+                    context.add(words.get(index).getDependencyHead());
+                case "dep1":
+                    context.addAll(words.get(index).getDependentList());
+                    break;
+                case "dep2h":
+                    context.add(words.get(index).getDependencyHead());
+                case "dep2":
+                    context.addAll(words.get(index).getDependentList());
+                    for(NLPNode dep : words.get(index).getDependentList())
+                        context.addAll(dep.getDependentList());
+                    break;
+                case "sib1dep1h":
+                    context.add(words.get(index).getDependencyHead());
+                case "sib1dep1":
+                    if(words.get(index).getRightNearestDependent() != null)
+                        context.add(words.get(index).getRightNearestDependent());
+                    if(words.get(index).getLeftNearestDependent() != null)
+                        context.add(words.get(index).getLeftNearestDependent());
+                    context.addAll(words.get(index).getDependentList());
+                    break;
             }
-        }
-
-        public void extractContext(List<NLPNode> words, int index){
-            List<NLPNode> context;
-            for (String context_type : contexts)
-            {
-                context  = new ArrayList<NLPNode>();
-                switch(context_type){
-                    case "dep1h":
-                        context.add(words.get(index).getDependencyHead());
-                    case "dep1":
-                        context.addAll(words.get(index).getDependentList());
-                        break;
-                    case "dep2h":
-                        context.add(words.get(index).getDependencyHead());
-                    case "dep2":
-                        context.addAll(words.get(index).getDependentList());
-                        for(NLPNode dep : context)
-                            context.addAll(dep.getDependentList());
-                        break;
-                    case "sib1dep1h":
-                        context.add(words.get(index).getDependencyHead());
-                    case "sib1dep1":
-                        if(words.get(index).getRightNearestDependent() != null)
-                            context.add(words.get(index).getRightNearestDependent());
-                        if(words.get(index).getLeftNearestDependent() != null)
-                            context.add(words.get(index).getLeftNearestDependent());
-                        context.addAll(words.get(index).getDependentList());
-                        break;
-                }
-                for(NLPNode word : context){
-                    if(word.getID() < words.get(index).getID() - 5) stats.get(context_type)[1]++;
-                    else if (word.getID() > words.get(index).getID() + 5) stats.get(context_type)[1]++;
-                    else stats.get(context_type)[0]++;
-                }
+            for(NLPNode word : context){
+                if(word == null) continue;
+                if(word.getID() < words.get(index).getID() - 5) stats.get(context_type).incrementAndGet(1);
+                else if (word.getID() > words.get(index).getID() + 5) stats.get(context_type).incrementAndGet(1);
+                else stats.get(context_type).incrementAndGet(0);
             }
         }
     }
@@ -230,8 +176,7 @@ public class ContextSummarizer
         String output = "Inside\tOutside\tCount\n";
         out.write(output);
         for (String ctype : contexts)
-            output = ctype + " " + stats.get(ctype)[0] + "\t" + stats.get(ctype)[1] + "\t" + stats.get(ctype)[2] + "\n";
-        out.write(output);
+            out.write(ctype + " " + stats.get(ctype).get(0) + "\t" + stats.get(ctype).get(1) + "\t" + stats.get(ctype).get(2) + "\n");
         out.close();
     }
 
@@ -32,6 +32,13 @@ public class Lemma2Vec extends Word2Vec
         super(args);
     }
 
+    @Override
+    void checkArgs()
+    {
+        super.checkArgs();
+        rejectStream();
+    }
+
 	@Override
 	@SuppressWarnings("resource")
     Reader<String> getReader(List<File> files)
@@ -0,0 +1,415 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import edu.emory.mathcs.nlp.vsm.util.Vocabulary;
+import edu.emory.mathcs.nlp.vsm.util.WeightMatrix;
+import edu.emory.mathcs.nlp.vsm.util.Word;
+
+/**
+ * Single-file model that is opened by memory-mapping instead of deserializing.
+ * The file consists of a fixed header with the dimensions, the vocabulary sizes, and the section offsets,
+ * followed by the hyperparameters as properties, the input and output vocabularies,
+ * and the row-major little-endian float sections of W and V, each aligned to a page.
+ * Rows are read directly from the mapped sections, so query tools do not copy the matrices onto the heap,
+ * and sections larger than 2GB are mapped as several segments of whole rows.
+ *
+ * This example looks up the input vector of a word:
+ *  try (MappedModel model = MappedModel.open(file)) { model.getW(model.inVocab().indexOf("dog"), vector); }
+ */
+public class MappedModel implements Closeable
+{
+    static public final int MAGIC   = 0x4D4D5356;   // "VSMM" in little-endian
+    static public final int VERSION = 1;
+
+    static private final int  HEADER_SIZE  = 64;
+    static private final int  ALIGNMENT    = 4096;
+    static private final int  SEGMENT_SIZE = 1 << 30;
+    static private final int  BUFFER_SIZE  = 1 << 20;
+    static private final int  BLOCK_ROWS   = 4096;      // rows copied by each task of toArray
+    static private final int  SHARED_VOCAB = 1;
+
+    private final FileChannel channel;
+    private final int         vector_size;
+    private final Vocabulary  in_vocab;
+    private final Vocabulary  out_vocab;
+    private final Properties  hyperparameters;
+    private final Section     W;
+    private final Section     V;
+
+    private MappedModel(File file) throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try
+        {
+            ByteBuffer header = map(0, HEADER_SIZE);
+            if (header.getInt() != MAGIC)   throw new IOException("Not a mapped model: "+file);
+            if (header.getInt() != VERSION) throw new IOException("Unsupported model version: "+file);
+
+            vector_size   = header.getInt();
+            int in_size   = header.getInt();
+            int out_size  = header.getInt();
+            int flags     = header.getInt();
+            long hyper_offset = header.getLong();
+            long vocab_offset = header.getLong();
+            long w_offset     = header.getLong();
+            long v_offset     = header.getLong();
+
+            ByteBuffer b = map(hyper_offset, (int)(vocab_offset - hyper_offset));
+            hyperparameters = new Properties();
+            hyperparameters.load(new StringReader(StandardCharsets.UTF_8.decode(b).toString()));
+
+            b = map(vocab_offset, (int)(w_offset - vocab_offset));
+            in_vocab  = readVocab(b, in_size);
+            out_vocab = (flags & SHARED_VOCAB) != 0 ? in_vocab : readVocab(b, out_size);
+
+            W = new Section(w_offset, in_size);
+            V = new Section(v_offset, out_size);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Opens the model by memory-mapping its sections; the matrices are not read until their rows are accessed. */
+    static public MappedModel open(File file) throws IOException
+    {
+        return new MappedModel(file);
+    }
+
+    /** @return true if the file starts with the magic number of this format. */
+    static public boolean isMappedModel(File file)
+    {
+        if (!file.isFile() || file.length() < HEADER_SIZE) return false;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(b, 0);
+            return b.getInt(0) == MAGIC;
+        }
+        catch (IOException e) { return false; }
+    }
+
+    /**
+     * Saves the model to the file.
+     * @param W - input vectors, W[vectorSize*word_index + component].
+     * @param V - output vectors, V[vectorSize*word_index + component]; rows of the output vocabulary.
+     * @param hyperparameters - saved as they are, e.g., the options the model is trained with.
+     */
+    static public void write(File file, int vectorSize, Vocabulary inVocab, Vocabulary outVocab, float[] W, float[] V, Properties hyperparameters) throws IOException
+    {
+        write(file, vectorSize, inVocab, outVocab, i -> W[(int)i], W.length, i -> V[(int)i], V.length, hyperparameters);
+    }
+
+    /** Same as {@link #write(File, int, Vocabulary, Vocabulary, float[], float[], Properties)} for weights not kept in float arrays. */
+    static public void write(File file, int vectorSize, Vocabulary inVocab, Vocabulary outVocab, WeightMatrix W, WeightMatrix V, Properties hyperparameters) throws IOException
+    {
+        write(file, vectorSize, inVocab, outVocab, W::get, W.size(), V::get, V.size(), hyperparameters);
+    }
+
+    static private void write(File file, int vectorSize, Vocabulary inVocab, Vocabulary outVocab, Values W, long wSize, Values V, long vSize, Properties hyperparameters) throws IOException
+    {
+        StringWriter props = new StringWriter();
+        hyperparameters.store(props, null);
+        // drops the timestamp comment so that the same model is always saved to the same bytes
+        byte[] hyper = props.toString().replaceFirst("^#.*\\R", "").getBytes(StandardCharsets.UTF_8);
+        byte[] in    = vocabBytes(inVocab);
+        byte[] out   = inVocab == outVocab ? new byte[0] : vocabBytes(outVocab);
+
+        long hyper_offset = HEADER_SIZE;
+        long vocab_offset = hyper_offset + hyper.length;
+        long w_offset     = align(vocab_offset + in.length + out.length);
+        long v_offset     = align(w_offset + (long)wSize * Float.BYTES);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(vectorSize).putInt(inVocab.size()).putInt(outVocab.size());
+        header.putInt(inVocab == outVocab ? SHARED_VOCAB : 0);
+        header.putLong(hyper_offset).putLong(vocab_offset).putLong(w_offset).putLong(v_offset);
+        header.rewind();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            write(channel, header, 0);
+            write(channel, ByteBuffer.wrap(hyper), hyper_offset);
+            write(channel, ByteBuffer.wrap(in), vocab_offset);
+            write(channel, ByteBuffer.wrap(out), vocab_offset + in.length);
+            write(channel, W, wSize, w_offset);
+            write(channel, V, vSize, v_offset);
+        }
+    }
+
+    static private long align(long offset)
+    {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    static private void write(FileChannel channel, ByteBuffer b, long position) throws IOException
+    {
+        while (b.hasRemaining()) position += channel.write(b, position);
+    }
+
+    static private void write(FileChannel channel, Values matrix, long size, long position) throws IOException
+    {
+        ByteBuffer b = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        FloatBuffer f = b.asFloatBuffer();
+
+        for (long i=0; i<size; i+=f.capacity())
+        {
+            int length = (int)Math.min(f.capacity(), size - i);
+            f.clear();
+            for (int j=0; j<length; j++) f.put(matrix.get(i+j));
+            b.clear(); b.limit(length * Float.BYTES);
+            write(channel, b, position);
+            position += length * Float.BYTES;
+        }
+    }
+
+    /** Values of a weight matrix by index. */
+    private interface Values
+    {
+        float get(long index);
+    }
+
+    /** Each word is saved as its count (8 bytes), the length of its form (4 bytes), and its form in UTF-8. */
+    static private byte[] vocabBytes(Vocabulary vocab)
+    {
+        byte[][] forms = new byte[vocab.size()][];
+        int size = 0;
+
+        for (int i=0; i<forms.length; i++)
+        {
+            forms[i] = vocab.get(i).form.getBytes(StandardCharsets.UTF_8);
+            size += Long.BYTES + Integer.BYTES + forms[i].length;
+        }
+
+        ByteBuffer b = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int i=0; i<forms.length; i++)
+            b.putLong(vocab.get(i).count).putInt(forms[i].length).put(forms[i]);
+
+        return b.array();
+    }
+
+    static private Vocabulary readVocab(ByteBuffer b, int size)
+    {
+        Vocabulary vocab = new Vocabulary();
+
+        for (int i=0; i<size; i++)
+        {
+            long count = b.getLong();
+            byte[] form = new byte[b.getInt()];
+            b.get(form);
+            Word word = new Word(new String(form, StandardCharsets.UTF_8));
+            word.count = count;
+            vocab.add(word);
+        }
+
+        return vocab;
+    }
+
+    private ByteBuffer map(long position, int size) throws IOException
+    {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int vectorSize()
+    {
+        return vector_size;
+    }
+
+    public Vocabulary inVocab()
+    {
+        return in_vocab;
+    }
+
+    public Vocabulary outVocab()
+    {
+        return out_vocab;
+    }
+
+    /** @return the hyperparameters saved with this model. */
+    public Properties hyperparameters()
+    {
+        return hyperparameters;
+    }
+
+    /** @return the component of the input vector of the word. */
+    public float w(int word, int component)
+    {
+        return W.get(word, component);
+    }
+
+    /** @return the component of the output vector of the word. */
+    public float v(int word, int component)
+    {
+        return V.get(word, component);
+    }
+
+    /** Copies the input vector of the word to the specific array. */
+    public void getW(int word, float[] vector)
+    {
+        W.get(word, vector, 0);
+    }
+
+    /** Copies the output vector of the word to the specific array. */
+    public void getV(int word, float[] vector)
+    {
+        V.get(word, vector, 0);
+    }
+
+    /**
+     * Copies all input vectors to an array in the layout of {@link Word2Vec#W}, e.g., to resume training.
+     * Rows are paged in from the file in parallel by the specific number of threads.
+     */
+    public float[] loadW(int threads)
+    {
+        return W.toArray(threads);
+    }
+
+    /** Copies all output vectors to an array in the layout of {@link Word2Vec#V}. */
+    public float[] loadV(int threads)
+    {
+        return V.toArray(threads);
+    }
+
+    /**
+     * Copies all input vectors to the weight matrix row by row, e.g., to resume training in 16 bits or
+     * in memory-mapped files, without copying the whole matrix onto the heap.
+     * @param matrix - a matrix with at least as many rows as the input vocabulary.
+     */
+    public void loadW(WeightMatrix matrix, int threads)
+    {
+        W.copyTo(matrix, threads);
+    }
+
+    /** Same as {@link #loadW(WeightMatrix, int)} for the output vectors. */
+    public void loadV(WeightMatrix matrix, int threads)
+    {
+        V.copyTo(matrix, threads);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /** Matrix mapped as segments of whole rows, each at most 1GB. */
+    private class Section
+    {
+        private final FloatBuffer[] segments;
+        private final int rows;
+        private final int segment_rows;
+
+        public Section(long offset, int rows) throws IOException
+        {
+            this.rows    = rows;
+            segment_rows = Math.max(1, SEGMENT_SIZE / (vector_size * Float.BYTES));
+            segments     = new FloatBuffer[(rows + segment_rows - 1) / segment_rows];
+
+            for (int i=0; i<segments.length; i++)
+            {
+                int length = Math.min(segment_rows, rows - i * segment_rows);
+                segments[i] = map(offset + (long)i * segment_rows * vector_size * Float.BYTES, length * vector_size * Float.BYTES).asFloatBuffer();
+            }
+        }
+
+        public float get(int row, int component)
+        {
+            return segments[row / segment_rows].get((row % segment_rows) * vector_size + component);
+        }
+
+        public void get(int row, float[] vector, int offset)
+        {
+            FloatBuffer b = segments[row / segment_rows].duplicate();
+            b.position((row % segment_rows) * vector_size);
+            b.get(vector, offset, vector_size);
+        }
+
+        public float[] toArray(int threads)
+        {
+            float[] matrix = new float[Math.toIntExact((long)rows * vector_size)];
+
+            forEachBlock(threads, block -> {
+                FloatBuffer b = null;
+                int segment = -1, end = Math.min(rows, (block+1) * BLOCK_ROWS);
+
+                for (int row=block*BLOCK_ROWS; row<end; row++)
+                {
+                    if (row / segment_rows != segment) b = segments[segment = row / segment_rows].duplicate();
+                    b.position((row % segment_rows) * vector_size);
+                    b.get(matrix, row * vector_size, vector_size);
+                }
+            });
+
+            return matrix;
+        }
+
+        public void copyTo(WeightMatrix matrix, int threads)
+        {
+            forEachBlock(threads, block -> {
+                float[] vector = new float[vector_size];
+                int end = Math.min(rows, (block+1) * BLOCK_ROWS);
+
+                for (int row=block*BLOCK_ROWS; row<end; row++)
+                {
+                    get(row, vector, 0);
+                    long offset = (long)row * vector_size;
+                    // rounded to nearest by 16-bit matrices as when converting a float array
+                    for (int k=0; k<vector_size; k++) matrix.set(offset+k, vector[k]);
+                }
+            });
+        }
+
+        /** Runs the task on every block of rows on a pool of the specific number of threads. */
+        private void forEachBlock(int threads, IntConsumer task)
+        {
+            int blocks = (rows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+            if (threads <= 1) { IntStream.range(0, blocks).forEach(task); return; }
+            ForkJoinPool pool = new ForkJoinPool(threads);
+
+            try { pool.submit(() -> IntStream.range(0, blocks).parallel().forEach(task)).get(); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new IllegalStateException(e); }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+                throw new IllegalStateException(e.getCause());
+            }
+            finally { pool.shutdown(); }
+        }
+    }
+}
@@ -31,6 +31,13 @@ public class POSLemma2Vec extends Word2Vec {
         super(args);
     }
 
+    @Override
+    void checkArgs()
+    {
+        super.checkArgs();
+        rejectStream();
+    }
+
     String getWordLabel(NLPNode word)
     {
         String POS = word.getPartOfSpeechTag();
@@ -20,6 +20,7 @@ import edu.emory.mathcs.nlp.common.util.BinUtils;
 import edu.emory.mathcs.nlp.vsm.optimizer.HierarchicalSoftmax;
 import edu.emory.mathcs.nlp.vsm.optimizer.NegativeSampling;
 import edu.emory.mathcs.nlp.vsm.reader.Reader;
+import edu.emory.mathcs.nlp.vsm.util.VectorWriter;
 import edu.emory.mathcs.nlp.vsm.util.Vocabulary;
 import org.kohsuke.args4j.Option;
 
@@ -36,30 +37,181 @@ import java.util.stream.Collectors;
  */
 public class PolysemousWord2Vec extends Word2Vec
 {
-    @Option(name="-senses", usage="number of senses for each vector.", required=true, metaVar="<integer>")
+    @Option(name="-senses", usage="maximum number of senses for each vector.", required=true, metaVar="<integer>")
     int senses = 0;
+    @Option(name="-sense-min-count", usage="if set, words occurring at least this many times get all senses; other words start with one sense (default: 0, every word starts with one sense).", required=false, metaVar="<int>")
+    int sense_min_count = 0;
+    @Option(name="-sense-threshold", usage="if set, add a sense to a word when no sense predicts a context with this probability (default: 0, disabled).", required=false, metaVar="<float>")
+    float sense_threshold = 0;
+
+    volatile float[] sense_norm;   // sense_norm[word_index]
+
+    /*
+     * This object replaces W! The senses of each word are contiguous rows so that
+     * all senses of a context are read and updated with one cache-friendly sweep.
+     * The pool is replaced as a whole when it grows; trainers read it once per step and use it for every read and write.
+     */
+    volatile SensePool pool;
+    int sense_rows;                // number of rows in use
+
+    /** Sense vectors, the rows of each word, and the usage of each sense, all in one layout of rows. */
+    static class SensePool
+    {
+        final float[] S;           // S[vector_size*sense_row + component]
+        final long[]  index;       // index[word_index] = first_row << 32 | number_of_senses
+        final float[] dist;        // dist[sense_row]
 
-    volatile float[][] sense_dist;
-    volatile float[] sense_norm;
-
-    volatile public float[][] S; /* This object replaces W! */
+        SensePool(float[] S, long[] index, float[] dist)
+        {
+            this.S     = S;
+            this.index = index;
+            this.dist  = dist;
+        }
+    }
 
     public PolysemousWord2Vec(String[] args) { super(args); }
 
+    @Override
+    void checkArgs()
+    {
+        super.checkArgs();
+        rejectStream();
+        if (precisionType() != null) throw new IllegalArgumentException(getClass().getSimpleName()+" does not support -precision "+precision+".");
+        if (weight_file != null) throw new IllegalArgumentException(getClass().getSimpleName()+" does not support -weight-file.");
+        // a new sense is started by a context word whose own senses fail to predict the word, which CBOW never scores
+        if (sense_threshold > 0 && cbow) throw new IllegalArgumentException("-sense-threshold does not support -cbow.");
+    }
+
     /** Initializes weights between the input layer to the hidden layer using random numbers between [-0.5, 0.5]. */
     void initNeuralNetwork()
     {
-        int size = in_vocab.size() * vector_size;
-        Random rand = new XORShiftRandom(1);
+        int i, n, rows = 0, polysemous = 0;
+        long[] sense_index = new long[in_vocab.size()];
+
+        for (i=0; i<in_vocab.size(); i++)
+        {
+            n = sense_min_count > 0 && in_vocab.get(i).count >= sense_min_count ? senses : 1;
+            if (n > 1) polysemous++;
+            sense_index[i] = (long)rows << 32 | n;
+            rows += n;
+        }
 
-        S = new float[senses][size]; // S[word_sense][vector_size*word_index + component]
-        V = new float[size];         // V[vector_size*word_index + component]
+        // leave room for the senses added while training
+        long capacity = sense_threshold > 0 ? rows + Math.max(rows / 4, senses) : rows;
+        if (capacity * vector_size > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("The sense vectors exceed the maximum array size: "+capacity+" senses x "+vector_size+"; increase -sense-min-count.");
 
-        for (int s=0; s<senses; s++) for (int i=0; i<size; i++)
-            S[s][i] = (float)((rand.nextDouble() - 0.5) / vector_size);
+        Random rand = new XORShiftRandom(1);
+        float[] S = new float[(int)capacity * vector_size];
+        V = new float[in_vocab.size() * vector_size];   // V[vector_size*word_index + component]
+        sense_rows = rows;
+
+        for (i=0; i<rows*vector_size; i++)
+            S[i] = (float)((rand.nextDouble() - 0.5) / vector_size);
         // these keep track of proportionality of use for each sense
-        sense_dist = new float[senses][in_vocab.size()]; // sense_dist[word_sense][word_index]
-        sense_norm = new float[in_vocab.size()];         // sense_norm[word_index]
+        pool = new SensePool(S, sense_index, new float[(int)capacity]);
+        sense_norm = new float[in_vocab.size()];
+
+        BinUtils.LOG.info(String.format("- senses = %d, polysemous words = %d\n", rows, polysemous));
+    }
+
+    /** @return the index of the first component of the specific sense of the word in {@link #senseVectors()}. */
+    public int senseOffset(int word, int sense)
+    {
+        return ((int)(pool.index[word] >>> 32) + sense) * vector_size;
+    }
+
+    /** @return the number of senses of the word. */
+    public int senseCount(int word)
+    {
+        return (int)pool.index[word];
+    }
+
+    /** @return the sense vectors, in which the senses of a word begin at {@link #senseOffset(int, int)}. */
+    public float[] senseVectors()
+    {
+        return pool.S;
+    }
+
+    /** @return the number of rows of S in use, including the rows reserved for the senses yet to be added. */
+    public int senseRows()
+    {
+        return sense_rows;
+    }
+
+    /** @return the number of rows reserved for the word: one if it has one sense, all senses otherwise. */
+    private int reservedRows(int word)
+    {
+        return senseCount(word) == 1 ? 1 : senses;
+    }
+
+    /**
+     * Adds a sense to the word. A word with one sense is moved to a new block of rows that can hold all senses,
+     * so that its senses stay contiguous; the pool of rows grows when it runs out.
+     * The rows left by the moved words are reclaimed when the pool grows.
+     * Trainers that still hold the previous pool keep reading and writing its rows, so they lose a few updates but never mix layouts.
+     * @return false if the word already has all senses.
+     */
+    synchronized boolean addSense(int word)
+    {
+        SensePool p = pool;
+        long index = p.index[word];
+        int row = (int)(index >>> 32), n = (int)index;
+        if (n >= senses) return false;
+
+        if (n == 1)
+        {
+            if ((sense_rows + senses) * vector_size > p.S.length)
+            {
+                if (!grow()) return false;
+                p = pool;
+                row = (int)(p.index[word] >>> 32);
+            }
+
+            System.arraycopy(p.S, row * vector_size, p.S, sense_rows * vector_size, vector_size);
+            p.dist[sense_rows] = p.dist[row];
+            row = sense_rows;
+            sense_rows += senses;
+        }
+
+        Random rand = new XORShiftRandom(word * senses + n + 1);
+        for (int k=0, l=(row+n)*vector_size; k<vector_size; k++)
+            p.S[l+k] = (float)((rand.nextDouble() - 0.5) / vector_size);
+
+        p.index[word] = (long)row << 32 | (n+1);
+        return true;
+    }
+
+    /**
+     * Copies the rows in use to a larger pool in vocabulary order, dropping the rows left by the words moved to new blocks.
+     * The new vectors, rows, and usage are published together by one write of {@link #pool}.
+     * @return false if the pool cannot hold a new block of senses within the maximum array size.
+     */
+    private boolean grow()
+    {
+        SensePool p = pool;
+        int word, rows = 0;
+        for (word=0; word<in_vocab.size(); word++) rows += reservedRows(word);
+
+        long capacity = Math.min((Integer.MAX_VALUE - 8) / vector_size, Math.max((long)rows * 3 / 2, (long)rows + senses));
+        if (capacity < rows + senses) return false;
+
+        float[] S    = new float[(int)capacity * vector_size];
+        float[] dist = new float[(int)capacity];
+        long[]  index = new long[p.index.length];
+
+        for (word=0, rows=0; word<index.length; word++)
+        {
+            int row = (int)(p.index[word] >>> 32), n = (int)p.index[word];
+            System.arraycopy(p.S, row * vector_size, S, rows * vector_size, n * vector_size);
+            System.arraycopy(p.dist, row, dist, rows, n);
+            index[word] = (long)rows << 32 | n;
+            rows += reservedRows(word);
+        }
+
+        sense_rows = rows;
+        pool = new SensePool(S, index, dist);
+        return true;
     }
 
     public void train(List<String> filenames) throws Exception
@@ -69,14 +221,14 @@ public class PolysemousWord2Vec extends Word2Vec
         // ------- Austin's code -------------------------------------
         in_vocab = (out_vocab = new Vocabulary());
 
-        List<Reader<String>> readers = getReader(filenames.stream().map(File::new).collect(Collectors.toList()))
-                .splitParallel(thread_size);
+        List<Reader<String>> readers = split(getReader(filenames.stream().map(File::new).collect(Collectors.toList())));
         if (read_vocab_file == null) in_vocab.learnParallel(readers, min_count);
         else 						 in_vocab.readVocab(new File(read_vocab_file), min_count);
         word_count_train = in_vocab.totalCount();
         // -----------------------------------------------------------
 
         BinUtils.LOG.info(String.format("- types = %d, tokens = %d\n", in_vocab.size(), word_count_train));
+        logDuplicates();
 
         BinUtils.LOG.info("Initializing neural network.\n");
         initNeuralNetwork();
@@ -100,6 +252,7 @@ public class PolysemousWord2Vec extends Word2Vec
             executor.execute(new TrainTask(r,id));
             id++;
         }
+        trainer_size = id;
         // -----------------------------------------------------------
 
         executor.shutdown();
@@ -110,6 +263,9 @@ public class PolysemousWord2Vec extends Word2Vec
         for (Reader<String> r: readers)
             r.close();
 
+        if (sense_threshold > 0)
+            BinUtils.LOG.info(String.format("- senses = %d\n", Arrays.stream(pool.index).mapToInt(i -> (int)i).sum()));
+
 
         BinUtils.LOG.info("Saving word vectors.\n");
 
@@ -143,8 +299,8 @@ public class PolysemousWord2Vec extends Word2Vec
         {
             Random  rand  = new XORShiftRandom(reader.hashCode());
 
-            float[][] neu1s  = cbow ? new float[senses][vector_size] : null;
-            float[] neu1e = new float[vector_size];
+            float[] neu1s = cbow ? new float[senses * vector_size] : null;
+            float[] neu1e = new float[senses * vector_size];
             float[] E = new float[senses];
             int     iter  = 0;
             int     index, window;
@@ -166,9 +322,6 @@ public class PolysemousWord2Vec extends Word2Vec
                 for (index=0; index<words.length; index++)
                 {
                     window = 1 + rand.nextInt() % max_skip_window;	// dynamic window size
-                    if (cbow) Arrays.fill(neu1s, 0);
-                    Arrays.fill(neu1e, 0);
-
                     if (cbow) bagOfWords(words, index, window, rand, neu1e, neu1s, E);
                     else      skipGram  (words, index, window, rand, neu1e, E);
                 }
@@ -188,98 +341,130 @@ public class PolysemousWord2Vec extends Word2Vec
         }
     }
 
-    void bagOfWords(int[] words, int index, int window, Random rand, float[] neu1e, float[][] neu1s, float[] E)
+    /**
+     * Contexts with fewer senses than others contribute their last sense in place of the missing ones,
+     * so a monosemous context is learned as in plain CBOW.
+     */
+    void bagOfWords(int[] words, int index, int window, Random rand, float[] neu1e, float[] neu1s, float[] E)
     {
-        int i, j, k, l, wc = 0, word = words[index];
+        int i, j, k, s, l, n, row, count, size, wc = 0, word = words[index];
+        SensePool p = pool;
+        float[] S = p.S;
+        long[] sense_index = p.index;
+
+        // number of senses to learn
+        for (i=-window,j=index+i,n=1; i<=window; i++,j++)
+        {
+            if (i == 0 || words.length <= j || j < 0) continue;
+            n = Math.max(n, (int)sense_index[words[j]]);
+        }
+
+        size = n * vector_size;
+        Arrays.fill(neu1s, 0, size, 0);
 
         // input -> hidden
         for (i=-window,j=index+i; i<=window; i++,j++)
         {
             if (i == 0 || words.length <= j || j < 0) continue;
-            l = words[j] * vector_size;
-            for (int s=0; s<senses; s++) for (k = 0; k < vector_size; k++) neu1s[s][k] += S[s][l + k];
+            row = (int)(sense_index[words[j]] >>> 32);
+            count = (int)sense_index[words[j]];
+
+            for (s=0; s<n; s++)
+            {
+                l = (row + Math.min(s, count-1)) * vector_size;
+                for (k=0; k<vector_size; k++) neu1s[s*vector_size+k] += S[l+k];
+            }
+
             wc++;
         }
 
         if (wc == 0) return;
-        for (int s=0; s<senses; s++) for (k=0; k<vector_size; k++) neu1s[s][k] /= wc;
+        for (k=0; k<size; k++) neu1s[k] /= wc;
 
-        getSenseDist(E, word, neu1s);
+        getSenseDist(E, word, neu1s, 0, n);
 
-        // expectation maximization
-        for (int s = 0; s < senses; s++) {
-            optimizer.learnBagOfWords(rand, word, V, neu1s[s], neu1e, E[s]*alpha_global);
+        // expectation maximization: every sense is learned from the same samples, weighted by its expectation
+        Arrays.fill(neu1e, 0, size, 0);
+        optimizer.learnBagOfWords(rand, word, V, neu1s, neu1e, E, n, alpha_global);
 
-            // hidden -> input
-            for (i=-window,j=index+i; i<=window; i++,j++)
+        // hidden -> input
+        for (i=-window,j=index+i; i<=window; i++,j++)
+        {
+            if (i == 0 || words.length <= j || j < 0) continue;
+            row = (int)(sense_index[words[j]] >>> 32);
+            count = (int)sense_index[words[j]];
+
+            for (s=0; s<n; s++)
             {
-                l = words[j] * vector_size;
-                if (i == 0 || words.length <= j || j < 0) continue;
-                for (k = 0; k < vector_size; k++) S[s][k+l] += neu1e[k];
+                l = (row + Math.min(s, count-1)) * vector_size;
+                for (k=0; k<vector_size; k++) S[l+k] += neu1e[s*vector_size+k];
+                p.dist[row + Math.min(s, count-1)] += E[s];
             }
-            sense_dist[s][word] += E[s];
+
+            sense_norm[words[j]]++;
         }
-        sense_norm[word]++;
     }
 
     void skipGram(int[] words, int index, int window, Random rand, float[] neu1e, float[] E)
     {
-        int i, j, k, l1, word = words[index];
+        int i, j, k, l1, n, size, word = words[index];
+        SensePool p;
+        long entry;
 
         for (i=-window,j=index+i; i<=window; i++,j++)
         {
             if (i == 0 || words.length <= j || j < 0) continue;
-            l1 = words[j] * vector_size;
-            Arrays.fill(neu1e, 0);
+            p  = pool;
+            entry = p.index[words[j]];
+            l1 = (int)(entry >>> 32) * vector_size;
+            n  = (int)entry;
 
-            getSenseDist(E, word, words[j]);
-
-            // expectation maximization
-            for (int s = 0; s < senses; s++) {
-                optimizer.learnSkipGram(rand, word, S[s], V, neu1e, E[s]*alpha_global, l1);
-
-                // hidden -> input
-                for (k = 0; k < vector_size; k++) S[s][l1+k] += neu1e[k];
-                sense_dist[s][word] += E[s];
+            // a context that no sense predicts well enough starts a new sense
+            if (getSenseDist(E, word, p.S, l1, n) < sense_threshold && addSense(words[j]))
+            {
+                p  = pool;
+                entry = p.index[words[j]];
+                l1 = (int)(entry >>> 32) * vector_size;
+                n  = (int)entry;
+                getSenseDist(E, word, p.S, l1, n);
             }
-            sense_norm[word]++;
-        }
-    }
-
-    public void getSenseDist(float[] E, int word, int context) {
-        int s, k, l1, l2;
-        float score = 0, sum = 0;
 
-        for (s = 0; s < senses; s++) {
-            l1 = context * vector_size;
-            l2 = word * vector_size;
-            // hidden -> output
-            for (k = 0; k < vector_size; k++) score += S[s][l1 + k] * V[l2 + k];
-            E[s] = (1 - sigmoid.get(score));
-            E[s] = 1 - E[s] * E[s];
-            sum += E[s];
-        }
+            // expectation maximization: every sense is learned from the same samples, weighted by its expectation
+            size = n * vector_size;
+            Arrays.fill(neu1e, 0, size, 0);
+            optimizer.learnSkipGram(rand, word, p.S, V, neu1e, E, n, alpha_global, l1);
 
-        if (sum == 0) for (s = 0; s < senses; s++)
-        {
-            E[s] = 1;
-            sum++;
+            // hidden -> input
+            for (k=0; k<size; k++) p.S[l1+k] += neu1e[k];
+            addSenseDist(p, words[j], l1 / vector_size, n, E);
         }
-        for (s = 0; s < senses; s++)
-            E[s] /= sum;
     }
 
-    public void getSenseDist(float[] E, int word, float[][] neu1s)
+    /** Records how much each sense of the word has been used in the rows of the pool. */
+    void addSenseDist(SensePool p, int word, int row, int n, float[] E)
     {
-        int s, k, l;
-        float score = 0, sum = 0;
+        for (int s=0; s<n; s++) p.dist[row+s] += E[s];
+        sense_norm[word]++;
+    }
 
-        l = word * vector_size;
+    /**
+     * Scores every sense against the output vector of the word in one pass over the contiguous senses.
+     * @param E - E[s] is set to the normalized expectation of the s'th sense.
+     * @param syn - vectors of the senses, contiguous from offset.
+     * @return the highest probability of the word given any of the senses.
+     */
+    public float getSenseDist(float[] E, int word, float[] syn, int offset, int senses)
+    {
+        int s, k, l1, l2 = word * vector_size;
+        float score, sum = 0, max = 0, p;
 
-        for (s = 0; s < senses; s++) {
+        for (s=0,l1=offset; s<senses; s++,l1+=vector_size)
+        {
             // hidden -> output
-            for (k = 0; k < vector_size; k++) score += neu1s[s][k] * V[l+k];
-            E[s] = (1 - sigmoid.get(score));
+            for (k=0,score=0; k<vector_size; k++) score += syn[l1+k] * V[l2+k];
+            p = sigmoid.get(score);
+            max = Math.max(max, p);
+            E[s] = (1 - p);
             E[s] = 1 - E[s] * E[s]; // 1 - squared error
             sum += E[s];
         }
@@ -291,12 +476,14 @@ public class PolysemousWord2Vec extends Word2Vec
         }
         for (s = 0; s < senses; s++)
             E[s] /= sum;
+
+        return max;
     }
 
     String senseToString(int sense, int word_index){
         return in_vocab.get(word_index).form
                 +"."+String.format("%02d",sense)
-                +"("+(int)(100*sense_dist[sense][word_index]/sense_norm[word_index])+"%)";
+                +"("+(int)(100*pool.dist[senseOffset(word_index, sense)/vector_size]/sense_norm[word_index])+"%)";
     }
 
     @Override
@@ -309,11 +496,11 @@ public class PolysemousWord2Vec extends Word2Vec
 
         for (i = 0; i < in_vocab.size(); i++)
         {
-            for (int s=0; s<senses; s++)
+            for (int s=0; s<senseCount(i); s++)
             {
-                l = i * vector_size;
+                l = senseOffset(i, s);
                 key = senseToString(s, i);
-                vector = Arrays.copyOfRange(S[s], l, l + vector_size);
+                vector = Arrays.copyOfRange(pool.S, l, l + vector_size);
                 if (normalize) normalize(vector);
                 map.put(key, vector);
             }
@@ -322,5 +509,23 @@ public class PolysemousWord2Vec extends Word2Vec
         return map;
     }
 
+    /** Saves every sense of every word in vocabulary order, straight from S. */
+    @Override
+    public void save(File save_file) throws IOException
+    {
+        int[] row_words = new int[Arrays.stream(pool.index).mapToInt(i -> (int)i).sum()], row_senses = new int[row_words.length];
+
+        for (int i=0, row=0; i<in_vocab.size(); i++)
+        {
+            for (int s=0; s<senseCount(i); s++,row++)
+            {
+                row_words [row] = i;
+                row_senses[row] = s;
+            }
+        }
+
+        save(new VectorWriter(pool.S, vector_size, row_words.length, r -> senseToString(row_senses[r], row_words[r]), r -> senseOffset(row_words[r], row_senses[r])), save_file);
+    }
+
     static public void main(String[] args) { new PolysemousWord2Vec(args); }
 }
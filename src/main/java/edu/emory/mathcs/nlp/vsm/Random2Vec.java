@@ -19,6 +19,13 @@ public class Random2Vec extends Word2Vec
         super(args);
     }
 
+    @Override
+    void checkArgs()
+    {
+        super.checkArgs();
+        rejectStream();
+    }
+
     @Override
     public void train(List<String> filenames) throws Exception
     {
@@ -27,8 +34,7 @@ public class Random2Vec extends Word2Vec
         // ------- Austin's code -------------------------------------
         in_vocab = (out_vocab = new Vocabulary());
 
-        List<Reader<String>> readers = getReader(filenames.stream().map(File::new).collect(Collectors.toList()))
-                .splitParallel(thread_size);
+        List<Reader<String>> readers = split(getReader(filenames.stream().map(File::new).collect(Collectors.toList())));
         in_vocab.learnParallel(readers, min_count);
         word_count_train = in_vocab.totalCount();
         // -----------------------------------------------------------
@@ -18,17 +18,12 @@ package edu.emory.mathcs.nlp.vsm;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
-import java.io.IOException;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 import edu.emory.mathcs.nlp.common.util.BinUtils;
@@ -60,6 +55,13 @@ public class SyntacticContextAnalyzer extends Word2Vec
         window = max_skip_window;
     }
 
+    @Override
+    void checkArgs()
+    {
+        super.checkArgs();
+        rejectStream();
+    }
+
 
     String getWordLabel(NLPNode word)
     {
@@ -80,53 +82,33 @@ public class SyntacticContextAnalyzer extends Word2Vec
         }
 
         //run
-        List<Reader<NLPNode>> train_readers;
-        List<Reader<NLPNode>> readers;
+        BinUtils.LOG.info("Reading vocabulary:\n");
 
-            BinUtils.LOG.info("Reading vocabulary:\n");
+        in_vocab = (out_vocab = new Vocabulary());
 
-            in_vocab = (out_vocab = new Vocabulary());
+        Reader<NLPNode> reader = new DEPTreeReader(filenames.stream().map(File::new).collect(Collectors.toList()));
+        ForkJoinPool pool = new ForkJoinPool(thread_size);
 
-            readers = new DEPTreeReader(filenames.stream().map(File::new).collect(Collectors.toList()))
-                    .splitParallel(thread_size);
-            train_readers = evaluate ? readers.subList(0,thread_size-1) : readers;
+        if (read_vocab_file == null) pool.submit(() -> in_vocab.learn(reader.addFeature(this::getWordLabel).sentences(), min_count)).get();
+        else                          in_vocab.readVocab(new File(read_vocab_file), min_count);
+        pool.submit(() -> out_vocab.learn(reader.addFeature(this::getWordLabel).sentences(), min_count)).get();
+        word_count_train = in_vocab.totalCount();
+        // -----------------------------------------------------------
 
-            if (read_vocab_file == null) in_vocab.learnParallel(train_readers.stream()
-                                                                .map(r -> r.addFeature(this::getWordLabel))
-                                                                .collect(Collectors.toList()), min_count);
-            else                          in_vocab.readVocab(new File(read_vocab_file), min_count);
-            out_vocab.learnParallel(train_readers.stream()
-                    .map(r -> r.addFeature(this::getWordLabel))
-                    .collect(Collectors.toList()), min_count);
-            word_count_train = in_vocab.totalCount();
-            // -----------------------------------------------------------
-
-            BinUtils.LOG.info(String.format("- types = %d, tokens = %d\n", in_vocab.size(), word_count_train));
+        BinUtils.LOG.info(String.format("- types = %d, tokens = %d\n", in_vocab.size(), word_count_train));
 
         BinUtils.LOG.info("Training vectors:");
         word_count_global = 0;
-        ExecutorService executor = Executors.newFixedThreadPool(thread_size);
 
         start_time = System.currentTimeMillis();
         BinUtils.LOG.info("time" + start_time   + "\n");
 
-
-        int id = 0;
-        for (Reader<NLPNode> r: train_readers)
-        {
-            r.open();
-            executor.execute(new ContextAnalyzeTask(r,id));
-            id++;
-        }
-
-
-        executor.shutdown();
-
-        try { executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS); }
-        catch (InterruptedException e) {e.printStackTrace();}
-
-        for (Reader<NLPNode> r: train_readers)
-            r.close();
+        // parallel streams run on the pool they are submitted from
+        pool.submit(() -> reader.sentences().forEach(words -> {
+            for (int index=0; index<words.size(); index++)
+                measureContext(words, index);
+        })).get();
+        pool.shutdown();
 
         BinUtils.LOG.info("Writing output of things.\n");
 
@@ -143,55 +125,6 @@ public class SyntacticContextAnalyzer extends Word2Vec
 
     }
 
-    class ContextAnalyzeTask implements Runnable
-    {
-        protected Reader<NLPNode> reader;
-        protected int id;
-        protected float last_progress = 0;
-        protected long num_sentences = 0;
-
-        /* Tasks are each parameterized by a reader which is dedicated to a section of the corpus
-         * (not necesarily one file). The corpus is split to divide it evenly between Tasks without breaking up sentences. */
-        public ContextAnalyzeTask(Reader<NLPNode> reader, int id)
-        {
-            this.reader = reader;
-            this.id = id;
-        }
-
-        @Override
-        public void run()
-        {
-            int     index;
-            List<NLPNode> words = null;
-            Map<NLPNode,Set<NLPNode>> sargs;
-
-
-            BinUtils.LOG.info("Entering while Loop");
-
-            while (true)
-            {
-                try {
-                    words = reader.next();
-                    word_count_global += words == null ? 0 : words.size();
-                } catch (IOException e) {
-                    System.err.println("Reader failure: progress "+reader.progress());
-                    e.printStackTrace();
-                    System.exit(1);
-                }
-
-                if (words == null)
-                {
-                    break;
-                }
-
-                for (index=0; index<words.size(); index++){
-                    //context here
-                    measureContext(words, index);
-                }
-            }
-        }
-    }
-
    boolean equalsAny(String s1, String[] sArr)
    {
         for(String s : sArr)
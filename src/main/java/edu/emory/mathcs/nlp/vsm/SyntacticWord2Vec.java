@@ -15,21 +15,14 @@
  */
 package edu.emory.mathcs.nlp.vsm;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Random;
-import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -38,10 +31,15 @@ import java.util.stream.Collectors;
 import edu.emory.mathcs.nlp.common.random.XORShiftRandom;
 import edu.emory.mathcs.nlp.common.util.BinUtils;
 import edu.emory.mathcs.nlp.component.template.node.NLPNode;
+import edu.emory.mathcs.nlp.vsm.context.ContextBuffer;
+import edu.emory.mathcs.nlp.vsm.context.ContextExtractor;
+import edu.emory.mathcs.nlp.vsm.context.ContextExtractors;
+import edu.emory.mathcs.nlp.vsm.context.PairCorpus;
 import edu.emory.mathcs.nlp.vsm.optimizer.HierarchicalSoftmax;
 import edu.emory.mathcs.nlp.vsm.optimizer.NegativeSampling;
 import edu.emory.mathcs.nlp.vsm.reader.Reader;
 import edu.emory.mathcs.nlp.vsm.reader.DEPTreeReader;
+import edu.emory.mathcs.nlp.vsm.util.VectorWriter;
 import edu.emory.mathcs.nlp.vsm.util.Vocabulary;
 
 /**
@@ -52,10 +50,22 @@ import edu.emory.mathcs.nlp.vsm.util.Vocabulary;
 public class SyntacticWord2Vec extends Word2Vec
 {
     private static final long serialVersionUID = -5597377581114506257L;
-    int window;
+    /* One model per structure; all models share the vocabularies and the optimizer. Model 0 is also kept in W and V. */
+    transient String[] structures;
+    transient ContextExtractor[] extractors;
+    transient float[][] Ws, Vs;
+
     public SyntacticWord2Vec(String[] args) {
         super(args);
-        window = max_skip_window;
+    }
+
+    @Override
+    void checkArgs()
+    {
+        super.checkArgs();
+        rejectStream();
+        if (precisionType() != null) throw new IllegalArgumentException(getClass().getSimpleName()+" does not support -precision "+precision+".");
+        if (weight_file != null) throw new IllegalArgumentException(getClass().getSimpleName()+" does not support -weight-file.");
     }
 
     /*String getWordLabel(NLPNode word)
@@ -75,6 +85,10 @@ public class SyntacticWord2Vec extends Word2Vec
     @Override
     public void train(List<String> filenames) throws Exception
     {
+        // fields of this class are not initialized yet since training is called by the super constructor
+        structures = structure == null ? new String[]{"dep"} : structureIsList ? structure.split("\\s*,\\s*") : new String[]{structure};
+        extractors = new ContextExtractor[structures.length];
+        for (int k=0; k<structures.length; k++) extractors[k] = ContextExtractors.compile(structures[k], max_skip_window);
 
         Reader<NLPNode> test_reader = null;
         List<Reader<NLPNode>> train_readers;
@@ -85,10 +99,9 @@ public class SyntacticWord2Vec extends Word2Vec
 
             in_vocab = (out_vocab = new Vocabulary());
 
-            readers = new DEPTreeReader(filenames.stream().map(File::new).collect(Collectors.toList()))
-                    .splitParallel(thread_size);
-            train_readers = evaluate ? readers.subList(0,thread_size-1) : readers;
-            test_reader   = evaluate ? readers.get(thread_size-1)       : null;
+            readers = split(new DEPTreeReader(filenames.stream().map(File::new).collect(Collectors.toList())));
+            train_readers = evaluate ? readers.subList(0,readers.size()-1) : readers;
+            test_reader   = evaluate ? readers.get(readers.size()-1)       : null;
 
             if (read_vocab_file == null) in_vocab.learnParallel(train_readers.stream()
                                                                 .map(r -> r.addFeature(this::getWordLabel))
@@ -101,26 +114,36 @@ public class SyntacticWord2Vec extends Word2Vec
             // -----------------------------------------------------------
 
             BinUtils.LOG.info(String.format("- types = %d, tokens = %d\n", in_vocab.size(), word_count_train));
+            logDuplicates();
 
             BinUtils.LOG.info("Initializing neural network.\n");
-            initNeuralNetwork();
+            initModels();
         } else {
             BinUtils.LOG.info("Loading Model\n");
-            ObjectInputStream objin = new ObjectInputStream(new FileInputStream(model_file));
-            VSMModel model = (VSMModel) objin.readObject();
-            objin.close();
-            in_vocab = model.getIn_vocab();
-            out_vocab = model.getOut_vocab();
-            W = model.getW();
-            V = model.getV();
-            readers = new DEPTreeReader(filenames.stream().map(File::new).collect(Collectors.toList()))
-                    .splitParallel(thread_size);
-            train_readers = evaluate ? readers.subList(0,thread_size-1) : readers;
+            loadModel(new File(model_file));
+            initModels();
+            readers = split(new DEPTreeReader(filenames.stream().map(File::new).collect(Collectors.toList())));
+            train_readers = evaluate ? readers.subList(0,readers.size()-1) : readers;
         }
 
         BinUtils.LOG.info("Initializing optimizer.\n");
         optimizer = isNegativeSampling() ? new NegativeSampling(in_vocab, sigmoid, vector_size, negative_size) : new HierarchicalSoftmax(in_vocab, sigmoid, vector_size);
 
+        PairCorpus pair_corpus = null;
+
+        if (pairs && cbow)
+            BinUtils.LOG.info("Pairs do not keep the contexts of each token together; training CBOW from the trees.\n");
+        else if (pairs && structures.length > 1)
+            BinUtils.LOG.info("Pairs are extracted for one structure; training multiple structures from the trees.\n");
+        else if (pairs)
+        {
+            BinUtils.LOG.info("Extracting pairs:\n");
+            pair_corpus = new PairCorpus(pair_file == null ? null : new File(pair_file), thread_size);
+            pair_corpus.extract(train_readers, extractors[0], n -> out_vocab.indexOf(getWordLabel(n)), n -> in_vocab.indexOf(getWordLabel(n)), pair_corpus.hashCode());
+            // the learning rate decays over the pairs instead of the words
+            word_count_train = pair_corpus.pairCount();
+        }
+
         BinUtils.LOG.info("Training vectors:");
         word_count_global = 0;
         alpha_global      = alpha_init;
@@ -131,12 +154,18 @@ public class SyntacticWord2Vec extends Word2Vec
         start_time = System.currentTimeMillis();
 
         int id = 0;
-        for (Reader<NLPNode> r: train_readers)
+        if (pair_corpus != null)
+        {
+            for (PairCorpus.Chunk chunk : pair_corpus.chunks())
+                executor.execute(new PairTrainTask(chunk, id++));
+        }
+        else for (Reader<NLPNode> r: train_readers)
         {
             r.open();
             executor.execute(new SynTrainTask(r,id));
             id++;
         }
+        trainer_size = Math.min(id, thread_size);   // pair chunks can outnumber the threads
         if (evaluate & model_file == null)
         {
             test_reader.open();
@@ -151,28 +180,62 @@ public class SyntacticWord2Vec extends Word2Vec
 
         for (Reader<NLPNode> r: train_readers)
             r.close();
+        if (pair_corpus != null) pair_corpus.close();
         if (evaluate & model_file == null) test_reader.close();
 
-        BinUtils.LOG.info("Saving word vectors.\n");
+        for (int k=0; k<structures.length; k++)
+        {
+            W = Ws[k];
+            V = Vs[k];
+            saveAll(k);
+        }
 
-        save(new File(output_file));
-        save2(new File(output_file+".2"));
+        W = Ws[0];
+        V = Vs[0];
+
+        // the vocabulary is shared by all structures
         if (write_vocab_file != null)
         {
-            System.out.println("USING " + write_vocab_file);
             File f = new File(write_vocab_file);
             if (!f.isFile()) f.createNewFile();
             in_vocab.writeVocab(f);
         }
-        if (feature_file != null) saveFeatures(new File(feature_file));
+    }
+
+    /** Saves the current model, W and V, of the k'th structure; the output files are followed by the structure if there are several. */
+    void saveAll(int k) throws IOException
+    {
+        String suffix = structures.length == 1 ? "" : "."+structures[k];
+        String output_file = this.output_file + suffix;
+        BinUtils.LOG.info("Saving word vectors: "+output_file+"\n");
+
+        save(new File(output_file));
+        save2(new File(output_file+".2"));
+        if (feature_file != null) saveFeatures(new File(feature_file + suffix));
 
         BinUtils.LOG.info("Saving model.\n");
-        VSMModel model = new VSMModel(W, V, in_vocab, out_vocab);
-        FileOutputStream out = new FileOutputStream(output_file + ".model");
-        ObjectOutputStream object = new ObjectOutputStream(out);
-        object.writeObject(model);
-        object.close();
-        out.close();
+        Properties hyperparameters = hyperparameters();
+        hyperparameters.setProperty("structure", structures[k]);
+        MappedModel.write(new File(output_file + ".model"), vector_size, in_vocab, out_vocab, W, V, hyperparameters);
+    }
+
+    /**
+     * Creates one model per structure; the first model is the current W and V.
+     * New models start from the same random weights so that structures are compared from the same initialization.
+     */
+    void initModels()
+    {
+        if (W == null) initNeuralNetwork();
+        Ws = new float[structures.length][];
+        Vs = new float[structures.length][];
+        Ws[0] = W;
+        Vs[0] = V;
+
+        for (int k=1; k<structures.length; k++)
+        {
+            Ws[k] = W.clone();
+            Vs[k] = V.clone();
+        }
     }
 
     class SynTrainTask implements Runnable
@@ -193,13 +256,15 @@ public class SyntacticWord2Vec extends Word2Vec
         @Override
         public void run()
         {
-            Random rand  = new XORShiftRandom(reader.hashCode());
+            // each structure draws its own samples from the same seed, as if it were trained alone
+            Random[] rands = new Random[extractors.length];
+            for (int k=0; k<rands.length; k++) rands[k] = new XORShiftRandom(id+1);
             float[] neu1  = cbow ? new float[vector_size] : null;
             float[] neu1e = new float[vector_size];
+            ContextBuffer contexts = new ContextBuffer(n -> in_vocab.indexOf(getWordLabel(n)));
             int     iter  = 0;
-            int     index;
+            int     index, word_index, k;
             List<NLPNode> words = null;
-            Map<NLPNode,Set<NLPNode>> sargs;
 
             while (true)
             {
@@ -223,15 +288,24 @@ public class SyntacticWord2Vec extends Word2Vec
                     continue;
                 }
 
-                sargs = getSemanticArgumentMap(words);
+                contexts.setSentence(words);
 
                 for (index=0; index<words.size(); index++)
                 {
-                    if (cbow) Arrays.fill(neu1, 0);
-                    Arrays.fill(neu1e, 0);
+                    word_index = wordIndex(words, index, contexts);
+                    if (word_index < 0) continue;
+
+                    // the sentence is parsed once and the contexts of each structure train its own model
+                    for (k=0; k<extractors.length; k++)
+                    {
+                        contexts.clear();
+                        extractors[k].extract(words, index, contexts);
+                        if (cbow) Arrays.fill(neu1, 0);
+                        Arrays.fill(neu1e, 0);
 
-                    if (cbow) bagOfWords(words, index, rand, neu1e, neu1, sargs);
-                    else      skipGram  (words, index, rand, neu1e, sargs);
+                        if (cbow) bagOfWords(word_index, contexts, Ws[k], Vs[k], rands[k], neu1e, neu1);
+                        else      skipGram  (word_index, contexts, Ws[k], Vs[k], rands[k], neu1e);
+                    }
                 }
 
                 // output progress
@@ -250,6 +324,63 @@ public class SyntacticWord2Vec extends Word2Vec
     }
 
 
+    /** Trains skip-gram on one chunk of precomputed pairs for all epochs. */
+    class PairTrainTask implements Runnable
+    {
+        private final PairCorpus.Chunk chunk;
+        private final int id;
+
+        public PairTrainTask(PairCorpus.Chunk chunk, int id)
+        {
+            this.chunk = chunk;
+            this.id = id;
+        }
+
+        @Override
+        public void run()
+        {
+            Random rand  = new XORShiftRandom(chunk.hashCode());
+            float[] neu1e = new float[vector_size];
+            float last_progress = 0;
+            long i, size = chunk.size();
+            int  k, l1, iter, count = 0;
+
+            for (iter=0; iter<train_iteration; iter++)
+            {
+                for (i=0; i<size; i++)
+                {
+                    l1 = chunk.context(i) * vector_size;
+                    Arrays.fill(neu1e, 0);
+                    optimizer.learnSkipGram(rand, chunk.target(i), W, V, neu1e, alpha_global, l1);
+
+                    // hidden -> input
+                    for (k=0; k<vector_size; k++) W[l1+k] += neu1e[k];
+
+                    if (++count == 10000)
+                    {
+                        word_count_global += count;
+                        count = 0;
+                        adjustLearningRate();
+                    }
+                }
+
+                // output progress
+                if (id == 0)
+                {
+                    float progress = (iter + 1f) / train_iteration;
+                    if (progress - last_progress > 0.025f)
+                    {
+                        outputProgress(System.currentTimeMillis(), progress);
+                        last_progress = progress;
+                    }
+                }
+            }
+
+            word_count_global += count;
+        }
+    }
+
+
     class SynTestTask extends SynTrainTask
     {
         public SynTestTask(Reader<NLPNode> reader, int id)
@@ -263,8 +394,9 @@ public class SyntacticWord2Vec extends Word2Vec
             Random rand  = new XORShiftRandom(reader.hashCode());
             float[] neu1  = cbow ? new float[vector_size] : null;
             float[] neu1e = new float[vector_size];
+            ContextBuffer contexts = new ContextBuffer(n -> in_vocab.indexOf(getWordLabel(n)));
             int     iter  = 0;
-            int     index;
+            int     index, word_index;
             List<NLPNode> words = null;
 
             while (true)
@@ -290,192 +422,62 @@ public class SyntacticWord2Vec extends Word2Vec
                     continue;
                 }
 
+                contexts.setSentence(words);
+
                 for (index=0; index<words.size(); index++)
                 {
+                    word_index = wordIndex(words, index, contexts);
+                    if (word_index < 0) continue;
+
+                    // the held-out section is always evaluated on dependents
+                    contexts.clear();
+                    ContextExtractors.DEPENDENTS.extract(words, index, contexts);
                     if (cbow) Arrays.fill(neu1, 0);
                     Arrays.fill(neu1e, 0);
 
-                    if (cbow) testBagOfWords(words, index, rand, neu1e, neu1);
-                    else      testSkipGram  (words, index, rand, neu1e);
+                    if (cbow) testBagOfWords(word_index, contexts, rand, neu1e, neu1);
+                    else      testSkipGram  (word_index, contexts, rand, neu1e);
                 }
             }
         }
     }
 
-    Set<NLPNode> getContext(String structure, NLPNode word, List<NLPNode> words, int index)
+    /** @return the output vocabulary index of the index'th word, reusing the label of the buffer when both vocabularies are the same. */
+    int wordIndex(List<NLPNode> words, int index, ContextBuffer contexts)
     {
-        return addContext(new HashSet<NLPNode>(), structure, word, words, index);
+        return in_vocab == out_vocab ? contexts.label(index) : out_vocab.indexOf(getWordLabel(words.get(index)));
     }
 
-
-    Set<NLPNode> addContext(Set<NLPNode> context_words, String structure, NLPNode word, List<NLPNode> words, int index)
+    void bagOfWords(int word_index, ContextBuffer contexts, float[] W, float[] V, Random rand, float[] neu1e, float[] neu1)
     {
-        switch(structure)
+        int i, k, l, wc = contexts.size();
+        if (wc == 0) return;
+
+        // input -> hidden
+        for (i=0; i<wc; i++)
         {
-            case "dep1h":
-                if(word.getDependencyHead() != null)    context_words.add(word.getDependencyHead());
-            case "dep1":
-                context_words.addAll(word.getDependentList());
-                break;
-
-            case "dep2h":
-                if(word.getDependencyHead() != null)    context_words.add(word.getDependencyHead());
-            case "dep2":
-                context_words.add(word.getDependencyHead());
-                context_words.addAll(word.getGrandDependentList());
-                break;
-
-            case "srlargs":
-                //Not implemented TODO
-                //addSRLNodes(word, context_words, sargs);
-                break;
-
-            case "sib2dep1":
-                context_words.addAll(word.getDependentList());
-                if(word.getRightNearestSibling()!= null)    context_words.add(word.getRightNearestSibling());
-                if(word.getLeftNearestSibling()!= null)     context_words.add(word.getLeftNearestSibling());
-                if(word.getRightNearestSibling()!= null)
-                    if(word.getRightNearestSibling().getRightNearestSibling() != null)
-                        context_words.add(word.getRightNearestSibling().getRightNearestSibling());
-                if(word.getLeftNearestSibling()!= null)
-                    if(word.getLeftNearestSibling().getLeftNearestSibling() != null)
-                        context_words.add(word.getLeftNearestSibling().getLeftNearestSibling());
-                break;
-
-            case "sib2dep2":
-                context_words.addAll(word.getDependentList());
-                context_words.addAll(word.getGrandDependentList());
-                if(word.getRightNearestSibling()!= null)    context_words.add(word.getRightNearestSibling());
-                if(word.getLeftNearestSibling()!= null)     context_words.add(word.getLeftNearestSibling());
-                if(word.getRightNearestSibling()!= null)
-                    if(word.getRightNearestSibling().getRightNearestSibling() != null)
-                        context_words.add(word.getRightNearestSibling().getRightNearestSibling());
-                if(word.getLeftNearestSibling()!= null)
-                    if(word.getLeftNearestSibling().getLeftNearestSibling() != null)
-                        context_words.add(word.getLeftNearestSibling().getLeftNearestSibling());
-                break;
-
-            case "sib1dep2":
-                context_words.addAll(word.getDependentList());
-                context_words.addAll(word.getGrandDependentList());
-                if(word.getRightNearestSibling()!= null)    context_words.add(word.getRightNearestSibling());
-                if(word.getLeftNearestSibling()!= null)     context_words.add(word.getLeftNearestSibling());
-                break;
-
-            case "sib1dep1h":
-                if(word.getDependencyHead() != null)    context_words.add(word.getDependencyHead());
-            case "sib1dep1":
-                context_words.addAll(word.getDependentList());
-                if(word.getRightNearestSibling()!= null)    context_words.add(word.getRightNearestSibling());
-                if(word.getLeftNearestSibling()!= null)     context_words.add(word.getLeftNearestSibling());
-                break;
-            case "sib2":
-                if(word.getRightNearestSibling()!= null)
-                    if(word.getRightNearestSibling().getRightNearestSibling() != null)
-                        context_words.add(word.getRightNearestSibling().getRightNearestSibling());
-                if(word.getLeftNearestSibling()!= null)
-                    if(word.getLeftNearestSibling().getLeftNearestSibling() != null)
-                        context_words.add(word.getLeftNearestSibling().getLeftNearestSibling());
-            case "sib1":
-                if(word.getRightNearestSibling()!= null)    context_words.add(word.getRightNearestSibling());
-                if(word.getLeftNearestSibling()!= null)     context_words.add(word.getLeftNearestSibling());
-                break;
-            case "allSibilings":
-                context_words.addAll(getAllSiblings(word));
-                break;
-            case "w2v":
-            default:
-                int i, j, l;
-                for (i=-window,j=index+i; i<=window; i++,j++)
-                {
-                    if      (i == 0 || words.size() <= j || j < 0) continue;
-                    else    context_words.add(words.get(i));
-                }
+            l = contexts.get(i) * vector_size;
+            for (k=0; k<vector_size; k++) neu1[k] += W[k+l];
         }
 
-        return context_words;
-    }
-
-    void bagOfWords(List<NLPNode> words, int index, Random rand, float[] neu1e, float[] neu1, Map<NLPNode,Set<NLPNode>> sargs) {
-        int k, l, wc = 0;
-        NLPNode word = words.get(index);
-        int word_index = out_vocab.indexOf(getWordLabel(word));
-        if (word_index < 0) return;
-
-        Set<NLPNode> context_words = getContext(structure, word, words, word_index);
+        for (k=0; k<vector_size; k++) neu1[k] /= wc;
+        optimizer.learnBagOfWords(rand, word_index, V, neu1, neu1e, alpha_global);
 
         // hidden -> input
-        for (NLPNode context : context_words)
+        for (i=0; i<wc; i++)
         {
-            int context_index = in_vocab.indexOf(getWordLabel(context));
-            l = context_index * vector_size;
-
+            l = contexts.get(i) * vector_size;
             for (k=0; k<vector_size; k++) W[k+l] += neu1e[k];
         }
     }
 
-    void skipGram(List<NLPNode> words, int index, Random rand, float[] neu1e, Map<NLPNode,Set<NLPNode>> sargs) {
-        int k, l1;
-        NLPNode word = words.get(index);
-        int word_index = out_vocab.indexOf(getWordLabel(word));
-        if (word_index < 0) return;
-
-        Set<NLPNode> context_words = new HashSet<NLPNode>();
-        
-        //add other types of context structures
-        if(structure.equals("dep")) {
-            context_words.addAll(word.getDependentList());
-        }
-        if(structure.equals("deph")) {
-            context_words.addAll(word.getDependentList());
-        	if(word.getDependencyHead() != null) context_words.add(word.getDependencyHead());
-        }
-        if(structure.equals("dep2")) {
-            context_words.addAll(word.getDependentList());
-        	context_words.addAll(word.getGrandDependentList());
-        }
-        if(structure.equals("dep2h")) {
-            context_words.addAll(word.getDependentList());
-        	context_words.add(word.getDependencyHead());
-        	context_words.addAll(word.getGrandDependentList());
-        }
-        if(structure.equals("srlarguments")) {
-            context_words.addAll(word.getDependentList());
-        	addSRLNodes(word, context_words, sargs);
-        }
-        if(structure.equals("closestSiblings")){
-            context_words.addAll(word.getDependentList());
-        	if(word.getRightNearestSibling()!= null) context_words.add(word.getRightNearestSibling());
-        	if(word.getLeftNearestSibling()!= null) context_words.add(word.getLeftNearestSibling());
-        }
-        if(structure.equals("allSibilings")) {
-            context_words.addAll(word.getDependentList());
-        	context_words.addAll(getAllSiblings(word));
-        }
-        if(structure.equals("w2vdep")) {
-            context_words.addAll(word.getDependentList());
-            int i, j;
+    void skipGram(int word_index, ContextBuffer contexts, float[] W, float[] V, Random rand, float[] neu1e)
+    {
+        int i, k, l1;
 
-            for (i=-window,j=index+i; i<=window; i++,j++)
-            {
-                if (i == 0 || words.size() <= j || j < 0) continue;
-                
-                l1 = out_vocab.indexOf(getWordLabel(words.get(j))) * vector_size;
-                Arrays.fill(neu1e, 0);
-                optimizer.learnSkipGram(rand, word_index, W, V, neu1e, alpha_global, l1);
-
-                // hidden -> input
-                for (k=0; k<vector_size; k++) W[l1+k] += neu1e[k];
-            }        
-        }
-        
-        
-        for (NLPNode context : context_words)
+        for (i=0; i<contexts.size(); i++)
         {
-            int context_index = in_vocab.indexOf(getWordLabel(context));
-            if (context_index < 0) continue;
-
-            l1 = context_index * vector_size;
+            l1 = contexts.get(i) * vector_size;
             Arrays.fill(neu1e, 0);
             optimizer.learnSkipGram(rand, word_index, W, V, neu1e, alpha_global, l1);
 
@@ -484,87 +486,28 @@ public class SyntacticWord2Vec extends Word2Vec
         }
     }
 
-    void addSRLNodes(NLPNode word, Set<NLPNode> context_words, Map<NLPNode,Set<NLPNode>> sargs) {
-        Set<NLPNode> set = sargs.get(word);
-        if (set != null)
-        {
-            for (NLPNode s: set){
-                context_words.add(s);
-            }
-         }
-    }
-
-    Set<NLPNode> getAllSiblings(NLPNode node){
-        Set<NLPNode> siblings = new HashSet<NLPNode>();
-        int id = node.getID();
-        if(node.getDependencyHead() == null) return siblings;
-
-        for(NLPNode sib : node.getDependencyHead().getDependentList()) {
-            if(id != sib.getID())
-                siblings.add(sib);
-        }
-        return siblings;
-    }
-
-    Map<NLPNode,Set<NLPNode>> getSemanticArgumentMap(List<NLPNode> nodes)
+    void testBagOfWords(int word_index, ContextBuffer contexts, Random rand, float[] neu1e, float[] neu1)
     {
-        Map<NLPNode,Set<NLPNode>> map = new HashMap<>();
-        Set<NLPNode> args;
-        NLPNode node;
-
-        for (int i=1; i<nodes.size(); i++)
-        {
-            node = nodes.get(i);
-            args = node.getSemanticHeadList().stream().map(a -> a.getNode()).collect(Collectors.toSet());
-            map.put(node, args);
-        }
-
-        return map;
-    }
-
-
-    void testBagOfWords(List<NLPNode> words, int index, Random rand, float[] neu1e, float[] neu1) {
-        int k, l, wc = 0;
-        NLPNode word = words.get(index);
-        int word_index = out_vocab.indexOf(getWordLabel(word));
-        if (word_index < 0) return;
-
-        Set<NLPNode> context_words = new HashSet<NLPNode>();
-        context_words.addAll(word.getDependentList());
+        int i, k, l, wc = contexts.size();
+        if (wc == 0) return;
 
         // input -> hidden
-        for (NLPNode context : context_words)
+        for (i=0; i<wc; i++)
         {
-            int context_index = in_vocab.indexOf(getWordLabel(context));
-            if (context_index < 0) continue;
-            l = context_index * vector_size;
+            l = contexts.get(i) * vector_size;
             for (k=0; k<vector_size; k++) neu1[k] += W[k+l];
-            wc++;
         }
 
-        if (wc == 0) return;
         for (k=0; k<vector_size; k++) neu1[k] /= wc;
         optimizer.testBagOfWords(rand, word_index, V, neu1, neu1e, alpha_global);
     }
 
-    void testSkipGram(List<NLPNode> words, int index, Random rand, float[] neu1e)
+    void testSkipGram(int word_index, ContextBuffer contexts, Random rand, float[] neu1e)
     {
-        int l1;
-        NLPNode word = words.get(index);
-        int word_index = out_vocab.indexOf(getWordLabel(word));
-        if (word_index < 0) return;
-
-        Set<NLPNode> context_words = new HashSet<NLPNode>();
-        context_words.addAll(word.getDependentList());
-
-        for (NLPNode context : context_words)
+        for (int i=0; i<contexts.size(); i++)
         {
-            int context_index = in_vocab.indexOf(getWordLabel(context));
-            if (context_index < 0) continue;
-
-            l1 = context_index * vector_size;
             Arrays.fill(neu1e, 0);
-            optimizer.testSkipGram(rand, word_index, W, V, neu1e, alpha_global, l1);
+            optimizer.testSkipGram(rand, word_index, W, V, neu1e, alpha_global, contexts.get(i) * vector_size);
         }
     }
 
@@ -587,21 +530,10 @@ public class SyntacticWord2Vec extends Word2Vec
         return map;
     }
 
+    /** Saves the output vectors in vocabulary order, straight from V. */
     public void save2(File save_file) throws IOException
     {
-        if (!save_file.isFile()) save_file.createNewFile();
-
-        Map<String,float[]> map = toMap2(normalize);
-        BufferedWriter out = new BufferedWriter(new FileWriter(save_file));
-
-        for (String word : map.keySet())
-        {
-            out.write(word+"\t");
-            for (float f : map.get(word))
-                out.write(f+"\t");
-            out.write("\n");
-        }
-        out.close();
+        new VectorWriter(V, vector_size, out_vocab.size(), i -> out_vocab.get(i).form, i -> i * vector_size).write(save_file, binary, normalize, thread_size);
     }
 
     static public void main(String[] args) { new SyntacticWord2Vec(args); }
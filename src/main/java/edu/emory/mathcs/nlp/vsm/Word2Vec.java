@@ -20,13 +20,22 @@ import edu.emory.mathcs.nlp.common.util.BinUtils;
 import edu.emory.mathcs.nlp.common.util.FileUtils;
 import edu.emory.mathcs.nlp.common.util.MathUtils;
 import edu.emory.mathcs.nlp.common.util.Sigmoid;
-import edu.emory.mathcs.nlp.vsm.evaluate.TopNQueue;
+import edu.emory.mathcs.nlp.vsm.evaluate.VecFeatures;
 import edu.emory.mathcs.nlp.vsm.optimizer.HierarchicalSoftmax;
 import edu.emory.mathcs.nlp.vsm.optimizer.NegativeSampling;
 import edu.emory.mathcs.nlp.vsm.optimizer.Optimizer;
+import edu.emory.mathcs.nlp.vsm.reader.Prefetcher;
 import edu.emory.mathcs.nlp.vsm.reader.Reader;
 import edu.emory.mathcs.nlp.vsm.reader.SentenceReader;
+import edu.emory.mathcs.nlp.vsm.reader.SpillCache;
+import edu.emory.mathcs.nlp.vsm.reader.StreamReader;
+import edu.emory.mathcs.nlp.vsm.util.FingerprintSet;
+import edu.emory.mathcs.nlp.vsm.util.HalfMatrix;
+import edu.emory.mathcs.nlp.vsm.util.MappedMatrix;
+import edu.emory.mathcs.nlp.vsm.util.QuantizedVectors;
+import edu.emory.mathcs.nlp.vsm.util.VectorWriter;
 import edu.emory.mathcs.nlp.vsm.util.Vocabulary;
+import edu.emory.mathcs.nlp.vsm.util.WeightMatrix;
 import org.kohsuke.args4j.Option;
 
 import java.io.*;
@@ -47,13 +56,21 @@ public class Word2Vec implements Serializable
 	String feature_file = null;
     @Option(name="-structure", usage="If set, use the context structure specificed.", required=false, metaVar="<string>")
 	String structure = null;
-    @Option(name="-structureIsList", usage="If set, treat the structure variable as a list of structures", required=false, metaVar="<boolean>")
+    @Option(name="-structureIsList", usage="If set, treat the structure variable as a comma-separated list of structures, training one model per structure in a single pass.", required=false, metaVar="<boolean>")
     boolean structureIsList = false;
+    @Option(name="-pairs", usage="If set, extract the (target, context) pairs of the structure once and train skip-gram on the pairs for all epochs.", required=false, metaVar="<boolean>")
+    boolean pairs = false;
+    @Option(name="-pair-file", usage="file prefix to save the shuffled pair chunks of -pairs (default: temporary files).", required=false, metaVar="<filename>")
+    String pair_file = null;
     /* End child options */
 
     /* Files */
-    @Option(name="-train", usage="path to the context file or the directory containing the context files.", required=true, metaVar="<String>")
+    @Option(name="-train", usage="path to the context file or the directory containing the context files; \"-\" reads the training data from stdin.", required=true, metaVar="<String>")
     String train_path = null;
+    @Option(name="-stream", usage="If set, read the training file as an unbounded stream (e.g., a named pipe) that is read only once.", required=false, metaVar="<boolean>")
+    boolean stream = false;
+    @Option(name="-spill-file", usage="file prefix to cache a streamed corpus as word ids for later epochs (default: temporary files).", required=false, metaVar="<filename>")
+    String spill_file = null;
     @Option(name="-output", usage="output files.", required=true, metaVar="<filename>")
     String output_file = null;
     @Option(name="-load-model", usage="If set, a preexisting model and vocab are loaded from the path specified.", required = false, metaVar="<filename>")
@@ -90,6 +107,18 @@ public class Word2Vec implements Serializable
     boolean cbow = false;
     @Option(name="-normalize", usage="If set, normalize each vector.", required=false, metaVar="<boolean>")
     boolean normalize = false;
+    @Option(name="-binary", usage="If set, save the resulting vectors in the binary format of word2vec.", required=false, metaVar="<boolean>")
+    boolean binary = false;
+    @Option(name="-quantize", usage="If set, also save the vectors compressed to the output file followed by the type: \"fp16\", \"int8\", or \"pq\" (product quantization).", required=false, metaVar="<string>")
+    String quantize = null;
+    @Option(name="-pq-subspaces", usage="number of subspaces of -quantize pq, each encoded in one byte (default: size/4).", required=false, metaVar="<int>")
+    int pq_subspaces = 0;
+    @Option(name="-precision", usage="precision of W and V during training: \"fp32\" (default), \"fp16\", or \"bf16\". 16-bit weights are updated in 32 bits and rounded back stochastically.", required=false, metaVar="<string>")
+    String precision = "fp32";
+    @Option(name="-weight-file", usage="If set, train W and V out of core in the memory-mapped files of this prefix followed by \".W\" and \".V\", which are deleted after saving.", required=false, metaVar="<filename>")
+    String weight_file = null;
+    @Option(name="-hot-mb", usage="memory budget in megabytes for the rows of the most frequent words kept in memory with -weight-file (default: 1024).", required=false, metaVar="<int>")
+    int hot_mb = 1024;
     @Option(name="-save-iter", usage="If set, save the model at each iteration.", required=false, metaVar="<boolean>")
     boolean saveIter = false;
     /* End Training Options */
@@ -103,6 +132,18 @@ public class Word2Vec implements Serializable
 
     @Option(name="-threads", usage="number of threads (default: 12).", required=false, metaVar="<int>")
     int thread_size = 12;
+    @Option(name="-decoders", usage="number of threads dedicated to reading and parsing sentences ahead of the trainers (default: 0, trainers read their own sentences).", required=false, metaVar="<int>")
+    int decoder_size = 0;
+    @Option(name="-prefetch-size", usage="maximum number of decoded sentences waiting for the trainers (default: 8192).", required=false, metaVar="<int>")
+    int prefetch_size = 8192;
+    @Option(name="-shard-by-file", usage="If set, split the training files into size-balanced groups of whole files, one per thread, instead of splitting the corpus at byte offsets.", required=false, metaVar="<boolean>")
+    boolean shard_by_file = false;
+    @Option(name="-dedup", usage="If set, remove repeated sentences while reading the vocabulary: \"exact\" or \"normalized\" (ignoring case, punctuation, and spacing).", required=false, metaVar="<string>")
+    String dedup = null;
+    @Option(name="-dedup-bloom", usage="If set, use a Bloom filter for -dedup, which never runs out of memory but may remove a few unique sentences.", required=false, metaVar="<boolean>")
+    boolean dedup_bloom = false;
+    @Option(name="-dedup-mb", usage="memory budget in megabytes for the sentence fingerprints of -dedup (default: 256).", required=false, metaVar="<int>")
+    int dedup_mb = 256;
 
 
     final float ALPHA_MIN_RATE  = 0.0001f;
@@ -119,11 +160,15 @@ public class Word2Vec implements Serializable
     long word_count_train;
     float subsample_size;
     Optimizer optimizer;
+    transient Prefetcher<String> prefetcher;
+    transient FingerprintSet fingerprints;
 
     volatile long word_count_global;    // word count dynamically updated by all threads
+    int trainer_size;                   // number of trainer tasks, which is less than the threads if there are fewer readers
     volatile float alpha_global;        // learning rate dynamically updated by all threads
     volatile public float[] W;            // weights between the input and the hidden layers
     volatile public float[] V;            // weights between the hidden and the output layers
+    transient WeightMatrix W_store, V_store;    // W and V with -precision or -weight-file; W and V are null while training
 
     long start_time;
 
@@ -131,9 +176,16 @@ public class Word2Vec implements Serializable
     {
         BinUtils.initArgs(args, this);
         sigmoid = new Sigmoid();
+        checkArgs();
 
         try
         {
+            if (stream || train_path.equals("-"))
+            {
+                trainStream(train_path.equals("-") ? System.in : new FileInputStream(train_path));
+                return;
+            }
+
             List<String> filenames = new ArrayList<String>();
             if(isFileList != null)
             {
@@ -158,6 +210,61 @@ public class Word2Vec implements Serializable
         return new SentenceReader(files);
     }
 
+    /**
+     * Splits the reader into one reader per thread, either at byte offsets or by whole files (see -shard-by-file).
+     * If -dedup is set, the readers share one fingerprint set so that duplicates are removed across all of them.
+     */
+    <T> List<Reader<T>> split(Reader<T> reader)
+    {
+        reader = removeDuplicates(reader);
+        return shard_by_file ? reader.splitBySize(thread_size) : reader.splitParallel(thread_size);
+    }
+
+    /**
+     * Validates the combination of the command-line options before training.
+     * Subclasses that do not support an option reject it here, before any input is read.
+     * @throws IllegalArgumentException if the options cannot be used together.
+     */
+    void checkArgs()
+    {
+        if (quantize != null) quantizeType();
+        if (pq_subspaces < 0 || pq_subspaces > vector_size) throw new IllegalArgumentException("-pq-subspaces must be between 1 and the vector size "+vector_size+": "+pq_subspaces);
+        if (precisionType() != null && evaluate) throw new IllegalArgumentException("-precision "+precision+" does not support -evaluate.");
+        if (weight_file != null && evaluate) throw new IllegalArgumentException("-weight-file does not support -evaluate.");
+        if (weight_file != null && precisionType() != null) throw new IllegalArgumentException("-weight-file does not support -precision "+precision+".");
+    }
+
+    /** @throws IllegalArgumentException if the input is a stream, which this class does not train on. */
+    void rejectStream()
+    {
+        if (stream || "-".equals(train_path))
+            throw new IllegalArgumentException(getClass().getSimpleName()+" does not support streaming input.");
+    }
+
+    /** @return the reader removing repeated sentences if -dedup is set; otherwise, the reader itself. */
+    <T> Reader<T> removeDuplicates(Reader<T> reader)
+    {
+        return createFingerprints() ? reader.removeDuplicates(fingerprints, dedup.equals("normalized")) : reader;
+    }
+
+    /** @return true if -dedup is set, in which case a new fingerprint set is created. */
+    boolean createFingerprints()
+    {
+        if (dedup == null) return false;
+
+        if (!dedup.equals("exact") && !dedup.equals("normalized"))
+            throw new IllegalArgumentException("Unknown -dedup mode: "+dedup);
+
+        fingerprints = FingerprintSet.create(dedup_bloom, (long)dedup_mb << 20);
+        return true;
+    }
+
+    void logDuplicates()
+    {
+        if (fingerprints != null)
+            BinUtils.LOG.info(String.format("- duplicate sentences removed = %d of %d\n", fingerprints.duplicateCount(), fingerprints.duplicateCount() + fingerprints.uniqueCount()));
+    }
+
     public void train(List<String> filenames) throws Exception
     {
         List<Reader<String>> readers;
@@ -169,32 +276,25 @@ public class Word2Vec implements Serializable
 
             in_vocab = (out_vocab = new Vocabulary());
 
-            readers = getReader(filenames.stream().map(File::new).collect(Collectors.toList()))
-                    .splitParallel(thread_size);
-            train_readers = evaluate ? readers.subList(0,thread_size-1) : readers;
-            test_reader   = evaluate ? readers.get(thread_size-1)          : null;
+            readers = split(getReader(filenames.stream().map(File::new).collect(Collectors.toList())));
+            train_readers = evaluate ? readers.subList(0,readers.size()-1) : readers;
+            test_reader   = evaluate ? readers.get(readers.size()-1)          : null;
 
             if (read_vocab_file == null) in_vocab.learnParallel(train_readers, min_count);
             else                          in_vocab.readVocab(new File(read_vocab_file), min_count);
             // -----------------------------------------------------------
 
             BinUtils.LOG.info(String.format("- types = %d, tokens = %d\n", in_vocab.size(), word_count_train));
+            logDuplicates();
 
             BinUtils.LOG.info("Initializing neural network.\n");
-            initNeuralNetwork();
+            initWeights();
         } else {
             BinUtils.LOG.info("Loading Model\n");
-            ObjectInputStream objin = new ObjectInputStream(new FileInputStream(model_file));
-            VSMModel model = (VSMModel) objin.readObject();
-            objin.close();
-            in_vocab = model.getIn_vocab();
-            out_vocab = model.getOut_vocab();
-            W = model.getW();
-            V = model.getV();
-            readers = getReader(filenames.stream().map(File::new).collect(Collectors.toList()))
-                    .splitParallel(thread_size);
-            train_readers = evaluate ? readers.subList(0,thread_size-1) : readers;
-            test_reader   = evaluate ? readers.get(thread_size-1)          : null;
+            loadModel(new File(model_file));
+            readers = split(getReader(filenames.stream().map(File::new).collect(Collectors.toList())));
+            train_readers = evaluate ? readers.subList(0,readers.size()-1) : readers;
+            test_reader   = evaluate ? readers.get(readers.size()-1)          : null;
         }
 
         word_count_train = in_vocab.totalCount();
@@ -212,7 +312,15 @@ public class Word2Vec implements Serializable
         start_time = System.currentTimeMillis();
 
         int id = 0;
-        for (Reader<String> r: train_readers)
+        trainer_size = train_readers.size();
+        if (decoder_size > 0)
+        {
+            prefetcher = new Prefetcher<>(train_readers, in_vocab::indexOf, decoder_size, train_iteration, prefetch_size);
+            prefetcher.start();
+            for (; id<train_readers.size(); id++)
+                executor.execute(new PrefetchTrainTask(id));
+        }
+        else for (Reader<String> r: train_readers)
         {
             r.open();
             executor.execute(new TrainTask(r,id));
@@ -231,6 +339,11 @@ public class Word2Vec implements Serializable
 
         // -----------------------------------------------------------
 
+        if (prefetcher != null)
+        {
+            BinUtils.LOG.info(prefetcher.stats(trainer_size)+"\n");
+            prefetcher.close();
+        }
         for (Reader<String> r: train_readers) r.close();
         if (evaluate) test_reader.close();
 
@@ -246,8 +359,88 @@ public class Word2Vec implements Serializable
         // out.close();
     }
 
+    /**
+     * Trains on a stream that is read only once. Without a vocabulary file (-read-vocab),
+     * the first pass learns the vocabulary while spilling the sentences as word ids to
+     * a cache, from which the prefetcher decodes all epochs for the trainer threads.
+     * With a vocabulary file and a single epoch, the stream is decoded directly and nothing is spilled.
+     * Subclasses train on other structures or parameters, thus reject streams in {@link #checkArgs()}.
+     */
+    public void trainStream(InputStream in) throws Exception
+    {
+        in_vocab = (out_vocab = new Vocabulary());
+        StreamReader stream = new StreamReader(in);
+        if (createFingerprints()) stream.removeDuplicates(fingerprints, dedup.equals("normalized"));
+        SpillCache cache = null;
+        List<Prefetcher.Source> sources;
+
+        if (read_vocab_file != null)
+        {
+            BinUtils.LOG.info("Reading vocabulary:\n");
+            in_vocab.readVocab(new File(read_vocab_file), min_count);
+            word_count_train = in_vocab.totalCount();
+        }
+
+        if (read_vocab_file != null && train_iteration == 1)
+        {
+            sources = Collections.singletonList(stream.source(in_vocab::indexOf, word_count_train));
+        }
+        else
+        {
+            cache = new SpillCache(spill_file != null ? new File(spill_file) : null, Math.max(1, decoder_size));
+
+            if (read_vocab_file == null)
+            {
+                BinUtils.LOG.info("Reading vocabulary:\n");
+                cache.spill(stream, in_vocab::addIndex);
+                cache.map(in_vocab.sortAndMap(min_count));
+                word_count_train = in_vocab.totalCount();
+            }
+            else cache.spill(stream, in_vocab::indexOf);
+
+            sources = cache.sources();
+        }
+
+        BinUtils.LOG.info(String.format("- types = %d, tokens = %d\n", in_vocab.size(), word_count_train));
+
+        BinUtils.LOG.info("Initializing neural network.\n");
+        initWeights();
+
+        BinUtils.LOG.info("Initializing optimizer.\n");
+        optimizer = isNegativeSampling() ? new NegativeSampling(in_vocab, sigmoid, vector_size, negative_size) : new HierarchicalSoftmax(in_vocab, sigmoid, vector_size);
+
+        BinUtils.LOG.info("Training vectors:");
+        word_count_global = 0;
+        alpha_global      = alpha_init;
+        subsample_size    = subsample_threshold * word_count_train;
+        ExecutorService executor = Executors.newFixedThreadPool(thread_size);
+        start_time = System.currentTimeMillis();
+
+        prefetcher = new Prefetcher<>(sources, Math.max(1, decoder_size), train_iteration, prefetch_size);
+        prefetcher.start();
+        trainer_size = thread_size;
+        for (int id=0; id<trainer_size; id++)
+            executor.execute(new PrefetchTrainTask(id));
+
+        executor.shutdown();
+
+        try { executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS); }
+        catch (InterruptedException e) {e.printStackTrace();}
+
+        BinUtils.LOG.info(prefetcher.stats(trainer_size)+"\n");
+        BinUtils.LOG.info(String.format("- sentences = %d, bytes = %d\n", stream.sentenceCount(), stream.bytesRead()));
+        logDuplicates();
+        prefetcher.close();
+        stream.close();
+        if (cache != null) cache.close();
+
+        saveModel();
+    }
+
     void saveModel()
     {
+        if (W_store != null && weight_file == null) { W = W_store.toFloats(); V = V_store.toFloats(); }
+
         try{
             BinUtils.LOG.info("Saving word vectors.\n");
             save(new File(output_file));
@@ -260,13 +453,10 @@ public class Word2Vec implements Serializable
 
             if (feature_file != null) saveFeatures(new File(feature_file));
             BinUtils.LOG.info("Saving model.\n");
-            VSMModel model = new VSMModel(W, V, in_vocab, out_vocab);
-            FileOutputStream out = new FileOutputStream(output_file + ".model");
-            ObjectOutputStream object = new ObjectOutputStream(out);
-            object.writeObject(model);
-            object.close();
-            out.close();
+            writeModel(new File(output_file + ".model"));
         } catch (Exception e) {e.printStackTrace();}
+
+        closeWeightStores();
     }
 
     void saveModel(int id)
@@ -282,15 +472,74 @@ public class Word2Vec implements Serializable
             }
 
             BinUtils.LOG.info("Saving model " + id + ".\n");
-            VSMModel model = new VSMModel(W, V, in_vocab, out_vocab);
-            FileOutputStream out = new FileOutputStream(output_file + ".model." + id);
-            ObjectOutputStream object = new ObjectOutputStream(out);
-            object.writeObject(model);
-            object.close();
-            out.close();
+            writeModel(new File(output_file + ".model." + id));
         } catch (Exception e) {e.printStackTrace();}
     }
 
+    /** Saves W, V, the vocabularies, and the hyperparameters as a {@link MappedModel}. */
+    void writeModel(File model_file) throws IOException
+    {
+        if (W != null) MappedModel.write(model_file, vector_size, in_vocab, out_vocab, W, V, hyperparameters());
+        else           MappedModel.write(model_file, vector_size, in_vocab, out_vocab, W_store, V_store, hyperparameters());
+    }
+
+    /**
+     * Loads W, V, and the vocabularies from either a {@link MappedModel} or a serialized {@link VSMModel}.
+     * A mapped model is paged into W and V directly without deserializing; with -precision or -weight-file,
+     * it is paged into W_store and V_store row by row without building W and V on the heap.
+     */
+    void loadModel(File model_file) throws IOException, ClassNotFoundException
+    {
+        if (MappedModel.isMappedModel(model_file))
+        {
+            try (MappedModel model = MappedModel.open(model_file))
+            {
+                vector_size = model.vectorSize();
+                in_vocab  = model.inVocab();
+                out_vocab = model.outVocab();
+
+                if (precisionType() != null || weight_file != null)
+                {
+                    createWeightStores();
+                    model.loadW(W_store, thread_size);
+                    model.loadV(V_store, thread_size);
+                }
+                else
+                {
+                    W = model.loadW(thread_size);
+                    V = model.loadV(thread_size);
+                }
+            }
+        }
+        else
+        {
+            ObjectInputStream objin = new ObjectInputStream(new FileInputStream(model_file));
+            VSMModel model = (VSMModel) objin.readObject();
+            objin.close();
+            in_vocab  = model.getIn_vocab();
+            out_vocab = model.getOut_vocab();
+            W = model.getW();
+            V = model.getV();
+            if (precisionType() != null || weight_file != null) toWeightStores();
+        }
+    }
+
+    /** @return the hyperparameters saved with the model. */
+    Properties hyperparameters()
+    {
+        Properties p = new Properties();
+        p.setProperty("model"   , getClass().getSimpleName());
+        p.setProperty("size"    , Integer.toString(vector_size));
+        p.setProperty("window"  , Integer.toString(max_skip_window));
+        p.setProperty("sample"  , Float.toString(subsample_threshold));
+        p.setProperty("negative", Integer.toString(negative_size));
+        p.setProperty("w"       , Integer.toString(train_iteration));
+        p.setProperty("min-count", Integer.toString(min_count));
+        p.setProperty("alpha"   , Float.toString(alpha_init));
+        p.setProperty("cbow"    , Boolean.toString(cbow));
+        return p;
+    }
+
     class TrainTask implements Runnable
     {
         // ------- Austin ----------------------
@@ -315,6 +564,8 @@ public class Word2Vec implements Serializable
 
             float[] neu1  = cbow ? new float[vector_size] : null;
             float[] neu1e = new float[vector_size];
+            float[] syn0  = W_store != null ? new float[vector_size] : null;
+            float[] row   = W_store != null ? new float[vector_size] : null;
             int     iter  = 0;
             int     index, window;
             int[]   words;
@@ -340,8 +591,13 @@ public class Word2Vec implements Serializable
                     if (cbow) Arrays.fill(neu1, 0);
                     Arrays.fill(neu1e, 0);
 
-                    if (cbow) bagOfWords(words, index, window, rand, neu1e, neu1);
-                    else      skipGram  (words, index, window, rand, neu1e);
+                    if (W_store != null)
+                    {
+                        if (cbow) bagOfWords(words, words.length, index, window, rand, neu1e, neu1, row);
+                        else      skipGram  (words, words.length, index, window, rand, neu1e, syn0, row);
+                    }
+                    else if (cbow) bagOfWords(words, words.length, index, window, rand, neu1e, neu1);
+                    else           skipGram  (words, words.length, index, window, rand, neu1e);
                 }
 
                 // output progress
@@ -359,6 +615,78 @@ public class Word2Vec implements Serializable
         }
     }
 
+    /* Consumes sentences decoded by the prefetcher instead of reading them itself;
+     * the sentences of all epochs come through the same prefetcher. */
+    class PrefetchTrainTask implements Runnable
+    {
+        private int id;
+        private float last_progress = 0;
+
+        public PrefetchTrainTask(int id)
+        {
+            this.id = id;
+        }
+
+        @Override
+        public void run()
+        {
+            Random  rand  = new XORShiftRandom(id+1);
+
+            float[] neu1  = cbow ? new float[vector_size] : null;
+            float[] neu1e = new float[vector_size];
+            float[] syn0  = W_store != null ? new float[vector_size] : null;
+            float[] row   = W_store != null ? new float[vector_size] : null;
+            int     iter  = 0;
+            int     index, window, length;
+            int[]   words;
+            Prefetcher.Sentence sentence;
+
+            while ((sentence = prefetcher.take()) != null)
+            {
+                if (sentence.epoch != iter)
+                {
+                    iter = sentence.epoch;
+                    adjustLearningRate();
+                }
+
+                // sub-sampling happens in place, the sentence is ours until recycled
+                words  = sentence.words;
+                length = 0;
+                for (index=0; index<sentence.length; index++)
+                    if (!subsample(in_vocab, words[index], rand)) words[length++] = words[index];
+                word_count_global += sentence.length;
+
+                for (index=0; index<length; index++)
+                {
+                    window = 1 + rand.nextInt() % max_skip_window;    // dynamic window size
+                    if (cbow) Arrays.fill(neu1, 0);
+                    Arrays.fill(neu1e, 0);
+
+                    if (W_store != null)
+                    {
+                        if (cbow) bagOfWords(words, length, index, window, rand, neu1e, neu1, row);
+                        else      skipGram  (words, length, index, window, rand, neu1e, syn0, row);
+                    }
+                    else if (cbow) bagOfWords(words, length, index, window, rand, neu1e, neu1);
+                    else           skipGram  (words, length, index, window, rand, neu1e);
+                }
+
+                prefetcher.recycle(sentence);
+
+                // output progress
+                if(id == 0)
+                {
+                    float progress = prefetcher.progress();
+                    if(progress-last_progress > 0.025f)
+                    {
+                        outputProgress(System.currentTimeMillis(), progress);
+                        last_progress += 0.1f;
+                    }
+                }
+            }
+        }
+    }
+
     // -------------- Austin's code ------------------------------------------------------
 
     class TestTask extends TrainTask
@@ -416,9 +744,11 @@ public class Word2Vec implements Serializable
 
         System.out.println("Alpha: "+ String.format("%1$,.4f",alpha_global)+" "+
                 "Progress: "+ String.format("%1$,.1f", progress * 100) + "% "+
-                "Words/thread/sec: " + (int)(word_count_global / thread_size / time_seconds) +" "+
+                "Words/thread/sec: " + (int)(word_count_global / Math.max(1, trainer_size) / time_seconds) +" "+
                 "Estimated Time Left: " +time_left_hours +":"+String.format("%02d",time_left_remainder) +" "+
                 "Memory Usage: " + (int)(memory_usage/(1024*1024)) +"M");
+        if (prefetcher != null) System.out.println(prefetcher.stats(trainer_size));
+        if (W_store != null && W_store.stats() != null) System.out.println("W "+W_store.stats()+" V "+V_store.stats());
     }
 
     // -----------------------------------------------------------------------------------
@@ -429,14 +759,15 @@ public class Word2Vec implements Serializable
         alpha_global = alpha_init * rate;
     }
 
-    void bagOfWords(int[] words, int index, int window, Random rand, float[] neu1e, float[] neu1)
+    /** @param length - number of words in the sentence; words beyond it are ignored. */
+    void bagOfWords(int[] words, int length, int index, int window, Random rand, float[] neu1e, float[] neu1)
     {
         int i, j, k, l, wc = 0, word = words[index];
 
         // input -> hidden
         for (i=-window,j=index+i; i<=window; i++,j++)
         {
-            if (i == 0 || words.length <= j || j < 0) continue;
+            if (i == 0 || length <= j || j < 0) continue;
             l = words[j] * vector_size;
             for (k=0; k<vector_size; k++) neu1[k] += W[k+l];
             wc++;
@@ -449,19 +780,20 @@ public class Word2Vec implements Serializable
         // hidden -> input
         for (i=-window,j=index+i; i<=window; i++,j++)
         {
-            if (i == 0 || words.length <= j || j < 0) continue;
+            if (i == 0 || length <= j || j < 0) continue;
             l = words[j] * vector_size;
             for (k=0; k<vector_size; k++) W[k+l] += neu1e[k];
         }
     }
 
-    void skipGram(int[] words, int index, int window, Random rand, float[] neu1e)
+    /** @param length - number of words in the sentence; words beyond it are ignored. */
+    void skipGram(int[] words, int length, int index, int window, Random rand, float[] neu1e)
     {
         int i, j, k, l1, word = words[index];
 
         for (i=-window,j=index+i; i<=window; i++,j++)
         {
-            if (i == 0 || words.length <= j || j < 0) continue;
+            if (i == 0 || length <= j || j < 0) continue;
             l1 = words[j] * vector_size;
             Arrays.fill(neu1e, 0);
             optimizer.learnSkipGram(rand, word, W, V, neu1e, alpha_global, l1);
@@ -471,6 +803,50 @@ public class Word2Vec implements Serializable
         }
     }
 
+    /** Same as {@link #bagOfWords(int[], int, int, int, Random, float[], float[])} on W_store and V_store; row is a buffer of the size of a vector. */
+    void bagOfWords(int[] words, int length, int index, int window, Random rand, float[] neu1e, float[] neu1, float[] row)
+    {
+        int i, j, k, wc = 0, word = words[index];
+
+        // input -> hidden
+        for (i=-window,j=index+i; i<=window; i++,j++)
+        {
+            if (i == 0 || length <= j || j < 0) continue;
+            W_store.getRow(words[j], row);
+            for (k=0; k<vector_size; k++) neu1[k] += row[k];
+            wc++;
+        }
+
+        if (wc == 0) return;
+        for (k=0; k<vector_size; k++) neu1[k] /= wc;
+        optimizer.learnBagOfWords(rand, word, V_store, neu1, neu1e, row, alpha_global);
+
+        // hidden -> input
+        for (i=-window,j=index+i; i<=window; i++,j++)
+        {
+            if (i == 0 || length <= j || j < 0) continue;
+            W_store.addRow(words[j], neu1e, rand.nextInt());
+        }
+    }
+
+    /** Same as {@link #skipGram(int[], int, int, int, Random, float[])} on W_store and V_store; syn0 and row are buffers of the size of a vector. */
+    void skipGram(int[] words, int length, int index, int window, Random rand, float[] neu1e, float[] syn0, float[] row)
+    {
+        int i, j, k, word = words[index];
+
+        for (i=-window,j=index+i; i<=window; i++,j++)
+        {
+            if (i == 0 || length <= j || j < 0) continue;
+            W_store.getRow(words[j], syn0);
+            Arrays.fill(neu1e, 0);
+            optimizer.learnSkipGram(rand, word, syn0, V_store, neu1e, row, alpha_global);
+
+            // hidden -> input
+            for (k=0; k<vector_size; k++) syn0[k] += neu1e[k];
+            W_store.setRow(words[j], syn0, rand.nextInt());
+        }
+    }
+
 //    =================================== Helper Methods ===================================
 
     boolean isNegativeSampling()
@@ -478,6 +854,96 @@ public class Word2Vec implements Serializable
         return negative_size > 0;
     }
 
+    /** @return the 16-bit precision of -precision, or null for 32 bits. */
+    HalfMatrix.Precision precisionType()
+    {
+        if (precision.equalsIgnoreCase("fp32")) return null;
+        try { return HalfMatrix.Precision.valueOf(precision.toUpperCase()); }
+        catch (IllegalArgumentException e) { throw new IllegalArgumentException("Unknown -precision: "+precision); }
+    }
+
+    /**
+     * Initializes W and V as {@link #initNeuralNetwork()}, directly in 16 bits if -precision is set,
+     * or in memory-mapped files if -weight-file is set.
+     */
+    void initWeights() throws IOException
+    {
+        if (!createWeightStores())
+        {
+            initNeuralNetwork();
+            return;
+        }
+
+        Random rand = new XORShiftRandom(1);
+
+        for (long i=0; i<W_store.size(); i++)
+            W_store.set(i, (float)((rand.nextDouble() - 0.5) / vector_size));
+    }
+
+    /**
+     * Creates W_store and V_store of zeros in 16 bits if -precision is set, or in memory-mapped files if -weight-file is set.
+     * @return false if neither is set, in which case nothing is created.
+     */
+    boolean createWeightStores() throws IOException
+    {
+        HalfMatrix.Precision p = precisionType();
+
+        if (weight_file != null)
+        {
+            W_store = new MappedMatrix(new File(weight_file+".W"), in_vocab.size(),  vector_size, hotRows());
+            V_store = new MappedMatrix(new File(weight_file+".V"), out_vocab.size(), vector_size, hotRows());
+        }
+        else if (p != null)
+        {
+            W_store = new HalfMatrix(in_vocab.size()  * vector_size, p);
+            V_store = new HalfMatrix(out_vocab.size() * vector_size, p);
+        }
+        else return false;
+
+        return true;
+    }
+
+    /** Moves W and V to 16 bits or memory-mapped files, e.g., after loading a serialized model. */
+    void toWeightStores() throws IOException
+    {
+        if (weight_file != null)
+        {
+            W_store = toMappedMatrix(W, ".W");
+            V_store = toMappedMatrix(V, ".V");
+        }
+        else
+        {
+            W_store = new HalfMatrix(W, precisionType());
+            V_store = new HalfMatrix(V, precisionType());
+        }
+
+        W = V = null;
+    }
+
+    private MappedMatrix toMappedMatrix(float[] weights, String extension) throws IOException
+    {
+        MappedMatrix matrix = new MappedMatrix(new File(weight_file+extension), weights.length / vector_size, vector_size, hotRows());
+        for (int i=0; i<weights.length; i++) matrix.set(i, weights[i]);
+        return matrix;
+    }
+
+    /** @return the number of rows of each of W and V kept in memory within -hot-mb. */
+    int hotRows()
+    {
+        return (int)Math.min(Integer.MAX_VALUE, ((long)hot_mb << 20) / (2L * vector_size * Float.BYTES));
+    }
+
+    /** Deletes the memory-mapped files of -weight-file once the weights are saved. */
+    void closeWeightStores()
+    {
+        if (weight_file == null || W_store == null) return;
+        BinUtils.LOG.info("W "+W_store.stats()+" V "+V_store.stats()+"\n");
+
+        try { W_store.close(); V_store.close(); }
+        catch (IOException e) { e.printStackTrace(); }
+        W_store = V_store = null;
+    }
+
     /** Initializes weights between the input layer to the hidden layer using random numbers between [-0.5, 0.5]. */
     void initNeuralNetwork()
     {
@@ -513,21 +979,13 @@ public class Word2Vec implements Serializable
         if (words == null) return null;
         int[] next = new int[words.size()];
         int i, j, index, count = 0;
-        double d;
 
         for (i=0,j=0; i<words.size(); i++)
         {
             index = vocab.indexOf(words.get(i));
             if (index < 0) continue;
             count++;
-
-            // sub-sampling: randomly discards frequent words
-            if (subsample_threshold > 0)
-            {
-                d = (Math.sqrt(MathUtils.divide(vocab.get(index).count, subsample_size)) + 1) * (subsample_size / vocab.get(index).count);
-                if (d < rand.nextDouble()) continue;
-            }
-
+            if (subsample(vocab, index, rand)) continue;
             next[j++] = index;
         }
 
@@ -535,6 +993,14 @@ public class Word2Vec implements Serializable
         return (j == 0) ? next(reader, rand, in_layer) : (j == words.size()) ? next : Arrays.copyOf(next, j);
     }
 
+    /** Sub-sampling: randomly discards frequent words. @return true if the word should be discarded. */
+    boolean subsample(Vocabulary vocab, int index, Random rand)
+    {
+        if (subsample_threshold <= 0) return false;
+        double d = (Math.sqrt(MathUtils.divide(vocab.get(index).count, subsample_size)) + 1) * (subsample_size / vocab.get(index).count);
+        return d < rand.nextDouble();
+    }
+
 
     void testBagOfWords(int[] words, int index, int window, Random rand, float[] neu1e, float[] neu1)
     {
@@ -603,47 +1069,42 @@ public class Word2Vec implements Serializable
 
     // ------ Austin's code --------------------------------
 
+    /** Saves the input vectors in vocabulary order, straight from W; see {@link VectorWriter}. */
     public void save(File save_file) throws IOException
     {
-        if (!save_file.isFile()) save_file.createNewFile();
+        if (W != null) save(new VectorWriter(W,       vector_size, in_vocab.size(), i -> in_vocab.get(i).form, i -> i * vector_size), save_file);
+        else           save(new VectorWriter(W_store, vector_size, in_vocab.size(), i -> in_vocab.get(i).form), save_file);
+    }
 
-        Map<String,float[]> map = toMap(normalize);
-        BufferedWriter out = new BufferedWriter(new FileWriter(save_file));
+    /** Saves the vectors of the writer, and their compressed form if -quantize is set. */
+    void save(VectorWriter writer, File save_file) throws IOException
+    {
+        writer.write(save_file, binary, normalize, thread_size);
 
-        for (String word : map.keySet())
+        if (quantize != null)
         {
-            out.write(word+"\t");
-            for (float f : map.get(word))
-                out.write(f+"\t");
-            out.write("\n");
+            int subspaces = pq_subspaces > 0 ? pq_subspaces : Math.max(1, vector_size / 4);
+            writer.writeQuantized(new File(save_file.getPath()+"."+quantize.toLowerCase()), quantizeType(), subspaces, normalize, thread_size);
         }
-        out.close();
     }
 
-    void saveFeatures(File feature_file) throws IOException
+    QuantizedVectors.Type quantizeType()
     {
-        if (!feature_file.isFile())
-            feature_file.createNewFile();
-
-        int N = 100;
-        float value;
-        BufferedWriter out = new BufferedWriter(new FileWriter(feature_file));
+        try { return QuantizedVectors.Type.valueOf(quantize.toUpperCase()); }
+        catch (IllegalArgumentException e) { throw new IllegalArgumentException("Unknown -quantize type: "+quantize); }
+    }
 
-        for (int k=0; k<vector_size; k++)
-        {
-            TopNQueue top = new TopNQueue(N);
-            for (int v=0; v<out_vocab.size(); v++)
-            {
-                value = V[v*vector_size + k] * (float) Math.pow(out_vocab.get(v).count, 0.75);
-                top.add(out_vocab.get(v).form, value);
-            }
-            out.write(k+"\t");
-            for (String s : top.list())
-                out.write(s+"\t");
-            out.write("\n");
-        }
+    /** Saves the 100 output words of the highest values of each component, weighted by the count of each word to the power of 0.75. */
+    void saveFeatures(File feature_file) throws IOException
+    {
+        VecFeatures.saveFeatures(feature_file, out_vocab, vector_size, this::getV, 100, 0.75, thread_size);
+    }
 
-        out.close();
+    /** Copies the output vector of the word to the specific array from either V or V_store. */
+    void getV(int word, float[] vector)
+    {
+        if (V != null) System.arraycopy(V, word * vector_size, vector, 0, vector_size);
+        else V_store.getRow(word, vector);
     }
 
     // -------------------------------------------------------
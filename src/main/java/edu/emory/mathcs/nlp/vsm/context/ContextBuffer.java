@@ -0,0 +1,121 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.context;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+import edu.emory.mathcs.nlp.component.template.node.NLPNode;
+
+/**
+ * Per-thread buffer that collects the vocabulary indices of the context words of one token.
+ * The indices of all nodes are looked up once per sentence, and context nodes are deduplicated
+ * by their IDs with a stamp array, so that collecting contexts neither hashes nor allocates.
+ * Nodes are identified by their IDs, which are their positions in the sentence.
+ */
+public class ContextBuffer
+{
+    private final ToIntFunction<NLPNode> encoder;
+
+    private int[] labels   = new int[64];   // vocabulary index of each node in the sentence
+    private int[] stamps   = new int[64];   // stamp of the last context each node has been added to
+    private int[] contexts = new int[16];
+    private int   sentence_size;
+    private int   size;
+    private int   stamp;
+
+    /** @param encoder - returns the vocabulary index of a node, or a negative number if it is not in the vocabulary. */
+    public ContextBuffer(ToIntFunction<NLPNode> encoder)
+    {
+        this.encoder = encoder;
+    }
+
+    /** Encodes all nodes in the sentence; must be called before collecting contexts in the sentence. */
+    public void setSentence(List<NLPNode> nodes)
+    {
+        sentence_size = nodes.size();
+
+        if (labels.length < sentence_size)
+        {
+            int capacity = Math.max(sentence_size, labels.length*2);
+            labels = new int[capacity];
+            stamps = new int[capacity];
+            stamp  = 0;
+        }
+
+        for (int i=0; i<sentence_size; i++)
+            labels[i] = encoder.applyAsInt(nodes.get(i));
+
+        clear();
+    }
+
+    /** @return the vocabulary index of the index'th node in the current sentence. */
+    public int label(int index)
+    {
+        return labels[index];
+    }
+
+    /** Removes all contexts; called before collecting the contexts of the next token. */
+    public void clear()
+    {
+        size = 0;
+
+        if (++stamp == Integer.MAX_VALUE)
+        {
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+    }
+
+    /**
+     * Adds the node as a context if it is in the vocabulary and has not been added since the last {@link #clear()}.
+     * Null nodes and nodes outside of the current sentence are ignored.
+     */
+    public void add(NLPNode node)
+    {
+        if (node != null) add(node.getID());
+    }
+
+    /** Adds the index'th node of the current sentence as a context; see {@link #add(NLPNode)}. */
+    public void add(int index)
+    {
+        if (index < 0 || index >= sentence_size || stamps[index] == stamp) return;
+        stamps[index] = stamp;
+        int label = labels[index];
+        if (label < 0) return;
+
+        if (size == contexts.length) contexts = Arrays.copyOf(contexts, size*2);
+        contexts[size++] = label;
+    }
+
+    public void addAll(List<NLPNode> nodes)
+    {
+        for (int i=0; i<nodes.size(); i++) add(nodes.get(i));
+    }
+
+    /** @return the number of contexts. */
+    public int size()
+    {
+        return size;
+    }
+
+    /** @return the vocabulary index of the i'th context. */
+    public int get(int i)
+    {
+        return contexts[i];
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.context;
+
+import java.util.List;
+
+import edu.emory.mathcs.nlp.component.template.node.NLPNode;
+
+/**
+ * Strategy that collects the context words of a token for a specific context structure.
+ * Extractors are compiled once from the structure name by {@link ContextExtractors#compile(String, int)}
+ * and shared by all trainer threads; each thread passes its own {@link ContextBuffer}.
+ */
+@FunctionalInterface
+public interface ContextExtractor
+{
+    /**
+     * Adds the context words of the index'th node to the buffer.
+     * @param nodes - the sentence, which has been set to the buffer by {@link ContextBuffer#setSentence(List)}.
+     */
+    void extract(List<NLPNode> nodes, int index, ContextBuffer buffer);
+}
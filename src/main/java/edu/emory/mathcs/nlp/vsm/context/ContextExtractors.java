@@ -0,0 +1,138 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.context;
+
+import java.util.List;
+
+import edu.emory.mathcs.nlp.component.dep.DEPArc;
+import edu.emory.mathcs.nlp.component.template.node.NLPNode;
+
+/**
+ * Context extractors for the structures supported by {@link edu.emory.mathcs.nlp.vsm.SyntacticWord2Vec}.
+ * Each structure name is compiled once into a composition of the primitive extractors below:
+ *  dep, dep1                      - dependents
+ *  deph, dep1h                    - dependents and head
+ *  dep2                           - dependents and grand-dependents
+ *  dep2h                          - dependents, grand-dependents, and head
+ *  srl, srlargs, srlarguments     - dependents and semantic heads
+ *  sib1                           - nearest siblings
+ *  sib2                           - nearest and second nearest siblings
+ *  closestSiblings, sib1dep1      - dependents and nearest siblings
+ *  sib1dep1h                      - dependents, nearest siblings, and head
+ *  sib1dep2, sib2dep1, sib2dep2   - combinations of the above
+ *  allSiblings, allSibilings      - dependents and all siblings
+ *  w2v                            - words within the window
+ *  w2vdep                         - dependents and words within the window
+ */
+public class ContextExtractors
+{
+    static public final ContextExtractor DEPENDENTS = (nodes, index, buffer) -> buffer.addAll(nodes.get(index).getDependentList());
+
+    static public final ContextExtractor GRAND_DEPENDENTS = (nodes, index, buffer) -> buffer.addAll(nodes.get(index).getGrandDependentList());
+
+    static public final ContextExtractor HEAD = (nodes, index, buffer) -> buffer.add(nodes.get(index).getDependencyHead());
+
+    /** Semantic heads are read from the node itself, so no argument map is built for the sentence. */
+    static public final ContextExtractor SEMANTIC_HEADS = (nodes, index, buffer) ->
+    {
+        List<DEPArc> arcs = nodes.get(index).getSemanticHeadList();
+        for (int i=0; i<arcs.size(); i++) buffer.add(arcs.get(i).getNode());
+    };
+
+    static public final ContextExtractor NEAREST_SIBLINGS = (nodes, index, buffer) ->
+    {
+        NLPNode node = nodes.get(index);
+        buffer.add(node.getLeftNearestSibling());
+        buffer.add(node.getRightNearestSibling());
+    };
+
+    static public final ContextExtractor SECOND_NEAREST_SIBLINGS = (nodes, index, buffer) ->
+    {
+        NLPNode node = nodes.get(index), sibling;
+        if ((sibling = node.getLeftNearestSibling())  != null) buffer.add(sibling.getLeftNearestSibling());
+        if ((sibling = node.getRightNearestSibling()) != null) buffer.add(sibling.getRightNearestSibling());
+    };
+
+    static public final ContextExtractor ALL_SIBLINGS = (nodes, index, buffer) ->
+    {
+        NLPNode node = nodes.get(index), head = node.getDependencyHead();
+        if (head == null) return;
+        List<NLPNode> siblings = head.getDependentList();
+
+        for (int i=0; i<siblings.size(); i++)
+            if (siblings.get(i) != node) buffer.add(siblings.get(i));
+    };
+
+    private ContextExtractors() {}
+
+    /** @return the extractor adding the words within the window on each side of the token. */
+    static public ContextExtractor window(int window)
+    {
+        return (nodes, index, buffer) ->
+        {
+            int begin = Math.max(0, index-window), end = Math.min(nodes.size()-1, index+window);
+
+            for (int j=begin; j<=end; j++)
+                if (j != index) buffer.add(j);
+        };
+    }
+
+    /** @return the extractor running all extractors in order. */
+    static public ContextExtractor of(ContextExtractor... extractors)
+    {
+        if (extractors.length == 1) return extractors[0];
+
+        return (nodes, index, buffer) ->
+        {
+            for (ContextExtractor extractor : extractors)
+                extractor.extract(nodes, index, buffer);
+        };
+    }
+
+    /**
+     * @param structure - name of the context structure; see the class description.
+     * @param window - number of words on each side used by the window structures.
+     * @throws IllegalArgumentException if the structure is unknown.
+     */
+    static public ContextExtractor compile(String structure, int window)
+    {
+        switch (structure)
+        {
+            case "dep":
+            case "dep1":            return DEPENDENTS;
+            case "deph":
+            case "dep1h":           return of(DEPENDENTS, HEAD);
+            case "dep2":            return of(DEPENDENTS, GRAND_DEPENDENTS);
+            case "dep2h":           return of(DEPENDENTS, GRAND_DEPENDENTS, HEAD);
+            case "srl":
+            case "srlargs":
+            case "srlarguments":    return of(DEPENDENTS, SEMANTIC_HEADS);
+            case "sib1":            return NEAREST_SIBLINGS;
+            case "sib2":            return of(NEAREST_SIBLINGS, SECOND_NEAREST_SIBLINGS);
+            case "closestSiblings":
+            case "sib1dep1":        return of(DEPENDENTS, NEAREST_SIBLINGS);
+            case "sib1dep1h":       return of(DEPENDENTS, NEAREST_SIBLINGS, HEAD);
+            case "sib1dep2":        return of(DEPENDENTS, GRAND_DEPENDENTS, NEAREST_SIBLINGS);
+            case "sib2dep1":        return of(DEPENDENTS, NEAREST_SIBLINGS, SECOND_NEAREST_SIBLINGS);
+            case "sib2dep2":        return of(DEPENDENTS, GRAND_DEPENDENTS, NEAREST_SIBLINGS, SECOND_NEAREST_SIBLINGS);
+            case "allSiblings":
+            case "allSibilings":    return of(DEPENDENTS, ALL_SIBLINGS);
+            case "w2v":             return window(window);
+            case "w2vdep":          return of(DEPENDENTS, window(window));
+            default: throw new IllegalArgumentException("Unknown context structure: "+structure);
+        }
+    }
+}
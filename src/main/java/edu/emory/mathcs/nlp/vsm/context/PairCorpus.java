@@ -0,0 +1,255 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.context;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+import edu.emory.mathcs.nlp.common.random.XORShiftRandom;
+import edu.emory.mathcs.nlp.common.util.BinUtils;
+import edu.emory.mathcs.nlp.component.template.node.NLPNode;
+import edu.emory.mathcs.nlp.vsm.reader.Reader;
+
+/**
+ * Corpus of (target, context) pairs extracted once from dependency trees, as in word2vecf.
+ * Walking the trees and looking up the vocabulary repeat identically every epoch, so the pairs
+ * of the chosen context structure are written once as pairs of 4-byte little-endian indices.
+ * Each pair goes to a random chunk file and each chunk is shuffled in place afterwards,
+ * so that trainers can map the chunks into memory and run plain SGD over them.
+ *
+ * This example extracts the pairs of 4 readers into 4 chunks and trains one thread per chunk:
+ *  PairCorpus pairs = new PairCorpus(null, 4);
+ *  pairs.extract(readers, extractor, target_encoder, context_encoder, seed);
+ *  for (PairCorpus.Chunk chunk : pairs.chunks()) ...
+ */
+public class PairCorpus implements Closeable
+{
+    static public final int PAIR_BYTES = 8;
+    static private final int  BUFFER_SIZE = 1 << 16;
+    static private final long SEGMENT_PAIRS = 1 << 27;   // pairs per memory-mapped segment (1GB)
+
+    private final File[]  files;
+    private final boolean temporary;
+    private long pair_count = 0;
+
+    /**
+     * @param prefix - chunks are saved to prefix.0, prefix.1, ...; if null, temporary files are used and deleted on close.
+     * @param chunks - number of chunk files.
+     */
+    public PairCorpus(File prefix, int chunks) throws IOException
+    {
+        files     = new File[Math.max(1, chunks)];
+        temporary = prefix == null;
+
+        for (int i=0; i<files.length; i++)
+        {
+            if (temporary) { files[i] = File.createTempFile("pairs", "."+i); files[i].deleteOnExit(); }
+            else files[i] = new File(prefix.getPath()+"."+i);
+        }
+    }
+
+    /**
+     * Extracts the pairs of all tokens from the readers, one thread per reader, then shuffles each chunk.
+     * @param extractor - collects the contexts of each token.
+     * @param targets - returns the index of a target node, or a negative number if it should be skipped.
+     * @param contexts - returns the index of a context node, or a negative number if it should be skipped.
+     * @param seed - seed of the random assignment to chunks and of the shuffling.
+     */
+    public void extract(List<Reader<NLPNode>> readers, ContextExtractor extractor, ToIntFunction<NLPNode> targets, ToIntFunction<NLPNode> contexts, long seed) throws Exception
+    {
+        FileChannel[] out = new FileChannel[files.length];
+        for (int i=0; i<out.length; i++)
+            out[i] = FileChannel.open(files[i].toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, readers.size()));
+        List<Future<?>> futures = new ArrayList<>();
+        LongAdder counter = new LongAdder();
+
+        for (int i=0; i<readers.size(); i++)
+        {
+            Reader<NLPNode> reader = readers.get(i);
+            Random rand = new XORShiftRandom(seed + i);
+            futures.add(executor.submit(() -> { extract(reader, out, extractor, targets, contexts, rand, counter); return null; }));
+        }
+
+        executor.shutdown();
+        for (Future<?> f : futures) f.get();
+        for (FileChannel c : out) c.close();
+        pair_count = counter.sum();
+
+        BinUtils.LOG.info(String.format("Extracted %d pairs\n", pair_count));
+        executor = Executors.newFixedThreadPool(Math.min(files.length, Math.max(1, readers.size())));
+        futures.clear();
+
+        for (int i=0; i<files.length; i++)
+        {
+            Chunk chunk = new Chunk(files[i], true);
+            Random rand = new XORShiftRandom(seed - i - 1);
+            futures.add(executor.submit(() -> { chunk.shuffle(rand); return null; }));
+        }
+
+        executor.shutdown();
+        for (Future<?> f : futures) f.get();
+    }
+
+    private void extract(Reader<NLPNode> reader, FileChannel[] out, ContextExtractor extractor, ToIntFunction<NLPNode> targets, ToIntFunction<NLPNode> contexts, Random rand, LongAdder counter) throws IOException
+    {
+        ByteBuffer[] buffers = new ByteBuffer[out.length];
+        for (int i=0; i<buffers.length; i++) buffers[i] = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        ContextBuffer buffer = new ContextBuffer(contexts);
+        List<NLPNode> nodes;
+        int index, target, i;
+        long count = 0;
+        ByteBuffer b;
+
+        reader.open();
+
+        while ((nodes = reader.next()) != null)
+        {
+            buffer.setSentence(nodes);
+
+            for (index=0; index<nodes.size(); index++)
+            {
+                if ((target = targets.applyAsInt(nodes.get(index))) < 0) continue;
+                buffer.clear();
+                extractor.extract(nodes, index, buffer);
+
+                for (i=0; i<buffer.size(); i++)
+                {
+                    int chunk = rand.nextInt(out.length);
+                    b = buffers[chunk];
+                    b.putInt(target).putInt(buffer.get(i));
+                    if (!b.hasRemaining()) flush(out[chunk], b);
+                }
+
+                count += buffer.size();
+            }
+        }
+
+        reader.close();
+        for (i=0; i<buffers.length; i++) flush(out[i], buffers[i]);
+        counter.add(count);
+    }
+
+    /* Appends the buffer to the channel; writes of multiple threads to the same channel do not interleave. */
+    static private void flush(FileChannel out, ByteBuffer buffer) throws IOException
+    {
+        buffer.flip();
+        synchronized (out) { while (buffer.hasRemaining()) out.write(buffer); }
+        buffer.clear();
+    }
+
+    public long pairCount()
+    {
+        return pair_count;
+    }
+
+    /** @return the chunks, mapped read-only. */
+    public List<Chunk> chunks() throws IOException
+    {
+        List<Chunk> chunks = new ArrayList<>(files.length);
+        for (File f : files) chunks.add(new Chunk(f, false));
+        return chunks;
+    }
+
+    /** Deletes the chunk files if they are temporary. */
+    @Override
+    public void close()
+    {
+        if (temporary) for (File f : files) f.delete();
+    }
+
+    /** Chunk file mapped into memory in segments of at most 1GB. */
+    static public class Chunk
+    {
+        private final MappedByteBuffer[] segments;
+        private final long size;
+
+        public Chunk(File file, boolean writable) throws IOException
+        {
+            try (FileChannel channel = FileChannel.open(file.toPath(), writable ? new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE} : new StandardOpenOption[]{StandardOpenOption.READ}))
+            {
+                size = channel.size() / PAIR_BYTES;
+                segments = new MappedByteBuffer[(int)((size + SEGMENT_PAIRS - 1) / SEGMENT_PAIRS)];
+
+                for (int i=0; i<segments.length; i++)
+                {
+                    long begin = i * SEGMENT_PAIRS, length = Math.min(SEGMENT_PAIRS, size - begin);
+                    segments[i] = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, begin * PAIR_BYTES, length * PAIR_BYTES);
+                    segments[i].order(ByteOrder.LITTLE_ENDIAN);
+                }
+            }
+        }
+
+        /** @return the number of pairs. */
+        public long size()
+        {
+            return size;
+        }
+
+        public int target(long i)
+        {
+            return segments[(int)(i / SEGMENT_PAIRS)].getInt((int)(i % SEGMENT_PAIRS) * PAIR_BYTES);
+        }
+
+        public int context(long i)
+        {
+            return segments[(int)(i / SEGMENT_PAIRS)].getInt((int)(i % SEGMENT_PAIRS) * PAIR_BYTES + 4);
+        }
+
+        /** Shuffles the pairs in place (Fisher-Yates); the chunk must be writable. */
+        void shuffle(Random rand)
+        {
+            long i, j;
+
+            for (i=size-1; i>0; i--)
+            {
+                j = (long)(rand.nextDouble() * (i+1));
+                if (j == i) continue;
+                long a = get(i);
+                set(i, get(j));
+                set(j, a);
+            }
+
+            for (MappedByteBuffer b : segments) b.force();
+        }
+
+        private long get(long i)
+        {
+            return segments[(int)(i / SEGMENT_PAIRS)].getLong((int)(i % SEGMENT_PAIRS) * PAIR_BYTES);
+        }
+
+        private void set(long i, long pair)
+        {
+            segments[(int)(i / SEGMENT_PAIRS)].putLong((int)(i % SEGMENT_PAIRS) * PAIR_BYTES, pair);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.evaluate;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import edu.emory.mathcs.nlp.vsm.util.TopKHeap;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
+
+/**
+ * Answers analogies "a is to b as c is to ?" in batches as a blocked matrix multiplication.
+ * The query vectors b - a + c of the normalized rows are packed into blocks; each thread takes a block of queries
+ * and multiplies it against tiles of the normalized vocabulary matrix that fit in the cache, four queries per row at a time,
+ * and keeps the top-k rows of each query in a {@link TopKHeap}, excluding the rows of the query words.
+ * Since every row is normalized, the dot products rank the rows as their cosine similarities do.
+ *
+ * The search can be restricted to the first rows, which are the most frequent words in the vector files
+ * saved by {@link edu.emory.mathcs.nlp.vsm.Word2Vec} since they are in the order of the vocabulary.
+ *
+ * This example answers "man is to king as woman is to ?" against the 30000 most frequent words:
+ *  AnalogySolver solver = new AnalogySolver(vectors, 30000, 8);
+ *  int[][] top = solver.solve(new int[][]{{vectors.indexOf("man"), vectors.indexOf("king"), vectors.indexOf("woman")}}, 1);
+ *  vectors.label(top[0][0]);
+ */
+public class AnalogySolver
+{
+    static private final int QUERY_BLOCK = 64;    // queries multiplied against each tile of rows
+    static private final int TILE_SIZE   = 1 << 17;   // bytes of rows per tile, which stay in the cache while the block of queries passes over them
+
+    private final VectorStore vectors;
+    private final int         rows;
+    private final int         vector_size;
+    private final int         threads;
+
+    /**
+     * Normalizes the vectors in place.
+     * @param maxRows - number of rows to search, or 0 for all rows.
+     * @param threads - number of threads multiplying blocks of queries.
+     */
+    public AnalogySolver(VectorStore vectors, int maxRows, int threads)
+    {
+        this.vectors = vectors;
+        this.threads = Math.max(1, threads);
+        rows         = maxRows > 0 ? Math.min(maxRows, vectors.size()) : vectors.size();
+        vector_size  = vectors.dimension();
+        vectors.normalize(threads);
+    }
+
+    /** @return the number of rows searched. */
+    public int rows()
+    {
+        return rows;
+    }
+
+    /**
+     * @param questions - rows of the words a, b, and c of each question; a question with a negative row is not answered.
+     * @param k - number of rows to find for each question.
+     * @return the top-k rows of b - a + c for each question in descending order of similarity, excluding a, b, and c,
+     * or null for the questions that are not answered.
+     */
+    public int[][] solve(int[][] questions, int k)
+    {
+        float[] queries = new float[questions.length * vector_size];
+        float[] matrix  = vectors.matrix();
+
+        for (int q=0; q<questions.length; q++)
+        {
+            int[] question = questions[q];
+            if (question[0] < 0 || question[1] < 0 || question[2] < 0) continue;
+            int a = vectors.offset(question[0]), b = vectors.offset(question[1]), c = vectors.offset(question[2]);
+
+            for (int j=0, l=q*vector_size; j<vector_size; j++,l++)
+                queries[l] = matrix[b+j] - matrix[a+j] + matrix[c+j];
+        }
+
+        TopKHeap[] heaps = search(queries, questions, k);
+        int[][] top = new int[questions.length][];
+
+        for (int q=0; q<questions.length; q++)
+            if (questions[q][0] >= 0 && questions[q][1] >= 0 && questions[q][2] >= 0) top[q] = heaps[q].toSortedIds();
+
+        return top;
+    }
+
+    /**
+     * Finds the rows with the highest dot products with each query.
+     * @param queries - query vectors packed in row-major order.
+     * @param excluded - rows excluded from the result of each query.
+     */
+    public TopKHeap[] search(float[] queries, int[][] excluded, int k)
+    {
+        int size   = queries.length / vector_size;
+        int block  = Math.max(1, Math.min(QUERY_BLOCK, (size + threads - 1) / threads));
+        int blocks = (size + block - 1) / block;
+        TopKHeap[] heaps = new TopKHeap[size];
+        for (int q=0; q<size; q++) heaps[q] = new TopKHeap(k);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try { pool.submit(() -> IntStream.range(0, blocks).parallel().forEach(b -> searchBlock(queries, b * block, Math.min(size, (b+1) * block), excluded, heaps))).get(); }
+        catch (InterruptedException | ExecutionException e) { throw new IllegalStateException(e); }
+        finally { pool.shutdown(); }
+
+        return heaps;
+    }
+
+    /** Multiplies the queries [begin, end) against every tile of rows. */
+    private void searchBlock(float[] queries, int begin, int end, int[][] excluded, TopKHeap[] heaps)
+    {
+        int     tile   = Math.max(1, TILE_SIZE / (vector_size * Float.BYTES));
+        float[] scores = new float[(end - begin) * tile];
+        float[] matrix = vectors.matrix();
+        int q, r, length;
+
+        for (int t0=0; t0<rows; t0+=tile)
+        {
+            length = Math.min(tile, rows - t0);
+
+            for (q=begin; q+4<=end; q+=4)
+                dot4(queries, q * vector_size, matrix, t0, length, scores, (q - begin) * tile, tile);
+
+            for (; q<end; q++)
+                dot1(queries, q * vector_size, matrix, t0, length, scores, (q - begin) * tile);
+
+            for (q=begin; q<end; q++)
+            {
+                TopKHeap heap = heaps[q];
+                int[] exclude = excluded != null ? excluded[q] : null;
+                float threshold = heap.threshold();
+
+                for (r=0; r<length; r++)
+                {
+                    float score = scores[(q - begin) * tile + r];
+                    if (score <= threshold || contains(exclude, t0 + r)) continue;
+                    heap.add(t0 + r, score);
+                    threshold = heap.threshold();
+                }
+            }
+        }
+    }
+
+    /** Dot products of 4 consecutive queries with the rows [row, row+length), loading each row once for the 4 queries. */
+    private void dot4(float[] queries, int query, float[] matrix, int row, int length, float[] scores, int offset, int stride)
+    {
+        int q0 = query, q1 = q0 + vector_size, q2 = q1 + vector_size, q3 = q2 + vector_size;
+
+        for (int r=0; r<length; r++)
+        {
+            int m = (row + r) * vector_size;
+            float s0 = 0, s1 = 0, s2 = 0, s3 = 0, v;
+
+            for (int j=0; j<vector_size; j++)
+            {
+                v   = matrix[m+j];
+                s0 += queries[q0+j] * v;
+                s1 += queries[q1+j] * v;
+                s2 += queries[q2+j] * v;
+                s3 += queries[q3+j] * v;
+            }
+
+            scores[offset + r]            = s0;
+            scores[offset + r + stride]   = s1;
+            scores[offset + r + stride*2] = s2;
+            scores[offset + r + stride*3] = s3;
+        }
+    }
+
+    private void dot1(float[] queries, int query, float[] matrix, int row, int length, float[] scores, int offset)
+    {
+        for (int r=0; r<length; r++)
+        {
+            int m = (row + r) * vector_size;
+            float s = 0;
+            for (int j=0; j<vector_size; j++) s += queries[query+j] * matrix[m+j];
+            scores[offset + r] = s;
+        }
+    }
+
+    static private boolean contains(int[] rows, int row)
+    {
+        if (rows == null) return false;
+        for (int r : rows) if (r == row) return true;
+        return false;
+    }
+}
@@ -16,6 +16,9 @@
 package edu.emory.mathcs.nlp.vsm.evaluate;
 
 import edu.emory.mathcs.nlp.common.util.BinUtils;
+import edu.emory.mathcs.nlp.vsm.util.QuantizedVectors;
+import edu.emory.mathcs.nlp.vsm.util.VectorSource;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
 import org.kohsuke.args4j.Option;
 
 import java.io.*;
@@ -34,41 +37,33 @@ public class AnalogyTest
     String output_file = null;
     @Option(name="-test-file", usage="file of tests.", required=false, metaVar="<filename>")
     String test_file = null;
-
-    Map<String,float[]> map = null;
+    @Option(name="-threads", usage="number of threads to use.", required=false, metaVar="<int>")
+    int threads = 4;
+    @Option(name="-max-rows", usage="If set, search only the first rows of the vector file, the most frequent words for vectors saved by Word2Vec.", required=false, metaVar="<int>")
+    int max_rows = 0;
+
+    VectorStore vectors = null;
+    QuantizedVectors quantized = null;   // set instead of the vectors if the input file is quantized
+    VectorSource source = null;          // either of the above
     List<String[]> testList = null;
     Map<String,Map<String,Float>> matrix = new HashMap<>();
 
     public AnalogyTest(String[] args)
     {
         BinUtils.initArgs(args, this);
-        try { map = getVectors(new File(vector_file)); }
+        try
+        {
+            File file = new File(vector_file);
+            if (QuantizedVectors.isQuantized(file)) quantized = QuantizedVectors.open(file);
+            else vectors = VectorStore.load(file, threads);
+            source = quantized != null ? quantized : vectors;
+        }
         catch (IOException e) { System.err.println("Could not load Word2Vec vectors."); e.printStackTrace(); System.exit(1); }
 
         try { testList = getTestList(new File(test_file));}
         catch (IOException e) { System.err.println("Could not read word file."); e.printStackTrace(); System.exit(1);}
     }
 
-    private Map<String,float[]> getVectors(File vector_file) throws IOException
-    {
-        Map<String,float[]> map = new HashMap<>();
-
-        BufferedReader in = new BufferedReader(new FileReader(vector_file));
-        String line;
-        while((line = in.readLine()) != null)
-        {
-            String[] split = line.split("\t");
-            String word = split[0];
-            float[] vector = new float[split.length - 1];
-            for (int i=1; i<split.length; i++)
-                vector[i-1] = Float.parseFloat(split[i]);
-            map.put(word, vector);
-        }
-        in.close();
-
-        return map;
-    }
-
     private List<String[]> getTestList(File test_file) throws IOException
     {
         List<String[]> testList = new ArrayList<String[]>();
@@ -93,9 +88,9 @@ public class AnalogyTest
 
     float[] getTestVector(String w1, String w2, String w3)
     {
-        if(!map.containsKey(w1) || !map.containsKey(w2) || !map.containsKey(w3))
+        if(!source.contains(w1) || !source.contains(w2) || !source.contains(w3))
             return null;
-        return getTestVector(map.get(w1), map.get(w2), map.get(w3));
+        return getTestVector(source.get(w1), source.get(w2), source.get(w3));
     }
 
 
@@ -109,7 +104,6 @@ public class AnalogyTest
 
 
         out.write("+W1 -W2 +W3 =Truth Prediction Correct?\n");
-        float [] tVector = null;
         String prediction = null;
         int total = 0;
         int stotal = 0;
@@ -120,9 +114,10 @@ public class AnalogyTest
         String pos2;
         String gold;
         String lastSection = null;
-        Map<String,float[]> memo = new HashMap<>();
+        String[] predictions = predict();
 
-        for(String[] list : testList){
+        for(int i=0; i<testList.size(); i++){
+            String[] list = testList.get(i);
             if(list[0].charAt(0) == ':'){
                 if(lastSection != null)
                 {
@@ -147,8 +142,7 @@ public class AnalogyTest
             pos2 = list[1].toLowerCase();
             gold = list[3].toLowerCase();
 
-            tVector = getTestVector(pos1, neg1, pos2);
-            prediction = getNearestWord(tVector);
+            prediction = predictions[i];
 
             out.write(pos1 + " " + neg1 + " " + pos2 + " " + gold + " " + prediction);
 
@@ -198,29 +192,85 @@ public class AnalogyTest
         float maxSimilarity = -Float.MAX_VALUE;
         float cos;
 
-        for (String word2 : map.keySet())
+        int row = vectors.indexOf(word);
+
+        for (int i=0; i<vectors.size(); i++)
         {
-            cos = cosine(word, word2);
+            cos = vectors.cosine(row, i);
             if ( cos > maxSimilarity)
             {
-                nearest = word2;
+                nearest = vectors.label(i);
                 maxSimilarity = cos;
             }
         }
         return nearest;
     }
 
-    private String getNearestWord(float[] vector){
+    /**
+     * Answers all tests at once with {@link AnalogySolver}, or one by one on quantized vectors.
+     * @return the prediction of each test in the test list, "OOV" if a word has no vector, or null for section lines.
+     */
+    private String[] predict()
+    {
+        String[] predictions = new String[testList.size()];
+        int[][] questions = new int[testList.size()][];
+
+        for (int i=0; i<testList.size(); i++)
+        {
+            String[] list = testList.get(i);
+            questions[i] = new int[]{-1, -1, -1};
+            if (list[0].charAt(0) == ':') continue;
+            String pos1 = list[2].toLowerCase(), neg1 = list[0].toLowerCase(), pos2 = list[1].toLowerCase();
+
+            if (!source.contains(pos1) || !source.contains(neg1) || !source.contains(pos2))
+                predictions[i] = "OOV";
+            else if (quantized != null)
+                predictions[i] = getNearestWord(getTestVector(pos1, neg1, pos2), pos1, neg1, pos2);
+            else
+                questions[i] = new int[]{vectors.indexOf(neg1), vectors.indexOf(pos1), vectors.indexOf(pos2)};
+        }
+
+        if (quantized != null) return predictions;
+        int[][] top = new AnalogySolver(vectors, max_rows, threads).solve(questions, 1);
+
+        for (int i=0; i<top.length; i++)
+            if (top[i] != null) predictions[i] = top[i].length > 0 ? vectors.label(top[i][0]) : "OOV";
+
+        return predictions;
+    }
+
+    /** @param excluded - words that are not predicted, which are the words of the test. */
+    private String getNearestWord(float[] vector, String... excluded){
         String nearest = null;
         float maxSimilarity = -Float.MAX_VALUE;
         float cos;
 
-        for (String word2 : map.keySet())
+        if (quantized != null)
+        {
+            QuantizedVectors.Scorer scorer = quantized.scorer(vector);
+            List<String> exclude = Arrays.asList(excluded);
+
+            for (int i=0; i<quantized.size(); i++)
+            {
+                if (exclude.contains(quantized.label(i))) continue;
+                cos = scorer.cosine(i);
+                if ( cos > maxSimilarity)
+                {
+                    nearest = quantized.label(i);
+                    maxSimilarity = cos;
+                }
+            }
+            return nearest;
+        }
+
+        float norm = VectorStore.norm(vector);
+
+        for (int i=0; i<vectors.size(); i++)
         {
-            cos = cosine(vector, map.get(word2));
+            cos = vectors.cosine(vector, norm, i);
             if ( cos > maxSimilarity)
             {
-                nearest = word2;
+                nearest = vectors.label(i);
                 maxSimilarity = cos;
             }
         }
@@ -229,7 +279,7 @@ public class AnalogyTest
 
     float cosine(String w1, String w2)
     {
-        return cosine(map.get(w1), map.get(w2));
+        return vectors.cosine(vectors.indexOf(w1), vectors.indexOf(w2));
     }
 
     float cosine(float[] w1, float[] w2)
@@ -252,10 +302,13 @@ public class AnalogyTest
     void buildCosineMatrix()
     {
         float similarity = 0;
-        for(String key : map.keySet())
+        for(int i=0; i<vectors.size(); i++)
         {
-            for(String key2 : map.keySet())
+            String key = vectors.label(i);
+
+            for(int j=0; j<vectors.size(); j++)
             {
+                String key2 = vectors.label(j);
                 if(!matrix.containsKey(key))
                     matrix.put(key, new HashMap<>());
                 if(!matrix.containsKey(key2))
@@ -263,7 +316,7 @@ public class AnalogyTest
                 if(matrix.get(key).containsKey(key2))
                     continue;
 
-                matrix.get(key).put(key2, cosine(key, key2));
+                matrix.get(key).put(key2, vectors.cosine(i, j));
                 if(! key.equals(key2) )
                     matrix.get(key2).put(key, matrix.get(key).get(key2));
             }
@@ -16,20 +16,17 @@
 package edu.emory.mathcs.nlp.vsm.evaluate;
 
 import edu.emory.mathcs.nlp.common.util.BinUtils;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
 import org.kohsuke.args4j.Option;
 
 import java.io.*;
 
 import java.lang.Math;
 
-import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @author Reid Kilgore, Austin Blodgett
@@ -45,257 +42,91 @@ public class AnalogyTestMulti
     String test_file = null;
     @Option(name="-threads", usage="number of threads to use.", required=false, metaVar="<int>")
     int threads = 4;
+    @Option(name="-max-rows", usage="If set, search only the first rows of the vector file, the most frequent words for vectors saved by Word2Vec.", required=false, metaVar="<int>")
+    int max_rows = 0;
 
 
-    Map<String,float[]> map = null;
-    int totalTests;
+    VectorStore vectors = null;
 
     //Not necessary for current implementation yet
     Map<String,Map<String,Float>> matrix = new HashMap<>();
 
-    volatile Map<String,float[]> memo = new HashMap<>();
-    volatile Map<String,int[]> results = new HashMap<>();
-    volatile Map<String,List<String[]>> analogyMap = new HashMap<String,List<String[]>>();
+    Map<String,List<String[]>> analogyMap;
+    EvaluationHarness.Scores scores;
 
 
     public AnalogyTestMulti(String[] args)
     {
         System.out.println("Loading...");
         BinUtils.initArgs(args, this);
-        try { map = getVectors(new File(vector_file)); }
+        try { vectors = VectorStore.load(new File(vector_file), threads); }
         catch (IOException e) { System.err.println("Could not load Word2Vec vectors."); e.printStackTrace(); System.exit(1); }
 
-        try { buildTestMap(new File(test_file));}
+        try { analogyMap = EvaluationHarness.readAnalogies(new File(test_file));}
         catch (IOException e) { System.err.println("Could not read word file."); e.printStackTrace(); System.exit(1);}
 
-        int splitTasks = totalTests/threads;
-
-
         System.out.println("Finished building analogy tests.");
         System.out.println("Running tests.");
+        solve();
 
-        ExecutorService executor = Executors.newFixedThreadPool(threads);
-        int id = 0;
-        int splitter, subTasks;
-        System.out.println("Starting " + analogyMap.keySet().size() + " categories");
-
-        /*  TODO (Reid) - this is too messy, won't result in even task lists,
-        *   not worth the easier updates.
-        */
-        for(String category : analogyMap.keySet())
-        {
-            subTasks = analogyMap.get(category).size();
-            System.out.println(category + " size is " + subTasks);
-            splitter = 0;
-            while( splitter + splitTasks < subTasks )
-            {
-                executor.execute(new AnalogyTask(category, analogyMap.get(category).subList(splitter, splitter + splitTasks), id++));
-                splitter += splitTasks;
-            }
-
-            executor.execute(new AnalogyTask(category, analogyMap.get(category).subList(splitter, subTasks), id++));
-        }
-
-        executor.shutdown();
-        try { executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS); }
-        catch (InterruptedException e) {e.printStackTrace();}
-
-
-        for(String category : results.keySet())
-            System.out.println("I think " + category + " had " + results.get(category)[1] + " correct");
-        try{
-            BufferedWriter out = new BufferedWriter(new FileWriter(output_file));
-            String nl = "\n";
-            String sp = " ";
-
-            for(String category : analogyMap.keySet())
-            {
-                out.write(category + nl);
-                for(String[] analogyResults : analogyMap.get(category))
-                {
-                    for(String analogyResult : analogyResults)
-                        out.write(analogyResult + sp);
-                    out.write(nl);
-                }
-                out.write(nl);
-            }
-
-            int total = 0;
-            int correct = 0;
-            int stotal;
-            int scorrect;
-
-            for(String category : results.keySet()){
-                total   +=  (stotal = results.get(category)[0]);
-                correct +=  (scorrect = results.get(category)[1]);
-                out.write(category + sp + total + sp + correct + nl);
-            }
-            out.write("Total: " + total + " Correct: " + correct + " Score: " + (float)correct/(float)total);
-            out.close();
-        } catch (Exception e) {e.printStackTrace();}
+        int category = 0;
+        for(String name : analogyMap.keySet())
+            System.out.println("I think " + name + " had " + scores.correct[category++] + " correct");
 
+        try { EvaluationHarness.writeAnalogies(new File(output_file), analogyMap, scores); }
+        catch (Exception e) {e.printStackTrace();}
     }
 
-    class AnalogyTask implements Runnable
+    /**
+     * Answers the questions of all categories at once with {@link AnalogySolver}
+     * and records the prediction and the result of each question as well as the counts of each category.
+     */
+    private void solve()
     {
-        public List<String[]> analogies;
-        int id;
-        String category;
-        public int total = 0;
-        public int correct = 0;
+        List<Integer> categories = new ArrayList<>();
+        List<String[]> analogies = new ArrayList<>();
+        int category = 0;
 
-        public AnalogyTask(String category, List<String[]> analogies, int id)
+        for (List<String[]> list : analogyMap.values())
         {
-            this.analogies = analogies;
-            this.id = id;
-            this.category = category;
-        }
-
-        @Override
-        public void run()
-        {
-            System.out.println("Thread " + id + " running task");
-            int l = analogies.size();
-            int res;
-            for(String[] analogy : analogies){
-                res = runTest(analogy);
-                if(res != -1)
-                    correct += res;
-                total++;
-                if(total % 100 == 0)
-                    System.out.println("Task " + id + " total: " + total + " Progress: " + (float)total/(float)l);
-            }
-            synchronized(results){
-                results.get(category)[0] += total;
-                results.get(category)[1] += correct;
+            for (String[] analogy : list)
+            {
+                categories.add(category);
+                analogies.add(analogy);
             }
-            System.out.println(category + " correct is now " + results.get(category)[1] + " because of " + correct + " write");
-            System.out.println("Thread " + id + " finished task");
-        }
 
-    }
+            category++;
+        }
 
-    private Map<String,float[]> getVectors(File vector_file) throws IOException
-    {
-        Map<String,float[]> map = new HashMap<>();
+        int[][] questions = new int[analogies.size()][];
 
-        BufferedReader in = new BufferedReader(new FileReader(vector_file));
-        String line;
-        while((line = in.readLine()) != null)
+        for (int i=0; i<questions.length; i++)
         {
-            String[] split = line.split("\t");
-            String word = split[0];
-            float[] vector = new float[split.length - 1];
-            for (int i=1; i<split.length; i++)
-                vector[i-1] = Float.parseFloat(split[i]);
-            map.put(word, vector);
+            String[] analogy = analogies.get(i);
+            questions[i] = new int[]{vectors.indexOf(analogy[0].toLowerCase()), vectors.indexOf(analogy[1].toLowerCase()), vectors.indexOf(analogy[2].toLowerCase())};
         }
-        in.close();
 
-        return map;
-    }
+        int[][] top = new AnalogySolver(vectors, max_rows, threads).solve(questions, 1);
+        scores = new EvaluationHarness.Scores(analogyMap.size());
 
-    private void buildTestMap(File test_file) throws IOException
-    {
-        //TODO (Reid) think about changing the object designs here
-        totalTests = 0;
-        BufferedReader in = new BufferedReader(new FileReader(test_file));
-
-        String word;
-        String category;
-        String line[];
-        String question[];
-        List<String[]> testList = new ArrayList<String[]>();
-
-        while((word = in.readLine()) != null){
-            line = word.split(" ");
-            if(line[0].charAt(0) == ':')    //New Category
+        // the solver has done the work; recording the answers is a sequential pass
+        for (int i=0; i<top.length; i++)
+        {
+            String[] analogy = analogies.get(i);
+
+            if (top[i] == null || top[i].length == 0)
             {
-                category = Arrays.toString(Arrays.copyOfRange(line, 1, line.length));
-                testList = new ArrayList<String[]>();
-                // expects format:
-                    //: category-name
-                System.out.println("Building for " + category + " with size " + testList.size());
-                analogyMap.put(category, testList);
-                results.put(category, new int[] {0, 0});
+                analogy[4] = "OOV";
+                analogy[5] = "OOV";
+                scores.add(categories.get(i), -1);
             }
-            else if (line.length == 4)
+            else
             {
-                totalTests += 1;
-                question = new String[6];
-                for(int i = 0; i < 4; i++)  question[i] = line[i];
-                testList.add(question);
+                analogy[4] = vectors.label(top[i][0]);
+                analogy[5] = analogy[4].equals(analogy[3].toLowerCase()) ? "correct" : "incorrect";
+                scores.add(categories.get(i), analogy[5].equals("correct") ? 1 : 0);
             }
-            else System.out.println("Unparseable: " + Arrays.toString(line));
         }
-
-        in.close();
-    }
-
-    float[] getTestVector(float[] v1, float[] v2, float[] v3)
-    {
-        float[] a = subtractVectors(v1, v2);
-        a = addVectors(a, v3);
-
-        //This is in the original implmentation
-        float len = 0;
-        for(float f : a)                    len += f * f;
-        len = (float)Math.sqrt((double)len);
-        for(int i = 0; i < a.length; i++)   a[i] /= len;
-
-
-        return a;
-    }
-
-    float[] getTestVector(String w1, String w2, String w3)
-    {
-        if( !(map.containsKey(w1) && map.containsKey(w2) && map.containsKey(w3)) )
-            return null;
-        return getTestVector(map.get(w1), map.get(w2), map.get(w3));
-    }
-
-    private int runTest(String[] analogy)
-    {
-        float[] answerVector;
-        String pos1 = analogy[1].toLowerCase();
-        String neg1 = analogy[0].toLowerCase();
-        String pos2 = analogy[2].toLowerCase();
-
-        String gold = analogy[3].toLowerCase();
-        answerVector = getTestVector(pos1, neg1, pos2);
-        if(answerVector == null){
-            analogy[4] = "OOV";
-            analogy[5] = "OOV";
-            return -1;
-        }
-
-        String prediction = getNearestWord(answerVector);
-        analogy[4] = prediction;
-        if(prediction.equals(gold)){
-            analogy[5] = "correct";
-            return 1;
-        }
-        else{
-            analogy[5] = "incorrect";
-            return 0;
-        }
-
-    }
-
-    private float[] addVectors(float[] a, float[] b)
-    {
-        float[] c = new float[a.length];
-        for(int i = 0; i < c.length; i++)
-           c[i] = a[i] + b[i];
-       return c;
-    }
-
-    private float[] subtractVectors(float[] a, float[] b)
-    {
-        float[] c = new float[a.length];
-        for(int i = 0; i < c.length; i++)
-           c[i] = a[i] - b[i];
-       return c;
     }
 
     private String getNearestWord(String word){
@@ -303,29 +134,14 @@ public class AnalogyTestMulti
         float maxSimilarity = -Float.MAX_VALUE;
         float cos;
 
-        for (String word2 : map.keySet())
-        {
-            cos = cosine(word, word2);
-            if ( cos > maxSimilarity)
-            {
-                nearest = word2;
-                maxSimilarity = cos;
-            }
-        }
-        return nearest;
-    }
-
-    private String getNearestWord(float[] vector){
-        String nearest = null;
-        float maxSimilarity = -Float.MAX_VALUE;
-        float cos;
+        int row = vectors.indexOf(word);
 
-        for (String word2 : map.keySet())
+        for (int i=0; i<vectors.size(); i++)
         {
-            cos = cosine(vector, map.get(word2));
+            cos = vectors.cosine(row, i);
             if ( cos > maxSimilarity)
             {
-                nearest = word2;
+                nearest = vectors.label(i);
                 maxSimilarity = cos;
             }
         }
@@ -334,7 +150,7 @@ public class AnalogyTestMulti
 
     float cosine(String w1, String w2)
     {
-        return cosine(map.get(w1), map.get(w2));
+        return vectors.cosine(vectors.indexOf(w1), vectors.indexOf(w2));
     }
 
     float cosine(float[] w1, float[] w2)
@@ -357,10 +173,13 @@ public class AnalogyTestMulti
     void buildCosineMatrix()
     {
         float similarity = 0;
-        for(String key : map.keySet())
+        for(int i=0; i<vectors.size(); i++)
         {
-            for(String key2 : map.keySet())
+            String key = vectors.label(i);
+
+            for(int j=0; j<vectors.size(); j++)
             {
+                String key2 = vectors.label(j);
                 if(!matrix.containsKey(key))
                     matrix.put(key, new HashMap<>());
                 if(!matrix.containsKey(key2))
@@ -368,7 +187,7 @@ public class AnalogyTestMulti
                 if(matrix.get(key).containsKey(key2))
                     continue;
 
-                matrix.get(key).put(key2, cosine(key, key2));
+                matrix.get(key).put(key2, vectors.cosine(i, j));
                 if(! key.equals(key2) )
                     matrix.get(key2).put(key, matrix.get(key).get(key2));
             }
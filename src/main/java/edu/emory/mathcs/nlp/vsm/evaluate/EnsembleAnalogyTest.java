@@ -16,6 +16,8 @@
 package edu.emory.mathcs.nlp.vsm.evaluate;
 
 import edu.emory.mathcs.nlp.common.util.BinUtils;
+import edu.emory.mathcs.nlp.vsm.util.EnsembleStore;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
 import org.kohsuke.args4j.Option;
 
 import java.io.*;
@@ -25,11 +27,9 @@ import java.lang.Math;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @author Reid Kilgore, Austin Blodgett
@@ -51,169 +51,109 @@ public class EnsembleAnalogyTest
     String delimiter = null;
     @Option(name="-threads", usage="number of threads to use.", required=false, metaVar="<int>")
     int threads = 4;
+    @Option(name="-combine", usage="If set, serve one model for every category that combines all models by concat or average.", required=false, metaVar="<string>")
+    String combine = null;
 
 
-    int totalTests;
-
-    volatile Map<String,float[]> memo = new HashMap<>();
-    volatile Map<String,int[]> results = new HashMap<>();
-    volatile Map<String,List<String[]>> analogyMap = new HashMap<String,List<String[]>>();
-    volatile EnsembleModel ensemble;
+    Map<String,List<String[]>> analogyMap;
+    EnsembleModel ensemble;
+    EvaluationHarness harness;
 
 
     public EnsembleAnalogyTest(String[] args)
     {
         System.out.println("Loading...");
         BinUtils.initArgs(args, this);
+        if (combine != null && !combine.equals("concat") && !combine.equals("average"))
+        { System.err.println("-combine must be concat or average."); System.exit(1); }
 
         ensemble = new EnsembleModel();
-        try{ buildTestMap(new File(test_file));}
+        harness  = new EvaluationHarness(threads);
+        try{ analogyMap = EvaluationHarness.readAnalogies(new File(test_file));}
         catch (Exception e) {e.printStackTrace();}
 
-        int splitTasks = totalTests/threads;
-
-
         System.out.println("Finished building analogy tests.");
         System.out.println("Running tests.");
-
-        ExecutorService executor = Executors.newFixedThreadPool(threads);
-        int id = 0;
-        int splitter, subTasks;
         System.out.println("Starting " + analogyMap.keySet().size() + " categories");
 
-        /*  TODO (Reid) - this is too messy, won't result in even task lists,
-        *   not worth the easier updates.
-        */
-        for(String category : analogyMap.keySet())
-        {
-            subTasks = analogyMap.get(category).size();
-            System.out.println(category + " size is " + subTasks);
-            splitter = 0;
-            while( splitter + splitTasks < subTasks )
-            {
-                executor.execute(new AnalogyTask(category, analogyMap.get(category).subList(splitter, splitter + splitTasks), id++));
-                splitter += splitTasks;
-            }
-
-            executor.execute(new AnalogyTask(category, analogyMap.get(category).subList(splitter, subTasks), id++));
-        }
-
-        executor.shutdown();
-        try { executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS); }
-        catch (InterruptedException e) {e.printStackTrace();}
-
+        // every question is a task with the model selected for its category
+        List<Integer> categories = new ArrayList<>();
+        List<String[]> analogies = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int category = 0;
 
-        for(String category : results.keySet())
-            System.out.println("I think " + category + " had " + results.get(category)[1] + " correct");
-        try{
-            BufferedWriter out = new BufferedWriter(new FileWriter(output_file));
-            String nl = "\n";
-            String sp = " ";
+        for (Map.Entry<String,List<String[]>> e : analogyMap.entrySet())
+        {
+            System.out.println(e.getKey() + " size is " + e.getValue().size());
+            if (ensemble.selectModel(e.getKey()) == null) System.out.println("No model for " + e.getKey());
 
-            for(String category : analogyMap.keySet())
+            for (String[] analogy : e.getValue())
             {
-                out.write(category + nl);
-                for(String[] analogyResults : analogyMap.get(category))
-                {
-                    for(String analogyResult : analogyResults)
-                        out.write(analogyResult + sp);
-                    out.write(nl);
-                }
-                out.write(nl);
+                categories.add(category);
+                analogies.add(analogy);
+                names.add(e.getKey());
             }
 
-            int total = 0;
-            int correct = 0;
-            int stotal;
-            int scorrect;
-
-            for(String category : results.keySet()){
-                total   +=  (stotal = results.get(category)[0]);
-                correct +=  (scorrect = results.get(category)[1]);
-                out.write(category + sp + total + sp + correct + nl);
-            }
-            out.write("Total: " + total + " Correct: " + correct + " Score: " + (float)correct/(float)total);
-            out.close();
-        } catch (Exception e) {e.printStackTrace();}
-
-    }
-
-    class AnalogyTask implements Runnable
-    {
-        public List<String[]> analogies;
-        int id;
-        String category;
-        public int total = 0;
-        public int correct = 0;
-        public Map<String,float[]> map;
-
-        public AnalogyTask(String category, List<String[]> analogies, int id)
-        {
-            this.analogies = analogies;
-            this.id = id;
-            this.category = category;
-            this.map = ensemble.selectModel(category);
-            System.out.println("Selecting model for " + category + " getting " + ensemble.modelPicker.get(category));
-            if(this.map == null)
-                System.out.println("Map is null");
+            category++;
         }
 
-        @Override
-        public void run()
-        {
-            System.out.println("Thread " + id + " running task");
-            int l = analogies.size();
-            int res;
-            System.out.println("Thread " + id + " has keys " + map.keySet().size());
-
-            for(String[] analogy : analogies){
-                res = runTest(map, analogy);
-                if(res != -1)   correct += res;
-                total++;
-
-                if(total % 100 == 0)    System.out.println("Task " + id + " total: " + total + " Progress: " + (float)total/(float)l);
-            }
+        int size = analogyMap.size();
+        EvaluationHarness.Scores scores = harness.run(analogies.size(), () -> new EvaluationHarness.Scores(size), (s, i) -> {
+            String name = names.get(i);
+            EnsembleStore.Member map = ensemble.selectModel(name);
+            s.add(categories.get(i), map != null ? runTest(map, analogies.get(i)) : -1);
+        }, EvaluationHarness.Scores::merge);
 
-            synchronized(results){
-                results.get(category)[0] += total;
-                results.get(category)[1] += correct;
-            }
-
-            System.out.println(category + " correct is now " + results.get(category)[1] + " because of " + correct + " write");
-            System.out.println("Thread " + id + " finished task");
-        }
+        category = 0;
+        for(String name : analogyMap.keySet())
+            System.out.println("I think " + name + " had " + scores.correct[category++] + " correct");
 
+        try { EvaluationHarness.writeAnalogies(new File(output_file), analogyMap, scores); }
+        catch (Exception e) {e.printStackTrace();}
     }
 
     class EnsembleModel
     {
-        Map<String, Map<String,float[]>>    models;
+        EnsembleStore                       store;
+        EnsembleStore.Member                combined;   // served for every category with -combine
         Map<String, String>                 modelPicker;
         String[] model_files;
 
         public EnsembleModel()
         {
-            models          = new HashMap<String, Map<String,float[]>>();
             model_files     = vector_files.split(delimiter);
             System.out.println("Building Ensemble Model with " + model_files.length + " possible models");
             try{ modelPicker     = buildModelPicker(model_files);}
             catch (Exception e) {e.printStackTrace();}
 
+            if(vector_path.charAt(vector_path.length()-1) != '/')
+                vector_path = vector_path + "/";
+
+            Map<String, File> files = new LinkedHashMap<>();
             for(String model_file : model_files)
             {
                 System.out.println("Adding model " + model_file);
-                if(vector_path.charAt(vector_path.length()-1) != '/')
-                    vector_path = vector_path + "/";
+                files.put(model_file, new File(vector_path + model_file));
+            }
 
-                try{ models.put(model_file, getVectors(vector_path + model_file)); }
-                catch (Exception e) { e.printStackTrace(); }
+            try
+            {
+                store = EnsembleStore.open(files, threads);
+                if (combine != null) combined = EnsembleStore.wrap(combine, store.combine(store.names(), combine.equals("average"), threads)).member(combine);
             }
-            System.out.println("Finished building ensemble model, have models: " + models.keySet().size());
+            catch (IOException e) { System.err.println("Could not load the models."); e.printStackTrace(); System.exit(1); }
+
+            System.out.println("Finished building ensemble model, have models: " + store.names().size());
         }
 
-        private Map<String,float[]> selectModel(String category)
+        /** @return the model selected for the category, mapped the first time it is selected. */
+        private EnsembleStore.Member selectModel(String category)
         {
-            return models.get(modelPicker.get(category));
+            if (combined != null) return combined;
+            String model = modelPicker.get(category);
+
+            try { return model != null ? store.member(model) : null; }
+            catch (IOException e) { throw new UncheckedIOException(e); }
         }
 
         private Map<String, String> buildModelPicker(String[] model_files) throws IOException
@@ -259,67 +199,6 @@ public class EnsembleAnalogyTest
 
 }
 
-    private Map<String,float[]> getVectors(String vector_file) throws IOException
-    {
-        return getVectors(new File(vector_file));
-    }
-
-    private Map<String,float[]> getVectors(File vector_file) throws IOException
-    {
-        Map<String,float[]> map = new HashMap<>();
-        BufferedReader in = new BufferedReader(new FileReader(vector_file));
-
-        String line;
-        while((line = in.readLine()) != null)
-        {
-            String[] split = line.split("\t");
-            String word = split[0];
-            float[] vector = new float[split.length - 1];
-            for (int i=1; i<split.length; i++)
-                vector[i-1] = Float.parseFloat(split[i]);
-            map.put(word, vector);
-        }
-        in.close();
-
-        return map;
-    }
-
-    private void buildTestMap(File test_file) throws IOException
-    {
-        //TODO (Reid) think about changing the object designs here
-        totalTests = 0;
-        BufferedReader in = new BufferedReader(new FileReader(test_file));
-
-        String word;
-        String category;
-        String line[];
-        String question[];
-        List<String[]> testList = new ArrayList<String[]>();
-
-        while((word = in.readLine()) != null){
-            line = word.split(" ");
-            if(line[0].charAt(0) == ':')    //New Category
-            {
-                category = Arrays.toString(Arrays.copyOfRange(line, 1, line.length));
-                testList = new ArrayList<String[]>();
-                // expects format:
-                    //: category-name
-                analogyMap.put(category, testList);
-                results.put(category, new int[] {0, 0});
-            }
-            else if (line.length == 4)
-            {
-                totalTests += 1;
-                question = new String[6];
-                for(int i = 0; i < 4; i++)  question[i] = line[i];
-                testList.add(question);
-            }
-            else System.out.println("Unparseable: " + Arrays.toString(line));
-        }
-
-        in.close();
-    }
-
     float[] getTestVector(float[] v1, float[] v2, float[] v3)
     {
         float[] a = subtractVectors(v1, v2);
@@ -335,14 +214,15 @@ public class EnsembleAnalogyTest
         return a;
     }
 
-    float[] getTestVector(Map<String,float[]> map, String w1, String w2, String w3)
+    float[] getTestVector(EnsembleStore.Member map, String w1, String w2, String w3)
     {
-        if( !(map.containsKey(w1) && map.containsKey(w2) && map.containsKey(w3)) )
+        if( !(map.contains(w1) && map.contains(w2) && map.contains(w3)) )
             return null;
         return getTestVector(map.get(w1), map.get(w2), map.get(w3));
     }
 
-    private int runTest(Map<String,float[]> map, String[] analogy)
+    /** @return 1 if correct, 0 if incorrect, or -1 if out of the vocabulary; the query vector is memoized for the model. */
+    private int runTest(EnsembleStore.Member map, String[] analogy)
     {
         float[] answerVector;
         String pos1 = analogy[2].toLowerCase();
@@ -350,7 +230,7 @@ public class EnsembleAnalogyTest
         String pos2 = analogy[1].toLowerCase();
 
         String gold = analogy[3].toLowerCase();
-        answerVector = getTestVector(map, pos1, neg1, pos2);
+        answerVector = harness.memo(map.name() + " " + pos1 + " " + neg1 + " " + pos2, key -> getTestVector(map, pos1, neg1, pos2));
         if(answerVector == null){
             analogy[4] = "OOV";
             analogy[5] = "OOV";
@@ -386,43 +266,45 @@ public class EnsembleAnalogyTest
        return c;
     }
 
-    private String getNearestWord(Map<String, float[]> map, String word){
+    private String getNearestWord(EnsembleStore.Member map, String word){
         String nearest = null;
         float maxSimilarity = -Float.MAX_VALUE;
         float cos;
+        int row = map.indexOf(word);
 
-        for (String word2 : map.keySet())
+        for (int i=0; i<map.size(); i++)
         {
-            cos = cosine(map, word, word2);
+            cos = map.cosine(row, i);
             if ( cos > maxSimilarity)
             {
-                nearest = word2;
+                nearest = map.label(i);
                 maxSimilarity = cos;
             }
         }
         return nearest;
     }
 
-    private String getNearestWord(Map<String,float[]> map, float[] vector){
+    private String getNearestWord(EnsembleStore.Member map, float[] vector){
         String nearest = null;
         float maxSimilarity = -Float.MAX_VALUE;
         float cos;
+        float norm = VectorStore.norm(vector);
 
-        for (Object word2 : map.keySet())
+        for (int i=0; i<map.size(); i++)
         {
-            cos = cosine(vector, map.get((String)word2));
+            cos = map.cosine(vector, norm, i);
             if ( cos > maxSimilarity)
             {
-                nearest = (String)word2;
+                nearest = map.label(i);
                 maxSimilarity = cos;
             }
         }
         return nearest;
     }
 
-    float cosine(Map<String, float[]> map, String w1, String w2)
+    float cosine(EnsembleStore.Member map, String w1, String w2)
     {
-        return cosine(map.get(w1), map.get(w2));
+        return map.cosine(map.indexOf(w1), map.indexOf(w2));
     }
 
     float cosine(float[] w1, float[] w2)
@@ -0,0 +1,224 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.evaluate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs the questions of an evaluation as fine-grained fork-join tasks shared by the evaluators.
+ * The range of questions is split in halves down to a few questions per task, so idle workers steal the remaining halves
+ * instead of waiting on an uneven split. Each task accumulates into its own accumulator, and the accumulators are merged
+ * as the tasks join, the left half into the right half, so that the merged result is the same as a sequential run.
+ * Query vectors can be memoized in a concurrent map that is read without locking.
+ *
+ * Analogy tests are read into categories in the order of the test file, and reports are written in the same order.
+ *
+ * This example counts the correct answers of each category with 8 threads:
+ *  EvaluationHarness harness = new EvaluationHarness(8);
+ *  Scores scores = harness.run(questions.size(), () -> new Scores(categories), (s, i) -> s.add(category(i), answer(i)), Scores::merge);
+ */
+public class EvaluationHarness
+{
+    static private final int GRAIN = 8;   // questions answered by one task without splitting further
+
+    private final int threads;
+    private final Map<String,float[]> memo = new ConcurrentHashMap<>();
+
+    /** @param threads - number of fork-join workers. */
+    public EvaluationHarness(int threads)
+    {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Applies the task to every question in [0, size).
+     * @param accumulator - creates an empty accumulator for each task.
+     * @param task - accumulates the result of the i'th question.
+     * @param merge - merges the second accumulator, of the later questions, into the first one.
+     * @return the accumulator of all questions.
+     */
+    public <A> A run(int size, Supplier<A> accumulator, ObjIntConsumer<A> task, BiConsumer<A,A> merge)
+    {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try { return pool.invoke(new Task<>(0, size, accumulator, task, merge)); }
+        finally { pool.shutdown(); }
+    }
+
+    /**
+     * @return the vector memoized for the key, computed at most once per key unless two workers compute it at the same time,
+     * in which case the first vector stored is returned to both.
+     */
+    public float[] memo(String key, Function<String,float[]> compute)
+    {
+        float[] vector = memo.get(key);
+        if (vector != null) return vector;
+
+        vector = compute.apply(key);
+        if (vector == null) return null;
+        float[] previous = memo.putIfAbsent(key, vector);
+        return previous != null ? previous : vector;
+    }
+
+    static private class Task<A> extends RecursiveTask<A>
+    {
+        private static final long serialVersionUID = 1L;
+        private final int            begin, end;
+        private final Supplier<A>    accumulator;
+        private final ObjIntConsumer<A> task;
+        private final BiConsumer<A,A>   merge;
+
+        public Task(int begin, int end, Supplier<A> accumulator, ObjIntConsumer<A> task, BiConsumer<A,A> merge)
+        {
+            this.begin       = begin;
+            this.end         = end;
+            this.accumulator = accumulator;
+            this.task        = task;
+            this.merge       = merge;
+        }
+
+        @Override
+        protected A compute()
+        {
+            if (end - begin <= GRAIN)
+            {
+                A a = accumulator.get();
+                for (int i=begin; i<end; i++) task.accept(a, i);
+                return a;
+            }
+
+            int mid = (begin + end) >>> 1;
+            Task<A> left = new Task<>(begin, mid, accumulator, task, merge);
+            left.fork();
+            A right = new Task<>(mid, end, accumulator, task, merge).compute();
+            A a = left.join();
+            merge.accept(a, right);
+            return a;
+        }
+    }
+
+//    =================================== Analogies ===================================
+
+    /** Numbers of questions, correct answers, and questions with words out of the vocabulary of each category. */
+    static public class Scores
+    {
+        public final int[] total, correct, oov;
+
+        public Scores(int categories)
+        {
+            total   = new int[categories];
+            correct = new int[categories];
+            oov     = new int[categories];
+        }
+
+        /** @param result - 1 if correct, 0 if incorrect, or -1 if out of the vocabulary. */
+        public void add(int category, int result)
+        {
+            total[category]++;
+            if      (result > 0) correct[category]++;
+            else if (result < 0) oov[category]++;
+        }
+
+        public void merge(Scores other)
+        {
+            for (int i=0; i<total.length; i++)
+            {
+                total[i]   += other.total[i];
+                correct[i] += other.correct[i];
+                oov[i]     += other.oov[i];
+            }
+        }
+    }
+
+    /**
+     * Reads analogy tests: a line ": name" starts a category, and each line "a b c d" of the category is a question
+     * stored as {a, b, c, d, prediction, result}. Categories are in the order of the file.
+     * Questions before the first category are reported as unparseable, like lines that are not questions.
+     */
+    static public Map<String,List<String[]>> readAnalogies(File file) throws IOException
+    {
+        Map<String,List<String[]>> analogies = new LinkedHashMap<>();
+        List<String[]> questions = null;
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        String line;
+
+        while ((line = in.readLine()) != null)
+        {
+            if (line.isEmpty()) continue;
+            String[] tokens = line.split(" ");
+
+            if (tokens[0].charAt(0) == ':')
+            {
+                questions = new ArrayList<>();
+                analogies.put(Arrays.toString(Arrays.copyOfRange(tokens, 1, tokens.length)), questions);
+            }
+            else if (tokens.length == 4 && questions != null)
+                questions.add(Arrays.copyOf(tokens, 6));
+            else
+                System.out.println("Unparseable: " + Arrays.toString(tokens));
+        }
+
+        in.close();
+        return analogies;
+    }
+
+    /** Writes every question with its prediction and result, then the counts of each category and the total, in the order of the categories. */
+    static public void writeAnalogies(File file, Map<String,List<String[]>> analogies, Scores scores) throws IOException
+    {
+        BufferedWriter out = new BufferedWriter(new FileWriter(file));
+        int category = 0, total = 0, correct = 0;
+
+        for (Map.Entry<String,List<String[]>> e : analogies.entrySet())
+        {
+            out.write(e.getKey() + "\n");
+
+            for (String[] analogy : e.getValue())
+            {
+                for (String token : analogy) out.write(token + " ");
+                out.write("\n");
+            }
+
+            out.write("\n");
+        }
+
+        for (String name : analogies.keySet())
+        {
+            total   += scores.total[category];
+            correct += scores.correct[category];
+            out.write(name + " " + scores.total[category] + " " + scores.correct[category] + "\n");
+            category++;
+        }
+
+        out.write("Total: " + total + " Correct: " + correct + " Score: " + (float)correct/(float)total);
+        out.close();
+    }
+}
@@ -0,0 +1,394 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.evaluate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.kohsuke.args4j.Option;
+
+import edu.emory.mathcs.nlp.common.util.BinUtils;
+import edu.emory.mathcs.nlp.vsm.util.QuantizedVectors;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
+
+/**
+ * Evaluates many vector files, e.g., of a hyperparameter sweep, on the same analogy and triad tests in one process.
+ * The test files are read once, and the words of the tests are resolved to rows once per vocabulary,
+ * which is shared by the models trained on the same corpus with the same vocabulary settings.
+ * Models are evaluated concurrently, each loaded only when the memory it needs fits in the budget and released after its evaluation,
+ * so that any number of models streams through a bounded heap. A model larger than the budget is evaluated alone.
+ * The scores of all models are written as one tab-separated table in the order of the model list.
+ *
+ * This example evaluates every model listed in models.txt, two at a time within 8GB:
+ *  java edu.emory.mathcs.nlp.vsm.evaluate.EvaluationRunner -models models.txt -analogy questions-words.txt -triads Triads_1202.csv -output results.tsv -parallel 2 -memory 8192
+ */
+public class EvaluationRunner
+{
+    @Option(name="-models", usage="file listing the vector files to evaluate, one per line.", required=true, metaVar="<filename>")
+    String model_file = null;
+    @Option(name="-analogy", usage="file of analogy tests.", required=false, metaVar="<filename>")
+    String analogy_file = null;
+    @Option(name="-triads", usage="file with data from participant triad task.", required=false, metaVar="<filename>")
+    String triad_file = null;
+    @Option(name="-output", usage="file to save the table of results.", required=true, metaVar="<filename>")
+    String output_file = null;
+    @Option(name="-max-rows", usage="If set, search only the first rows of the vector files for the analogies.", required=false, metaVar="<int>")
+    int max_rows = 0;
+    @Option(name="-parallel", usage="maximum number of models evaluated at the same time (default: 2).", required=false, metaVar="<int>")
+    int parallel = 2;
+    @Option(name="-memory", usage="megabytes of the heap shared by the models in memory (default: half of the maximum heap).", required=false, metaVar="<int>")
+    int memory = (int)(Runtime.getRuntime().maxMemory() / 2 / (1 << 20));
+    @Option(name="-threads", usage="number of threads to evaluate each model.", required=false, metaVar="<int>")
+    int threads = 4;
+
+    List<String>         categories = new ArrayList<>();   // names of the analogy categories in the order of the file
+    List<String[]>       analogies  = new ArrayList<>();   // {a, b, c, d} of every question
+    List<Integer>        analogy_categories = new ArrayList<>();
+    List<String[]>       triads     = new ArrayList<>();   // {w0, w1, w2} of every triad
+    List<int[]>          triad_counts = new ArrayList<>(); // {c1, c2} of every triad
+    Map<String,Tests>    resolved   = new ConcurrentHashMap<>();   // tests resolved to rows for each vocabulary fingerprint
+
+    public EvaluationRunner(String[] args)
+    {
+        BinUtils.initArgs(args, this);
+        if (analogy_file == null && triad_file == null) { System.err.println("Give -analogy or -triads to evaluate."); System.exit(1); }
+
+        try
+        {
+            read(analogy_file != null ? new File(analogy_file) : null, triad_file != null ? new File(triad_file) : null);
+            List<File> models = new ArrayList<>();
+            BufferedReader in = new BufferedReader(new FileReader(model_file));
+            String line;
+
+            while ((line = in.readLine()) != null)
+                if (!line.trim().isEmpty()) models.add(new File(line.trim()));
+
+            in.close();
+            write(new File(output_file), evaluate(models));
+            BinUtils.LOG.info("Saved to "+output_file+"\n");
+        }
+        catch (IOException e) { System.err.println("Could not evaluate the models."); e.printStackTrace(); System.exit(1); }
+    }
+
+    /** @param analogyFile - file of analogy tests, or null. @param triadFile - file of triads, or null. */
+    EvaluationRunner(File analogyFile, File triadFile, int parallel, int memory, int threads) throws IOException
+    {
+        this.parallel = parallel;
+        this.memory   = memory;
+        this.threads  = threads;
+        read(analogyFile, triadFile);
+    }
+
+    /** Reads the tests once for all models. */
+    private void read(File analogyFile, File triadFile) throws IOException
+    {
+        if (analogyFile != null)
+        {
+            for (Map.Entry<String,List<String[]>> e : EvaluationHarness.readAnalogies(analogyFile).entrySet())
+            {
+                for (String[] analogy : e.getValue())
+                {
+                    analogies.add(analogy);
+                    analogy_categories.add(categories.size());
+                }
+
+                categories.add(e.getKey());
+            }
+        }
+
+        if (triadFile != null)
+        {
+            BufferedReader in = new BufferedReader(new FileReader(triadFile));
+            String line;
+
+            try
+            {
+                while ((line = in.readLine()) != null)
+                {
+                    String[] triad = line.split(",");
+                    if (triad.length != 5) throw new IOException("Could not read triad file. Incorrect format: "+line);
+                    try { triad_counts.add(new int[]{Integer.parseInt(triad[3].trim()), Integer.parseInt(triad[4].trim())}); }
+                    catch (NumberFormatException e) { throw new IOException("Could not read triad file. Incorrect counts: "+line); }
+                    triads.add(Arrays.copyOf(triad, 3));
+                }
+            }
+            finally { in.close(); }
+        }
+    }
+
+//    =================================== Evaluation ===================================
+
+    /**
+     * Evaluates the models on a pool of {@link #parallel} threads; each model waits for its share of the memory budget before it is loaded.
+     * @return the result of each model in the order of the models.
+     */
+    public List<Result> evaluate(List<File> models) throws IOException
+    {
+        int budget = Math.max(1, memory);
+        Semaphore permits = new Semaphore(budget, true);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, parallel));
+        List<Future<Result>> futures = new ArrayList<>();
+        List<Result> results = new ArrayList<>();
+
+        for (File model : models)
+        {
+            futures.add(pool.submit(() -> {
+                int megabytes = (int)Math.min(budget, Math.max(1, estimate(model) >> 20));
+                permits.acquire(megabytes);
+                try { return evaluate(model); }
+                finally { permits.release(megabytes); }
+            }));
+        }
+
+        try
+        {
+            for (Future<Result> future : futures)
+                results.add(future.get());
+        }
+        catch (InterruptedException | ExecutionException e) { throw new IOException(e); }
+        finally { pool.shutdown(); }
+
+        return results;
+    }
+
+    /** @return the result of the model, or a result with the error if the model cannot be loaded. */
+    Result evaluate(File model)
+    {
+        Result result = new Result(model.getPath(), categories.size());
+        long start = System.currentTimeMillis();
+        VectorStore vectors;
+
+        try { vectors = VectorStore.load(model, threads); }
+        catch (IOException | RuntimeException e)
+        {
+            BinUtils.LOG.info("Could not load "+model+": "+e.getMessage()+"\n");
+            result.error = e.getMessage();
+            return result;
+        }
+
+        Tests tests = resolve(vectors);
+        result.words     = vectors.size();
+        result.dimension = vectors.dimension();
+
+        // triads first since the analogy solver normalizes the vectors in place
+        for (int i=0; i<tests.triads.length; i++)
+        {
+            int[] triad = tests.triads[i];
+            if (triad == null) continue;
+            int weight = Math.abs(triad[3] - triad[4]);
+            boolean agree = (triad[3] > triad[4]) == (vectors.cosine(triad[1], triad[0]) > vectors.cosine(triad[2], triad[0]));
+            if (agree) result.triad_agree += weight;
+            result.triad_weight += weight;
+            result.triad_count++;
+        }
+
+        if (!analogies.isEmpty())
+        {
+            int[][] top = new AnalogySolver(vectors, max_rows, threads).solve(tests.questions, 1);
+
+            for (int i=0; i<top.length; i++)
+            {
+                int category = analogy_categories.get(i);
+                if (top[i] == null || top[i].length == 0) result.scores.add(category, -1);
+                else result.scores.add(category, top[i][0] == tests.gold[i] ? 1 : 0);
+            }
+        }
+
+        result.seconds = (System.currentTimeMillis() - start) / 1000d;
+        BinUtils.LOG.info(String.format("%s: analogy %.4f, triads %.4f (%.1f seconds)\n", model, result.analogy(), result.triads(), result.seconds));
+        return result;
+    }
+
+    /**
+     * @return the tests resolved to the rows of the vocabulary of the vectors, shared by the models of the same vocabulary.
+     * Vocabularies are told apart by a SHA-256 digest of their labels, so no labels are kept once a model is released.
+     */
+    Tests resolve(VectorStore vectors)
+    {
+        return resolved.computeIfAbsent(fingerprint(vectors), k -> new Tests(vectors));
+    }
+
+    /** @return the SHA-256 digest of the labels in order, each preceded by its length, which is the same for models of the same vocabulary. */
+    static String fingerprint(VectorStore vectors)
+    {
+        MessageDigest digest;
+        try { digest = MessageDigest.getInstance("SHA-256"); }
+        catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+
+        for (int i=0; i<vectors.size(); i++)
+        {
+            byte[] label = vectors.label(i).getBytes(StandardCharsets.UTF_8);
+            length.clear();
+            digest.update(length.putInt(label.length).array());
+            digest.update(label);
+        }
+
+        return Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    /** @return bytes of the heap estimated for the vectors of the file once loaded. */
+    static long estimate(File file) throws IOException
+    {
+        if (QuantizedVectors.isQuantized(file))
+        {
+            try (QuantizedVectors quantized = QuantizedVectors.open(file)) { return (long)quantized.size() * quantized.dimension() * Float.BYTES * 5 / 4; }
+        }
+
+        File cache = new File(file.getPath() + VectorStore.CACHE_EXTENSION);
+        if (VectorStore.isCache(file)) return file.length() * 5 / 4;
+        if (VectorStore.isCache(cache) && cache.lastModified() >= file.lastModified()) return cache.length() * 5 / 4;
+
+        // a float in text takes about 9 bytes for 4 bytes in memory
+        return file.length() * 5 / 8;
+    }
+
+    /** Rows of the words of the tests in one vocabulary. */
+    class Tests
+    {
+        /** {a, b, c} of every question, with -1 for the words out of the vocabulary. */
+        final int[][] questions;
+        /** Row of the answer of every question, or -1 if it is out of the vocabulary. */
+        final int[]   gold;
+        /** {w0, w1, w2, c1, c2} of every triad, or null if a word is out of the vocabulary. */
+        final int[][] triads;
+
+        Tests(VectorStore vectors)
+        {
+            questions = new int[analogies.size()][];
+            gold      = new int[analogies.size()];
+            triads    = new int[EvaluationRunner.this.triads.size()][];
+
+            for (int i=0; i<questions.length; i++)
+            {
+                String[] analogy = analogies.get(i);
+                questions[i] = new int[]{vectors.indexOf(analogy[0].toLowerCase()), vectors.indexOf(analogy[1].toLowerCase()), vectors.indexOf(analogy[2].toLowerCase())};
+                gold[i] = vectors.indexOf(analogy[3].toLowerCase());
+            }
+
+            for (int i=0; i<triads.length; i++)
+            {
+                String[] triad = EvaluationRunner.this.triads.get(i);
+                int[] counts = triad_counts.get(i);
+                int w0 = vectors.indexOf(triad[0]), w1 = vectors.indexOf(triad[1]), w2 = vectors.indexOf(triad[2]);
+                if (w0 >= 0 && w1 >= 0 && w2 >= 0) triads[i] = new int[]{w0, w1, w2, counts[0], counts[1]};
+            }
+        }
+    }
+
+//    =================================== Results ===================================
+
+    /** Scores of one model. */
+    static public class Result
+    {
+        public final String model;
+        public final EvaluationHarness.Scores scores;
+        public int    words, dimension;
+        public long   triad_agree, triad_weight;
+        public int    triad_count;
+        public double seconds;
+        public String error;   // null unless the model could not be loaded
+
+        public Result(String model, int categories)
+        {
+            this.model = model;
+            scores = new EvaluationHarness.Scores(categories);
+        }
+
+        /** @return the ratio of correct answers to all questions of the category, or of all categories if negative. */
+        public float analogy(int category)
+        {
+            int total = 0, correct = 0;
+
+            for (int i=0; i<scores.total.length; i++)
+            {
+                if (category >= 0 && i != category) continue;
+                total   += scores.total[i];
+                correct += scores.correct[i];
+            }
+
+            return total > 0 ? (float)correct / total : 0;
+        }
+
+        public float analogy()
+        {
+            return analogy(-1);
+        }
+
+        /** @return the weighted agreement with the participants of the triad task. */
+        public float triads()
+        {
+            return triad_weight > 0 ? (float)triad_agree / triad_weight : 0;
+        }
+
+        public int oov()
+        {
+            int oov = 0;
+            for (int o : scores.oov) oov += o;
+            return oov;
+        }
+    }
+
+    /** Writes one row per model: the model, its vocabulary and dimension, the analogy scores of all and each category, the triad score, and the seconds. */
+    public void write(File file, List<Result> results) throws IOException
+    {
+        BufferedWriter out = new BufferedWriter(new FileWriter(file));
+        out.write("model\twords\tdimension");
+        if (!analogies.isEmpty()) out.write("\tanalogy\tanalogy-oov");
+        for (String category : categories) out.write("\t"+category);
+        if (!triads.isEmpty()) out.write("\ttriads\ttriad-count");
+        out.write("\tseconds\n");
+
+        for (Result result : results)
+        {
+            out.write(result.model + "\t" + result.words + "\t" + result.dimension);
+
+            if (result.error != null)
+            {
+                out.write("\terror: " + result.error + "\n");
+                continue;
+            }
+
+            if (!analogies.isEmpty()) out.write("\t" + result.analogy() + "\t" + result.oov());
+            for (int i=0; i<categories.size(); i++) out.write("\t" + result.analogy(i));
+            if (!triads.isEmpty()) out.write("\t" + result.triads() + "\t" + result.triad_count);
+            out.write(String.format("\t%.1f\n", result.seconds));
+        }
+
+        out.close();
+    }
+
+    public static void main(String[] args) { new EvaluationRunner(args); }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.evaluate;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.kohsuke.args4j.Option;
+
+import edu.emory.mathcs.nlp.common.util.BinUtils;
+import edu.emory.mathcs.nlp.vsm.util.HnswIndex;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
+
+/**
+ * Builds an {@link HnswIndex} over a vector file or a Word2Vec model, saves it,
+ * and reports its recall against the exact scan for the given beam size of the search.
+ * The index saved next to the vector file is used by {@link TopNEvaluator} and {@link VecMath} with -ann.
+ *
+ * This example builds vectors.txt.hnsw with 8 threads and measures the recall of the 10 nearest neighbors:
+ *  java edu.emory.mathcs.nlp.vsm.evaluate.HnswBuilder -input vectors.txt -threads 8 -k 10 -ef-search 100
+ */
+public class HnswBuilder
+{
+    @Option(name="-input", usage="file of word vectors or a Word2Vec model.", required=true, metaVar="<filename>")
+    String vector_file = null;
+    @Option(name="-output", usage="file to save the index (default: <input>.hnsw).", required=false, metaVar="<filename>")
+    String output_file = null;
+    @Option(name="-m", usage="maximum number of links per node (default: 16).", required=false, metaVar="<integer>")
+    int m = HnswIndex.DEFAULT_M;
+    @Option(name="-ef-construction", usage="beam size of the search while building (default: 200).", required=false, metaVar="<integer>")
+    int ef_construction = HnswIndex.DEFAULT_EF_CONSTRUCTION;
+    @Option(name="-ef-search", usage="beam size of the search to measure the recall (default: 100).", required=false, metaVar="<integer>")
+    int ef_search = HnswIndex.DEFAULT_EF_SEARCH;
+    @Option(name="-k", usage="number of nearest neighbors to measure the recall (default: 10).", required=false, metaVar="<integer>")
+    int k = 10;
+    @Option(name="-recall-queries", usage="number of random words to measure the recall; 0 to skip (default: 1000).", required=false, metaVar="<integer>")
+    int recall_queries = 1000;
+    @Option(name="-threads", usage="number of threads (default: 4).", required=false, metaVar="<integer>")
+    int thread_size = 4;
+
+    public HnswBuilder(String[] args)
+    {
+        BinUtils.initArgs(args, this);
+        if (output_file == null) output_file = vector_file + HnswIndex.INDEX_EXTENSION;
+
+        try
+        {
+            VectorStore vectors = VectorStore.load(new File(vector_file), thread_size);
+            BinUtils.LOG.info(String.format("Building an index over %d vectors of %d dimensions: M = %d, efConstruction = %d\n", vectors.size(), vectors.dimension(), m, ef_construction));
+
+            long time = System.currentTimeMillis();
+            HnswIndex index = HnswIndex.build(vectors, m, ef_construction, thread_size, 1);
+            BinUtils.LOG.info(String.format("Built in %.1f seconds.\n", (System.currentTimeMillis() - time) / 1000d));
+
+            index.save(new File(output_file));
+            BinUtils.LOG.info("Saved to "+output_file+"\n");
+
+            if (recall_queries > 0)
+            {
+                time = System.currentTimeMillis();
+                float recall = index.recall(recall_queries, k, ef_search, thread_size, 1);
+                BinUtils.LOG.info(String.format("Recall@%d with efSearch = %d: %.4f (%.1f seconds)\n", k, ef_search, recall, (System.currentTimeMillis() - time) / 1000d));
+            }
+        }
+        catch (IOException e) { System.err.println("Could not build the index."); e.printStackTrace(); System.exit(1); }
+    }
+
+    public static void main(String[] args) { new HnswBuilder(args); }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.evaluate;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.kohsuke.args4j.Option;
+
+import edu.emory.mathcs.nlp.common.util.BinUtils;
+import edu.emory.mathcs.nlp.vsm.util.TopKHeap;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
+
+/**
+ * Finds the k most similar words of every word by cosine similarity and streams the lists to a file.
+ * Rows are processed in batches: each batch of normalized rows is the block of queries of {@link AnalogySolver#search(float[], int[][], int)},
+ * which multiplies blocks of queries against cache-sized tiles of the matrix in parallel
+ * and keeps the neighbors of each row in a bounded {@link TopKHeap}. Each batch is written before the next one is searched,
+ * so memory holds the neighbors of one batch only.
+ *
+ * Reads any vector file of {@link VectorStore}, including the XZ-serialized maps of words to vectors.
+ * The TSV format has one line per word: the word followed by its neighbors, each followed by its similarity with -scores.
+ * The binary format is little-endian: the header (magic number, version, rows, k), the labels (byte length, UTF-8 bytes),
+ * then the k neighbor rows and the k similarities of each row, padded with -1 and 0 if there are fewer than k other rows.
+ *
+ * This example writes the 20 nearest neighbors of every word with 8 threads:
+ *  java edu.emory.mathcs.nlp.vsm.evaluate.KnnGraphBuilder -input vectors.txt -output vectors.knn -k 20 -threads 8
+ */
+public class KnnGraphBuilder
+{
+    static public final int MAGIC   = 0x4B4D5356;   // "VSMK" in little-endian
+    static public final int VERSION = 1;
+    static private final int BATCH_SIZE = 1 << 13;  // rows whose neighbors are held in memory before they are written
+
+    @Option(name="-input", usage="file of word vectors.", required=true, metaVar="<filename>")
+    String vector_file = null;
+    @Option(name="-output", usage="file to write the neighbors.", required=true, metaVar="<filename>")
+    String output_file = null;
+    @Option(name="-k", usage="number of neighbors of each word (default: 20).", required=false, metaVar="<integer>")
+    int k = 20;
+    @Option(name="-max-rows", usage="neighbors are searched among the first N rows only (default: all rows).", required=false, metaVar="<integer>")
+    int max_rows = 0;
+    @Option(name="-binary", usage="write the binary format instead of TSV.", required=false)
+    boolean binary = false;
+    @Option(name="-scores", usage="write the similarity after each neighbor in TSV.", required=false)
+    boolean scores = false;
+    @Option(name="-threads", usage="number of threads (default: 4).", required=false, metaVar="<integer>")
+    int thread_size = 4;
+
+    public KnnGraphBuilder(String[] args)
+    {
+        BinUtils.initArgs(args, this);
+
+        try
+        {
+            VectorStore vectors = VectorStore.load(new File(vector_file), thread_size);
+            long time = System.currentTimeMillis();
+            write(vectors, k, max_rows, thread_size, new File(output_file), binary, scores);
+            BinUtils.LOG.info(String.format("Wrote %d neighbors of %d words in %.1f seconds.\n", k, vectors.size(), (System.currentTimeMillis() - time) / 1000d));
+        }
+        catch (IOException e) { System.err.println("Could not build the k-NN graph."); e.printStackTrace(); System.exit(1); }
+    }
+
+    /**
+     * Writes the k nearest neighbors of every row, excluding the row itself; the vectors are normalized in place.
+     * @param maxRows - neighbors are searched among the first rows only, or all rows if 0.
+     * @param binary - if true, the binary format; otherwise, TSV.
+     * @param scores - if true, TSV has the similarity after each neighbor.
+     */
+    static public void write(VectorStore vectors, int k, int maxRows, int threads, File file, boolean binary, boolean scores) throws IOException
+    {
+        AnalogySolver solver = new AnalogySolver(vectors, maxRows, threads);
+        int rows = vectors.size(), vector_size = vectors.dimension();
+        float[] matrix = vectors.matrix();
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20))
+        {
+            if (binary) writeHeader(out, vectors, k);
+
+            for (int begin=0; begin<rows; begin+=BATCH_SIZE)
+            {
+                int end = Math.min(rows, begin + BATCH_SIZE);
+                float[] queries = Arrays.copyOfRange(matrix, begin * vector_size, end * vector_size);
+                int[][] excluded = new int[end - begin][];
+                for (int i=begin; i<end; i++) excluded[i - begin] = new int[]{i};
+
+                TopKHeap[] heaps = solver.search(queries, excluded, k);
+
+                for (int i=begin; i<end; i++)
+                {
+                    TopKHeap heap = heaps[i - begin];
+                    heap.sort();
+                    if (binary) writeBinary(out, heap, k);
+                    else writeText(out, vectors, i, heap, scores);
+                }
+
+                if (end % (BATCH_SIZE * 16) == 0) BinUtils.LOG.info(String.format("%d/%d rows\n", end, rows));
+            }
+        }
+    }
+
+    static private void writeHeader(OutputStream out, VectorStore vectors, int k) throws IOException
+    {
+        ByteBuffer b = ByteBuffer.allocate(4 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(MAGIC).putInt(VERSION).putInt(vectors.size()).putInt(k);
+        out.write(b.array());
+
+        for (int i=0; i<vectors.size(); i++)
+        {
+            byte[] label = vectors.label(i).getBytes(StandardCharsets.UTF_8);
+            b.clear();
+            b.putInt(label.length);
+            out.write(b.array(), 0, Integer.BYTES);
+            out.write(label);
+        }
+    }
+
+    static private void writeBinary(OutputStream out, TopKHeap heap, int k) throws IOException
+    {
+        ByteBuffer b = ByteBuffer.allocate(2 * k * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i=0; i<k; i++) b.putInt(i < heap.size() ? heap.id(i) : -1);
+        for (int i=0; i<k; i++) b.putFloat(i < heap.size() ? heap.score(i) : 0);
+        out.write(b.array());
+    }
+
+    static private void writeText(OutputStream out, VectorStore vectors, int row, TopKHeap heap, boolean scores) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(vectors.label(row));
+
+        for (int i=0; i<heap.size(); i++)
+        {
+            sb.append('\t').append(vectors.label(heap.id(i)));
+            if (scores) sb.append('\t').append(heap.score(i));
+        }
+
+        sb.append('\n');
+        out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void main(String[] args) { new KnnGraphBuilder(args); }
+}
@@ -0,0 +1,505 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.evaluate;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import edu.emory.mathcs.nlp.common.util.BinUtils;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
+
+/**
+ * Spherical k-means: clusters normalized rows by cosine similarity with unit-length centroids,
+ * so that the nearest centroid of a row is the one with the highest dot product.
+ *
+ * Centroids are seeded by k-means++ on a random sample of the rows, each next seed drawn with probability
+ * proportional to its distance 1 - cos from the nearest seed. Each iteration then assigns either a random mini-batch
+ * or all rows to their nearest centroids on a fork-join pool; every task sums its rows into its own accumulator,
+ * and the accumulators are merged after the assignment. A mini-batch moves each centroid towards the mean of its rows
+ * with a learning rate of 1 over the number of rows it has received so far; a full batch replaces it with the mean.
+ *
+ * With pruning, the assignment of all rows keeps for each row an upper bound on the distance to its centroid
+ * and a lower bound on the distance to any other centroid, and skips the rows whose bounds show that their
+ * centroids cannot change (Hamerly's triangle inequality). Once kept, the bounds are moved at the end of every
+ * update by how far the centroids have moved, so that they hold across full-batch updates and the final assignment.
+ *
+ * This example clusters the vectors into 1000 clusters with mini-batches of 10000 rows on 8 threads:
+ *  SphericalKMeans kmeans = new SphericalKMeans(vectors, 1000, 8, 1);
+ *  kmeans.seed(8000);
+ *  for (int i=0; i<100; i++) kmeans.update(10000);
+ *  kmeans.write(out, true);
+ *
+ * This example runs 20 full-batch iterations that skip the rows whose clusters cannot change:
+ *  for (int i=0; i<20; i++) kmeans.update(0, true);
+ */
+public class SphericalKMeans
+{
+    static private final int BLOCK_ROWS = 1 << 14;   // rows assigned and written at a time
+
+    private final VectorStore vectors;
+    private final float[]     matrix;
+    private final int         rows;
+    private final int         k;
+    private final int         vector_size;
+    private final int         threads;
+    private final Random      random;
+
+    private final float[] centroids;     // k x vector_size, unit length
+    private final long[]  received;      // rows received by each centroid over all mini-batches
+
+    // bounds of the pruned assignment, allocated on first use
+    private int[]   assignments;
+    private float[] upper, lower;
+    private float[] previous;            // centroids when the bounds were last moved
+    private float[] half_distances;      // half the distance from each centroid to its nearest other centroid
+    private long    pruned;              // rows skipped by the last pruned assignment
+
+    /**
+     * Normalizes the vectors in place.
+     * @param k - number of clusters, at most the number of rows.
+     */
+    public SphericalKMeans(VectorStore vectors, int k, int threads, long seed)
+    {
+        if (k < 1 || k > vectors.size()) throw new IllegalArgumentException("Cannot find "+k+" clusters in "+vectors.size()+" vectors.");
+        vectors.normalize(threads);
+        this.vectors = vectors;
+        this.k       = k;
+        this.threads = Math.max(1, threads);
+        matrix       = vectors.matrix();
+        rows         = vectors.size();
+        vector_size  = vectors.dimension();
+        random       = new Random(seed);
+        centroids    = new float[k * vector_size];
+        received     = new long[k];
+    }
+
+//    =================================== Seeding ===================================
+
+    /**
+     * Seeds the centroids by k-means++ on a random sample of the rows.
+     * @param sampleSize - number of rows to sample, at least k; 0 for all rows.
+     */
+    public void seed(int sampleSize)
+    {
+        assignments = null;   // the bounds do not hold for new centroids
+        int[] sample = sample(sampleSize <= 0 ? rows : Math.max(k, Math.min(rows, sampleSize)));
+        float[] distances = new float[sample.length];
+        Arrays.fill(distances, Float.MAX_VALUE);
+        int first = sample[random.nextInt(sample.length)];
+        System.arraycopy(matrix, first * vector_size, centroids, 0, vector_size);
+
+        // one pool for all seeds; the tasks of each seed run on it
+        inPool(() -> {
+            for (int c=1; c<k; c++)
+            {
+                int last = (c - 1) * vector_size;
+
+                // the distance of each sampled row to its nearest seed, updated with the last seed
+                double total = parallelSum(sample.length, i -> {
+                    float d = Math.max(0, 1 - dot(matrix, sample[i] * vector_size, centroids, last));
+                    if (d < distances[i]) distances[i] = d;
+                    return distances[i];
+                });
+
+                int next = sample[pick(distances, total)];
+                System.arraycopy(matrix, next * vector_size, centroids, c * vector_size, vector_size);
+            }
+        });
+    }
+
+    /** @return the index drawn with probability proportional to its weight, or a uniform index if every weight is 0. */
+    private int pick(float[] weights, double total)
+    {
+        if (total <= 0) return random.nextInt(weights.length);
+        double r = random.nextDouble() * total;
+
+        for (int i=0; i<weights.length; i++)
+            if ((r -= weights[i]) <= 0) return i;
+
+        return weights.length - 1;
+    }
+
+    /** @return distinct random rows by a partial Fisher-Yates shuffle. */
+    private int[] sample(int size)
+    {
+        int[] all = IntStream.range(0, rows).toArray();
+
+        for (int i=0; i<size; i++)
+        {
+            int j = i + random.nextInt(rows - i), t = all[i];
+            all[i] = all[j];
+            all[j] = t;
+        }
+
+        return size == rows ? all : Arrays.copyOf(all, size);
+    }
+
+//    =================================== Updating ===================================
+
+    /** Same as {@link #update(int, boolean)} without pruning. */
+    public float update(int batchSize)
+    {
+        return update(batchSize, false);
+    }
+
+    /**
+     * Runs one iteration.
+     * @param batchSize - number of random rows of a mini-batch; 0 or at least the number of rows for a full batch.
+     * @param prune - if true, a full batch skips rows whose centroids cannot change by the triangle inequality;
+     * mini-batches, which may draw a row more than once, always compare every centroid.
+     * @return the average cosine similarity of the rows of the batch to their nearest centroids before the update.
+     */
+    public float update(int batchSize, boolean prune)
+    {
+        boolean full = batchSize <= 0 || batchSize >= rows;
+        boolean bounded = prune && full;
+        int[] batch = full ? null : random.ints(batchSize, 0, rows).toArray();
+        int size = full ? rows : batch.length;
+        int tasks = Math.min(threads, size);
+        Accumulator[] accumulators = new Accumulator[tasks];
+        long[] skipped = new long[tasks];
+        if (bounded) initBounds();
+
+        run(tasks, t -> {
+            Accumulator a = accumulators[t] = new Accumulator();
+            int begin = (int)((long)size * t / tasks), end = (int)((long)size * (t + 1) / tasks);
+
+            for (int i=begin; i<end; i++)
+            {
+                int row = full ? i : batch[i], c;
+
+                if (bounded)
+                {
+                    if (assignPruned(row)) skipped[t]++;
+                    c = assignments[row];
+                }
+                else c = nearest(row * vector_size);
+
+                a.add(c, row);
+            }
+        });
+
+        if (bounded) pruned = Arrays.stream(skipped).sum();
+
+        for (int t=1; t<tasks; t++) accumulators[0].merge(accumulators[t]);
+        Accumulator sum = accumulators[0];
+
+        for (int c=0; c<k; c++)
+        {
+            if (sum.counts[c] == 0) continue;
+            int offset = c * vector_size;
+
+            if (full)
+                System.arraycopy(sum.sums, offset, centroids, offset, vector_size);
+            else
+            {
+                received[c] += sum.counts[c];
+                float rate = (float)sum.counts[c] / received[c];
+
+                // moves towards the mean of the batch: (1 - rate) * centroid + rate * (sum / count)
+                for (int j=0; j<vector_size; j++)
+                    centroids[offset+j] += rate * (sum.sums[offset+j] / sum.counts[c] - centroids[offset+j]);
+            }
+
+            normalize(centroids, offset);
+        }
+
+        if (assignments != null) moveBounds();
+        return (float)(sum.similarity / size);
+    }
+
+    /** Sums of the rows assigned to each centroid by one task. */
+    private class Accumulator
+    {
+        final float[] sums   = new float[k * vector_size];
+        final int[]   counts = new int[k];
+        double similarity;
+
+        void add(int c, int row)
+        {
+            int offset = c * vector_size, r = row * vector_size;
+            for (int j=0; j<vector_size; j++) sums[offset+j] += matrix[r+j];
+            similarity += dot(matrix, r, centroids, offset);
+            counts[c]++;
+        }
+
+        void merge(Accumulator other)
+        {
+            for (int i=0; i<sums.length; i++) sums[i] += other.sums[i];
+            for (int c=0; c<k; c++) counts[c] += other.counts[c];
+            similarity += other.similarity;
+        }
+    }
+
+//    =================================== Assigning ===================================
+
+    /**
+     * Assigns every row to its nearest centroid and writes "label, cluster, cosine similarity" per line as each block of rows is assigned.
+     * @param prune - if true, skips rows whose centroids cannot change by the triangle inequality; the bounds persist across calls.
+     * @return the average cosine similarity of the rows to their centroids.
+     */
+    public float write(Writer out, boolean prune) throws IOException
+    {
+        int[]   clusters     = new int[Math.min(rows, BLOCK_ROWS)];
+        float[] similarities = new float[clusters.length];
+        double  total = 0;
+        if (prune) { initBounds(); pruned = 0; }
+
+        for (int begin=0; begin<rows; begin+=BLOCK_ROWS)
+        {
+            int b = begin, end = Math.min(rows, begin + BLOCK_ROWS), size = end - begin;
+            int tasks = Math.min(threads, size);
+            long[] skipped = new long[tasks];
+
+            run(tasks, t -> {
+                for (int i=b+(int)((long)size*t/tasks), e=b+(int)((long)size*(t+1)/tasks); i<e; i++)
+                {
+                    int c;
+
+                    if (prune)
+                    {
+                        if (assignPruned(i)) skipped[t]++;
+                        c = assignments[i];
+                    }
+                    else c = nearest(i * vector_size);
+
+                    clusters[i - b] = c;
+                    similarities[i - b] = dot(matrix, i * vector_size, centroids, c * vector_size);
+                }
+            });
+
+            for (int i=0; i<size; i++)
+            {
+                out.write(vectors.label(begin + i) + "\t" + clusters[i] + "\t" + similarities[i] + "\n");
+                total += similarities[i];
+            }
+
+            for (long s : skipped) pruned += s;
+        }
+
+        if (prune) BinUtils.LOG.info(String.format("Pruned %d/%d rows.\n", pruned, rows));
+        return (float)(total / rows);
+    }
+
+    /** @return the cluster of each row, using and updating the bounds if pruning. */
+    public int[] assign(boolean prune)
+    {
+        int[] clusters = new int[rows];
+        long[] skipped = new long[threads];
+        if (prune) initBounds();
+
+        run(threads, t -> {
+            for (int i=(int)((long)rows*t/threads), e=(int)((long)rows*(t+1)/threads); i<e; i++)
+            {
+                if (prune) { if (assignPruned(i)) skipped[t]++; clusters[i] = assignments[i]; }
+                else clusters[i] = nearest(i * vector_size);
+            }
+        });
+
+        if (prune) pruned = Arrays.stream(skipped).sum();
+        return clusters;
+    }
+
+    /** @return the number of rows skipped without comparing them to every centroid by the last pruned assignment. */
+    public long prunedCount()
+    {
+        return pruned;
+    }
+
+    /** Allocates the bounds on first use; rows without bounds are compared to every centroid once. */
+    private void initBounds()
+    {
+        if (assignments != null) return;
+        assignments = new int[rows];
+        upper = new float[rows];
+        lower = new float[rows];
+        Arrays.fill(assignments, -1);
+        previous = centroids.clone();
+        half_distances = new float[k];
+        halfDistances();
+    }
+
+    /**
+     * Moves the bounds by how far the centroids have moved since the bounds were last moved
+     * and recomputes half the distance from each centroid to its nearest other centroid.
+     * Called at the end of every update once the bounds are kept.
+     */
+    private void moveBounds()
+    {
+        float[] drifts = new float[k];
+        for (int c=0; c<k; c++) drifts[c] = (float)Math.sqrt(squaredDistance(centroids, c * vector_size, previous, c * vector_size));
+        float max = 0;
+        for (float d : drifts) max = Math.max(max, d);
+        float max_drift = max;
+
+        run(threads, t -> {
+            for (int i=(int)((long)rows*t/threads), e=(int)((long)rows*(t+1)/threads); i<e; i++)
+            {
+                if (assignments[i] < 0) continue;
+                upper[i] += drifts[assignments[i]];
+                lower[i] -= max_drift;
+            }
+        });
+
+        halfDistances();
+        System.arraycopy(centroids, 0, previous, 0, centroids.length);
+    }
+
+    private void halfDistances()
+    {
+        run(threads, t -> {
+            for (int c=t; c<k; c+=threads)
+            {
+                float min = Float.MAX_VALUE;
+                for (int j=0; j<k; j++) if (j != c) min = Math.min(min, (float)squaredDistance(centroids, c * vector_size, centroids, j * vector_size));
+                half_distances[c] = k > 1 ? (float)Math.sqrt(min) / 2 : Float.MAX_VALUE;
+            }
+        });
+    }
+
+    /**
+     * Assigns the row using its bounds; distances are Euclidean, which rank unit vectors as their cosine similarities do.
+     * @return true if the row was skipped without comparing it to every centroid.
+     */
+    private boolean assignPruned(int row)
+    {
+        int offset = row * vector_size, a = assignments[row];
+
+        if (a >= 0)
+        {
+            float bound = Math.max(lower[row], half_distances[a]);
+            if (upper[row] <= bound) return true;
+            upper[row] = distance(offset, a);
+            if (upper[row] <= bound) return true;
+        }
+
+        int best = -1, second = -1;
+        float d1 = Float.MAX_VALUE, d2 = Float.MAX_VALUE;
+
+        for (int c=0; c<k; c++)
+        {
+            float d = distance(offset, c);
+            if (d < d1) { d2 = d1; second = best; d1 = d; best = c; }
+            else if (d < d2) { d2 = d; second = c; }
+        }
+
+        assignments[row] = best;
+        upper[row] = d1;
+        lower[row] = second >= 0 ? d2 : Float.MAX_VALUE;
+        return false;
+    }
+
+    /** @return the Euclidean distance between the unit row and the centroid, sqrt(2 - 2 cos). */
+    private float distance(int offset, int c)
+    {
+        return (float)Math.sqrt(Math.max(0, 2 - 2 * dot(matrix, offset, centroids, c * vector_size)));
+    }
+
+    /** @return the centroid with the highest dot product with the row at the offset. */
+    private int nearest(int offset)
+    {
+        int best = 0;
+        float max = Float.NEGATIVE_INFINITY;
+
+        for (int c=0; c<k; c++)
+        {
+            float d = dot(matrix, offset, centroids, c * vector_size);
+            if (d > max) { max = d; best = c; }
+        }
+
+        return best;
+    }
+
+    /** @return the unit-length centroids in row-major order; not a copy. */
+    public float[] centroids()
+    {
+        return centroids;
+    }
+
+//    =================================== Helpers ===================================
+
+    private float dot(float[] a, int offsetA, float[] b, int offsetB)
+    {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int j = 0;
+
+        for (; j+3<vector_size; j+=4)
+        {
+            s0 += a[offsetA+j  ] * b[offsetB+j  ];
+            s1 += a[offsetA+j+1] * b[offsetB+j+1];
+            s2 += a[offsetA+j+2] * b[offsetB+j+2];
+            s3 += a[offsetA+j+3] * b[offsetB+j+3];
+        }
+
+        for (; j<vector_size; j++) s0 += a[offsetA+j] * b[offsetB+j];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private double squaredDistance(float[] a, int offsetA, float[] b, int offsetB)
+    {
+        double sum = 0;
+        for (int j=0; j<vector_size; j++) { double d = a[offsetA+j] - b[offsetB+j]; sum += d * d; }
+        return sum;
+    }
+
+    private void normalize(float[] v, int offset)
+    {
+        double sum = 0;
+        for (int j=0; j<vector_size; j++) sum += v[offset+j] * v[offset+j];
+        if (sum == 0) return;
+        float norm = (float)Math.sqrt(sum);
+        for (int j=0; j<vector_size; j++) v[offset+j] /= norm;
+    }
+
+    private interface RowFunction { float apply(int i); }
+
+    /** @return the sum of the function over [0, size), added in the same order for any number of threads. */
+    private double parallelSum(int size, RowFunction f)
+    {
+        int tasks = Math.min(threads, size);
+        double[] sums = new double[tasks];
+
+        run(tasks, t -> {
+            for (int i=(int)((long)size*t/tasks), e=(int)((long)size*(t+1)/tasks); i<e; i++) sums[t] += f.apply(i);
+        });
+
+        return Arrays.stream(sums).sum();
+    }
+
+    /** Runs the tasks [0, tasks) in parallel, on the current pool if called from one. */
+    private void run(int tasks, IntConsumer task)
+    {
+        if (ForkJoinTask.inForkJoinPool()) IntStream.range(0, tasks).parallel().forEach(task);
+        else inPool(() -> IntStream.range(0, tasks).parallel().forEach(task));
+    }
+
+    /** Runs the job on a fork-join pool of the threads, whose parallel streams run on the same pool. */
+    private void inPool(Runnable job)
+    {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try { pool.submit(job).get(); }
+        catch (InterruptedException | ExecutionException e) { throw new IllegalStateException(e); }
+        finally { pool.shutdown(); }
+    }
+}
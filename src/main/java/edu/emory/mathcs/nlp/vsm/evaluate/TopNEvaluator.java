@@ -16,6 +16,11 @@
 package edu.emory.mathcs.nlp.vsm.evaluate;
 
 import edu.emory.mathcs.nlp.common.util.BinUtils;
+import edu.emory.mathcs.nlp.vsm.util.HnswIndex;
+import edu.emory.mathcs.nlp.vsm.util.QuantizedVectors;
+import edu.emory.mathcs.nlp.vsm.util.TopKHeap;
+import edu.emory.mathcs.nlp.vsm.util.VectorSource;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
 import org.kohsuke.args4j.Option;
 
 import java.io.*;
@@ -37,16 +42,36 @@ public class TopNEvaluator
     String word_file = null;
     @Option(name="--N", usage="number of closest word vectors to find.", required=false, metaVar="<integer>")
     int N = 10;
-
-    Map<String,float[]> map = null;
+    @Option(name="-ann", usage="find approximate closest words on the HNSW index <input>.hnsw, built if missing.", required=false)
+    boolean ann = false;
+    @Option(name="-ef-search", usage="beam size of the approximate search; higher is more accurate (default: 100).", required=false, metaVar="<integer>")
+    int ef_search = HnswIndex.DEFAULT_EF_SEARCH;
+
+    VectorStore vectors = null;
+    QuantizedVectors quantized = null;   // set instead of the vectors if the input file is quantized
+    VectorSource source = null;          // either of the above
+    HnswIndex index = null;              // set with -ann
     Set<String> word_list = null;
 
     public TopNEvaluator(String[] args)
     {
         BinUtils.initArgs(args, this);
-        try { map = getVectors(new File(vector_file)); }
+        try
+        {
+            File file = new File(vector_file);
+            if (QuantizedVectors.isQuantized(file)) quantized = QuantizedVectors.open(file);
+            else vectors = VectorStore.load(file, Runtime.getRuntime().availableProcessors());
+            source = quantized != null ? quantized : vectors;
+        }
         catch (IOException e) { System.err.println("Could not load Word2Vec vectors."); e.printStackTrace(); System.exit(1); }
 
+        if (ann)
+        {
+            if (quantized != null) { System.err.println("-ann requires vectors of floats, not quantized vectors."); System.exit(1); }
+            try { index = HnswIndex.openOrBuild(new File(vector_file), vectors, Runtime.getRuntime().availableProcessors()); }
+            catch (IOException e) { System.err.println("Could not open the HNSW index."); e.printStackTrace(); System.exit(1); }
+        }
+
         if (word_file != null) {
             try { word_list = getWordList(new File(word_file));}
             catch (IOException e) { System.err.println("Could not read word file."); e.printStackTrace(); System.exit(1);}
@@ -56,26 +81,6 @@ public class TopNEvaluator
         catch (IOException e) { System.err.println("Could not evaluate top ten words."); e.printStackTrace(); System.exit(1); }
     }
 
-    private Map<String,float[]> getVectors(File vector_file) throws IOException
-    {
-        Map<String,float[]> map = new HashMap<>();
-
-        BufferedReader in = new BufferedReader(new FileReader(vector_file));
-        String line;
-        while((line = in.readLine()) != null)
-        {
-            String[] split = line.split("\t");
-            String word = split[0];
-            float[] vector = new float[split.length - 1];
-            for (int i=1; i<split.length; i++)
-                vector[i-1] = Float.parseFloat(split[i]);
-            map.put(word, vector);
-        }
-        in.close();
-
-        return map;
-    }
-
     private Set<String> getWordList(File word_file) throws IOException
     {
         Set<String> word_list = new HashSet<>();
@@ -120,38 +125,60 @@ public class TopNEvaluator
     {
         TopNQueue top_ten = new TopNQueue(N);
 
-        if (!map.containsKey(word1)) return top_ten.toMap();
+        if (!source.contains(word1)) return top_ten.toMap();
+        if (quantized != null) return getTopTen(quantized.scorer(source.get(word1)), word1, top_ten);
+        if (index != null) return getTopTen(index, word1, top_ten);
+
+        int row1 = vectors.indexOf(word1);
 
-        for (String word2 : map.keySet())
+        for (int row2=0; row2<vectors.size(); row2++)
         {
+            String word2 = vectors.label(row2);
             if (word1.equals(word2))
                 continue;
             if (word_list != null && !word_list.contains(word2))
                 continue;
 
-            top_ten.add(word2, cosine(word1, word2));
+            top_ten.add(word2, vectors.cosine(row1, row2));
         }
 
         return top_ten.toMap();
     }
 
-    float cosine(String word1, String word2)
+    /** Compares the word to every row on the compressed vectors. */
+    private Map<String,Float> getTopTen(QuantizedVectors.Scorer scorer, String word1, TopNQueue top_ten)
     {
-        float[] w1 = map.get(word1);
-        float[] w2 = map.get(word2);
+        for (int i=0; i<quantized.size(); i++)
+        {
+            String word2 = quantized.label(i);
+            if (word1.equals(word2))
+                continue;
+            if (word_list != null && !word_list.contains(word2))
+                continue;
+
+            top_ten.add(word2, scorer.cosine(i));
+        }
+
+        return top_ten.toMap();
+    }
 
-        float norm1 = 0.0f, norm2 = 0.0f;
+    /** Takes the closest words from the approximate search; with a word list, only among the efSearch candidates. */
+    private Map<String,Float> getTopTen(HnswIndex index, String word1, TopNQueue top_ten)
+    {
+        TopKHeap top = index.search(vectors.get(word1), word_list != null ? Math.max(N + 1, ef_search) : N + 1, ef_search);
+
+        for (int i=0; i<top.size(); i++)
+        {
+            String word2 = vectors.label(top.id(i));
+            if (word1.equals(word2))
+                continue;
+            if (word_list != null && !word_list.contains(word2))
+                continue;
 
-        float dot_product = 0.0f;
-        for(int k=0; k<w1.length; k++){
-            dot_product += w1[k]*w2[k];
-            norm1       += w1[k]*w1[k];
-            norm2       += w2[k]*w2[k];
+            top_ten.add(word2, top.score(i));
         }
-        norm1 = (float) Math.sqrt(norm1);
-        norm2 = (float) Math.sqrt(norm2);
 
-        return dot_product/(norm1*norm2);
+        return top_ten.toMap();
     }
 
     public static void main(String[] args) { new TopNEvaluator(args); }
@@ -16,11 +16,12 @@
 package edu.emory.mathcs.nlp.vsm.evaluate;
 
 import edu.emory.mathcs.nlp.common.util.BinUtils;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
 import org.kohsuke.args4j.Option;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author Austin Blodgett
@@ -33,93 +34,62 @@ public class TriadEvaluator
     String triad_file = null;
     @Option(name="-output", usage="output file to save evaluation.", required=false, metaVar="<filename>")
     String output_file = null;
+    @Option(name="-threads", usage="number of threads to use.", required=false, metaVar="<int>")
+    int threads = 4;
 
-    Map<String,float[]> map;
+    VectorStore vectors;
 
     public TriadEvaluator(String[] args)
     {
         BinUtils.initArgs(args, this);
-        try { map = getVectors(new File(vector_file)); }
+        try { vectors = VectorStore.load(new File(vector_file), threads); }
         catch (IOException e) { System.err.println("Could not load Word2Vec vectors."); e.printStackTrace(); System.exit(1); }
 
         try { evaluate(new File(triad_file)); }
         catch (IOException e) { System.err.println("Could not evaluate triads."); e.printStackTrace(); System.exit(1); }
     }
 
-    private Map<String,float[]> getVectors(File vector_file) throws IOException
-    {
-        Map<String,float[]> map = new HashMap<>();
-
-        BufferedReader in = new BufferedReader(new FileReader(vector_file));
-        String line;
-        while((line = in.readLine()) != null)
-        {
-            String[] split = line.split("\t");
-            String word = split[0];
-            float[] vector = new float[split.length - 1];
-            for (int i=1; i<split.length; i++)
-                vector[i-1] = Float.parseFloat(split[i]);
-            map.put(word, vector);
-        }
-        in.close();
-
-        return map;
-    }
-
+    /**
+     * Each triad "w0,w1,w2,c1,c2" asks whether w1 or w2 is closer to w0, where c1 and c2 are the numbers of participants choosing w1 and w2.
+     * The vectors agree if w1 is more similar than w2 exactly when c1 > c2, and the score weights each triad by |c1 - c2|.
+     * Triads are answered in parallel by {@link EvaluationHarness}; the output keeps the order of the file.
+     */
     public void evaluate(File triad_file) throws IOException
     {
+        List<String[]> triads = new ArrayList<>();
         BufferedReader in = new BufferedReader(new FileReader(triad_file));
-        BufferedWriter out = null;
-        if (output_file != null)
-            out = new BufferedWriter(new FileWriter(output_file));
-
-        float weighted_eval = 0;
-        int weighted_count = 0;
-
-
         String line;
+
         while((line = in.readLine()) != null){
             String[] triad = line.split(",");
             if(triad.length != 5) throw new IOException("Could not read triad file. Incorrect format.");
+            if(vectors.contains(triad[0]) && vectors.contains(triad[1]) && vectors.contains(triad[2]))
+                triads.add(triad);
+        }
 
-            if(!(map.containsKey(triad[0]) && map.containsKey(triad[1]) && map.containsKey(triad[2])))
-                    continue;
+        in.close();
 
+        // lines[i] is written by the task of the i'th triad only
+        String[] lines = new String[triads.size()];
+        long[] weights = new EvaluationHarness(threads).run(triads.size(), () -> new long[2], (w, i) -> {
+            String[] triad = triads.get(i);
             int word_count1 = Integer.parseInt(triad[3]);
             int word_count2 = Integer.parseInt(triad[4]);
+            int weight = Math.abs(word_count1 - word_count2);
+            boolean agree = (word_count1 > word_count2) == (similarity(triad[1],triad[0]) > similarity(triad[2],triad[0]));
 
-            if (output_file != null)
-                if((word_count1 > word_count2) == (similarity(triad[1],triad[0]) > similarity(triad[2],triad[0]))) 
-                    for(int i=0; i<Math.abs(word_count1-word_count2); i++)
-                        weighted_eval++;
-            else
-                if((word_count1 > word_count2) == (similarity(triad[1],triad[0]) > similarity(triad[2],triad[0]))) {
-                    for(int i=0; i<Math.abs(word_count1-word_count2); i++)
-                        weighted_eval++;
-                    if(word_count1 > word_count2)
-                        out.write(triad[0] + " " + triad[1] + " " + triad[2] + " Y 1 " + Math.abs(word_count1-word_count2) + "\n");
-                    else
-                        out.write(triad[0] + " " + triad[1] + " " + triad[2] + " Y 2 " + Math.abs(word_count1-word_count2) + "\n");
-                }else{
-                    if(word_count1 > word_count2)
-                        out.write(triad[0] + " " + triad[1] + " " + triad[2] + " N 1 " + Math.abs(word_count1-word_count2) + "\n");
-                    else
-                        out.write(triad[0] + " " + triad[1] + " " + triad[2] + " Y 2 " + Math.abs(word_count1-word_count2) + "\n");
-                }
-
-            for(int i=0; i<Math.abs(word_count1-word_count2); i++)
-                weighted_count++;
-        }
-
-        in.close();
-
-        if(weighted_count != 0)
-            weighted_eval /= weighted_count;
+            if (agree) w[0] += weight;
+            w[1] += weight;
+            lines[i] = triad[0] + " " + triad[1] + " " + triad[2] + (agree ? " Y " : " N ") + (word_count1 > word_count2 ? 1 : 2) + " " + weight + "\n";
+        }, (w1, w2) -> { w1[0] += w2[0]; w1[1] += w2[1]; });
 
+        float weighted_eval = weights[1] != 0 ? (float)weights[0] / weights[1] : 0;
         System.out.println(vector_file+" Weighted Traid Evaluation: " + weighted_eval);
 
         if (output_file != null)
         {
+            BufferedWriter out = new BufferedWriter(new FileWriter(output_file));
+            for (String l : lines) out.write(l);
             out.write(vector_file + " Weighted Traid Evaluation: " + weighted_eval + "\n");
             out.close();
         }
@@ -127,21 +97,7 @@ public class TriadEvaluator
 
     double similarity(String word1, String word2)
     {
-        float[] w1 = map.get(word1);
-        float[] w2 = map.get(word2);
-
-        double norm1 = 0.0, norm2 = 0.0;
-
-        double dot_product = 0.0;
-        for(int k=0; k<w1.length; k++){
-            dot_product += w1[k]*w2[k];
-            norm1       += w1[k]*w1[k];
-            norm2       += w2[k]*w2[k];
-        }
-        norm1 = Math.sqrt(norm1);
-        norm2 = Math.sqrt(norm2);
-
-        return dot_product/(norm1*norm2);
+        return vectors.cosine(vectors.indexOf(word1), vectors.indexOf(word2));
     }
 
     public static void main(String[] args) { new TriadEvaluator(args); }
@@ -1,6 +1,7 @@
 package edu.emory.mathcs.nlp.vsm.evaluate;
 
 import edu.emory.mathcs.nlp.common.util.BinUtils;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
 import org.kohsuke.args4j.Option;
 
 import java.io.*;
@@ -22,16 +23,20 @@ public class VecCluster
     int num_clusters = 10;
     @Option(name="-iter", usage="number of iterations to run.", required=false, metaVar="<integer>")
     int num_iterations = 10;
-
-    int vector_size;
-    int num_vectors;
-
-    float[][] vectors;  // num_vectors  x vector_size
-    float[][] means;	// num_clusters x vector_size
-    double[][] clusters; // num_clusters x num_vectors
-
+    @Option(name="-batch", usage="rows of each mini-batch; 0 for all rows in every iteration (default: 0).", required=false, metaVar="<integer>")
+    int batch_size = 0;
+    @Option(name="-seed-sample", usage="rows sampled for the k-means++ seeding; 0 for all rows (default: 0).", required=false, metaVar="<integer>")
+    int seed_sample = 0;
+    @Option(name="-prune", usage="skip rows whose clusters cannot change by the triangle inequality in full-batch iterations and the final assignment.", required=false)
+    boolean prune = false;
+    @Option(name="-threads", usage="number of threads (default: number of processors).", required=false, metaVar="<integer>")
+    int threads = Runtime.getRuntime().availableProcessors();
+    @Option(name="-seed", usage="seed of the random sampling (default: 1).", required=false, metaVar="<integer>")
+    long seed = 1;
+
+    VectorStore vectors;
+    SphericalKMeans kmeans;
     List<String> word_list;
-    final float std_dev = 100;
 
     public VecCluster(String[] args)
     {
@@ -42,76 +47,18 @@ public class VecCluster
         }
 
         try { 
+            vectors = VectorStore.load(new File(vector_file), threads);
             if(word_list != null)
-                vectors = getVectors(new File(vector_file), word_list); 
-            else
-                vectors = getVectors(new File(vector_file));
+                vectors = vectors.subset(word_list, threads);
             }
         catch (IOException e) { System.err.println("Could not load Word2Vec vectors."); e.printStackTrace(); System.exit(1); }
 
-        this.num_vectors = vectors.length;
-        this.vector_size = vectors[0].length;
-
-        means = new float[num_clusters][vector_size];
-        clusters = new double[num_clusters][num_vectors];
+        if (vectors.size() < num_clusters) { System.err.println("Found "+vectors.size()+" vectors for "+num_clusters+" clusters."); System.exit(1); }
 
         cluster();
         try { write(new File(output_file)); } catch (IOException e) { e.printStackTrace(); }
     }
 
-    private float[][] getVectors(File vector_file) throws IOException
-    {
-        Map<String,float[]> map = new HashMap<>();
-
-        BufferedReader in = new BufferedReader(new FileReader(vector_file));
-        String line;
-        while((line = in.readLine()) != null)
-        {
-            String[] split = line.split("\t");
-            String word = split[0];
-
-            float[] vector = new float[split.length - 1];
-            for (int i=1; i<split.length; i++)
-                vector[i-1] = Float.parseFloat(split[i]);
-            map.put(word, vector);
-        }
-        in.close();
-
-        word_list = new ArrayList<String>(map.keySet());
-        float[][] vectors = new float[word_list.size()][];
-        for (int i=0; i<word_list.size(); i++)
-            vectors[i] = map.get(word_list.get(i));
-
-        return vectors;
-    }
-
-
-    private float[][] getVectors(File vector_file, List<String> word_list) throws IOException
-    {
-        Map<String,float[]> map = new HashMap<>();
-
-        BufferedReader in = new BufferedReader(new FileReader(vector_file));
-        String line;
-        while((line = in.readLine()) != null)
-        {
-            String[] split = line.split("\t");
-            String word = split[0];
-            if (!word_list.contains(word)) continue;
-
-            float[] vector = new float[split.length - 1];
-            for (int i=1; i<split.length; i++)
-                vector[i-1] = Float.parseFloat(split[i]);
-            map.put(word, vector);
-        }
-        in.close();
-
-        float[][] vectors = new float[word_list.size()][];
-        for (int i=0; i<word_list.size(); i++)
-            vectors[i] = map.get(word_list.get(i));
-
-        return vectors;
-    }
-
     private List<String> getWordList(File word_file) throws IOException
     {
         List<String> word_list = new ArrayList<>();
@@ -125,123 +72,30 @@ public class VecCluster
         return word_list;
     }
 
-    public void cluster(){
-
-        // normalize vectors
-        for(int i=0; i<vectors.length; i++)
-            normalize(vectors[i]);
-
-		/* Randomly choose K vectors to act as the means for each cluster */
-        Set<Integer> random_vectors = new HashSet<>(num_clusters);
-        for(int i=0;i<num_clusters;i++)
-        {
-            int vector;
-
-            do {
-                vector = (int) (vectors.length*Math.random());
-            } while(random_vectors.contains(vector));
-
-            random_vectors.add(vector);
-            means[i] = Arrays.copyOf(vectors[vector],vectors[vector].length);
-        }
-
-        int iter = 0;
-        while(iter < num_iterations)
-        {
-            expectation();
-            maximization();
-            System.out.println("expectation-maximization "+iter);
-            iter++;
-        }
-    }
-
-    void expectation()
+    /** Seeds the clusters by k-means++ and runs spherical k-means on the normalized vectors. */
+    public void cluster()
     {
-        double normalizer = 0.0;
-
-        for(int v=0; v<num_vectors; v++)
-        {
-            for(int c=0; c<num_clusters; c++)
-            {
-                double p = gaussianProb(euclideanDist(vectors[v], means[c]));
-                clusters[c][v] = p;
-                normalizer += p;
-            }
-
-            if (normalizer == 0.0) continue;
-            for(int c=0; c<num_clusters; c++)
-                clusters[c][v] /= normalizer;
-        }
-    }
+        long time = System.currentTimeMillis();
+        kmeans = new SphericalKMeans(vectors, num_clusters, threads, seed);
+        kmeans.seed(seed_sample);
+        BinUtils.LOG.info(String.format("Seeded %d clusters in %d ms.\n", num_clusters, System.currentTimeMillis() - time));
 
-    void maximization()
-    {
-        for(int c=0; c<num_clusters; c++)
+        for (int iter=0; iter<num_iterations; iter++)
         {
-            double normalizer = 0.0;
-
-            for (int v = 0; v < num_vectors; v++)
-            {
-                for (int i = 0; i < vector_size; i++)
-                    means[c][i] += clusters[c][v] * vectors[v][i];
-
-                normalizer += clusters[c][v];
-            }
-
-            if (normalizer == 0.0) continue;
-            for (int i = 0; i < vector_size; i++)
-                means[c][i] /= normalizer;
+            time = System.currentTimeMillis();
+            float similarity = kmeans.update(batch_size, prune);
+            BinUtils.LOG.info(String.format("Iteration %d: average similarity %.4f (%d ms)\n", iter, similarity, System.currentTimeMillis() - time));
+            if (prune && batch_size <= 0) BinUtils.LOG.info(String.format("- pruned %d/%d rows\n", kmeans.prunedCount(), vectors.size()));
         }
     }
 
-    void normalize(float[] v)
+    /** Writes "word, cluster, cosine similarity to the cluster" per line while the rows are assigned. */
+    public void write(File output_file) throws IOException
     {
-        double norm = 0.0f;
-
-        for(int i=0; i<vector_size; i++)
-            norm += v[i]*v[i];
-        norm = Math.sqrt(norm);
-
-        if (norm == 0.0) return;
-        for(int i=0; i<vector_size; i++)
-            v[i] /= norm;
-    }
-
-    double gaussianProb(double distance)
-    {
-        // Note that any constant factor will be normalized out in expectation() phase
-        double p = Math.exp(- distance*distance/(2*std_dev*std_dev));
-        return p!=0 ? p : Double.MIN_VALUE;
-    }
-
-    double euclideanDist(float[] v, float[] w)
-    {
-        double distance = 0.0f;
-
-        for(int i=0; i<vector_size; i++)
-            distance += (v[i]-w[i])*(v[i]-w[i]);
-
-        distance = Math.sqrt(distance);
-
-        return distance;
-    }
-
-    public void write(File output_file) throws IOException {
         Writer out = new BufferedWriter(new FileWriter(output_file));
-
-        for(int v=0; v<num_vectors; v++)
-        {
-            int max = 0;
-            for(int c=0; c<num_clusters; c++)
-                if (clusters[c][v]>clusters[max][v])
-                    max = c;
-            out.write(word_list.get(v)+"\t");
-            out.write(max+"\t");
-            for(int c=0; c<num_clusters; c++)
-                out.write(clusters[c][v]+"\t");
-            out.write("\n");
-        }
+        float similarity = kmeans.write(out, prune);
         out.close();
+        BinUtils.LOG.info(String.format("Average similarity: %.4f\n", similarity));
     }
 
     public static void main(String[] args)
@@ -1,13 +1,26 @@
 package edu.emory.mathcs.nlp.vsm.evaluate;
 
 import edu.emory.mathcs.nlp.common.util.BinUtils;
-import edu.emory.mathcs.nlp.vsm.Word2Vec;
+import edu.emory.mathcs.nlp.vsm.MappedModel;
+import edu.emory.mathcs.nlp.vsm.util.TopKHeap;
+import edu.emory.mathcs.nlp.vsm.util.Vocabulary;
 import org.kohsuke.args4j.Option;
 
 import java.io.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /**
- * Created by austin on 2/12/2016.
+ * Saves the words associated with each hidden layer component: the N output words of the highest values of the component,
+ * each value weighted by a power of the count of the word. The output vectors are read from the model saved by Word2Vec
+ * as it is mapped, or passed in by {@link edu.emory.mathcs.nlp.vsm.Word2Vec} at the end of training.
+ *
+ * The features of all components are found in one pass over the output vectors: the rows are split into ranges over the threads,
+ * each thread keeps a {@link TopKHeap} per component for its range, and the heaps of each component are merged at the end.
+ *
+ * This example saves the 20 words of each component with 8 threads:
+ *  java edu.emory.mathcs.nlp.vsm.evaluate.VecFeatures -input vectors.txt.model -output features.txt -threads 8
  */
 public class VecFeatures
 {
@@ -17,54 +30,109 @@ public class VecFeatures
     String output_file = null;
     @Option(name="--N", usage="number of closest word vectors to find.", required=false, metaVar="<integer>")
     int N = 20;
+    @Option(name="-threads", usage="number of threads (default: number of processors).", required=false, metaVar="<integer>")
+    int threads = Runtime.getRuntime().availableProcessors();
 
-    Word2Vec word2vec;
+    MappedModel model;
 
     public VecFeatures(String[] args)
     {
         BinUtils.initArgs(args, this);
         try { readModel(new File(model_file)); } catch (IOException e) { e.printStackTrace(); }
 
-        try { saveFeatures(new File(output_file)); } catch (IOException e) { e.printStackTrace(); }
+        try { saveFeatures(new File(output_file)); model.close(); } catch (IOException e) { e.printStackTrace(); }
     }
 
 
+    /** Opens the model saved by Word2Vec; its output vectors are read directly from the file. */
     public void readModel(File read_model_file) throws IOException
     {
-        ObjectInputStream oin = new ObjectInputStream(new FileInputStream(read_model_file));
-        try
-        {
-            word2vec = (Word2Vec) oin.readObject();
-        }
-        catch (ClassNotFoundException e) { e.printStackTrace(); }
-        oin.close();
+        model = MappedModel.open(read_model_file);
     }
 
     void saveFeatures(File feature_file) throws IOException
     {
-        if (!feature_file.isFile())
-            feature_file.createNewFile();
+        saveFeatures(feature_file, model.outVocab(), model.vectorSize(), model::getV, N, 0.25, threads);
+    }
+
+    /** Copies the output vector of a word, e.g., from an array, a weight matrix, or a mapped model. */
+    public interface Rows
+    {
+        void get(int row, float[] vector);
+    }
 
-        float value;
+    /**
+     * Writes a line per component: the component followed by its words in descending order of the weighted values.
+     * @param power - exponent of the count of each word weighting its values.
+     */
+    static public void saveFeatures(File feature_file, Vocabulary out_vocab, int vector_size, Rows V, int N, double power, int threads) throws IOException
+    {
+        int[][] top = topRows(out_vocab, vector_size, V, N, power, threads);
         BufferedWriter out = new BufferedWriter(new FileWriter(feature_file));
 
-        for (int k=0; k<word2vec.vector_size; k++)
+        for (int k=0; k<vector_size; k++)
         {
-            TopNQueue top = new TopNQueue(N);
-            for (int v=0; v<word2vec.out_vocab.size(); v++)
-            {
-                value = word2vec.V[v*word2vec.vector_size + k] * (float) Math.pow(word2vec.out_vocab.get(v).count, 0.25);
-                top.add(word2vec.out_vocab.get(v).form, value);
-            }
             out.write(k+"\t");
-            for (String s : top.list())
-                out.write(s+"\t");
+            for (int v : top[k])
+                out.write(out_vocab.get(v).form+"\t");
             out.write("\n");
         }
 
         out.close();
     }
 
+    /**
+     * Only positive weighted values are kept, so a component may have fewer than N words.
+     * @return the rows of the N highest weighted values of each component in descending order.
+     */
+    static public int[][] topRows(Vocabulary out_vocab, int vector_size, Rows V, int N, double power, int threads)
+    {
+        int rows = out_vocab.size(), tasks = Math.max(1, Math.min(threads, rows / 1024));
+        float[] weights = new float[rows];
+        TopKHeap[][] heaps = new TopKHeap[tasks][vector_size];
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+
+        try
+        {
+            pool.submit(() -> IntStream.range(0, tasks).parallel().forEach(t -> {
+                int begin = (int)((long)rows * t / tasks), end = (int)((long)rows * (t+1) / tasks);
+                TopKHeap[] heap = heaps[t];
+                float[] vector = new float[vector_size];
+                float value;
+
+                for (int k=0; k<vector_size; k++) heap[k] = new TopKHeap(N);
+                for (int v=begin; v<end; v++) weights[v] = (float)Math.pow(out_vocab.get(v).count, power);
+
+                for (int v=begin; v<end; v++)
+                {
+                    V.get(v, vector);
+
+                    for (int k=0; k<vector_size; k++)
+                    {
+                        value = vector[k] * weights[v];
+                        if (value > 0 && value > heap[k].threshold()) heap[k].add(v, value);
+                    }
+                }
+            })).get();
+        }
+        catch (InterruptedException | ExecutionException e) { throw new IllegalStateException(e); }
+        finally { pool.shutdown(); }
+
+        int[][] top = new int[vector_size][];
+
+        for (int k=0; k<vector_size; k++)
+        {
+            TopKHeap merged = new TopKHeap(N);
+
+            for (TopKHeap[] heap : heaps)
+                for (int i=0; i<heap[k].size(); i++) merged.add(heap[k].id(i), heap[k].score(i));
+
+            top[k] = merged.toSortedIds();
+        }
+
+        return top;
+    }
+
     public static void main(String[] args)
     {
         new VecFeatures(args);
@@ -16,6 +16,11 @@
 package edu.emory.mathcs.nlp.vsm.evaluate;
 
 import edu.emory.mathcs.nlp.common.util.BinUtils;
+import edu.emory.mathcs.nlp.vsm.util.HnswIndex;
+import edu.emory.mathcs.nlp.vsm.util.QuantizedVectors;
+import edu.emory.mathcs.nlp.vsm.util.TopKHeap;
+import edu.emory.mathcs.nlp.vsm.util.VectorSource;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
 import org.kohsuke.args4j.Option;
 
 import java.io.*;
@@ -36,8 +41,15 @@ public class VecMath
     String word_file = null;
     @Option(name="--N", usage="number of closest word vectors to find.", required=false, metaVar="<integer>")
     int N = 10;
-
-    Map<String,float[]> map = null;
+    @Option(name="-ann", usage="find approximate closest words on the HNSW index <input>.hnsw, built if missing.", required=false)
+    boolean ann = false;
+    @Option(name="-ef-search", usage="beam size of the approximate search; higher is more accurate (default: 100).", required=false, metaVar="<integer>")
+    int ef_search = HnswIndex.DEFAULT_EF_SEARCH;
+
+    VectorStore vectors = null;
+    QuantizedVectors quantized = null;   // set instead of the vectors if the input file is quantized
+    VectorSource source = null;          // either of the above
+    HnswIndex index = null;              // set with -ann
     Set<String> word_list = null;
 
     static Pattern vec_arithmetic = Pattern.compile("(\\w+)\\s*(\\s*[+-]\\s*\\w+\\s*)*");
@@ -45,35 +57,28 @@ public class VecMath
     public VecMath(String[] args)
     {
         BinUtils.initArgs(args, this);
-        try { map = getVectors(new File(vector_file)); }
+        try
+        {
+            File file = new File(vector_file);
+            if (QuantizedVectors.isQuantized(file)) quantized = QuantizedVectors.open(file);
+            else vectors = VectorStore.load(file, Runtime.getRuntime().availableProcessors());
+            source = quantized != null ? quantized : vectors;
+        }
         catch (IOException e) { System.err.println("Could not load Word2Vec vectors."); e.printStackTrace(); System.exit(1); }
 
+        if (ann)
+        {
+            if (quantized != null) { System.err.println("-ann requires vectors of floats, not quantized vectors."); System.exit(1); }
+            try { index = HnswIndex.openOrBuild(new File(vector_file), vectors, Runtime.getRuntime().availableProcessors()); }
+            catch (IOException e) { System.err.println("Could not open the HNSW index."); e.printStackTrace(); System.exit(1); }
+        }
+
         if (word_file != null) {
             try { word_list = getWordList(new File(word_file));}
             catch (IOException e) { System.err.println("Could not read word file."); e.printStackTrace(); System.exit(1);}
         }
     }
 
-    private Map<String,float[]> getVectors(File vector_file) throws IOException
-    {
-        Map<String,float[]> map = new HashMap<>();
-
-        BufferedReader in = new BufferedReader(new FileReader(vector_file));
-        String line;
-        while((line = in.readLine()) != null)
-        {
-            String[] split = line.split("\t");
-            String word = split[0];
-            float[] vector = new float[split.length - 1];
-            for (int i=1; i<split.length; i++)
-                vector[i-1] = Float.parseFloat(split[i]);
-            map.put(word, vector);
-        }
-        in.close();
-
-        return map;
-    }
-
     private Set<String> getWordList(File word_file) throws IOException
     {
         Set<String> word_list = new HashSet<>();
@@ -108,7 +113,7 @@ public class VecMath
 
             String word = line.substring(i, Math.min(next_plus, next_minus));
 
-            if (!map.containsKey(word))
+            if (!source.contains(word))
             {
                 System.out.println("Cannot find word vector "+word+".");
                 return;
@@ -121,7 +126,7 @@ public class VecMath
         float[] vector = null;
         for (String w : word_is_plus.keySet())
         {
-            float[] a = map.get(w);
+            float[] a = source.get(w);
             if (vector == null) { vector = new float[a.length]; Arrays.fill(vector, 0f); }
 
             if (word_is_plus.get(w))
@@ -159,31 +164,48 @@ public class VecMath
     {
         TopNQueue top_ten = new TopNQueue(N);
 
-        for (String word2 : map.keySet())
+        if (quantized != null)
         {
-            if (word_list != null && !word_list.contains(word2))
-                continue;
+            QuantizedVectors.Scorer scorer = quantized.scorer(vector);
+
+            for (int i=0; i<quantized.size(); i++)
+            {
+                if (word_list != null && !word_list.contains(quantized.label(i)))
+                    continue;
 
-            top_ten.add(word2, cosine(vector, map.get(word2)));
+                top_ten.add(quantized.label(i), scorer.cosine(i));
+            }
+
+            return top_ten.toMap();
         }
 
-        return top_ten.toMap();
-    }
+        if (index != null)
+        {
+            // with a word list, only among the efSearch candidates
+            TopKHeap top = index.search(vector, word_list != null ? Math.max(N, ef_search) : N, ef_search);
 
-    float cosine(float[] w1, float[] w2)
-    {
-        double norm1 = 0.0f, norm2 = 0.0f;
+            for (int i=0; i<top.size(); i++)
+            {
+                if (word_list != null && !word_list.contains(vectors.label(top.id(i))))
+                    continue;
 
-        double dot_product = 0.0f;
-        for(int k=0; k<w1.length; k++){
-            dot_product += w1[k]*w2[k];
-            norm1       += w1[k]*w1[k];
-            norm2       += w2[k]*w2[k];
+                top_ten.add(vectors.label(top.id(i)), top.score(i));
+            }
+
+            return top_ten.toMap();
+        }
+
+        float norm = VectorStore.norm(vector);
+
+        for (int i=0; i<vectors.size(); i++)
+        {
+            if (word_list != null && !word_list.contains(vectors.label(i)))
+                continue;
+
+            top_ten.add(vectors.label(i), vectors.cosine(vector, norm, i));
         }
-        norm1 = Math.sqrt(norm1);
-        norm2 = Math.sqrt(norm2);
 
-        return (float)(dot_product/(norm1*norm2));
+        return top_ten.toMap();
     }
 
     public static void main(String[] args)
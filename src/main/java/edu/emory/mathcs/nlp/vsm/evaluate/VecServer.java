@@ -0,0 +1,390 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.evaluate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import org.kohsuke.args4j.Option;
+
+import edu.emory.mathcs.nlp.common.util.BinUtils;
+import edu.emory.mathcs.nlp.vsm.util.HnswIndex;
+import edu.emory.mathcs.nlp.vsm.util.TopKHeap;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
+
+/**
+ * Serves queries on word vectors from one long-lived process, so that the vectors are loaded once instead of on every query.
+ * The vectors are copied from their memory-mapped cache (see {@link VectorStore#load(File, int)}) and normalized;
+ * with -ann, the closest words are found on the HNSW index, whose bottom layer is memory-mapped as well.
+ * Queries are read line by line from the standard input, or from every connection to a port on localhost,
+ * each connection served on its own thread. An exact search splits the rows over a shared fork-join pool.
+ * The answers of recent queries are kept in a bounded LRU cache, and the latency of every query is recorded in a histogram.
+ *
+ * Each query is answered by lines followed by an empty line:
+ *  king                        the N closest words to "king" as "word\tsimilarity"
+ *  king - man + woman          the N closest words to the vector arithmetic, excluding its words
+ *  top 20 king - man + woman   the 20 closest words
+ *  vector king                 the vector of "king"
+ *  stats                       the number of queries, cache hits, and the 50th and 99th percentiles of the latency
+ *
+ * This example serves the vectors on port 5050 and asks for an analogy:
+ *  java edu.emory.mathcs.nlp.vsm.evaluate.VecServer -input vectors.txt -port 5050
+ *  echo "king - man + woman" | nc localhost 5050
+ */
+public class VecServer
+{
+    static private final String ERROR = "error: ";
+
+    @Option(name="-input", usage="file of word vectors or a Word2Vec model.", required=true, metaVar="<filename>")
+    String vector_file = null;
+    @Option(name="-port", usage="port on localhost to serve; 0 to read queries from the standard input (default: 0).", required=false, metaVar="<integer>")
+    int port = 0;
+    @Option(name="--N", usage="number of closest word vectors to find by default (default: 10).", required=false, metaVar="<integer>")
+    int N = 10;
+    @Option(name="-cache", usage="number of recent answers to cache; 0 to disable (default: 10000).", required=false, metaVar="<integer>")
+    int cache_size = 10000;
+    @Option(name="-ann", usage="find approximate closest words on the HNSW index <input>.hnsw, built if missing.", required=false)
+    boolean ann = false;
+    @Option(name="-ef-search", usage="beam size of the approximate search; higher is more accurate (default: 100).", required=false, metaVar="<integer>")
+    int ef_search = HnswIndex.DEFAULT_EF_SEARCH;
+    @Option(name="-threads", usage="number of threads of an exact search (default: number of processors).", required=false, metaVar="<integer>")
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    VectorStore vectors;
+    HnswIndex index;                 // set with -ann
+    ForkJoinPool pool;
+    Map<String,String> cache;        // null if disabled
+    Latency latency = new Latency();
+    LongAdder cache_hits = new LongAdder();
+
+    public VecServer(String[] args)
+    {
+        BinUtils.initArgs(args, this);
+
+        try
+        {
+            File file = new File(vector_file);
+            vectors = VectorStore.load(file, threads);
+            if (ann) index = HnswIndex.openOrBuild(file, vectors, threads);
+        }
+        catch (IOException e) { System.err.println("Could not load the vectors."); e.printStackTrace(); System.exit(1); }
+
+        init();
+
+        try
+        {
+            if (port > 0)
+            {
+                ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+                BinUtils.LOG.info("Listening on localhost:"+port+"\n");
+                listen(server);
+            }
+            else
+            {
+                System.out.println("Please input a query or a vector arithmetic, e.g., king - man + woman.");
+                serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+                BinUtils.LOG.info(stats()+"\n");
+            }
+        }
+        catch (IOException e) { System.err.println("Could not serve the queries."); e.printStackTrace(); System.exit(1); }
+        finally { pool.shutdown(); }
+    }
+
+    /**
+     * @param index - HNSW index over the vectors, or null for exact searches.
+     * @param cacheSize - number of recent answers to cache, or 0 to disable the cache.
+     */
+    VecServer(VectorStore vectors, HnswIndex index, int N, int cacheSize, int threads)
+    {
+        this.vectors = vectors;
+        this.index   = index;
+        this.N       = N;
+        this.threads = threads;
+        cache_size   = cacheSize;
+        init();
+    }
+
+    private void init()
+    {
+        threads = Math.max(1, threads);
+        pool = new ForkJoinPool(threads);
+        vectors.normalize(threads);
+
+        if (cache_size > 0)
+        {
+            cache = Collections.synchronizedMap(new LinkedHashMap<String,String>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String,String> eldest)
+                {
+                    return size() > cache_size;
+                }
+            });
+        }
+    }
+
+//    =================================== Serving ===================================
+
+    /** Accepts connections until the server socket is closed, serving each connection on its own thread. */
+    public void listen(ServerSocket server) throws IOException
+    {
+        ExecutorService connections = Executors.newCachedThreadPool();
+
+        try
+        {
+            while (!server.isClosed())
+            {
+                Socket socket;
+                try { socket = server.accept(); }
+                catch (IOException e) { if (server.isClosed()) break; throw e; }
+
+                connections.execute(() -> {
+                    try (Socket s = socket)
+                    {
+                        serve(new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8)), new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)));
+                    }
+                    catch (IOException e) { BinUtils.LOG.info("Connection closed: "+e.getMessage()+"\n"); }
+                });
+            }
+        }
+        finally { connections.shutdown(); }
+    }
+
+    /** Answers every line of the reader, flushing each answer followed by an empty line, until the end of the reader. */
+    public void serve(BufferedReader in, Writer out) throws IOException
+    {
+        String line;
+
+        while ((line = in.readLine()) != null)
+        {
+            if (line.trim().isEmpty()) continue;
+            out.write(answer(line));
+            out.write("\n");
+            out.flush();
+        }
+    }
+
+    /** @return the answer to the query, one line per result, from the cache if the same query was answered recently. */
+    public String answer(String query)
+    {
+        String[] tokens = query.trim().split("\\s+");
+        if (tokens.length == 1 && tokens[0].equals("stats")) return stats() + "\n";
+
+        long start = System.nanoTime();
+        String key = String.join(" ", tokens), answer = cache != null ? cache.get(key) : null;
+
+        if (answer != null)
+            cache_hits.increment();
+        else
+        {
+            answer = compute(tokens);
+            if (cache != null && !answer.startsWith(ERROR)) cache.put(key, answer);
+        }
+
+        latency.add(System.nanoTime() - start);
+        return answer;
+    }
+
+    /** @return the number of queries, cache hits, and the percentiles of the latency. */
+    public String stats()
+    {
+        long queries = latency.count(), hits = cache_hits.sum();
+        return String.format("queries: %d, cache hits: %d (%.1f%%), p50: %.3f ms, p99: %.3f ms", queries, hits, queries > 0 ? 100d * hits / queries : 0, latency.percentile(0.5), latency.percentile(0.99));
+    }
+
+//    =================================== Queries ===================================
+
+    private String compute(String[] tokens)
+    {
+        if (tokens.length == 2 && tokens[0].equals("vector"))
+            return vector(tokens[1]);
+
+        int n = N, begin = 0;
+
+        if (tokens.length > 2 && tokens[0].equals("top"))
+        {
+            try { n = Integer.parseInt(tokens[1]); }
+            catch (NumberFormatException e) { return ERROR+"Cannot parse the number of words: "+tokens[1]+"\n"; }
+            if (n <= 0) return ERROR+"The number of words must be positive: "+tokens[1]+"\n";
+            begin = 2;
+        }
+
+        // words are added or subtracted by the operator before them, either a separate token or a prefix of the word
+        float[] query = new float[vectors.dimension()], vector = new float[query.length];
+        int[] rows = new int[tokens.length - begin];
+        int count = 0;
+        boolean plus = true;
+
+        for (int i=begin; i<tokens.length; i++)
+        {
+            String word = tokens[i];
+            if (word.equals("+")) { plus = true;  continue; }
+            if (word.equals("-")) { plus = false; continue; }
+            if (word.length() > 1 && (word.charAt(0) == '+' || word.charAt(0) == '-')) { plus = word.charAt(0) == '+'; word = word.substring(1); }
+
+            int row = vectors.indexOf(word);
+            if (row < 0) return ERROR+"Cannot find word vector "+word+".\n";
+            vectors.get(row, vector);
+            for (int j=0; j<query.length; j++) query[j] += plus ? vector[j] : -vector[j];
+            rows[count++] = row;
+            plus = true;
+        }
+
+        if (count == 0) return ERROR+"Cannot parse vector arithmetic.\n";
+        int[] excluded = new int[count];
+        System.arraycopy(rows, 0, excluded, 0, count);
+
+        TopKHeap top = search(query, excluded, n);
+        StringBuilder sb = new StringBuilder();
+
+        for (int i=0; i<top.size(); i++)
+            sb.append(vectors.label(top.id(i))).append("\t").append(top.score(i)).append("\n");
+
+        return sb.toString();
+    }
+
+    private String vector(String word)
+    {
+        float[] vector = vectors.get(word);
+        if (vector == null) return ERROR+"Cannot find word vector "+word+".\n";
+        StringBuilder sb = new StringBuilder(word);
+        for (float v : vector) sb.append(" ").append(v);
+        return sb.append("\n").toString();
+    }
+
+    /** @return the n rows most similar to the query in descending order, excluding the rows of its words. */
+    private TopKHeap search(float[] query, int[] excluded, int n)
+    {
+        TopKHeap top = new TopKHeap(n);
+
+        if (index != null)
+        {
+            TopKHeap candidates = index.search(query, n + excluded.length, Math.max(n + excluded.length, ef_search));
+
+            for (int i=0; i<candidates.size(); i++)
+                if (!contains(excluded, candidates.id(i))) top.add(candidates.id(i), candidates.score(i));
+        }
+        else
+        {
+            float norm = VectorStore.norm(query);
+            if (norm > 0) for (int j=0; j<query.length; j++) query[j] /= norm;
+
+            // each task keeps the top rows of its range, which are merged at the end
+            int rows = vectors.size(), tasks = Math.max(1, Math.min(threads, rows / 4096));
+            TopKHeap[] heaps = new TopKHeap[tasks];
+
+            try
+            {
+                pool.submit(() -> IntStream.range(0, tasks).parallel().forEach(t -> {
+                    TopKHeap heap = heaps[t] = new TopKHeap(n);
+
+                    for (int i=(int)((long)rows*t/tasks), end=(int)((long)rows*(t+1)/tasks); i<end; i++)
+                    {
+                        float score = vectors.dot(query, i);
+                        if (score > heap.threshold() && !contains(excluded, i)) heap.add(i, score);
+                    }
+                })).get();
+            }
+            catch (InterruptedException | ExecutionException e) { throw new IllegalStateException(e); }
+
+            for (TopKHeap heap : heaps)
+                for (int i=0; i<heap.size(); i++) top.add(heap.id(i), heap.score(i));
+        }
+
+        top.sort();
+        return top;
+    }
+
+    static private boolean contains(int[] rows, int row)
+    {
+        for (int r : rows) if (r == row) return true;
+        return false;
+    }
+
+    /**
+     * Histogram of latencies with 8 buckets per power of 2 of microseconds, so that a percentile is within 12.5% of the exact one.
+     * Buckets are counted atomically, so that concurrent queries record their latencies without locking.
+     */
+    static class Latency
+    {
+        static private final int SUB_BUCKETS = 8;
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+
+        /** @param nanos - latency in nanoseconds. */
+        public void add(long nanos)
+        {
+            buckets.incrementAndGet(bucket(nanos / 1000));
+        }
+
+        public long count()
+        {
+            long count = 0;
+            for (int i=0; i<buckets.length(); i++) count += buckets.get(i);
+            return count;
+        }
+
+        /** @return the latency in milliseconds that the given fraction of the queries does not exceed, as the upper bound of its bucket. */
+        public double percentile(double p)
+        {
+            long count = count(), rank = Math.max(1, (long)Math.ceil(p * count)), sum = 0;
+            if (count == 0) return 0;
+
+            for (int i=0; i<buckets.length(); i++)
+                if ((sum += buckets.get(i)) >= rank) return upper(i) / 1000d;
+
+            return upper(buckets.length() - 1) / 1000d;
+        }
+
+        /** @return the bucket of the latency in microseconds. */
+        static int bucket(long micros)
+        {
+            if (micros < SUB_BUCKETS) return (int)Math.max(0, micros);
+            int e = 63 - Long.numberOfLeadingZeros(micros);
+            return (e - 2) * SUB_BUCKETS + (int)((micros >> (e - 3)) & (SUB_BUCKETS - 1));
+        }
+
+        /** @return the largest latency in microseconds of the bucket. */
+        static long upper(int bucket)
+        {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int e = bucket / SUB_BUCKETS + 2;
+            return ((long)(SUB_BUCKETS + bucket % SUB_BUCKETS + 1) << (e - 3)) - 1;
+        }
+    }
+
+    public static void main(String[] args) { new VecServer(args); }
+}
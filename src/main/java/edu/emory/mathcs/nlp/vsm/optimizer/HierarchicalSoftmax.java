@@ -18,6 +18,7 @@ package edu.emory.mathcs.nlp.vsm.optimizer;
 import java.util.Random;
 
 import edu.emory.mathcs.nlp.common.util.Sigmoid;
+import edu.emory.mathcs.nlp.vsm.util.WeightMatrix;
 import edu.emory.mathcs.nlp.vsm.util.Vocabulary;
 
 /**
@@ -51,6 +52,36 @@ public class HierarchicalSoftmax extends Optimizer
 			learnSkipGram(code[i], point[i], syn0, syn1, neu1e, alpha, l1);
 	}
 
+	@Override
+	public void learnBagOfWords(Random rand, int word, float[] syn1, float[] neu1, float[] neu1e, float[] weights, int senses, float alpha)
+	{
+		byte[] code  = vocab.get(word).code;
+		int [] point = vocab.get(word).point;
+
+		for (int i=0; i<code.length; i++)
+			learnBagOfWords(code[i], point[i], syn1, neu1, neu1e, weights, senses, alpha);
+	}
+
+	@Override
+	public void learnSkipGram(Random rand, int word, float[] syn0, float[] syn1, float[] neu1e, float[] weights, int senses, float alpha, int l1)
+	{
+		byte[] code  = vocab.get(word).code;
+		int[]  point = vocab.get(word).point;
+
+		for (int i=0; i<code.length; i++)
+			learnSkipGram(code[i], point[i], syn0, syn1, neu1e, weights, senses, alpha, l1);
+	}
+
+	@Override
+	public void learnSkipGram(Random rand, int word, float[] syn0, WeightMatrix syn1, float[] neu1e, float[] row, float alpha)
+	{
+		byte[] code  = vocab.get(word).code;
+		int[]  point = vocab.get(word).point;
+
+		for (int i=0; i<code.length; i++)
+			learnSkipGram(code[i], point[i], syn0, syn1, neu1e, row, rand.nextInt(), alpha);
+	}
+
 	@Override
 	public void testBagOfWords(Random rand, int word, float[] syn1, float[] neu1, float[] neu1e, float alpha)
 	{
@@ -19,6 +19,7 @@ import java.util.Arrays;
 import java.util.Random;
 
 import edu.emory.mathcs.nlp.common.util.Sigmoid;
+import edu.emory.mathcs.nlp.vsm.util.WeightMatrix;
 import edu.emory.mathcs.nlp.vsm.util.Vocabulary;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
@@ -80,6 +81,33 @@ public class NegativeSampling extends Optimizer
 			learnSkipGram(0, sample, syn0, syn1, neu1e, alpha, l1);
 	}
 
+	@Override
+	public void learnBagOfWords(Random rand, int word, float[] syn1, float[] neu1, float[] neu1e, float[] weights, int senses, float alpha)
+	{
+		learnBagOfWords(1, word, syn1, neu1, neu1e, weights, senses, alpha);
+
+		for (int sample : getNegativeSamples(rand, word))
+			learnBagOfWords(0, sample, syn1, neu1, neu1e, weights, senses, alpha);
+	}
+
+	@Override
+	public void learnSkipGram(Random rand, int word, float[] syn0, float[] syn1, float[] neu1e, float[] weights, int senses, float alpha, int l1)
+	{
+		learnSkipGram(1, word, syn0, syn1, neu1e, weights, senses, alpha, l1);
+
+		for (int sample : getNegativeSamples(rand, word))
+			learnSkipGram(0, sample, syn0, syn1, neu1e, weights, senses, alpha, l1);
+	}
+
+	@Override
+	public void learnSkipGram(Random rand, int word, float[] syn0, WeightMatrix syn1, float[] neu1e, float[] row, float alpha)
+	{
+		learnSkipGram(1, word, syn0, syn1, neu1e, row, rand.nextInt(), alpha);
+
+		for (int sample : getNegativeSamples(rand, word))
+			learnSkipGram(0, sample, syn0, syn1, neu1e, row, rand.nextInt(), alpha);
+	}
+
 	@Override
 	public void testBagOfWords(Random rand, int word, float[] syn1, float[] neu1, float[] neu1e, float alpha)
 	{
@@ -19,6 +19,7 @@ import java.io.Serializable;
 import java.util.Random;
 
 import edu.emory.mathcs.nlp.common.util.Sigmoid;
+import edu.emory.mathcs.nlp.vsm.util.WeightMatrix;
 import edu.emory.mathcs.nlp.vsm.util.Vocabulary;
 
 /**
@@ -44,6 +45,32 @@ public abstract class Optimizer implements Serializable
 	public abstract void learnBagOfWords(Random rand, int word, float[] syn1, float[] neu1, float[] neu1e, float alpha);
 	public abstract void learnSkipGram  (Random rand, int word, float[] syn0, float[] syn1, float[] neu1e, float alpha, int l1);
 
+	/**
+	 * Learns multiple senses of the input at once; the sense vectors are contiguous in syn0 starting at l1,
+	 * and the errors of the sense vectors are contiguous in neu1e. Each output row is sampled once and scored
+	 * against all senses while it is in cache, and each sense is updated in proportion to its weight.
+	 * @param weights - weights[s] scales the learning rate of the s'th sense.
+	 * @param senses - number of senses.
+	 */
+	public abstract void learnSkipGram  (Random rand, int word, float[] syn0, float[] syn1, float[] neu1e, float[] weights, int senses, float alpha, int l1);
+	/** Same as the multi-sense {@link #learnSkipGram(Random, int, float[], float[], float[], float[], int, float, int)} for the averaged senses in neu1. */
+	public abstract void learnBagOfWords(Random rand, int word, float[] syn1, float[] neu1, float[] neu1e, float[] weights, int senses, float alpha);
+
+	/**
+	 * Same as {@link #learnSkipGram(Random, int, float[], float[], float[], float, int)} for output vectors stored
+	 * outside a float array, e.g., in 16 bits or on disk. Each output row is decoded to the row buffer,
+	 * updated in 32 bits, and written back as a whole.
+	 * @param syn0 - the input vector decoded to 32 bits.
+	 * @param row - buffer of the size of a vector.
+	 */
+	public abstract void learnSkipGram  (Random rand, int word, float[] syn0, WeightMatrix syn1, float[] neu1e, float[] row, float alpha);
+
+	/** Same as {@link #learnSkipGram(Random, int, float[], WeightMatrix, float[], float[], float)} with the averaged context neu1 as the input. */
+	public void learnBagOfWords(Random rand, int word, WeightMatrix syn1, float[] neu1, float[] neu1e, float[] row, float alpha)
+	{
+		learnSkipGram(rand, word, neu1, syn1, neu1e, row, alpha);
+	}
+
 	public abstract void testBagOfWords(Random rand, int word, float[] syn1, float[] neu1, float[] neu1e, float alpha);
 	public abstract void testSkipGram  (Random rand, int word, float[] syn0, float[] syn1, float[] neu1e, float alpha, int l1);
 
@@ -83,6 +110,65 @@ public abstract class Optimizer implements Serializable
 		}
 	}
 
+	protected void learnBagOfWords(int label, int word, float[] syn1, float[] neu1, float[] neu1e, float[] weights, int senses, float alpha)
+	{
+		int l = word * vector_size, s, k, ls;
+		float score, gradient;
+
+		for (s=0,ls=0; s<senses; s++,ls+=vector_size)
+		{
+			// hidden -> output
+			for (k=0,score=0; k<vector_size; k++) score += neu1[k+ls] * syn1[k+l];
+			gradient = (label - sigmoid.get(score)) * alpha * weights[s];
+			if (gradient == 0) continue;
+
+			// output -> hidden
+			for (k=0; k<vector_size; k++) neu1e[k+ls] += syn1[k+l] * gradient;
+			// hidden -> output
+			for (k=0; k<vector_size; k++) syn1[k+l] += neu1[k+ls] * gradient;
+		}
+	}
+
+	protected void learnSkipGram(int label, int word, float[] syn0, float[] syn1, float[] neu1e, float[] weights, int senses, float alpha, int l1)
+	{
+		int l2 = word * vector_size, s, k, ls, le;
+		float score, gradient;
+
+		for (s=0,ls=l1,le=0; s<senses; s++,ls+=vector_size,le+=vector_size)
+		{
+			// input -> output
+			for (k=0,score=0; k<vector_size; k++) score += syn0[k+ls] * syn1[k+l2];
+			gradient = (label - sigmoid.get(score)) * alpha * weights[s];
+			if (gradient == 0) continue;
+
+			// output -> hidden
+			for (k=0; k<vector_size; k++) neu1e[k+le] += syn1[k+l2] * gradient;
+			// input -> output
+			for (k=0; k<vector_size; k++) syn1[k+l2] += syn0[k+ls] * gradient;
+		}
+	}
+
+	protected void learnSkipGram(int label, int word, float[] syn0, WeightMatrix syn1, float[] neu1e, float[] row, int seed, float alpha)
+	{
+		int k;
+		float score = 0, gradient;
+
+		syn1.getRow(word, row);
+
+		// input -> output
+		for (k=0; k<vector_size; k++) score += syn0[k] * row[k];
+		gradient = (label - sigmoid.get(score)) * alpha;
+
+		if (gradient != 0)
+		{
+			// output -> hidden
+			for (k=0; k<vector_size; k++) neu1e[k] += row[k] * gradient;
+			// input -> output
+			for (k=0; k<vector_size; k++) row[k] += syn0[k] * gradient;
+			syn1.setRow(word, row, seed);
+		}
+	}
+
 	protected void testBagOfWords(int label, int word, float[] syn1, float[] neu1, float[] neu1e, float alpha)
 	{
 		int l2 = word * vector_size, k;
@@ -18,14 +18,23 @@ package edu.emory.mathcs.nlp.vsm.reader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
-import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import edu.emory.mathcs.nlp.vsm.util.FingerprintSet;
 
 /**
  * Much of the technical code necessary to implement AbstractReader is included in this
@@ -44,8 +53,12 @@ import java.util.stream.Collectors;
  */
 abstract class AbstractReader<T> extends InputStream implements Reader<T>
 {
+    /** Number of bytes read from the current file at once. */
+    static public final int BUFFER_SIZE = 1 << 16;
+
     protected final Pattern sentence_break;
     protected final List<File> files;
+    protected final long[] lengths;     // file lengths, computed once and shared with sub-readers
     protected final long start, end;
 
     protected int file_index = 0;
@@ -53,7 +66,11 @@ abstract class AbstractReader<T> extends InputStream implements Reader<T>
 
     protected boolean finished = false;
 
-    protected RandomAccessFile in;
+    /* Only one file of this reader is open at a time; the read buffer
+     * is allocated once and reused across all files of this reader. */
+    protected FileChannel in;
+    private byte[] buffer;
+    private int buffer_index = 0, buffer_size = 0;
 
     /* When a AbstractReader is split into multiple Readers,
      * the new Readers start after a sentence break
@@ -69,12 +86,23 @@ abstract class AbstractReader<T> extends InputStream implements Reader<T>
     
     public AbstractReader(List<File> files, Pattern sentence_break)
     {
-    	this(files, sentence_break, 0, files.stream().mapToLong(File::length).sum());
+    	this(files, sentence_break, lengths(files));
     }
-    
+
+    private AbstractReader(List<File> files, Pattern sentence_break, long[] lengths)
+    {
+    	this(new ArrayList<>(files), lengths, sentence_break, 0, sum(lengths));
+    }
+
     public AbstractReader(List<File> files, Pattern sentence_break, long start, long end)
     {
-    	this.files = new ArrayList<>(files);
+    	this(new ArrayList<>(files), lengths(files), sentence_break, start, end);
+    }
+
+    private AbstractReader(List<File> files, long[] lengths, Pattern sentence_break, long start, long end)
+    {
+    	this.files = files;
+    	this.lengths = lengths;
     	this.sentence_break = sentence_break;
     	this.start = start;
     	this.end   = end;
@@ -82,11 +110,20 @@ abstract class AbstractReader<T> extends InputStream implements Reader<T>
 
     protected AbstractReader(AbstractReader<T> r, long start, long end)
     {
-    	this(r.files, r.sentence_break, start, end);
+    	this(r.files, r.lengths, r.sentence_break, start, end);
     }
 
     protected AbstractReader(AbstractReader<?> r) {
-    	this(r.files, r.sentence_break, r.start, r.end);
+    	this(r.files, r.lengths, r.sentence_break, r.start, r.end);
+    }
+
+    /**
+     * Creates a reader over whole files of another reader.
+     * @param lengths - lengths of the files, as already known by the other reader.
+     */
+    protected AbstractReader(AbstractReader<?> r, List<File> files, long[] lengths)
+    {
+    	this(files, lengths, r.sentence_break, 0, sum(lengths));
     }
 
     public void open() throws IOException
@@ -105,6 +142,9 @@ abstract class AbstractReader<T> extends InputStream implements Reader<T>
 
     abstract Reader<T> subReader(long start, long end);
 
+    /** @return a reader over the specified whole files with the same configuration as this reader. */
+    abstract Reader<T> subReader(List<File> files, long[] lengths);
+
 
     public long length() { return end - start; }
 
@@ -129,22 +169,23 @@ abstract class AbstractReader<T> extends InputStream implements Reader<T>
         if (files.size() == 0){ finished = true; return; }
 
         // find start position
-        while (index + files.get(file_index).length() < start)
+        while (index + lengths[file_index] < start)
         {
-            index += files.get(file_index++).length();
+            index += lengths[file_index++];
             if (file_index >= files.size()){ finished = true; return; }
         }
         // open in
         openFile(file_index);
-        in.seek(start - index);
+        in.position(start - index);
         index = start;
 
         // make sure that reader starts at the beginning of a sentence
         if (index > 0)
         {
             if (end_of_sentence.length() > 0) end_of_sentence.setLength(0);
-            while (!sentence_break.matcher(end_of_sentence).find())
-                end_of_sentence.append((char) read());
+            int ch;
+            while (!sentence_break.matcher(end_of_sentence).find() && (ch = read()) != -1)
+                end_of_sentence.append((char) ch);
         }
         end_of_sentence.setLength(0);
     }
@@ -165,6 +206,11 @@ abstract class AbstractReader<T> extends InputStream implements Reader<T>
         return new ReaderWrapper<>(this, map);
     }
 
+    public Reader<T> removeDuplicates(FingerprintSet fingerprints, boolean normalize)
+    {
+        return new DuplicateFilter<>(this, fingerprints, normalize);
+    }
+
     /**
      * This function splits this reader evenly into a list of readers
      * that can then be parallelized.
@@ -199,31 +245,98 @@ abstract class AbstractReader<T> extends InputStream implements Reader<T>
         return readers;
     }
 
+    /**
+     * This function splits this reader into one reader per file.
+     * @return - list of readers
+     */
     public List<Reader<T>> splitByFile()
     {
         List<Reader<T>> readers = new ArrayList<>(files.size());
-        long size = 0;
-        for (File f : files)
+        for (int i=0; i<files.size(); i++)
+            readers.add(subReader(Collections.singletonList(files.get(i)), new long[]{lengths[i]}));
+        return readers;
+    }
+
+    /**
+     * This function splits this reader into readers of whole files that are balanced by size.
+     * Files are assigned from the largest to the smallest, each to the currently smallest reader;
+     * within a reader, files keep their original order. Unlike {@link #splitParallel(int)},
+     * no sentence is ever cut at a split point, which makes this suitable for corpora
+     * consisting of many small documents.
+     * @param count - the maximum number of readers to be returned; fewer are returned if there are fewer files.
+     * @return - list of readers
+     */
+    public List<Reader<T>> splitBySize(int count)
+    {
+        Integer[] order = new Integer[files.size()];
+        for (int i=0; i<order.length; i++) order[i] = i;
+        Arrays.sort(order, (i, j) -> Long.compare(lengths[j], lengths[i]));
+
+        // min-heap of shards by size: {size, shard}
+        PriorityQueue<long[]> heap = new PriorityQueue<>((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        List<List<Integer>> shards = new ArrayList<>();
+        int size = Math.max(1, Math.min(count, order.length));
+
+        for (int i=0; i<size; i++)
         {
-            readers.add(subReader(start, start + size));
-            size += f.length();
+            heap.add(new long[]{0, i});
+            shards.add(new ArrayList<>());
         }
+
+        for (int i : order)
+        {
+            long[] shard = heap.poll();
+            shards.get((int)shard[1]).add(i);
+            shard[0] += lengths[i];
+            heap.add(shard);
+        }
+
+        List<Reader<T>> readers = new ArrayList<>(size);
+
+        for (List<Integer> shard : shards)
+        {
+            if (shard.isEmpty()) continue;
+            Collections.sort(shard);
+            List<File> list = new ArrayList<>(shard.size());
+            long[] lens = new long[shard.size()];
+
+            for (int i=0; i<lens.length; i++)
+            {
+                list.add(files.get(shard.get(i)));
+                lens[i] = lengths[shard.get(i)];
+            }
+
+            readers.add(subReader(list, lens));
+        }
+
         return readers;
     }
 
+    public Spliterator<List<T>> spliterator()
+    {
+        return new ReaderSpliterator<>(this, start, end);
+    }
+
+    public Stream<List<T>> sentences()
+    {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
     public int read() throws IOException
     {
         if (finished){
             return -1;
         }
 
-        int ch = in.read();
-        if (ch == -1)
+        if (buffer_index >= buffer_size && !fill())
         {
             if (++file_index < files.size()) { openFile(file_index); return read(); }
             else { finished = true; return -1; }
         }
-        if (index > end)
+
+        int ch = buffer[buffer_index++] & 0xFF;
+        // the next reader starts reading ahead from this reader's end, so this reader reads ahead from the same byte
+        if (index >= end)
         {
             end_of_sentence.append((char) ch);
             if (sentence_break.matcher(end_of_sentence).find())
@@ -235,6 +348,31 @@ abstract class AbstractReader<T> extends InputStream implements Reader<T>
         return ch;
     }
 
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        int n = 0, c;
+
+        while (n < len)
+        {
+            // bytes before the end of this reader need no sentence break check
+            if (!finished && buffer_index < buffer_size && index < end)
+            {
+                int m = (int)Math.min(Math.min(len - n, buffer_size - buffer_index), end - index);
+                System.arraycopy(buffer, buffer_index, b, off + n, m);
+                buffer_index += m;
+                index += m;
+                n += m;
+            }
+            else if ((c = read()) != -1)
+                b[off + n++] = (byte)c;
+            else
+                break;
+        }
+
+        return (n > 0 || len == 0) ? n : -1;
+    }
+
     public String readLine() throws IOException
     {
         StringBuilder sb = new StringBuilder();
@@ -254,6 +392,30 @@ abstract class AbstractReader<T> extends InputStream implements Reader<T>
         if (in != null)
             in.close();
         in = null;
-        in = new RandomAccessFile(files.get(file_index), "r");
+        in = FileChannel.open(files.get(file_index).toPath(), StandardOpenOption.READ);
+        if (buffer == null) buffer = new byte[BUFFER_SIZE];
+        buffer_index = buffer_size = 0;
+    }
+
+    /** @return true if more bytes are read from the current file into the buffer. */
+    private boolean fill() throws IOException
+    {
+        int n;
+        do { n = in.read(ByteBuffer.wrap(buffer)); } while (n == 0);
+        buffer_index = 0;
+        buffer_size  = Math.max(0, n);
+        return n > 0;
+    }
+
+    static private long[] lengths(List<File> files)
+    {
+        return files.stream().mapToLong(File::length).toArray();
+    }
+
+    static private long sum(long[] lengths)
+    {
+        long sum = 0;
+        for (long l : lengths) sum += l;
+        return sum;
     }
 }
@@ -42,6 +42,11 @@ public class DEPTreeReader extends AbstractReader<NLPNode>
         super(reader, start, end);
     }
 
+    protected DEPTreeReader(DEPTreeReader reader, List<File> files, long[] lengths)
+    {
+        super(reader, files, lengths);
+    }
+
     @Override
     public List<NLPNode> next() throws IOException
     {
@@ -56,6 +61,12 @@ public class DEPTreeReader extends AbstractReader<NLPNode>
         return new DEPTreeReader(this, start, end);
     }
 
+    @Override
+    protected DEPTreeReader subReader(List<File> files, long[] lengths)
+    {
+        return new DEPTreeReader(this, files, lengths);
+    }
+
     @Override
     public void restart() throws IOException {
         super.restart();
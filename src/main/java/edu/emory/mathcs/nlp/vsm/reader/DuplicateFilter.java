@@ -0,0 +1,146 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Function;
+
+import edu.emory.mathcs.nlp.vsm.util.FingerprintSet;
+
+/**
+ * Reader stage that removes sentences already seen by any reader sharing the same fingerprint set.
+ * The first time a sentence is read, its fingerprint is added to the set; the decision is recorded
+ * by the sentence's position in this reader, so that later passes skip duplicates by a bit lookup
+ * without hashing or consulting the set again. Sub-readers share the fingerprint set, thus duplicates
+ * are removed across all splits of a corpus.
+ *
+ * This example removes sentences that are the same after normalization:
+ *  Reader<String> reader = new SentenceReader(files).removeDuplicates(FingerprintSet.create(false, 1 << 28), true);
+ *
+ * @see FingerprintSet
+ */
+class DuplicateFilter<T> extends ReaderWrapper<T,T>
+{
+    private final FingerprintSet fingerprints;
+    private final boolean normalize;
+    private final BitSet duplicates = new BitSet();     // positions of the sentences found to be duplicates
+    private int decided = 0;                            // number of sentences whose decisions are recorded
+    private int sentence_index = 0;                     // position of the next sentence in this reader
+
+    /** @param normalize - if true, sentences that differ only in case, punctuation, or spacing are duplicates. */
+    DuplicateFilter(AbstractReader<T> reader, FingerprintSet fingerprints, boolean normalize)
+    {
+        super(reader, Function.identity());
+        this.fingerprints = fingerprints;
+        this.normalize = normalize;
+    }
+
+    @Override
+    public List<T> next() throws IOException
+    {
+        List<T> words;
+
+        while ((words = reader.next()) != null)
+        {
+            int i = sentence_index++;
+
+            if (i < decided)
+            {
+                if (!duplicates.get(i)) return words;
+            }
+            else
+            {
+                decided = i + 1;
+                if (fingerprints.add(fingerprint(words, normalize))) return words;
+                duplicates.set(i);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void open() throws IOException
+    {
+        sentence_index = 0;
+        reader.open();
+    }
+
+    @Override
+    public void restart() throws IOException
+    {
+        sentence_index = 0;
+        reader.restart();
+    }
+
+    @Override
+    public Reader<T> subReader(long start, long end)
+    {
+        return new DuplicateFilter<>((AbstractReader<T>)reader.subReader(start, end), fingerprints, normalize);
+    }
+
+    @Override
+    public Reader<T> subReader(List<File> files, long[] lengths)
+    {
+        return new DuplicateFilter<>((AbstractReader<T>)reader.subReader(files, lengths), fingerprints, normalize);
+    }
+
+    /** @return the number of sentences removed from this reader. */
+    public int duplicateCount()
+    {
+        return duplicates.cardinality();
+    }
+
+    /**
+     * @param normalize - if true, letters are lowercased and characters other than letters and digits are ignored.
+     * @return 64-bit fingerprint of the sentence using the string forms of its words.
+     */
+    static public <T> long fingerprint(List<T> words, boolean normalize)
+    {
+        long h = 0xcbf29ce484222325L;   // FNV-1a
+        boolean empty;
+        String s;
+        char c;
+
+        for (T word : words)
+        {
+            s = word.toString();
+            empty = true;
+
+            for (int i=0; i<s.length(); i++)
+            {
+                c = s.charAt(i);
+
+                if (normalize)
+                {
+                    if (!Character.isLetterOrDigit(c)) continue;
+                    c = Character.toLowerCase(c);
+                }
+
+                h = (h ^ c) * 0x100000001b3L;
+                empty = false;
+            }
+
+            // words separator; words with nothing left after normalization are skipped
+            if (!empty || !normalize) h = (h ^ ' ') * 0x100000001b3L;
+        }
+
+        return FingerprintSet.mix(h);
+    }
+}
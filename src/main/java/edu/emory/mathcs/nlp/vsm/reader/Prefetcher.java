@@ -0,0 +1,304 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.reader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+import edu.emory.mathcs.nlp.vsm.util.RingBuffer;
+
+/**
+ * Pipeline stage that moves reading and parsing off the trainer threads.
+ * Dedicated decoder threads read sentences from the readers, encode each word
+ * to its vocabulary index, and publish the sentences to a bounded ring buffer
+ * from which trainer threads consume. Consumed sentences are recycled so that
+ * their buffers are reused by the decoders.
+ *
+ * Sentences are decoded either from readers, whose words are encoded by the given encoder,
+ * or from any other {@link Source} such as a {@link SpillCache} that already stores word indices.
+ *
+ * This example decodes 2 epochs with 4 decoder threads:
+ *  Prefetcher<String> p = new Prefetcher<>(readers, vocab::indexOf, 4, 2, 4096);
+ *  p.start();
+ *  while ((sentence = p.take()) != null) { ...; p.recycle(sentence); }
+ */
+public class Prefetcher<T>
+{
+    /** Sentence encoded as vocabulary indices; words not in the vocabulary are dropped. */
+    static public class Sentence
+    {
+        public int[] words = new int[64];
+        public int   length;
+        public int   epoch;
+
+        /** Makes sure that the sentence can hold the specific number of words. */
+        public void ensureCapacity(int size)
+        {
+            if (words.length < size) words = new int[Math.max(size, words.length*2)];
+        }
+    }
+
+    /** Section of the corpus that decodes its sentences into vocabulary indices. */
+    public interface Source
+    {
+        /** Moves back to the beginning of this source. */
+        void restart() throws IOException;
+
+        /**
+         * Decodes the next sentence into the specific sentence.
+         * @return false if there is no sentence left.
+         */
+        boolean next(Sentence sentence) throws IOException;
+
+        /** @return the percentage of this source that has already been decoded, between 0% and 100%. */
+        float progress();
+    }
+
+    private final List<Source>       sources;
+    private final int                decoder_size;
+    private final int                epochs;
+
+    private final RingBuffer<Sentence> ready;
+    private final RingBuffer<Sentence> free;
+    private final List<Thread>         decoders;
+    private final AtomicIntegerArray   passes;      // number of completed passes for each reader
+    private final AtomicInteger        active;      // number of running decoders
+
+    private volatile Source[] current;              // source being decoded by each decoder
+    private long start_time;
+
+    /**
+     * @param readers - sections of the corpus; readers are distributed round-robin over the decoders.
+     * @param encoder - returns the vocabulary index of a word, or a negative number if it should be dropped.
+     * @param decoderSize - number of decoder threads.
+     * @param epochs - number of passes over the readers.
+     * @param capacity - maximum number of decoded sentences waiting for the trainers.
+     */
+    public Prefetcher(List<Reader<T>> readers, ToIntFunction<T> encoder, int decoderSize, int epochs, int capacity)
+    {
+        this(readers.stream().map(r -> new ReaderSource<>(r, encoder)).collect(Collectors.toList()), decoderSize, epochs, capacity);
+    }
+
+    /**
+     * @param sources - sections of the corpus; sources are distributed round-robin over the decoders.
+     * @param decoderSize - number of decoder threads.
+     * @param epochs - number of passes over the sources.
+     * @param capacity - maximum number of decoded sentences waiting for the trainers.
+     */
+    public Prefetcher(List<? extends Source> sources, int decoderSize, int epochs, int capacity)
+    {
+        this.sources  = new ArrayList<>(sources);
+        this.epochs   = epochs;
+        decoder_size  = Math.max(1, Math.min(decoderSize, sources.size()));
+
+        ready    = new RingBuffer<>(capacity);
+        free     = new RingBuffer<>(capacity + decoder_size);
+        decoders = new ArrayList<>(decoder_size);
+        passes   = new AtomicIntegerArray(sources.size());
+        active   = new AtomicInteger(decoder_size);
+        current  = new Source[decoder_size];
+    }
+
+    /** Starts the decoder threads. */
+    public void start()
+    {
+        start_time = System.nanoTime();
+
+        for (int i=0; i<decoder_size; i++)
+        {
+            Thread t = new Thread(new DecodeTask(i), "decoder-"+i);
+            t.setDaemon(true);
+            decoders.add(t);
+            t.start();
+        }
+    }
+
+    /**
+     * Removes the next decoded sentence, waiting if none is ready.
+     * @return the next sentence, or null if all epochs have been consumed.
+     */
+    public Sentence take()
+    {
+        try { return ready.take(); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); return null; }
+    }
+
+    /** Returns the sentence to the pool so that its buffer can be reused by the decoders. */
+    public void recycle(Sentence sentence)
+    {
+        free.offer(sentence);
+    }
+
+    /** Stops the decoder threads. */
+    public void close()
+    {
+        for (Thread t : decoders) t.interrupt();
+        ready.close();
+    }
+
+    /**
+     * Get the portion of all epochs that has already been decoded.
+     * @return - float between 0 and 1
+     */
+    public float progress()
+    {
+        float sum = 0;
+
+        for (int i=0; i<sources.size(); i++)
+            sum += passes.get(i);
+
+        for (Source s : current)
+            if (s != null) sum += s.progress() / 100;
+
+        return Math.min(1f, sum / (sources.size() * epochs));
+    }
+
+    /**
+     * Summarizes the back pressure between the decoders and the trainers.
+     * Decoders waiting on a full buffer means the trainers are the bottleneck;
+     * trainers waiting on an empty buffer means the decoders are the bottleneck.
+     * @param trainerSize - number of threads consuming from this prefetcher.
+     */
+    public String stats(int trainerSize)
+    {
+        double elapsed = Math.max(1, System.nanoTime() - start_time);
+        double decoder_idle = 100 * ready.fullWaitNanos()  / (elapsed * decoder_size);
+        double trainer_idle = 100 * ready.emptyWaitNanos() / (elapsed * Math.max(1, trainerSize));
+
+        return String.format("Buffer: %d/%d Decoders idle: %.1f%% Trainers idle: %.1f%% Bottleneck: %s",
+                ready.size(), ready.capacity(), decoder_idle, trainer_idle, decoder_idle > trainer_idle ? "trainers" : "decoders");
+    }
+
+    /** @return total nanoseconds decoders waited for the trainers to free buffer space. */
+    public long decoderWaitNanos()
+    {
+        return ready.fullWaitNanos();
+    }
+
+    /** @return total nanoseconds trainers waited for the decoders to fill the buffer. */
+    public long trainerWaitNanos()
+    {
+        return ready.emptyWaitNanos();
+    }
+
+    private class DecodeTask implements Runnable
+    {
+        private final int id;
+
+        public DecodeTask(int id)
+        {
+            this.id = id;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                for (int epoch=0; epoch<epochs; epoch++)
+                {
+                    for (int i=id; i<sources.size(); i+=decoder_size)
+                    {
+                        decode(sources.get(i), epoch);
+                        passes.incrementAndGet(i);
+                    }
+                }
+            }
+            catch (InterruptedException e) { return; }
+            finally
+            {
+                current[id] = null;
+                if (active.decrementAndGet() == 0) ready.close();
+            }
+        }
+
+        private void decode(Source source, int epoch) throws InterruptedException
+        {
+            Sentence sentence = null;
+
+            try
+            {
+                source.restart();
+                current[id] = source;
+
+                while (true)
+                {
+                    if (sentence == null && (sentence = free.poll()) == null) sentence = new Sentence();
+                    sentence.length = 0;
+                    sentence.epoch  = epoch;
+                    if (!source.next(sentence)) break;
+
+                    // empty sentences are decoded into the same buffer again
+                    if (sentence.length > 0) { ready.put(sentence); sentence = null; }
+                }
+
+                free.offer(sentence);
+                current[id] = null;
+            }
+            catch (IOException e)
+            {
+                System.err.println("Reader failure: progress "+source.progress());
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+    }
+
+    /** Decodes the sentences of a reader by encoding each word; words with negative indices are dropped. */
+    static private class ReaderSource<T> implements Source
+    {
+        private final Reader<T>        reader;
+        private final ToIntFunction<T> encoder;
+
+        public ReaderSource(Reader<T> reader, ToIntFunction<T> encoder)
+        {
+            this.reader  = reader;
+            this.encoder = encoder;
+        }
+
+        @Override
+        public void restart() throws IOException
+        {
+            reader.restart();
+        }
+
+        @Override
+        public boolean next(Sentence sentence) throws IOException
+        {
+            List<T> words = reader.next();
+            if (words == null) return false;
+            sentence.ensureCapacity(words.size());
+            int index;
+
+            for (T word : words)
+                if ((index = encoder.applyAsInt(word)) >= 0)
+                    sentence.words[sentence.length++] = index;
+
+            return true;
+        }
+
+        @Override
+        public float progress()
+        {
+            return reader.progress();
+        }
+    }
+}
@@ -1,22 +1,19 @@
 package edu.emory.mathcs.nlp.vsm.reader;
 
-import java.io.Closeable;
 import java.io.IOException;
 import java.util.List;
+import java.util.Spliterator;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import edu.emory.mathcs.nlp.vsm.util.FingerprintSet;
 
 /**
  * @author Austin Blodgett
  */
-public interface Reader<T> extends Closeable
+public interface Reader<T> extends SentenceSource<T>
 {
-    void open() throws IOException;
-
-    void close() throws IOException;
-
-    List<T> next() throws IOException;
-
     long length();
 
     /**
@@ -38,6 +35,13 @@ public interface Reader<T> extends Closeable
 
     <S> Reader<S> addMap(Function<List<T>, List<S>> map);
 
+    /**
+     * Removes sentences whose fingerprints are already in the set, and records the decisions
+     * so that later passes over this reader skip the same sentences without hashing them.
+     * @param normalize - if true, sentences that differ only in case, punctuation, or spacing are duplicates.
+     */
+    Reader<T> removeDuplicates(FingerprintSet fingerprints, boolean normalize);
+
     /**
      * This function splits this reader evenly into a list of readers
      * that can then be parallelized.
@@ -48,7 +52,30 @@ public interface Reader<T> extends Closeable
 
     List<Reader<T>> splitTrainAndTest(float training_portion);
 
+    /**
+     * This function splits this reader into one reader per file.
+     * @return - list of readers
+     */
     List<Reader<T>> splitByFile();
 
+    /**
+     * This function splits this reader into readers of whole files balanced by size.
+     * @param count - the maximum number of readers to be returned
+     * @return - list of readers
+     */
+    List<Reader<T>> splitBySize(int count);
+
+    /**
+     * @return a spliterator over the sentences of this reader whose splits never cut a sentence.
+     * The spliterator reads its own copy of this reader, so this reader is left untouched.
+     */
+    Spliterator<List<T>> spliterator();
+
+    /**
+     * @return a parallel stream of the sentences of this reader, balanced by the fork-join pool.
+     * @throws java.io.UncheckedIOException - if reading fails during the traversal.
+     */
+    Stream<List<T>> sentences();
+
     int read() throws IOException;
 }
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.reader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the sentences in a byte range of a reader.
+ * Splitting cuts the range in half; as with {@link Reader#splitParallel(int)},
+ * each half is read by its own sub-reader that starts after and ends on
+ * a sentence break, so no sentence is lost or read twice. A range is read
+ * only once it is traversed, thus splitting is cheap and can be repeated
+ * by the fork-join pool until the work is balanced.
+ *
+ * This example counts the words of a corpus in parallel:
+ *  long count = reader.sentences().mapToLong(List::size).sum();
+ */
+public class ReaderSpliterator<T> implements Spliterator<List<T>>
+{
+    /** Ranges smaller than this number of bytes are not split. */
+    static public final long MIN_SPLIT_SIZE = 1 << 16;
+
+    private final AbstractReader<T> reader;
+    private final long min_split_size;
+    private long start, end;
+    private Reader<T> range;       // sub-reader of this spliterator, created on the first traversal
+
+    public ReaderSpliterator(AbstractReader<T> reader, long start, long end)
+    {
+        this(reader, start, end, MIN_SPLIT_SIZE);
+    }
+
+    /** @param minSplitSize - ranges smaller than this number of bytes are not split. */
+    public ReaderSpliterator(AbstractReader<T> reader, long start, long end, long minSplitSize)
+    {
+        this.reader = reader;
+        this.start  = start;
+        this.end    = end;
+        min_split_size = Math.max(1, minSplitSize);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super List<T>> action)
+    {
+        try
+        {
+            if (range == null)
+            {
+                range = reader.subReader(start, end);
+                range.open();
+            }
+
+            List<T> words = range.next();
+
+            if (words == null)
+            {
+                range.close();
+                start = end;
+                return false;
+            }
+
+            action.accept(words);
+            return true;
+        }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+
+    @Override
+    public Spliterator<List<T>> trySplit()
+    {
+        if (range != null || end - start < 2 * min_split_size) return null;
+        long mid = start + (end - start) / 2;
+        ReaderSpliterator<T> prefix = new ReaderSpliterator<>(reader, start, mid, min_split_size);
+        start = mid;
+        return prefix;
+    }
+
+    /** @return the number of bytes in the range, which is proportional to the number of sentences. */
+    @Override
+    public long estimateSize()
+    {
+        return end - start;
+    }
+
+    @Override
+    public int characteristics()
+    {
+        return ORDERED | NONNULL;
+    }
+}
@@ -15,6 +15,7 @@
  */
 package edu.emory.mathcs.nlp.vsm.reader;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.function.Function;
@@ -55,6 +56,12 @@ class ReaderWrapper<S,T> extends AbstractReader<T>
         return new ReaderWrapper<>((AbstractReader<S>)reader.subReader(start, end), convert);
     }
 
+    @Override
+    public Reader<T> subReader(List<File> files, long[] lengths)
+    {
+        return new ReaderWrapper<>((AbstractReader<S>)reader.subReader(files, lengths), convert);
+    }
+
     @Override
     public float progress() { return reader.progress(); }
 
@@ -54,6 +54,12 @@ public class SentenceReader extends AbstractReader<String> {
         this.tokenizer = r.tokenizer;
     }
 
+    protected SentenceReader(SentenceReader r, List<File> files, long[] lengths)
+    {
+        super(r, files, lengths);
+        this.tokenizer = r.tokenizer;
+    }
+
     public List<String> next() throws IOException {
 		/* This function reads one sentence (assuming one sentence per line)
 		 * and returns it as an array. */
@@ -63,6 +69,12 @@ public class SentenceReader extends AbstractReader<String> {
         if (line == null) return null;
         if (line.isEmpty()) return next();
 
+        return tokenize(line, tokenizer);
+    }
+
+    /** @return the words of the line split by whitespace if the tokenizer is null; otherwise, the word forms by the tokenizer. */
+    static List<String> tokenize(String line, Tokenizer tokenizer)
+    {
         List<String> words;
         if (tokenizer == null){
             words = Arrays.stream(spaces.split(line)).collect(Collectors.toList());
@@ -82,4 +94,10 @@ public class SentenceReader extends AbstractReader<String> {
         return new SentenceReader(this,start,end);
     }
 
+    @Override
+    protected SentenceReader subReader(List<File> files, long[] lengths)
+    {
+        return new SentenceReader(this,files,lengths);
+    }
+
 }
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.reader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Sequence of sentences that can be read from beginning to end.
+ * A {@link Reader} can additionally be restarted and split, whereas a {@link StreamReader} can be read only once.
+ *
+ * This example prints every sentence of a source:
+ *  source.open();
+ *  for (List<String> words; (words = source.next()) != null;) System.out.println(words);
+ */
+public interface SentenceSource<T> extends Closeable
+{
+    void open() throws IOException;
+
+    /** @return the next sentence, or null if there is no sentence left. */
+    List<T> next() throws IOException;
+}
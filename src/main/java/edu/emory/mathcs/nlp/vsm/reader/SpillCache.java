@@ -0,0 +1,227 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.reader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+import edu.emory.mathcs.nlp.common.util.BinUtils;
+
+/**
+ * Cache of a corpus encoded as word ids so that the corpus itself is read only once.
+ * During the first pass, each sentence is written as a variable-length encoded
+ * sentence length followed by its word ids, round-robin over several segment files
+ * so that multiple decoders can read the cache in parallel. When ids are provisional
+ * (e.g., assigned while the vocabulary is still being learned), a map from the
+ * provisional to the final ids is applied on reading, dropping words mapped to -1.
+ *
+ * This example spills a stream while learning its vocabulary, then decodes 5 epochs:
+ *  SpillCache cache = new SpillCache(null, 4);
+ *  cache.spill(new StreamReader(System.in), vocab::addIndex);
+ *  cache.map(vocab.sortAndMap(min_count));
+ *  Prefetcher<String> p = new Prefetcher<>(cache.sources(), 4, 5, 4096);
+ */
+public class SpillCache implements Closeable
+{
+    private final File[]  files;
+    private final boolean temporary;
+    private int[] map = null;
+
+    private long sentence_count = 0;
+    private long word_count = 0;
+
+    /**
+     * @param prefix - segments are saved to prefix.0, prefix.1, ...; if null, temporary files are used and deleted on close.
+     * @param segments - number of segment files.
+     */
+    public SpillCache(File prefix, int segments) throws IOException
+    {
+        files     = new File[Math.max(1, segments)];
+        temporary = prefix == null;
+
+        for (int i=0; i<files.length; i++)
+        {
+            if (temporary) { files[i] = File.createTempFile("spill", "."+i); files[i].deleteOnExit(); }
+            else files[i] = new File(prefix.getPath()+"."+i);
+        }
+    }
+
+    /**
+     * Reads all sentences from the source and writes their word ids to this cache.
+     * @param encoder - returns the id of a word, or a negative number if it should be dropped.
+     */
+    public <T> void spill(SentenceSource<T> source, ToIntFunction<T> encoder) throws IOException
+    {
+        OutputStream[] out = new OutputStream[files.length];
+        for (int i=0; i<out.length; i++) out[i] = new BufferedOutputStream(new FileOutputStream(files[i]), 1 << 16);
+
+        int[] ids = new int[64];
+        long word_counter = 0;
+        List<T> words;
+        int i, id, length;
+
+        source.open();
+
+        while ((words = source.next()) != null)
+        {
+            if (ids.length < words.size()) ids = new int[Math.max(words.size(), ids.length*2)];
+            length = 0;
+
+            for (T word : words)
+                if ((id = encoder.applyAsInt(word)) >= 0)
+                    ids[length++] = id;
+
+            if (length == 0) continue;
+            OutputStream o = out[(int)(sentence_count++ % out.length)];
+            writeInt(o, length);
+            for (i=0; i<length; i++) writeInt(o, ids[i]);
+            word_count += length;
+
+            if (word_count - word_counter > 1000000)
+            {
+                System.out.print(String.format("%d sentences, %d words", sentence_count, word_count)+"\r");
+                word_counter = word_count;
+            }
+        }
+
+        for (OutputStream o : out) o.close();
+        BinUtils.LOG.info(String.format("Spilled %d sentences, %d words\n", sentence_count, word_count));
+    }
+
+    /**
+     * Sets the map from the ids written to this cache to the ids returned on reading.
+     * @param map - map[written id] = read id; words mapped to negative ids are dropped.
+     */
+    public void map(int[] map)
+    {
+        this.map = map;
+    }
+
+    public long sentenceCount()
+    {
+        return sentence_count;
+    }
+
+    public long wordCount()
+    {
+        return word_count;
+    }
+
+    /** @return one source per segment; each source can be restarted for multiple epochs. */
+    public List<Prefetcher.Source> sources()
+    {
+        List<Prefetcher.Source> sources = new ArrayList<>(files.length);
+        for (File f : files) sources.add(new Segment(f));
+        return sources;
+    }
+
+    /** Deletes the segment files if they are temporary. */
+    @Override
+    public void close()
+    {
+        if (temporary) for (File f : files) f.delete();
+    }
+
+    /* Writes a non-negative integer in 7-bit groups, least significant group first. */
+    static private void writeInt(OutputStream out, int value) throws IOException
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        out.write(value);
+    }
+
+    private class Segment implements Prefetcher.Source
+    {
+        private final File file;
+        private InputStream in;
+        private long size, position;
+
+        public Segment(File file)
+        {
+            this.file = file;
+        }
+
+        @Override
+        public void restart() throws IOException
+        {
+            if (in != null) in.close();
+            in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+            size = file.length();
+            position = 0;
+        }
+
+        @Override
+        public boolean next(Prefetcher.Sentence sentence) throws IOException
+        {
+            int length = readInt(), id;
+
+            if (length < 0)
+            {
+                in.close();
+                in = null;
+                return false;
+            }
+
+            sentence.ensureCapacity(length);
+
+            for (int i=0; i<length; i++)
+            {
+                if ((id = readInt()) < 0) throw new IOException("Truncated spill cache: "+file);
+                if (map != null) id = map[id];
+                if (id >= 0) sentence.words[sentence.length++] = id;
+            }
+
+            return true;
+        }
+
+        @Override
+        public float progress()
+        {
+            return size > 0 ? 100f * position / size : 100f;
+        }
+
+        /** @return the next integer, or -1 at the end of the segment. */
+        private int readInt() throws IOException
+        {
+            int value = 0, shift = 0, b;
+
+            do
+            {
+                if ((b = in.read()) < 0) return -1;
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+                position++;
+            }
+            while ((b & 0x80) != 0);
+
+            return value;
+        }
+    }
+}
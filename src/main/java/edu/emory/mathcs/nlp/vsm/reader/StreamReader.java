@@ -0,0 +1,206 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.reader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+import edu.emory.mathcs.nlp.tokenization.Tokenizer;
+import edu.emory.mathcs.nlp.vsm.util.FingerprintSet;
+
+/**
+ * Sentence source over an unbounded stream such as stdin or a named pipe.
+ * Unlike a {@link Reader}, a stream has no known length and cannot be sought;
+ * thus, it can be read only once, cannot be split, and reports how much it
+ * has consumed ({@link #bytesRead()}, {@link #sentenceCount()}) instead of
+ * a percentage. To share a stream among threads or read it over multiple
+ * epochs, spill it to a {@link SpillCache} and decode the cache through a
+ * {@link Prefetcher}; for a single epoch, decode it directly by {@link #source(ToIntFunction, long)}.
+ *
+ * This example reads sentences piped into stdin:
+ *  StreamReader stream = new StreamReader(System.in);
+ */
+public class StreamReader implements SentenceSource<String>
+{
+    private final InputStream stream;
+    private final Tokenizer tokenizer;
+    private final byte[] buffer = new byte[AbstractReader.BUFFER_SIZE];
+    private int buffer_index = 0, buffer_size = 0;
+
+    private FingerprintSet fingerprints = null;
+    private boolean normalize;
+
+    private long bytes_read = 0;
+    private long sentence_count = 0;
+    private long duplicate_count = 0;
+    private boolean finished = false;
+
+    public StreamReader(InputStream stream)
+    {
+        this(stream, null);
+    }
+
+    public StreamReader(InputStream stream, Tokenizer tokenizer)
+    {
+        this.stream = stream;
+        this.tokenizer = tokenizer;
+    }
+
+    public StreamReader(ReadableByteChannel channel)
+    {
+        this(Channels.newInputStream(channel));
+    }
+
+    /**
+     * Removes sentences whose fingerprints are already in the set.
+     * @param normalize - if true, sentences that differ only in case, punctuation, or spacing are duplicates.
+     * @return this stream reader.
+     */
+    public StreamReader removeDuplicates(FingerprintSet fingerprints, boolean normalize)
+    {
+        this.fingerprints = fingerprints;
+        this.normalize = normalize;
+        return this;
+    }
+
+    /** @return the number of bytes consumed from the stream so far. */
+    public long bytesRead()
+    {
+        return bytes_read;
+    }
+
+    /** @return the number of non-empty lines consumed from the stream so far, including duplicates. */
+    public long sentenceCount()
+    {
+        return sentence_count;
+    }
+
+    /** @return the number of sentences removed by {@link #removeDuplicates(FingerprintSet, boolean)} so far. */
+    public long duplicateCount()
+    {
+        return duplicate_count;
+    }
+
+    /** @throws IOException if the stream has already been read from; a stream can be read only once. */
+    @Override
+    public void open() throws IOException
+    {
+        if (bytes_read > 0 || finished) throw new IOException("A stream can be read only once; spill it to a cache for multiple passes.");
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        stream.close();
+    }
+
+    @Override
+    public List<String> next() throws IOException
+    {
+        String line;
+
+        while ((line = readLine()) != null)
+        {
+            if (line.isEmpty()) continue;
+            sentence_count++;
+            List<String> words = SentenceReader.tokenize(line, tokenizer);
+            if (fingerprints == null || fingerprints.add(DuplicateFilter.fingerprint(words, normalize))) return words;
+            duplicate_count++;
+        }
+
+        return null;
+    }
+
+    /**
+     * @param encoder - returns the index of a word, or a negative number if it should be dropped.
+     * @param wordCount - expected number of encoded words in the stream, used to estimate progress.
+     * @return a source decoding this stream for a single epoch; restarting it a second time throws an exception.
+     */
+    public Prefetcher.Source source(ToIntFunction<String> encoder, long wordCount)
+    {
+        return new Prefetcher.Source()
+        {
+            private boolean started = false;
+            private long word_count = 0;
+
+            @Override
+            public void restart() throws IOException
+            {
+                if (started) throw new IOException("A stream can be read only once; spill it to a cache for multiple passes.");
+                started = true;
+                open();
+            }
+
+            @Override
+            public boolean next(Prefetcher.Sentence sentence) throws IOException
+            {
+                List<String> words = StreamReader.this.next();
+                if (words == null) return false;
+                sentence.ensureCapacity(words.size());
+                int index;
+
+                for (String word : words)
+                    if ((index = encoder.applyAsInt(word)) >= 0)
+                        sentence.words[sentence.length++] = index;
+
+                word_count += sentence.length;
+                return true;
+            }
+
+            @Override
+            public float progress()
+            {
+                if (finished) return 100f;
+                return wordCount > 0 ? Math.min(100f, 100f * word_count / wordCount) : 0f;
+            }
+        };
+    }
+
+    private int read() throws IOException
+    {
+        if (finished) return -1;
+
+        while (buffer_index >= buffer_size)
+        {
+            int n = stream.read(buffer, 0, buffer.length);
+            if (n < 0) { finished = true; return -1; }
+            buffer_index = 0;
+            buffer_size  = n;
+        }
+
+        bytes_read++;
+        return buffer[buffer_index++] & 0xFF;
+    }
+
+    /* Reads bytes up to the next newline the same way as AbstractReader#readLine(). */
+    private String readLine() throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+
+        int c;
+        while ((c = read()) != -1)
+        {
+            if (c == '\n') break;
+            sb.append((char) c);
+        }
+
+        return (sb.length()>0 || c!=-1) ? sb.toString() : null;
+    }
+}
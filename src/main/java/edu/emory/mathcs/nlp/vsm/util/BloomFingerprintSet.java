@@ -0,0 +1,70 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fingerprint set implemented as a Bloom filter over a lock-free bit array.
+ * A fingerprint is new if any of its bits was not yet set; thus, a new fingerprint may be
+ * reported as a duplicate (false positive) but an added one is never reported as new, except
+ * when several threads add the same fingerprint at the same time, which may keep a few repeats.
+ * With the default 4 bits per fingerprint, the false positive rate stays below 1% as long as
+ * the number of fingerprints is less than about 1/10 of the number of bits (e.g., 200M
+ * fingerprints for 256MB).
+ */
+public class BloomFingerprintSet extends FingerprintSet
+{
+    static public final int HASH_SIZE = 4;
+
+    private final AtomicLongArray bits;
+    private final long mask;
+
+    /** @param bytes - memory budget. */
+    public BloomFingerprintSet(long bytes)
+    {
+        int words = floorPowerOf2(bytes / 8, 16);
+        bits = new AtomicLongArray(words);
+        mask = (long)words * 64 - 1;
+    }
+
+    @Override
+    protected boolean insert(long fingerprint)
+    {
+        long h1 = mix(fingerprint), h2 = mix(h1) | 1, bit, word, old;
+        boolean added = false;
+        int i;
+
+        // double hashing: the i'th bit is h1 + i * h2
+        for (int k=0; k<HASH_SIZE; k++)
+        {
+            bit  = (h1 + k * h2) & mask;
+            i    = (int)(bit >>> 6);
+            word = 1L << (bit & 63);
+
+            while (((old = bits.get(i)) & word) == 0)
+            {
+                if (bits.compareAndSet(i, old, old | word))
+                {
+                    added = true;
+                    break;
+                }
+            }
+        }
+
+        return added;
+    }
+}
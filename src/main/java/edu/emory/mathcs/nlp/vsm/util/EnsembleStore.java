@@ -0,0 +1,378 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import edu.emory.mathcs.nlp.common.util.BinUtils;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * Word vectors of several models over one shared vocabulary, for ensembles that choose a model per task.
+ * Every word is stored once in the shared index; each member model keeps only the shared id of each of its rows
+ * and the row of each shared id, so adding a model costs two integers per word instead of a copy of its words.
+ *
+ * The matrix of each member stays in the cache of its vector file (see {@link VectorStore#cache(File, int)}),
+ * which is written once if it is missing, and is memory-mapped the first time the member is used,
+ * so that only the pages of the members in use are read. Formats that are not cached are loaded into memory when opened.
+ *
+ * The members can also be combined into one {@link VectorStore} over their common words,
+ * either by concatenating or by averaging their normalized vectors.
+ *
+ * This example opens two models and finds the cosine similarity between two words in the second one:
+ *  EnsembleStore ensemble = EnsembleStore.open(files, 8);
+ *  EnsembleStore.Member member = ensemble.member("syntactic.txt");
+ *  member.cosine(member.indexOf("king"), member.indexOf("queen"));
+ */
+public class EnsembleStore
+{
+    static private final long SEGMENT_SIZE = 1L << 30;   // maximum bytes of one mapping of a matrix
+
+    private final List<String>  labels;
+    private final Object2IntMap<String> index_map;
+    private final Map<String,Member>    members;
+
+    private EnsembleStore()
+    {
+        labels    = new ArrayList<>();
+        index_map = new Object2IntOpenHashMap<>();
+        index_map.defaultReturnValue(-1);
+        members   = new LinkedHashMap<>();
+    }
+
+    /**
+     * Reads the labels of every model, writing the cache of a model first if it is missing or stale; no matrix is mapped yet.
+     * @param files - vector file of each member by its name, in the order of the members.
+     * @param threads - number of threads parsing the files that have no cache.
+     */
+    static public EnsembleStore open(Map<String,File> files, int threads) throws IOException
+    {
+        EnsembleStore ensemble = new EnsembleStore();
+
+        for (Map.Entry<String,File> e : files.entrySet())
+        {
+            File cache = VectorStore.cache(e.getValue(), threads);
+            if (cache != null) ensemble.add(e.getKey(), cache);
+            else ensemble.add(e.getKey(), VectorStore.load(e.getValue(), threads));
+        }
+
+        ensemble.index();
+        BinUtils.LOG.info(String.format("Opened %d models over %d words.\n", ensemble.members.size(), ensemble.size()));
+        return ensemble;
+    }
+
+    /** @return an ensemble of the one model in memory. */
+    static public EnsembleStore wrap(String name, VectorStore vectors)
+    {
+        EnsembleStore ensemble = new EnsembleStore();
+        ensemble.add(name, vectors);
+        ensemble.index();
+        return ensemble;
+    }
+
+    private void add(String name, File cache) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(cache.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, VectorStore.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.getInt();
+            header.getInt();
+            int  rows = header.getInt(), vector_size = header.getInt();
+            long vectors_offset = header.getLong(24);
+
+            Member member = new Member(name, rows, vector_size);
+            member.cache   = cache;
+            member.offset  = vectors_offset;
+            member.words   = ids(VectorStore.readLabels(channel, rows, vectors_offset));
+            members.put(name, member);
+        }
+    }
+
+    private void add(String name, VectorStore vectors)
+    {
+        Member member = new Member(name, vectors.size(), vectors.dimension());
+        String[] labels = new String[vectors.size()];
+        for (int i=0; i<labels.length; i++) labels[i] = vectors.label(i);
+
+        member.words    = ids(labels);
+        member.segments = new FloatBuffer[]{FloatBuffer.wrap(vectors.matrix())};
+        member.segment_rows = Math.max(1, vectors.size());
+        member.norms    = new float[vectors.size()];
+        for (int i=0; i<member.norms.length; i++) member.norms[i] = vectors.norm(i);
+        members.put(name, member);
+    }
+
+    /** @return the shared id of each label, adding the labels that are not in the shared index. */
+    private int[] ids(String[] labels)
+    {
+        int[] ids = new int[labels.length];
+
+        for (int i=0; i<labels.length; i++)
+        {
+            int id = index_map.getInt(labels[i]);
+
+            if (id < 0)
+            {
+                id = this.labels.size();
+                this.labels.add(labels[i]);
+                index_map.put(labels[i], id);
+            }
+
+            ids[i] = id;
+        }
+
+        return ids;
+    }
+
+    /** Builds the row of every shared id in each member once the shared index is complete. */
+    private void index()
+    {
+        for (Member member : members.values())
+        {
+            member.rows = new int[labels.size()];
+            Arrays.fill(member.rows, -1);
+            // the last row of a label is used as a map would
+            for (int i=0; i<member.words.length; i++) member.rows[member.words[i]] = i;
+        }
+    }
+
+    /** @return the number of words in the shared vocabulary. */
+    public int size()
+    {
+        return labels.size();
+    }
+
+    public String label(int id)
+    {
+        return labels.get(id);
+    }
+
+    /** @return the shared id of the word, or -1 if no member has the word. */
+    public int indexOf(String word)
+    {
+        return index_map.getInt(word);
+    }
+
+    public List<String> names()
+    {
+        return new ArrayList<>(members.keySet());
+    }
+
+    /** @return the member of the name, mapping its matrix the first time; null if there is no such member. */
+    public Member member(String name) throws IOException
+    {
+        Member member = members.get(name);
+        if (member != null) member.map();
+        return member;
+    }
+
+    /**
+     * Combines the members into one matrix over the words that every member has, in the order of the shared vocabulary.
+     * Each vector is normalized first so that every member has the same weight.
+     * @param average - if true, the average of the vectors, which requires members of the same dimension; otherwise, their concatenation.
+     */
+    public VectorStore combine(List<String> names, boolean average, int threads) throws IOException
+    {
+        Member[] list = new Member[names.size()];
+        int vector_size = 0;
+
+        for (int m=0; m<list.length; m++)
+        {
+            list[m] = member(names.get(m));
+            if (list[m] == null) throw new IOException("No such member: "+names.get(m));
+            if (average && m > 0 && list[m].vector_size != list[0].vector_size) throw new IOException("Members of different dimensions cannot be averaged: "+names);
+            vector_size = average ? list[m].vector_size : vector_size + list[m].vector_size;
+        }
+
+        int[] common = IntStream.range(0, size()).filter(id -> Arrays.stream(list).allMatch(member -> member.rows[id] >= 0)).toArray();
+        String[] words   = new String[common.length];
+        float[]  vectors = new float[Math.multiplyExact(common.length, vector_size)];
+        int size = vector_size;
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+
+        try
+        {
+            pool.submit(() -> IntStream.range(0, common.length).parallel().forEach(i -> {
+                int offset = i * size;
+                words[i] = labels.get(common[i]);
+
+                for (Member member : list)
+                {
+                    int row = member.rows[common[i]];
+                    float norm = member.norm(row);
+                    float scale = norm > 0 ? (average ? 1f / (norm * list.length) : 1f / norm) : 0;
+
+                    for (int j=0; j<member.vector_size; j++)
+                        vectors[offset + j] += member.get(row, j) * scale;
+
+                    if (!average) offset += member.vector_size;
+                }
+            })).get();
+        }
+        catch (InterruptedException | ExecutionException e) { throw new IllegalStateException(e); }
+        finally { pool.shutdown(); }
+
+        return new VectorStore(words, vectors, vector_size, threads);
+    }
+
+    /** Model of the ensemble; its rows are in the order of its vector file. */
+    public class Member
+    {
+        private final String name;
+        private final int    size;
+        private final int    vector_size;
+
+        private File   cache;
+        private long   offset;
+        private int[]  words;          // shared id of each row
+        private int[]  rows;           // row of each shared id, or -1
+
+        private FloatBuffer[] segments;   // rows of the matrix, mapped from the cache in segments of whole rows; set under the lock of map()
+        private int     segment_rows;
+        private float[] norms;
+
+        private Member(String name, int size, int vectorSize)
+        {
+            this.name   = name;
+            this.size   = size;
+            vector_size = vectorSize;
+        }
+
+        /** Maps the matrix from the cache and computes the norms of the rows, which reads every page once. */
+        private synchronized void map() throws IOException
+        {
+            if (segments != null) return;
+            long row_bytes = (long)vector_size * Float.BYTES;
+            segment_rows = (int)Math.max(1, Math.min(size, SEGMENT_SIZE / Math.max(1, row_bytes)));
+            FloatBuffer[] mapped = new FloatBuffer[Math.max(1, (size + segment_rows - 1) / segment_rows)];
+
+            try (FileChannel channel = FileChannel.open(cache.toPath(), StandardOpenOption.READ))
+            {
+                for (int s=0; s<mapped.length; s++)
+                {
+                    int begin = s * segment_rows, end = Math.min(size, begin + segment_rows);
+                    mapped[s] = channel.map(FileChannel.MapMode.READ_ONLY, offset + begin * row_bytes, (end - begin) * row_bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+                }
+            }
+
+            float[] norms = new float[size];
+            segments = mapped;
+
+            for (int i=0; i<size; i++)
+            {
+                double sum = 0;
+                for (int j=0; j<vector_size; j++) { float v = get(i, j); sum += v * v; }
+                norms[i] = (float)Math.sqrt(sum);
+            }
+
+            this.norms = norms;
+            BinUtils.LOG.info(String.format("Mapped %s: %d vectors of %d dimensions.\n", name, size, vector_size));
+        }
+
+        public String name()
+        {
+            return name;
+        }
+
+        /** @return the number of rows of this member. */
+        public int size()
+        {
+            return size;
+        }
+
+        public int dimension()
+        {
+            return vector_size;
+        }
+
+        public String label(int row)
+        {
+            return labels.get(words[row]);
+        }
+
+        /** @return the row of the word in this member, or -1 if this member has no vector of the word. */
+        public int indexOf(String word)
+        {
+            int id = index_map.getInt(word);
+            return id < 0 ? -1 : rows[id];
+        }
+
+        public boolean contains(String word)
+        {
+            return indexOf(word) >= 0;
+        }
+
+        /** @return the j'th value of the row. */
+        public float get(int row, int j)
+        {
+            return segments[row / segment_rows].get((row % segment_rows) * vector_size + j);
+        }
+
+        /** Copies the row to the vector. */
+        public void get(int row, float[] vector)
+        {
+            FloatBuffer segment = segments[row / segment_rows];
+            int offset = (row % segment_rows) * vector_size;
+            for (int j=0; j<vector_size; j++) vector[j] = segment.get(offset + j);
+        }
+
+        /** @return a copy of the vector of the word, or null if this member has no vector of the word. */
+        public float[] get(String word)
+        {
+            int row = indexOf(word);
+            if (row < 0) return null;
+            float[] vector = new float[vector_size];
+            get(row, vector);
+            return vector;
+        }
+
+        public float norm(int row)
+        {
+            return norms[row];
+        }
+
+        public float cosine(float[] query, float queryNorm, int row)
+        {
+            FloatBuffer segment = segments[row / segment_rows];
+            int offset = (row % segment_rows) * vector_size;
+            float sum = 0;
+            for (int j=0; j<vector_size; j++) sum += query[j] * segment.get(offset + j);
+            return sum / (queryNorm * norms[row]);
+        }
+
+        public float cosine(int row1, int row2)
+        {
+            float[] vector = new float[vector_size];
+            get(row1, vector);
+            return cosine(vector, norms[row1], row2);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fingerprint set that keeps every fingerprint in an open-addressing table of 64-bit slots,
+ * filled by compare-and-set so that exactly one of the threads adding the same fingerprint succeeds.
+ * Once the table is 3/4 full, new fingerprints are reported as unique without being kept,
+ * so items are never removed by mistake when the memory budget is too small.
+ */
+public class ExactFingerprintSet extends FingerprintSet
+{
+    static private final long EMPTY = 0;
+
+    private final AtomicLongArray table;
+    private final AtomicInteger   size = new AtomicInteger();
+    private final int mask, max_size;
+
+    /** @param bytes - memory budget; the table takes 8 bytes per slot. */
+    public ExactFingerprintSet(long bytes)
+    {
+        int capacity = floorPowerOf2(bytes / 8, 16);
+        table    = new AtomicLongArray(capacity);
+        mask     = capacity - 1;
+        max_size = capacity / 4 * 3;
+    }
+
+    @Override
+    protected boolean insert(long fingerprint)
+    {
+        if (fingerprint == EMPTY) fingerprint = 1;
+        int i = (int)mix(fingerprint) & mask;
+        long slot;
+
+        while (true)
+        {
+            slot = table.get(i);
+
+            if (slot == fingerprint) return false;
+
+            if (slot == EMPTY)
+            {
+                if (size.get() >= max_size) return true;
+
+                if (table.compareAndSet(i, EMPTY, fingerprint))
+                {
+                    size.incrementAndGet();
+                    return true;
+                }
+
+                continue;   // another thread took the slot; check it again
+            }
+
+            i = (i + 1) & mask;
+        }
+    }
+
+    /** @return number of fingerprints kept in this set. */
+    public int size()
+    {
+        return size.get();
+    }
+
+    /** @return true if this set no longer keeps new fingerprints. */
+    public boolean isFull()
+    {
+        return size.get() >= max_size;
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent set of 64-bit fingerprints used to detect repeated items such as duplicate sentences.
+ * Implementations are lock-free so that many reader threads can test and add at once.
+ */
+public abstract class FingerprintSet
+{
+    private final LongAdder unique_count    = new LongAdder();
+    private final LongAdder duplicate_count = new LongAdder();
+
+    /**
+     * Adds the fingerprint to this set.
+     * @return true if the fingerprint has not been added before; otherwise, false.
+     */
+    public boolean add(long fingerprint)
+    {
+        boolean added = insert(fingerprint);
+        (added ? unique_count : duplicate_count).increment();
+        return added;
+    }
+
+    /** @return true if the fingerprint is newly inserted. */
+    protected abstract boolean insert(long fingerprint);
+
+    /** @return number of fingerprints added for the first time. */
+    public long uniqueCount()
+    {
+        return unique_count.sum();
+    }
+
+    /** @return number of fingerprints found to be already added. */
+    public long duplicateCount()
+    {
+        return duplicate_count.sum();
+    }
+
+    /**
+     * @param bloom - if true, use a Bloom filter that may report false duplicates but never runs out of space;
+     *                otherwise, keep exact fingerprints until the budget is exhausted.
+     * @param bytes - memory budget.
+     */
+    static public FingerprintSet create(boolean bloom, long bytes)
+    {
+        return bloom ? new BloomFingerprintSet(bytes) : new ExactFingerprintSet(bytes);
+    }
+
+    /** Finalizes a hash so that all bits of the result depend on all bits of the input (MurmurHash3 fmix64). */
+    static public long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** @return the largest power of 2 that is less than or equal to the value, at least the minimum. */
+    static int floorPowerOf2(long value, int min)
+    {
+        return (int)Math.max(min, Long.highestOneBit(Math.min(value, 1L << 30)));
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.util;
+
+/**
+ * Conversions between 32-bit floats and IEEE 754 half-precision floats stored in shorts,
+ * either rounded to nearest or stochastically.
+ * Halves are converted back to floats through a table of all 65536 values.
+ */
+public class Float16
+{
+    static private final float[] TABLE = new float[1 << 16];
+
+    static
+    {
+        for (int i=0; i<TABLE.length; i++)
+            TABLE[i] = decode(i);
+    }
+
+    /** @return the half closest to the value, rounding ties to even; values out of range become infinity. */
+    static public short toHalf(float value)
+    {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exp  = ((bits >>> 23) & 0xFF) - 127 + 15;
+        int mant = bits & 0x7FFFFF;
+
+        if (exp == 0xFF - 127 + 15) return (short)(sign | 0x7C00 | (mant != 0 ? 0x200 : 0));   // infinity or NaN
+        if (exp >= 0x1F) return (short)(sign | 0x7C00);
+        if (exp < -10)   return (short)sign;
+
+        int shift, half;
+
+        if (exp <= 0)   // subnormal
+        {
+            mant |= 0x800000;
+            shift = 14 - exp;
+            half  = mant >> shift;
+        }
+        else
+        {
+            shift = 13;
+            half  = (exp << 10) | (mant >> shift);
+        }
+
+        int rest = mant & ((1 << shift) - 1), middle = 1 << (shift - 1);
+        if (rest > middle || (rest == middle && (half & 1) != 0)) half++;   // a carry moves to the next exponent
+        return (short)(sign | half);
+    }
+
+    /**
+     * Rounds the value up or down to one of the two closest halves with probability proportional to its proximity,
+     * so that the rounding errors of many small updates cancel out in expectation.
+     * @param random - random bits deciding the rounding.
+     */
+    static public short toHalf(float value, int random)
+    {
+        short half = toHalf(value);
+        float f = toFloat(half);
+        if (f == value || Float.isNaN(value)) return half;
+
+        // halves of the same sign are ordered by their magnitudes
+        short lo = Math.abs(f) > Math.abs(value) ? (short)(half - 1) : half;
+        short hi = (short)(lo + 1);
+        float a = Math.abs(toFloat(lo)), b = Math.abs(toFloat(hi));
+        return (random >>> 8) * 0x1p-24f < (Math.abs(value) - a) / (b - a) ? hi : lo;
+    }
+
+    static public float toFloat(short half)
+    {
+        return TABLE[half & 0xFFFF];
+    }
+
+    static private float decode(int half)
+    {
+        int sign = (half & 0x8000) << 16;
+        int exp  = (half >>> 10) & 0x1F;
+        int mant = half & 0x3FF;
+
+        if (exp == 0)    return sign != 0 ? -mant * 0x1p-24f : mant * 0x1p-24f;
+        if (exp == 0x1F) return Float.intBitsToFloat(sign | 0x7F800000 | (mant << 13));
+        return Float.intBitsToFloat(sign | ((exp - 15 + 127) << 23) | (mant << 13));
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.util;
+
+/**
+ * Weights stored in 16 bits per value, either as IEEE half-precision floats (FP16)
+ * or as the upper 16 bits of 32-bit floats (BF16), which keeps their range but only 8 bits of precision.
+ * Rows are decoded to 32-bit buffers for arithmetic and rounded back stochastically,
+ * so that updates smaller than the precision of a value still move it in expectation.
+ *
+ * This example adds an update to the i'th row of size 100:
+ *  matrix.getRow(i, row);
+ *  for (int k=0; k<100; k++) row[k] += update[k];
+ *  matrix.setRow(i, row, rand.nextInt());
+ */
+public class HalfMatrix extends WeightMatrix
+{
+    public enum Precision {FP16, BF16}
+
+    private final short[] values;
+    private final boolean bfloat;
+
+    /** Creates a matrix of zeros. */
+    public HalfMatrix(int size, Precision precision)
+    {
+        values = new short[size];
+        bfloat = precision == Precision.BF16;
+    }
+
+    /** Creates a matrix of the values rounded to nearest. */
+    public HalfMatrix(float[] values, Precision precision)
+    {
+        this(values.length, precision);
+        for (int i=0; i<values.length; i++) set(i, values[i]);
+    }
+
+    @Override
+    public long size()
+    {
+        return values.length;
+    }
+
+    @Override
+    public float get(long index)
+    {
+        return get(Math.toIntExact(index));
+    }
+
+    private float get(int index)
+    {
+        return bfloat ? Float.intBitsToFloat(values[index] << 16) : Float16.toFloat(values[index]);
+    }
+
+    /** Sets the value rounded to nearest. */
+    @Override
+    public void set(long index, float value)
+    {
+        values[Math.toIntExact(index)] = bfloat ? toBfloat16(value) : Float16.toHalf(value);
+    }
+
+    @Override
+    public void getRow(int row, float[] vector)
+    {
+        int k, offset = Math.toIntExact((long)row * vector.length);
+
+        if (bfloat) for (k=0; k<vector.length; k++) vector[k] = Float.intBitsToFloat(values[offset+k] << 16);
+        else        for (k=0; k<vector.length; k++) vector[k] = Float16.toFloat(values[offset+k]);
+    }
+
+    /** Sets the row'th row to the vector with stochastic rounding decided by the seed. */
+    @Override
+    public void setRow(int row, float[] vector, int seed)
+    {
+        int k, r = seed | 1, offset = Math.toIntExact((long)row * vector.length);
+
+        for (k=0; k<vector.length; k++)
+        {
+            r ^= r << 13; r ^= r >>> 17; r ^= r << 5;   // xorshift
+            values[offset+k] = bfloat ? toBfloat16(vector[k], r) : Float16.toHalf(vector[k], r);
+        }
+    }
+
+    /** Adds the delta to the row'th row with stochastic rounding. */
+    @Override
+    public void addRow(int row, float[] delta, int seed)
+    {
+        int k, r = seed | 1, offset = Math.toIntExact((long)row * delta.length);
+        float f;
+
+        for (k=0; k<delta.length; k++)
+        {
+            r ^= r << 13; r ^= r >>> 17; r ^= r << 5;
+            f = get(offset+k) + delta[k];
+            values[offset+k] = bfloat ? toBfloat16(f, r) : Float16.toHalf(f, r);
+        }
+    }
+
+    /** @return the upper 16 bits of the value rounded to nearest, ties to even. */
+    static public short toBfloat16(float value)
+    {
+        int bits = Float.floatToRawIntBits(value);
+        if (Float.isNaN(value)) return (short)((bits >>> 16) | 0x40);
+        return (short)((bits + 0x7FFF + ((bits >>> 16) & 1)) >>> 16);
+    }
+
+    /**
+     * @return the upper 16 bits of the value, rounded up in magnitude with probability proportional to the lower 16 bits.
+     * @param random - random bits deciding the rounding; only the lower 16 bits are used.
+     */
+    static public short toBfloat16(float value, int random)
+    {
+        int bits = Float.floatToRawIntBits(value);
+        if (Float.isNaN(value)) return (short)((bits >>> 16) | 0x40);
+        return (short)((bits + (random & 0xFFFF)) >>> 16);
+    }
+}
@@ -0,0 +1,734 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import edu.emory.mathcs.nlp.common.util.BinUtils;
+
+/**
+ * Hierarchical navigable small world graph (HNSW) for approximate nearest neighbors by cosine similarity.
+ * Every row is a node of the bottom layer; each node also appears in the layers above it up to a random level,
+ * so that the upper layers are exponentially sparser. A query descends greedily through the upper layers
+ * and then searches the bottom layer with a beam of size efSearch; a larger beam gives a higher recall at a higher cost.
+ *
+ * The graph is built by inserting the rows in parallel, each guarded by a striped lock while its neighbors change.
+ * The index stores only the graph: the vectors come from the {@link VectorStore} it is built on, which is normalized in place.
+ * The bottom layer, which holds nearly all links, is saved as one array of fixed-size neighbor lists and memory-mapped when opened.
+ *
+ * This example builds an index with 16 links per node, saves it, and finds the 10 nearest neighbors of a word:
+ *  HnswIndex index = HnswIndex.build(vectors, 16, 200, 8, 1);
+ *  index.save(new File("vectors.txt.hnsw"));
+ *  TopKHeap top = index.search(vectors.get("king"), 10, 100);
+ */
+public class HnswIndex
+{
+    static public final String INDEX_EXTENSION = ".hnsw";
+
+    static final int MAGIC       = 0x484D5356;   // "VSMH" in little-endian
+    static final int VERSION     = 1;
+    static final int HEADER_SIZE = 64;
+    static private final int LOCK_SIZE = 1 << 12;
+
+    static public final int DEFAULT_M = 16;
+    static public final int DEFAULT_EF_CONSTRUCTION = 200;
+    static public final int DEFAULT_EF_SEARCH = 100;
+
+    private final VectorStore vectors;
+    private final float[]     matrix;
+    private final int         vector_size;
+    private final int         rows;
+    private final int         m;          // maximum number of links per node in the upper layers
+    private final int         m0;         // maximum number of links per node in the bottom layer
+    private final byte[]      levels;
+    private final IntBuffer   links0;     // for each node: the number of links followed by m0 links in the bottom layer
+    private final int[][]     upper;      // for each node: the number of links followed by m links in each upper layer
+
+    private final Object[]    locks;      // locks of the neighbor lists while building; null after
+    private final Object      entry_lock = new Object();
+    private volatile int      entry_point;
+    private volatile int      max_level;
+
+    private final ThreadLocal<Visited> visited;
+
+    private HnswIndex(VectorStore vectors, int m, byte[] levels, IntBuffer links0, int[][] upper, int entryPoint, int maxLevel, boolean building)
+    {
+        this.vectors = vectors;
+        this.m       = m;
+        this.levels  = levels;
+        this.links0  = links0;
+        this.upper   = upper;
+        m0           = 2 * m;
+        matrix       = vectors.matrix();
+        vector_size  = vectors.dimension();
+        rows         = vectors.size();
+        entry_point  = entryPoint;
+        max_level    = maxLevel;
+        visited      = ThreadLocal.withInitial(() -> new Visited(rows));
+
+        if (building)
+        {
+            locks = new Object[LOCK_SIZE];
+            for (int i=0; i<LOCK_SIZE; i++) locks[i] = new Object();
+        }
+        else locks = null;
+    }
+
+//    =================================== Building ===================================
+
+    /**
+     * Builds the index over all rows of the vectors, which are normalized in place.
+     * @param m - maximum number of links per node in the upper layers; twice as many in the bottom layer.
+     * @param efConstruction - beam size of the search for the neighbors of each inserted node.
+     * @param threads - number of threads inserting nodes.
+     */
+    static public HnswIndex build(VectorStore vectors, int m, int efConstruction, int threads, long seed)
+    {
+        vectors.normalize(threads);
+        int rows = vectors.size();
+        Random rand = new Random(seed);
+        double ml = 1 / Math.log(Math.max(2, m));
+        byte[] levels = new byte[rows];
+        int[][] upper = new int[rows][];
+
+        for (int i=0; i<rows; i++)
+        {
+            levels[i] = (byte)Math.min(Byte.MAX_VALUE, (int)(-Math.log(1 - rand.nextDouble()) * ml));
+            if (levels[i] > 0) upper[i] = new int[levels[i] * (m + 1)];
+        }
+
+        HnswIndex index = new HnswIndex(vectors, m, levels, IntBuffer.allocate(rows * (2 * m + 1)), upper, 0, rows > 0 ? levels[0] : 0, true);
+        AtomicInteger inserted = new AtomicInteger(1);
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+
+        try
+        {
+            pool.submit(() -> IntStream.range(1, rows).parallel().forEach(i -> {
+                index.insert(i, efConstruction);
+                int count = inserted.incrementAndGet();
+                if (count % 100000 == 0) BinUtils.LOG.info(String.format("Inserted %d/%d nodes.\n", count, rows));
+            })).get();
+        }
+        catch (InterruptedException | ExecutionException e) { throw new IllegalStateException(e); }
+        finally { pool.shutdown(); }
+
+        return new HnswIndex(vectors, m, levels, index.links0, upper, index.entry_point, index.max_level, false);
+    }
+
+    /** Inserts the node into every layer up to its level, linking it to its nearest neighbors in each. */
+    private void insert(int node, int efConstruction)
+    {
+        int level = levels[node], top, current;
+
+        synchronized (entry_lock)
+        {
+            top = max_level;
+            current = entry_point;
+        }
+
+        // a node higher than the entry point becomes the entry point; it is inserted while holding the lock, which is rare
+        if (level > top)
+        {
+            synchronized (entry_lock)
+            {
+                if (level > max_level)
+                {
+                    insert(node, efConstruction, entry_point, max_level);
+                    entry_point = node;
+                    max_level = level;
+                    return;
+                }
+
+                top = max_level;
+                current = entry_point;
+            }
+        }
+
+        insert(node, efConstruction, current, top);
+    }
+
+    private void insert(int node, int efConstruction, int current, int top)
+    {
+        int level = levels[node], query = node * vector_size;
+        Candidates beam = new Candidates(efConstruction);
+
+        for (int l=top; l>level; l--)
+            current = greedy(matrix, query, current, l);
+
+        for (int l=Math.min(level, top); l>=0; l--)
+        {
+            searchLayer(matrix, query, current, efConstruction, l, beam);
+            current = beam.best();
+            int[] neighbors = selectNeighbors(query, beam.ids(), beam.scores(), beam.size(), m);
+            setLinks(node, l, neighbors, neighbors.length);
+
+            for (int neighbor : neighbors)
+                connect(neighbor, node, l);
+        }
+    }
+
+    /** Adds the link from the node to the neighbor, pruning the links of the node if it has too many. */
+    private void connect(int node, int neighbor, int level)
+    {
+        int max = level == 0 ? m0 : m;
+
+        synchronized (lock(node))
+        {
+            int count = count(node, level);
+
+            if (count < max)
+            {
+                setLink(node, level, count, neighbor);
+                setCount(node, level, count + 1);
+                return;
+            }
+
+            int[]   ids    = new int[count + 1];
+            float[] scores = new float[count + 1];
+            int query = node * vector_size;
+
+            for (int i=0; i<count; i++) ids[i] = link(node, level, i);
+            ids[count] = neighbor;
+            for (int i=0; i<=count; i++) scores[i] = dot(matrix, query, ids[i]);
+            sortDescending(ids, scores, count + 1);
+
+            int[] kept = selectNeighbors(query, ids, scores, count + 1, max);
+            setLinks(node, level, kept, kept.length);
+        }
+    }
+
+    /**
+     * Selects diverse neighbors by the heuristic of HNSW: a candidate is kept only if it is more similar to the query
+     * than to every neighbor kept so far, so that the links point in different directions.
+     * @param ids - candidates in descending order of their similarities to the query.
+     */
+    private int[] selectNeighbors(int query, int[] ids, float[] scores, int size, int max)
+    {
+        int[] selected = new int[Math.min(size, max)];
+        int count = 0;
+
+        for (int i=0; i<size && count<max; i++)
+        {
+            int candidate = ids[i], offset = candidate * vector_size;
+            boolean keep = true;
+
+            for (int j=0; j<count && keep; j++)
+                if (dot(matrix, offset, selected[j]) > scores[i]) keep = false;
+
+            if (keep) selected[count++] = candidate;
+        }
+
+        return count == selected.length ? selected : Arrays.copyOf(selected, count);
+    }
+
+    private void setLinks(int node, int level, int[] neighbors, int count)
+    {
+        if (locks == null) { setLinksUnlocked(node, level, neighbors, count); return; }
+        synchronized (lock(node)) { setLinksUnlocked(node, level, neighbors, count); }
+    }
+
+    private void setLinksUnlocked(int node, int level, int[] neighbors, int count)
+    {
+        for (int i=0; i<count; i++) setLink(node, level, i, neighbors[i]);
+        setCount(node, level, count);
+    }
+
+//    =================================== Searching ===================================
+
+    /**
+     * @param query - vector of the dimension of the index; normalized on a copy.
+     * @param k - number of nearest neighbors.
+     * @param efSearch - beam size of the search in the bottom layer, at least k.
+     * @return the k rows of the highest cosine similarities to the query, sorted in descending order.
+     */
+    public TopKHeap search(float[] query, int k, int efSearch)
+    {
+        float[] q = Arrays.copyOf(query, vector_size);
+        float norm = VectorStore.norm(q);
+        if (norm > 0) for (int j=0; j<vector_size; j++) q[j] /= norm;
+
+        TopKHeap top = new TopKHeap(k);
+        if (rows == 0) return top;
+        Candidates beam = new Candidates(Math.max(k, efSearch));
+        int current = entry_point;
+
+        for (int l=max_level; l>0; l--)
+            current = greedy(q, 0, current, l);
+
+        searchLayer(q, 0, current, Math.max(k, efSearch), 0, beam);
+        for (int i=0; i<beam.size(); i++) top.add(beam.ids()[i], beam.scores()[i]);
+        top.sort();
+        return top;
+    }
+
+    /** @return the node most similar to the query reached by moving to a more similar neighbor as long as there is one. */
+    private int greedy(float[] q, int query, int current, int level)
+    {
+        float best = dot(q, query, current);
+        int[] buffer = visited.get().buffer(m0);
+        boolean changed = true;
+
+        while (changed)
+        {
+            changed = false;
+            int count = links(current, level, buffer);
+
+            for (int i=0; i<count; i++)
+            {
+                float score = dot(q, query, buffer[i]);
+                if (score > best) { best = score; current = buffer[i]; changed = true; }
+            }
+        }
+
+        return current;
+    }
+
+    /** Beam search of the layer from the entry node; the beam holds the ef most similar nodes found in descending order. */
+    private void searchLayer(float[] q, int query, int entry, int ef, int level, Candidates beam)
+    {
+        Visited seen = visited.get();
+        seen.clear();
+        beam.clear();
+
+        Candidates frontier = seen.frontier(ef);
+        TopKHeap   results  = seen.results(ef);
+        int[]      buffer   = seen.buffer(m0);
+        float score = dot(q, query, entry);
+
+        seen.add(entry);
+        frontier.push(entry, score);
+        results.add(entry, score);
+
+        while (frontier.size() > 0)
+        {
+            float best = frontier.peekScore();
+            if (best < results.threshold()) break;
+            int node = frontier.pop();
+            int count = links(node, level, buffer);
+
+            for (int i=0; i<count; i++)
+            {
+                int neighbor = buffer[i];
+                if (!seen.add(neighbor)) continue;
+                score = dot(q, query, neighbor);
+
+                if (score > results.threshold())
+                {
+                    frontier.push(neighbor, score);
+                    results.add(neighbor, score);
+                }
+            }
+        }
+
+        results.sort();
+        for (int i=0; i<results.size(); i++) beam.add(results.id(i), results.score(i));
+    }
+
+    /**
+     * Estimates the recall of the search against the exact scan: the portion of the exact k nearest neighbors
+     * of random rows that the search finds.
+     * @param queries - number of random rows to query.
+     */
+    public float recall(int queries, int k, int efSearch, int threads, long seed)
+    {
+        Random rand = new Random(seed);
+        int[] sample = IntStream.range(0, Math.min(queries, rows)).map(i -> rand.nextInt(rows)).toArray();
+        AtomicInteger found = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+
+        try
+        {
+            pool.submit(() -> Arrays.stream(sample).parallel().forEach(row -> {
+                float[] query = new float[vector_size];
+                vectors.get(row, query);
+                TopKHeap exact = new TopKHeap(k);
+                for (int i=0; i<rows; i++) exact.add(i, dot(query, 0, i));
+
+                int[] expected = exact.toSortedIds();
+                TopKHeap approximate = search(query, k, efSearch);
+                int hits = 0;
+
+                for (int i=0; i<approximate.size(); i++)
+                    for (int id : expected) if (approximate.id(i) == id) { hits++; break; }
+
+                found.addAndGet(hits);
+            })).get();
+        }
+        catch (InterruptedException | ExecutionException e) { throw new IllegalStateException(e); }
+        finally { pool.shutdown(); }
+
+        return sample.length == 0 ? 1f : (float)found.get() / (sample.length * Math.min(k, rows));
+    }
+
+//    =================================== Persistence ===================================
+
+    /**
+     * Saves the header, the levels, the bottom layer, and the upper layers of each node above the bottom, all little-endian.
+     * The bottom layer begins at a multiple of 4 bytes so that it can be mapped as integers.
+     */
+    public void save(File file) throws IOException
+    {
+        long levels_offset = HEADER_SIZE;
+        long links_offset  = (levels_offset + rows + 3) / 4 * 4;
+        long upper_offset  = links_offset + (long)rows * (m0 + 1) * Integer.BYTES;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(vector_size).putInt(m).putInt(entry_point).putInt(max_level);
+            header.putLong(levels_offset).putLong(links_offset).putLong(upper_offset);
+            header.clear();
+            write(channel, header, 0);
+            write(channel, ByteBuffer.wrap(levels), levels_offset);
+
+            ByteBuffer b = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            long position = links_offset;
+
+            for (int i=0; i<links0.limit(); )
+            {
+                b.clear();
+                while (i < links0.limit() && b.remaining() >= Integer.BYTES) b.putInt(links0.get(i++));
+                b.flip();
+                position += write(channel, b, position);
+            }
+
+            for (int node=0; node<rows; node++)
+            {
+                if (upper[node] == null) continue;
+                b.clear();
+                for (int value : upper[node]) b.putInt(value);
+                b.flip();
+                position += write(channel, b, position);
+            }
+        }
+    }
+
+    /**
+     * Opens an index saved by {@link #save(File)} over the vectors it was built on, which are normalized in place.
+     * The bottom layer is memory-mapped; the upper layers are read into memory.
+     */
+    static public HnswIndex open(File file, VectorStore vectors, int threads) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC)   throw new IOException("Not an HNSW index: "+file);
+            if (header.getInt() != VERSION) throw new IOException("Unsupported version: "+file);
+
+            int rows = header.getInt(), vector_size = header.getInt(), m = header.getInt(), entry_point = header.getInt(), max_level = header.getInt();
+            long levels_offset = header.getLong(), links_offset = header.getLong(), upper_offset = header.getLong();
+
+            if (rows != vectors.size() || vector_size != vectors.dimension())
+                throw new IOException(String.format("The index of %d x %d does not match the vectors of %d x %d: %s", rows, vector_size, vectors.size(), vectors.dimension(), file));
+
+            byte[] levels = new byte[rows];
+            channel.map(FileChannel.MapMode.READ_ONLY, levels_offset, rows).get(levels);
+
+            long links_size = (long)rows * (2 * m + 1) * Integer.BYTES;
+            if (links_size > Integer.MAX_VALUE) throw new IOException("Bottom layer too large to map: "+file);
+            IntBuffer links0 = channel.map(FileChannel.MapMode.READ_ONLY, links_offset, links_size).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+            IntBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, upper_offset, channel.size() - upper_offset).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            int[][] upper = new int[rows][];
+
+            for (int node=0; node<rows; node++)
+            {
+                if (levels[node] == 0) continue;
+                upper[node] = new int[levels[node] * (m + 1)];
+                b.get(upper[node]);
+            }
+
+            vectors.normalize(threads);
+            return new HnswIndex(vectors, m, levels, links0, upper, entry_point, max_level, false);
+        }
+    }
+
+    /**
+     * Opens the index saved next to the vector file if it is newer than the file and matches the vectors;
+     * otherwise, builds the index with the default parameters and saves it for the next time.
+     */
+    static public HnswIndex openOrBuild(File vectorFile, VectorStore vectors, int threads) throws IOException
+    {
+        File file = new File(vectorFile.getPath() + INDEX_EXTENSION);
+
+        if (isIndex(file) && file.lastModified() >= vectorFile.lastModified())
+        {
+            try { return open(file, vectors, threads); }
+            catch (IOException e) { BinUtils.LOG.info("Rebuilding "+file+": "+e.getMessage()+"\n"); }
+        }
+
+        BinUtils.LOG.info(String.format("Building %s over %d vectors.\n", file, vectors.size()));
+        HnswIndex index = build(vectors, DEFAULT_M, DEFAULT_EF_CONSTRUCTION, threads, 1);
+        index.save(file);
+        return index;
+    }
+
+    /** @return true if the file starts with the magic number of this format. */
+    static public boolean isIndex(File file)
+    {
+        if (!file.isFile() || file.length() < HEADER_SIZE) return false;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(b, 0);
+            return b.getInt(0) == MAGIC;
+        }
+        catch (IOException e) { return false; }
+    }
+
+    public VectorStore vectors()
+    {
+        return vectors;
+    }
+
+    public int size()
+    {
+        return rows;
+    }
+
+    /** @return the maximum number of links per node in the upper layers. */
+    public int links()
+    {
+        return m;
+    }
+
+//    =================================== Links ===================================
+
+    private int count(int node, int level)
+    {
+        return level == 0 ? links0.get(node * (m0 + 1)) : upper[node][(level - 1) * (m + 1)];
+    }
+
+    private void setCount(int node, int level, int count)
+    {
+        if (level == 0) links0.put(node * (m0 + 1), count);
+        else upper[node][(level - 1) * (m + 1)] = count;
+    }
+
+    private int link(int node, int level, int i)
+    {
+        return level == 0 ? links0.get(node * (m0 + 1) + 1 + i) : upper[node][(level - 1) * (m + 1) + 1 + i];
+    }
+
+    private void setLink(int node, int level, int i, int neighbor)
+    {
+        if (level == 0) links0.put(node * (m0 + 1) + 1 + i, neighbor);
+        else upper[node][(level - 1) * (m + 1) + 1 + i] = neighbor;
+    }
+
+    /** Copies the links of the node in the layer to the buffer, under the lock of the node while building. */
+    private int links(int node, int level, int[] buffer)
+    {
+        if (locks == null) return copyLinks(node, level, buffer);
+        synchronized (lock(node)) { return copyLinks(node, level, buffer); }
+    }
+
+    private int copyLinks(int node, int level, int[] buffer)
+    {
+        int count = count(node, level);
+        for (int i=0; i<count; i++) buffer[i] = link(node, level, i);
+        return count;
+    }
+
+    private Object lock(int node)
+    {
+        return locks[node & (LOCK_SIZE - 1)];
+    }
+
+//    =================================== Helpers ===================================
+
+    /** @return the dot product between the vector at the offset of q and the row. */
+    private float dot(float[] q, int offset, int row)
+    {
+        int l = row * vector_size, j = 0;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+
+        // four independent sums so that the products are not serialized on one register
+        for (; j+3<vector_size; j+=4)
+        {
+            s0 += q[offset+j  ] * matrix[l+j  ];
+            s1 += q[offset+j+1] * matrix[l+j+1];
+            s2 += q[offset+j+2] * matrix[l+j+2];
+            s3 += q[offset+j+3] * matrix[l+j+3];
+        }
+
+        for (; j<vector_size; j++) s0 += q[offset+j] * matrix[l+j];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    static private void sortDescending(int[] ids, float[] scores, int size)
+    {
+        // insertion sort; neighbor lists are short
+        for (int i=1; i<size; i++)
+        {
+            int id = ids[i];
+            float score = scores[i];
+            int j = i - 1;
+
+            for (; j>=0 && scores[j] < score; j--)
+            {
+                ids[j+1] = ids[j];
+                scores[j+1] = scores[j];
+            }
+
+            ids[j+1] = id;
+            scores[j+1] = score;
+        }
+    }
+
+    static private long write(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        long length = buffer.remaining();
+        while (buffer.hasRemaining()) position += channel.write(buffer, position);
+        return length;
+    }
+
+    /** Nodes in descending order of their scores, either as a bounded list or as a max-heap to pop the most similar node. */
+    static private class Candidates
+    {
+        private int[]   ids;
+        private float[] scores;
+        private int     size;
+
+        public Candidates(int capacity)
+        {
+            ids    = new int[Math.max(1, capacity)];
+            scores = new float[ids.length];
+        }
+
+        public void clear()       { size = 0; }
+        public int size()         { return size; }
+        public int[] ids()        { return ids; }
+        public float[] scores()   { return scores; }
+        public int best()         { return ids[0]; }
+        public float peekScore()  { return scores[0]; }
+
+        /** Appends a node of a lower score than every node in the list. */
+        public void add(int id, float score)
+        {
+            ensureCapacity();
+            ids[size] = id;
+            scores[size++] = score;
+        }
+
+        /** Pushes the node to the max-heap. */
+        public void push(int id, float score)
+        {
+            ensureCapacity();
+            int i = size++;
+
+            while (i > 0)
+            {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] >= score) break;
+                ids[i] = ids[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+
+            ids[i] = id;
+            scores[i] = score;
+        }
+
+        /** @return the most similar node of the max-heap. */
+        public int pop()
+        {
+            int top = ids[0], id = ids[--size], i = 0, child;
+            float score = scores[size];
+
+            while ((child = 2 * i + 1) < size)
+            {
+                if (child + 1 < size && scores[child + 1] > scores[child]) child++;
+                if (score >= scores[child]) break;
+                ids[i] = ids[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+
+            ids[i] = id;
+            scores[i] = score;
+            return top;
+        }
+
+        private void ensureCapacity()
+        {
+            if (size < ids.length) return;
+            ids    = Arrays.copyOf(ids, ids.length * 2);
+            scores = Arrays.copyOf(scores, scores.length * 2);
+        }
+    }
+
+    /** Per-thread buffers of a search; nodes are marked visited with the number of the search so that clearing is free. */
+    static private class Visited
+    {
+        private final int[] marks;
+        private int         mark;
+        private Candidates  frontier;
+        private TopKHeap    results;
+        private int[]       buffer;
+
+        public Visited(int rows)
+        {
+            marks = new int[rows];
+        }
+
+        public void clear()
+        {
+            if (++mark == 0) { Arrays.fill(marks, 0); mark = 1; }
+        }
+
+        /** @return false if the node has been visited already. */
+        public boolean add(int node)
+        {
+            if (marks[node] == mark) return false;
+            marks[node] = mark;
+            return true;
+        }
+
+        public Candidates frontier(int ef)
+        {
+            if (frontier == null) frontier = new Candidates(ef);
+            frontier.clear();
+            return frontier;
+        }
+
+        public TopKHeap results(int ef)
+        {
+            if (results == null || results.capacity() != ef) results = new TopKHeap(ef);
+            results.clear();
+            return results;
+        }
+
+        public int[] buffer(int size)
+        {
+            if (buffer == null || buffer.length < size) buffer = new int[size];
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Weights that do not need to fit in memory: the first rows, which are the most frequent words
+ * when the vocabulary is sorted by count, are pinned in a float array, and the remaining rows
+ * live in a memory-mapped file. The operating system pages the mapped rows in on demand,
+ * evicts them under memory pressure, and writes modified rows back, so the heap holds only the hot rows.
+ * Accesses to hot and mapped rows are counted to report the cost of paging.
+ * Values are addressed by long indices, so the mapped rows can hold more than 2^31 values.
+ *
+ * This example keeps the first 100000 rows of a 3M x 300 matrix in memory:
+ *  MappedMatrix W = new MappedMatrix(new File("/ssd/weights.W"), 3000000, 300, 100000);
+ */
+public class MappedMatrix extends WeightMatrix
+{
+    static private final int SEGMENT_SIZE = 1 << 30;
+
+    private final File          file;
+    private final FileChannel   channel;
+    private final int           vector_size;
+    private final int           rows;
+    private final int           hot_rows;       // number of rows pinned in memory
+    private final long          hot_size;       // number of values in the hot rows
+    private final float[]       hot;
+    private final FloatBuffer[] segments;       // mapped rows, each segment holding whole rows
+    private final int           segment_rows;   // number of rows per segment
+    private final int           segment_size;   // number of values per segment
+
+    private final LongAdder hot_count  = new LongAdder();
+    private final LongAdder cold_count = new LongAdder();
+
+    /**
+     * Creates a matrix of zeros.
+     * @param file - file of the rows beyond the hot rows; overwritten and deleted on {@link #close()}.
+     * @param hotRows - number of rows pinned in memory, at most as many as a float array can hold.
+     */
+    public MappedMatrix(File file, int rows, int vectorSize, int hotRows) throws IOException
+    {
+        this.file   = file;
+        this.rows   = rows;
+        vector_size = vectorSize;
+        hot_rows    = Math.max(0, Math.min(Math.min(rows, hotRows), Integer.MAX_VALUE / vectorSize));
+        hot_size    = (long)hot_rows * vectorSize;
+        hot         = new float[(int)hot_size];
+
+        int cold_rows = rows - hot_rows;
+        segment_rows = Math.max(1, SEGMENT_SIZE / (vectorSize * Float.BYTES));
+        segment_size = segment_rows * vectorSize;
+        segments = new FloatBuffer[(int)(((long)cold_rows + segment_rows - 1) / segment_rows)];
+        channel  = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        for (int i=0; i<segments.length; i++)
+        {
+            long length = (long)Math.min(segment_rows, cold_rows - i * segment_rows) * vectorSize * Float.BYTES;
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long)i * segment_size * Float.BYTES, length).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+    }
+
+    @Override
+    public long size()
+    {
+        return (long)rows * vector_size;
+    }
+
+    @Override
+    public float get(long index)
+    {
+        if (index < hot_size) return hot[(int)index];
+        index -= hot_size;
+        return segments[(int)(index / segment_size)].get((int)(index % segment_size));
+    }
+
+    @Override
+    public void set(long index, float value)
+    {
+        if (index < hot_size) { hot[(int)index] = value; return; }
+        index -= hot_size;
+        segments[(int)(index / segment_size)].put((int)(index % segment_size), value);
+    }
+
+    /** @param vector - the size of a row. */
+    @Override
+    public void getRow(int row, float[] vector)
+    {
+        if (row < hot_rows)
+        {
+            System.arraycopy(hot, row * vector_size, vector, 0, vector_size);
+            hot_count.increment();
+            return;
+        }
+
+        row -= hot_rows;
+        FloatBuffer b = segments[row / segment_rows];
+        int offset = (row % segment_rows) * vector_size;
+        for (int k=0; k<vector_size; k++) vector[k] = b.get(offset+k);
+        cold_count.increment();
+    }
+
+    @Override
+    public void setRow(int row, float[] vector, int seed)
+    {
+        if (row < hot_rows)
+        {
+            System.arraycopy(vector, 0, hot, row * vector_size, vector_size);
+            return;
+        }
+
+        row -= hot_rows;
+        FloatBuffer b = segments[row / segment_rows];
+        int offset = (row % segment_rows) * vector_size;
+        for (int k=0; k<vector_size; k++) b.put(offset+k, vector[k]);
+    }
+
+    @Override
+    public void addRow(int row, float[] delta, int seed)
+    {
+        int k, offset;
+
+        if (row < hot_rows)
+        {
+            offset = row * vector_size;
+            for (k=0; k<vector_size; k++) hot[offset+k] += delta[k];
+            hot_count.increment();
+            return;
+        }
+
+        row -= hot_rows;
+        FloatBuffer b = segments[row / segment_rows];
+        offset = (row % segment_rows) * vector_size;
+        for (k=0; k<vector_size; k++) b.put(offset+k, b.get(offset+k) + delta[k]);
+        cold_count.increment();
+    }
+
+    /** @return the number of row accesses served by the hot rows. */
+    public long hotCount()
+    {
+        return hot_count.sum();
+    }
+
+    /** @return the number of row accesses served by the mapped rows. */
+    public long coldCount()
+    {
+        return cold_count.sum();
+    }
+
+    @Override
+    public String stats()
+    {
+        long h = hotCount(), c = coldCount();
+        return String.format("Hot rows: %d/%d Hit rate: %.1f%% of %d row accesses", hot_rows, rows, 100d * h / Math.max(1, h + c), h + c);
+    }
+
+    /** Closes and deletes the file of the mapped rows. */
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+        if (!file.delete()) file.deleteOnExit();   // the mapping may keep the file open until it is collected
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.util;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Product quantization: each vector is split into subspaces of consecutive components,
+ * and each subvector is encoded as the index of its nearest centroid in the codebook of its subspace,
+ * so that a vector of any dimension is stored in one byte per subspace.
+ * Codebooks are trained by k-means on a sample of the vectors, one subspace per task.
+ *
+ * The dot product between a query and an encoded vector is the sum of per-subspace dot products
+ * between the query and the centroids, which are computed once per query by {@link #table(float[])}.
+ */
+public class ProductQuantizer
+{
+    static public final int MAX_CENTROIDS = 256;
+
+    private final int     dimension;
+    private final int     subspaces;
+    private final int     centroids;
+    private final float[] codebooks;   // centroid c of subspace j starts at centroids*begin(j) + c*width(j)
+
+    /**
+     * @param subspaces - number of subspaces, at most the dimension; subspaces differ in width by at most 1.
+     * @param centroids - number of centroids per subspace, at most {@link #MAX_CENTROIDS}.
+     */
+    public ProductQuantizer(int dimension, int subspaces, int centroids)
+    {
+        this(dimension, subspaces, centroids, new float[centroids * dimension]);
+    }
+
+    /** @param codebooks - codebooks saved from {@link #codebooks()}. */
+    public ProductQuantizer(int dimension, int subspaces, int centroids, float[] codebooks)
+    {
+        if (subspaces < 1 || subspaces > dimension) throw new IllegalArgumentException("Invalid number of subspaces: "+subspaces);
+        if (centroids < 1 || centroids > MAX_CENTROIDS) throw new IllegalArgumentException("Invalid number of centroids: "+centroids);
+
+        this.dimension = dimension;
+        this.subspaces = subspaces;
+        this.centroids = centroids;
+        this.codebooks = codebooks;
+    }
+
+    /**
+     * Trains the codebooks by k-means over the sample vectors, one subspace per task.
+     * @param sample - vectors to cluster; there should be at least as many vectors as centroids.
+     */
+    public void train(float[][] sample, int iterations, int threads, long seed)
+    {
+        IntStream stream = IntStream.range(0, subspaces);
+        if (threads > 1) stream = stream.parallel();
+        stream.forEach(j -> train(sample, j, iterations, new Random(seed + j)));
+    }
+
+    private void train(float[][] sample, int j, int iterations, Random rand)
+    {
+        int begin = begin(j), width = begin(j+1) - begin, offset = centroids * begin;
+        int[]   assign = new int[sample.length];
+        int[]   counts = new int[centroids];
+        float[] sums   = new float[centroids * width];
+        int c, i, k;
+
+        for (c=0; c<centroids; c++)
+            System.arraycopy(sample[rand.nextInt(sample.length)], begin, codebooks, offset + c*width, width);
+
+        for (int iter=0; iter<iterations; iter++)
+        {
+            Arrays.fill(counts, 0);
+            Arrays.fill(sums, 0);
+
+            for (i=0; i<sample.length; i++)
+            {
+                assign[i] = nearest(sample[i], j);
+                counts[assign[i]]++;
+                for (k=0; k<width; k++) sums[assign[i]*width + k] += sample[i][begin+k];
+            }
+
+            for (c=0; c<centroids; c++)
+            {
+                if (counts[c] == 0)  // restarts an empty cluster from a random vector
+                    System.arraycopy(sample[rand.nextInt(sample.length)], begin, codebooks, offset + c*width, width);
+                else
+                    for (k=0; k<width; k++) codebooks[offset + c*width + k] = sums[c*width + k] / counts[c];
+            }
+        }
+    }
+
+    /** @return the index of the centroid of the j'th subspace closest to the subvector of the vector. */
+    private int nearest(float[] vector, int j)
+    {
+        int begin = begin(j), width = begin(j+1) - begin, offset = centroids * begin, best = 0;
+        float min = Float.MAX_VALUE, d, e;
+
+        for (int c=0; c<centroids; c++)
+        {
+            d = 0;
+
+            for (int k=0; k<width; k++)
+            {
+                e = vector[begin+k] - codebooks[offset + c*width + k];
+                d += e * e;
+            }
+
+            if (d < min) { min = d; best = c; }
+        }
+
+        return best;
+    }
+
+    /** Encodes the vector as one centroid index per subspace to codes[offset ... offset+subspaces-1]. */
+    public void encode(float[] vector, byte[] codes, int offset)
+    {
+        for (int j=0; j<subspaces; j++)
+            codes[offset+j] = (byte)nearest(vector, j);
+    }
+
+    /** Decodes the vector from the centroid indices of the subspaces. */
+    public void decode(byte[] codes, int offset, float[] vector)
+    {
+        for (int j=0; j<subspaces; j++)
+        {
+            int begin = begin(j), width = begin(j+1) - begin;
+            System.arraycopy(codebooks, centroids*begin + (codes[offset+j] & 0xFF)*width, vector, begin, width);
+        }
+    }
+
+    /**
+     * @return the dot products between the subvectors of the query and the centroids;
+     * table[j*centroids + c] is the dot product in the j'th subspace with the c'th centroid.
+     */
+    public float[] table(float[] query)
+    {
+        float[] table = new float[subspaces * centroids];
+
+        for (int j=0; j<subspaces; j++)
+        {
+            int begin = begin(j), width = begin(j+1) - begin, offset = centroids * begin;
+
+            for (int c=0; c<centroids; c++)
+            {
+                float dot = 0;
+                for (int k=0; k<width; k++) dot += query[begin+k] * codebooks[offset + c*width + k];
+                table[j*centroids + c] = dot;
+            }
+        }
+
+        return table;
+    }
+
+    /** @return the index of the first component of the j'th subspace; begin(subspaces) is the dimension. */
+    public int begin(int j)
+    {
+        return (int)((long)j * dimension / subspaces);
+    }
+
+    public int subspaces()
+    {
+        return subspaces;
+    }
+
+    public int centroids()
+    {
+        return centroids;
+    }
+
+    public float[] codebooks()
+    {
+        return codebooks;
+    }
+}
@@ -0,0 +1,317 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * Memory-mapped vectors saved in a compressed form by {@link VectorWriter#writeQuantized}.
+ * Dot products and cosine similarities are computed on the compressed rows without decoding them:
+ *  FP16: each component as a half-precision float (2x smaller).
+ *  INT8: each row as a scale followed by one signed byte per component (about 4x smaller).
+ *  PQ  : each row as one byte per subspace of a {@link ProductQuantizer} (4*dimension/subspaces times smaller).
+ *
+ * The file consists of a header, the labels, the norms of the encoded rows, the codebooks of PQ,
+ * and the encoded rows aligned to a page, all little-endian.
+ *
+ * This example finds the cosine similarity between a query and every row:
+ *  try (QuantizedVectors vectors = QuantizedVectors.open(file))
+ *  {
+ *      QuantizedVectors.Scorer scorer = vectors.scorer(query);
+ *      for (int i=0; i<vectors.size(); i++) scorer.cosine(i);
+ *  }
+ */
+public class QuantizedVectors implements VectorSource, Closeable
+{
+    public enum Type {FP16, INT8, PQ}
+
+    static final int MAGIC       = 0x514D5356;   // "VSMQ" in little-endian
+    static final int VERSION     = 1;
+    static final int HEADER_SIZE = 64;
+    static final int ALIGNMENT   = 4096;
+    static private final int SEGMENT_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final Type        type;
+    private final int         rows;
+    private final int         dimension;
+    private final int         row_bytes;
+    private final String[]    labels;
+    private final float[]     norms;
+    private final ProductQuantizer quantizer;
+    private final Object2IntMap<String> index_map;
+    private final ByteBuffer[] segments;
+    private final int          segment_rows;
+
+    private QuantizedVectors(File file) throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try
+        {
+            ByteBuffer header = map(0, HEADER_SIZE);
+            if (header.getInt() != MAGIC)   throw new IOException("Not quantized vectors: "+file);
+            if (header.getInt() != VERSION) throw new IOException("Unsupported version: "+file);
+
+            type      = Type.values()[header.getInt()];
+            rows      = header.getInt();
+            dimension = header.getInt();
+            int subspaces = header.getInt();
+            int centroids = header.getInt();
+            row_bytes = header.getInt();
+            long labels_offset   = header.getLong();
+            long norms_offset    = header.getLong();
+            long codebook_offset = header.getLong();
+            long codes_offset    = header.getLong();
+
+            ByteBuffer b = map(labels_offset, (int)(norms_offset - labels_offset));
+            labels    = new String[rows];
+            index_map = new Object2IntOpenHashMap<>(rows);
+            index_map.defaultReturnValue(-1);
+
+            for (int i=0; i<rows; i++)
+            {
+                byte[] label = new byte[b.getInt()];
+                b.get(label);
+                labels[i] = new String(label, StandardCharsets.UTF_8);
+                index_map.putIfAbsent(labels[i], i);
+            }
+
+            norms = new float[rows];
+            map(norms_offset, rows * Float.BYTES).asFloatBuffer().get(norms);
+
+            if (type == Type.PQ)
+            {
+                float[] codebooks = new float[centroids * dimension];
+                map(codebook_offset, codebooks.length * Float.BYTES).asFloatBuffer().get(codebooks);
+                quantizer = new ProductQuantizer(dimension, subspaces, centroids, codebooks);
+            }
+            else quantizer = null;
+
+            segment_rows = Math.max(1, SEGMENT_SIZE / row_bytes);
+            segments = new ByteBuffer[(rows + segment_rows - 1) / segment_rows];
+
+            for (int i=0; i<segments.length; i++)
+                segments[i] = map(codes_offset + (long)i * segment_rows * row_bytes, Math.min(segment_rows, rows - i * segment_rows) * row_bytes);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static public QuantizedVectors open(File file) throws IOException
+    {
+        return new QuantizedVectors(file);
+    }
+
+    /** @return true if the file starts with the magic number of this format. */
+    static public boolean isQuantized(File file)
+    {
+        if (!file.isFile() || file.length() < HEADER_SIZE) return false;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(b, 0);
+            return b.getInt(0) == MAGIC;
+        }
+        catch (IOException e) { return false; }
+    }
+
+    /** @return the number of bytes of each encoded row. */
+    static int rowBytes(Type type, int dimension, int subspaces)
+    {
+        switch (type)
+        {
+        case FP16: return dimension * 2;
+        case INT8: return dimension + Float.BYTES;
+        default  : return subspaces;
+        }
+    }
+
+    /**
+     * Encodes the vector to the buffer at the specific position.
+     * @param decoded - the vector decoded from the encoding, from which the norm of the row is measured.
+     */
+    static void encode(Type type, ProductQuantizer quantizer, float[] vector, ByteBuffer b, int position, float[] decoded)
+    {
+        int k;
+
+        switch (type)
+        {
+        case FP16:
+            for (k=0; k<vector.length; k++)
+            {
+                short half = Float16.toHalf(vector[k]);
+                b.putShort(position + k*2, half);
+                decoded[k] = Float16.toFloat(half);
+            }
+            break;
+        case INT8:
+            float max = 0;
+            for (k=0; k<vector.length; k++) max = Math.max(max, Math.abs(vector[k]));
+            float scale = max / 127;
+            b.putFloat(position, scale);
+
+            for (k=0; k<vector.length; k++)
+            {
+                byte q = scale > 0 ? (byte)Math.round(vector[k] / scale) : 0;
+                b.put(position + Float.BYTES + k, q);
+                decoded[k] = q * scale;
+            }
+            break;
+        case PQ:
+            quantizer.encode(vector, b.array(), b.arrayOffset() + position);
+            quantizer.decode(b.array(), b.arrayOffset() + position, decoded);
+            break;
+        }
+    }
+
+    private ByteBuffer map(long position, int size) throws IOException
+    {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public Type type()
+    {
+        return type;
+    }
+
+    /** @return the number of rows. */
+    @Override
+    public int size()
+    {
+        return rows;
+    }
+
+    @Override
+    public int dimension()
+    {
+        return dimension;
+    }
+
+    @Override
+    public String label(int row)
+    {
+        return labels[row];
+    }
+
+    /** @return the index of the first row with the label if exists; otherwise, -1. */
+    @Override
+    public int indexOf(String label)
+    {
+        return index_map.getInt(label);
+    }
+
+    /** @return the norm of the encoded row. */
+    public float norm(int row)
+    {
+        return norms[row];
+    }
+
+    /** Decodes the row to the vector. */
+    @Override
+    public void get(int row, float[] vector)
+    {
+        ByteBuffer b = segments[row / segment_rows];
+        int k, position = (row % segment_rows) * row_bytes;
+
+        switch (type)
+        {
+        case FP16:
+            for (k=0; k<dimension; k++) vector[k] = Float16.toFloat(b.getShort(position + k*2));
+            break;
+        case INT8:
+            float scale = b.getFloat(position);
+            for (k=0; k<dimension; k++) vector[k] = b.get(position + Float.BYTES + k) * scale;
+            break;
+        case PQ:
+            byte[] codes = new byte[row_bytes];
+            for (k=0; k<row_bytes; k++) codes[k] = b.get(position + k);
+            quantizer.decode(codes, 0, vector);
+            break;
+        }
+    }
+
+    /** @return a scorer comparing the query to the encoded rows; each scorer is used by one thread. */
+    public Scorer scorer(float[] query)
+    {
+        return new Scorer(query);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /** Compares one query to the encoded rows; PQ looks up the dot products of the query with all centroids once. */
+    public class Scorer
+    {
+        private final float[] query;
+        private final float[] table;
+        private final float   query_norm;
+
+        private Scorer(float[] query)
+        {
+            double z = 0;
+            for (float f : query) z += f * f;
+
+            this.query = query;
+            query_norm = (float)Math.sqrt(z);
+            table      = type == Type.PQ ? quantizer.table(query) : null;
+        }
+
+        public float dot(int row)
+        {
+            ByteBuffer b = segments[row / segment_rows];
+            int k, position = (row % segment_rows) * row_bytes;
+            float dot = 0;
+
+            switch (type)
+            {
+            case FP16:
+                for (k=0; k<dimension; k++) dot += query[k] * Float16.toFloat(b.getShort(position + k*2));
+                return dot;
+            case INT8:
+                for (k=0; k<dimension; k++) dot += query[k] * b.get(position + Float.BYTES + k);
+                return dot * b.getFloat(position);
+            default:
+                int centroids = quantizer.centroids();
+                for (k=0; k<row_bytes; k++) dot += table[k*centroids + (b.get(position + k) & 0xFF)];
+                return dot;
+            }
+        }
+
+        public float cosine(int row)
+        {
+            float z = query_norm * norms[row];
+            return z > 0 ? dot(row) / z : 0;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer queue.
+ * Each slot carries a sequence number that tells producers and consumers
+ * whether the slot is free or filled, so neither side ever takes a lock.
+ * The time each side spends waiting on the other is recorded so that
+ * callers can tell whether producers or consumers are the bottleneck.
+ */
+public class RingBuffer<E>
+{
+    private final Object[]        items;
+    private final AtomicLongArray sequences;
+    private final int             mask;
+
+    private final AtomicLong head = new AtomicLong();   // next slot to consume
+    private final AtomicLong tail = new AtomicLong();   // next slot to produce
+
+    private final LongAdder full_wait  = new LongAdder();   // nanoseconds producers waited
+    private final LongAdder empty_wait = new LongAdder();   // nanoseconds consumers waited
+
+    private volatile boolean closed = false;
+
+    /** @param capacity - rounded up to the next power of 2. */
+    public RingBuffer(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        items     = new Object[size];
+        sequences = new AtomicLongArray(size);
+        mask      = size - 1;
+        for (int i=0; i<size; i++) sequences.set(i, i);
+    }
+
+    /** @return true if the item is added; false if this buffer is full. */
+    public boolean offer(E item)
+    {
+        long pos = tail.get(), seq;
+        int  idx;
+
+        while (true)
+        {
+            idx = (int)pos & mask;
+            seq = sequences.get(idx);
+
+            if (seq == pos)
+            {
+                if (tail.compareAndSet(pos, pos+1)) break;
+                pos = tail.get();
+            }
+            else if (seq < pos) return false;
+            else pos = tail.get();
+        }
+
+        items[idx] = item;
+        sequences.lazySet(idx, pos+1);
+        return true;
+    }
+
+    /** @return the next item if exists; otherwise, null. */
+    @SuppressWarnings("unchecked")
+    public E poll()
+    {
+        long pos = head.get(), seq;
+        int  idx;
+
+        while (true)
+        {
+            idx = (int)pos & mask;
+            seq = sequences.get(idx);
+
+            if (seq == pos+1)
+            {
+                if (head.compareAndSet(pos, pos+1)) break;
+                pos = head.get();
+            }
+            else if (seq < pos+1) return null;
+            else pos = head.get();
+        }
+
+        E item = (E)items[idx];
+        items[idx] = null;
+        sequences.lazySet(idx, pos+mask+1);
+        return item;
+    }
+
+    /** Adds the item, waiting while this buffer is full. */
+    public void put(E item) throws InterruptedException
+    {
+        if (offer(item)) return;
+        long start = System.nanoTime();
+
+        for (int spins=0; !offer(item); spins++)
+        {
+            if (Thread.interrupted()) throw new InterruptedException();
+            idle(spins);
+        }
+
+        full_wait.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Removes the next item, waiting while this buffer is empty.
+     * @return the next item, or null if this buffer is closed and drained.
+     */
+    public E take() throws InterruptedException
+    {
+        E item = poll();
+        if (item != null) return item;
+        long start = System.nanoTime();
+
+        for (int spins=0; (item = poll()) == null; spins++)
+        {
+            if (closed) { item = poll(); break; }
+            if (Thread.interrupted()) throw new InterruptedException();
+            idle(spins);
+        }
+
+        empty_wait.add(System.nanoTime() - start);
+        return item;
+    }
+
+    /** Called once all producers are done; consumers drain the remaining items and then receive null. */
+    public void close()
+    {
+        closed = true;
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    public int size()
+    {
+        return (int)Math.max(0, tail.get() - head.get());
+    }
+
+    public int capacity()
+    {
+        return items.length;
+    }
+
+    /** @return total nanoseconds producers spent waiting for free slots. */
+    public long fullWaitNanos()
+    {
+        return full_wait.sum();
+    }
+
+    /** @return total nanoseconds consumers spent waiting for items. */
+    public long emptyWaitNanos()
+    {
+        return empty_wait.sum();
+    }
+
+    private void idle(int spins)
+    {
+        if      (spins < 100) return;
+        else if (spins < 200) Thread.yield();
+        else                  LockSupport.parkNanos(50000);
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.util;
+
+/**
+ * Bounded min-heap of the k highest scores with their ids, kept in primitive arrays
+ * so that selecting the top-k of millions of candidates allocates nothing per candidate.
+ * The lowest kept score is at the root, so a candidate is rejected by one comparison with {@link #threshold()}.
+ *
+ * This example keeps the 10 most similar rows:
+ *  TopKHeap heap = new TopKHeap(10);
+ *  for (int i=0; i<rows; i++) heap.add(i, similarity(i));
+ *  heap.sort();    // heap.id(0) is now the most similar row
+ */
+public class TopKHeap
+{
+    private final int[]   ids;
+    private final float[] scores;
+    private int size;
+
+    public TopKHeap(int k)
+    {
+        ids    = new int[k];
+        scores = new float[k];
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /** @return the maximum number of entries. */
+    public int capacity()
+    {
+        return ids.length;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /** @return the lowest score that is kept once the heap is full; otherwise, negative infinity. */
+    public float threshold()
+    {
+        return size < ids.length ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /** @return true if the entry is kept. */
+    public boolean add(int id, float score)
+    {
+        if (size < ids.length)
+        {
+            int i = size++;
+
+            // sift up
+            while (i > 0)
+            {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] <= score) break;
+                ids[i] = ids[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+
+            ids[i] = id;
+            scores[i] = score;
+            return true;
+        }
+
+        if (ids.length == 0 || score <= scores[0]) return false;
+        siftDown(0, id, score, size);
+        return true;
+    }
+
+    /** Sorts the entries in descending order of the scores; entries can be added again only after {@link #clear()}. */
+    public void sort()
+    {
+        // heap sort: move the lowest score to the end repeatedly, which leaves the entries in descending order
+        for (int end=size-1; end>0; end--)
+        {
+            int id = ids[end];
+            float score = scores[end];
+            ids[end] = ids[0];
+            scores[end] = scores[0];
+            siftDown(0, id, score, end);
+        }
+    }
+
+    /** @return the id of the i'th entry; in descending order of the scores after {@link #sort()}. */
+    public int id(int i)
+    {
+        return ids[i];
+    }
+
+    public float score(int i)
+    {
+        return scores[i];
+    }
+
+    /** @return the ids in descending order of the scores; the entries are sorted as {@link #sort()}. */
+    public int[] toSortedIds()
+    {
+        sort();
+        int[] sorted = new int[size];
+        System.arraycopy(ids, 0, sorted, 0, size);
+        return sorted;
+    }
+
+    private void siftDown(int i, int id, float score, int end)
+    {
+        int child;
+
+        while ((child = 2 * i + 1) < end)
+        {
+            if (child + 1 < end && scores[child + 1] < scores[child]) child++;
+            if (score <= scores[child]) break;
+            ids[i] = ids[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+
+        ids[i] = id;
+        scores[i] = score;
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.util;
+
+/**
+ * Labeled rows of vectors, either held as floats by {@link VectorStore} or decoded on demand by {@link QuantizedVectors},
+ * so that the evaluators look up words the same way whichever file they are given.
+ *
+ * This example prints the vector of a word if exists:
+ *  VectorSource source = QuantizedVectors.isQuantized(file) ? QuantizedVectors.open(file) : VectorStore.load(file, 8);
+ *  if (source.contains("king")) System.out.println(Arrays.toString(source.get("king")));
+ */
+public interface VectorSource
+{
+    /** @return the number of rows. */
+    int size();
+
+    int dimension();
+
+    String label(int row);
+
+    /** @return the row of the word, or -1 if the word has no vector. */
+    int indexOf(String word);
+
+    /** Copies the row, decoded if necessary, to the vector. */
+    void get(int row, float[] vector);
+
+    default boolean contains(String word)
+    {
+        return indexOf(word) >= 0;
+    }
+
+    /** @return a copy of the vector of the word, or null if the word has no vector. */
+    default float[] get(String word)
+    {
+        int row = indexOf(word);
+        if (row < 0) return null;
+        float[] vector = new float[dimension()];
+        get(row, vector);
+        return vector;
+    }
+}
@@ -0,0 +1,976 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import edu.emory.mathcs.nlp.common.util.BinUtils;
+import edu.emory.mathcs.nlp.common.util.IOUtils;
+import edu.emory.mathcs.nlp.vsm.MappedModel;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * Word vectors held in one contiguous row-major matrix with the norm of each row and an index from words to rows,
+ * shared by the evaluators instead of a map of arrays, which scatters one object per word over the heap.
+ *
+ * Text files are split into chunks at line boundaries, and the chunks are parsed by multiple threads,
+ * each filling its own rows of the matrix. The parsed matrix is cached in a binary file next to the text file
+ * (the file name followed by {@link #CACHE_EXTENSION}), which later loads copy in parallel without parsing;
+ * the cache is ignored once the text file is modified.
+ *
+ * Reads text vectors (the label followed by the values on each line, separated by tabs or spaces,
+ * with or without the header "rows dimension" of word2vec), the binary format of word2vec,
+ * maps from words to vectors serialized with XZ compression, {@link QuantizedVectors}, whose rows are decoded, and the input vectors of a {@link MappedModel}.
+ *
+ * This example loads vectors with 8 threads and finds the cosine similarity between two words:
+ *  VectorStore vectors = VectorStore.load(new File("vectors.txt"), 8);
+ *  vectors.cosine(vectors.indexOf("king"), vectors.indexOf("queen"));
+ */
+public class VectorStore implements VectorSource
+{
+    static public final String CACHE_EXTENSION = ".cache";
+
+    static final int MAGIC       = 0x53435356;   // "VSCS" in little-endian
+    static final int VERSION     = 1;
+    static final int HEADER_SIZE = 32;
+    static final int ALIGNMENT   = 4096;
+    static private final int CHUNK_SIZE  = 1 << 26;   // maximum bytes of the cache copied by one task
+    static private final byte[] XZ_MAGIC = {(byte)0xFD, '7', 'z', 'X', 'Z', 0};
+    static private final int TEXT_SIZE   = 1 << 24;   // bytes of text parsed by one task, held in memory while parsing
+    static private final int PEEK_SIZE   = 1 << 20;   // bytes read to detect the format
+    static private final int BLOCK_ROWS  = 1 << 12;
+    static private final int BUFFER_SIZE = 1 << 20;
+
+    private final String[] labels;
+    private final float[]  vectors;
+    private final float[]  norms;
+    private final int      vector_size;
+    private final Object2IntMap<String> index_map;
+
+    /**
+     * @param labels - label of each row.
+     * @param vectors - rows of the matrix in row-major order, not copied.
+     * @param threads - number of threads computing the norms.
+     */
+    public VectorStore(String[] labels, float[] vectors, int vectorSize, int threads)
+    {
+        this.labels  = labels;
+        this.vectors = vectors;
+        vector_size  = vectorSize;
+        norms        = new float[labels.length];
+        index_map    = new Object2IntOpenHashMap<>(labels.length);
+        index_map.defaultReturnValue(-1);
+
+        // the last row of a label is used as a map would
+        for (int i=0; i<labels.length; i++)
+            index_map.put(labels[i], i);
+
+        forEachBlock(threads, (begin, end) -> {
+            for (int i=begin; i<end; i++) norms[i] = norm(vectors, i * vector_size, vector_size);
+        });
+    }
+
+//    =================================== Loading ===================================
+
+    /**
+     * Loads the vectors from the binary cache of the file if it is up to date; otherwise,
+     * parses the file and caches the result unless it is binary already.
+     * @param threads - number of threads parsing or copying chunks of the file.
+     */
+    static public VectorStore load(File file, int threads) throws IOException
+    {
+        if (!file.isFile()) throw new IOException("Cannot find vectors: "+file);
+        if (QuantizedVectors.isQuantized(file)) return readQuantized(file, threads);
+        if (MappedModel.isMappedModel(file))    return readModel(file, threads);
+        File cache = new File(file.getPath() + CACHE_EXTENSION);
+        long start = System.currentTimeMillis();
+        VectorStore store;
+
+        if (isCache(file))
+            store = readCache(file, -1, threads);
+        else if (cache.isFile() && cache.lastModified() >= file.lastModified() && isCache(cache))
+            store = readCache(cache, file.length(), threads);
+        else
+            store = null;
+
+        if (store == null)
+        {
+            if      (isSerialized(file)) store = readSerialized(file, threads);
+            else if (isText(file))       store = readText(file, threads);
+            else                         store = readBinary(file, threads);
+
+            try { store.writeCache(cache, file.length()); }
+            catch (IOException e) { BinUtils.LOG.info("Could not cache vectors: "+e.getMessage()+"\n"); cache.delete(); }
+        }
+
+        BinUtils.LOG.info(String.format("Loaded %d vectors of %d dimensions in %d ms.\n", store.size(), store.dimension(), System.currentTimeMillis() - start));
+        return store;
+    }
+
+    /** @return true if the file starts with the magic number of the cache. */
+    static public boolean isCache(File file)
+    {
+        if (!file.isFile() || file.length() < HEADER_SIZE) return false;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(b, 0);
+            return b.getInt(0) == MAGIC;
+        }
+        catch (IOException e) { return false; }
+    }
+
+    /**
+     * @param sourceSize - size of the file the cache was made from, or -1 if the cache is loaded as is; the cache is stale if it differs.
+     * @return the cached vectors, or null if the cache is stale.
+     */
+    static private VectorStore readCache(File file, long sourceSize, int threads) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC)   throw new IOException("Not cached vectors: "+file);
+            if (header.getInt() != VERSION) return null;
+
+            int  rows        = header.getInt();
+            int  vector_size = header.getInt();
+            long source_size = header.getLong();
+            long vectors_offset = header.getLong();
+            if (sourceSize >= 0 && source_size != sourceSize) return null;
+
+            String[] labels = readLabels(channel, rows, vectors_offset);
+            float[] vectors = new float[checkSize(rows, vector_size)];
+            int block_rows  = Math.max(1, CHUNK_SIZE / (vector_size * Float.BYTES));
+
+            parallel((rows + block_rows - 1) / block_rows, threads, block -> {
+                int begin = block * block_rows, end = Math.min(rows, begin + block_rows);
+                try { map(channel, vectors_offset + (long)begin * vector_size * Float.BYTES, (long)(end - begin) * vector_size * Float.BYTES).asFloatBuffer().get(vectors, begin * vector_size, (end - begin) * vector_size); }
+                catch (IOException e) { throw new UncheckedIOException(e); }
+            });
+
+            return new VectorStore(labels, vectors, vector_size, threads);
+        }
+    }
+
+    /** @return the labels of a cache, which are stored between the header and the vectors. */
+    static String[] readLabels(FileChannel channel, int rows, long vectorsOffset) throws IOException
+    {
+        ByteBuffer b = map(channel, HEADER_SIZE, vectorsOffset - HEADER_SIZE);
+        String[] labels = new String[rows];
+
+        for (int i=0; i<rows; i++)
+        {
+            byte[] label = new byte[b.getInt()];
+            b.get(label);
+            labels[i] = new String(label, StandardCharsets.UTF_8);
+        }
+
+        return labels;
+    }
+
+    /**
+     * Makes sure that the file has an up-to-date cache, parsing the file and writing the cache if it does not,
+     * so that the matrix can be memory-mapped from the cache instead of loaded. The parsed rows go straight to the cache
+     * without the whole matrix in memory, except for serialized maps, which are read as a whole.
+     * @return the cache of the file, the file itself if it is a cache, or null if the file is in a format that is not cached.
+     */
+    static public File cache(File file, int threads) throws IOException
+    {
+        if (isCache(file)) return file;
+        if (QuantizedVectors.isQuantized(file) || MappedModel.isMappedModel(file)) return null;
+        File cache = new File(file.getPath() + CACHE_EXTENSION);
+        if (isFresh(cache, file)) return cache;
+        long start = System.currentTimeMillis();
+
+        // the map of a serialized file is in memory anyway; the other formats are written to the cache as they are parsed
+        if      (isSerialized(file)) readSerialized(file, threads).writeCache(cache, file.length());
+        else if (isText(file))       cacheText(file, cache, threads);
+        else                         cacheBinary(file, cache);
+
+        BinUtils.LOG.info(String.format("Cached %s in %d ms.\n", file.getName(), System.currentTimeMillis() - start));
+        return isFresh(cache, file) ? cache : null;
+    }
+
+    /** @return true if the cache is at least as new as the file and made from a file of its size. */
+    static private boolean isFresh(File cache, File file) throws IOException
+    {
+        if (!isCache(cache) || cache.lastModified() < file.lastModified()) return false;
+
+        try (FileChannel channel = FileChannel.open(cache.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            header.getInt();
+            return header.getInt() == VERSION && header.getLong(16) == file.length();
+        }
+    }
+
+    /** Decodes the rows of quantized vectors. */
+    static private VectorStore readQuantized(File file, int threads) throws IOException
+    {
+        try (QuantizedVectors quantized = QuantizedVectors.open(file))
+        {
+            int rows = quantized.size(), vector_size = quantized.dimension();
+            String[] labels  = new String[rows];
+            float[]  vectors = new float[checkSize(rows, vector_size)];
+
+            forEachBlock(rows, threads, (begin, end) -> {
+                float[] vector = new float[vector_size];
+
+                for (int i=begin; i<end; i++)
+                {
+                    labels[i] = quantized.label(i);
+                    quantized.get(i, vector);
+                    System.arraycopy(vector, 0, vectors, i * vector_size, vector_size);
+                }
+            });
+
+            return new VectorStore(labels, vectors, vector_size, threads);
+        }
+    }
+
+    /** Loads the input vectors W of a model saved by {@link edu.emory.mathcs.nlp.vsm.Word2Vec}, labeled by the input vocabulary. */
+    static private VectorStore readModel(File file, int threads) throws IOException
+    {
+        try (MappedModel model = MappedModel.open(file))
+        {
+            Vocabulary vocab = model.inVocab();
+            String[] labels = new String[vocab.size()];
+            for (int i=0; i<labels.length; i++) labels[i] = vocab.get(i).form;
+            return new VectorStore(labels, model.loadW(threads), model.vectorSize(), threads);
+        }
+    }
+
+    /**
+     * Parses text vectors in chunks of whole lines: the first pass counts the rows of every chunk,
+     * which gives each chunk its first row, and the second pass parses the chunks into their rows.
+     */
+    static private VectorStore readText(File file, int threads) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            byte[] peek = peek(channel);
+            int vector_size = textDimension(peek, file);
+            long[] bounds = textChunks(channel, peek, threads);
+            int chunks = bounds.length - 1;
+
+            int[] counts = new int[chunks + 1];
+            parallel(chunks, threads, c -> {
+                try { counts[c+1] = countRows(map(channel, bounds[c], bounds[c+1] - bounds[c])); }
+                catch (IOException e) { throw new UncheckedIOException(e); }
+            });
+            for (int c=0; c<chunks; c++) counts[c+1] += counts[c];
+
+            int rows = counts[chunks];
+            String[] labels  = new String[rows];
+            float[]  vectors = new float[checkSize(rows, vector_size)];
+
+            parallel(chunks, threads, c -> {
+                try { parseRows(map(channel, bounds[c], bounds[c+1] - bounds[c]), labels, vectors, vector_size, counts[c]); }
+                catch (IOException e) { throw new UncheckedIOException(e); }
+            });
+
+            return new VectorStore(labels, vectors, vector_size, threads);
+        }
+    }
+
+    /**
+     * Parses text vectors into the cache chunk by chunk, holding the labels but not the matrix:
+     * the first pass reads the labels of every chunk, which gives each chunk its first row and the cache its offset of the rows,
+     * and the second pass parses the chunks and writes their rows to their positions in the cache.
+     */
+    static private void cacheText(File file, File cache, int threads) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            byte[] peek = peek(channel);
+            int vector_size = textDimension(peek, file);
+            long[] bounds = textChunks(channel, peek, threads);
+            int chunks = bounds.length - 1;
+
+            String[][] chunk_labels = new String[chunks][];
+            parallel(chunks, threads, c -> {
+                try { chunk_labels[c] = parseLabels(map(channel, bounds[c], bounds[c+1] - bounds[c])); }
+                catch (IOException e) { throw new UncheckedIOException(e); }
+            });
+
+            int[] counts = new int[chunks + 1];
+            for (int c=0; c<chunks; c++) counts[c+1] = counts[c] + chunk_labels[c].length;
+            String[] labels = new String[counts[chunks]];
+            for (int c=0; c<chunks; c++) System.arraycopy(chunk_labels[c], 0, labels, counts[c], chunk_labels[c].length);
+
+            writeCache(cache, labels, vector_size, file.length(), (out, position) -> parallel(chunks, threads, c -> {
+                int rows = chunk_labels[c].length;
+                float[] vectors = new float[rows * vector_size];
+
+                try
+                {
+                    parseRows(map(channel, bounds[c], bounds[c+1] - bounds[c]), new String[rows], vectors, vector_size, 0);
+                    writeFloats(out, vectors, position + (long)counts[c] * vector_size * Float.BYTES);
+                }
+                catch (IOException e) { throw new UncheckedIOException(e); }
+            }));
+        }
+    }
+
+    /** @return the dimension in the header "rows dimension" if exists; otherwise, the number of values in the first line. */
+    static private int textDimension(byte[] peek, File file) throws IOException
+    {
+        int first = lineEnd(peek, 0, peek.length);
+        int[] header = header(peek, first);
+        int vector_size = header != null ? header[1] : tokens(peek, 0, first) - 1;
+        if (vector_size <= 0) throw new IOException("Cannot find vectors in the first line: "+file);
+        return vector_size;
+    }
+
+    /** @return the beginnings of the chunks of whole lines after the header, followed by the size of the file. */
+    static private long[] textChunks(FileChannel channel, byte[] peek, int threads) throws IOException
+    {
+        long size = channel.size();
+        int first = lineEnd(peek, 0, peek.length);
+        long begin = header(peek, first) != null ? first + 1 : 0;
+
+        long chunk_size = Math.max(PEEK_SIZE, Math.min(TEXT_SIZE, (size - begin) / Math.max(1, threads) + 1));
+        int  chunks = (int)Math.max(1, (size - begin + chunk_size - 1) / chunk_size);
+        long[] bounds = new long[chunks + 1];
+        bounds[0] = begin;
+        bounds[chunks] = size;
+        for (int c=1; c<chunks; c++) bounds[c] = nextLine(channel, begin + c * chunk_size);
+        return bounds;
+    }
+
+    /** Reads the binary format of word2vec; rows have labels of different lengths, so they are read in order. */
+    static private VectorStore readBinary(File file, int threads) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)))
+        {
+            String[] header = readLabel(in, (byte)'\n').trim().split("\\s+");
+            int rows = Integer.parseInt(header[0]), vector_size = Integer.parseInt(header[1]);
+
+            String[] labels  = new String[rows];
+            float[]  vectors = new float[checkSize(rows, vector_size)];
+            byte[]   bytes   = new byte[vector_size * Float.BYTES];
+            ByteBuffer b = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+            for (int i=0; i<rows; i++)
+            {
+                labels[i] = readLabel(in, (byte)' ').trim();
+                in.readFully(bytes);
+                b.clear();
+                b.asFloatBuffer().get(vectors, i * vector_size, vector_size);
+            }
+
+            return new VectorStore(labels, vectors, vector_size, threads);
+        }
+    }
+
+    /**
+     * Copies the binary format of word2vec into the cache in two sequential passes without holding the matrix:
+     * the first pass reads the labels, which places the rows in the cache, and the second pass copies the rows,
+     * which are little-endian in both formats.
+     */
+    static private void cacheBinary(File file, File cache) throws IOException
+    {
+        String[] labels;
+        int vector_size;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)))
+        {
+            String[] header = readLabel(in, (byte)'\n').trim().split("\\s+");
+            labels = new String[Integer.parseInt(header[0])];
+            vector_size = Integer.parseInt(header[1]);
+            byte[] bytes = new byte[vector_size * Float.BYTES];
+
+            for (int i=0; i<labels.length; i++)
+            {
+                labels[i] = readLabel(in, (byte)' ').trim();
+                in.readFully(bytes);
+            }
+        }
+
+        writeCache(cache, labels, vector_size, file.length(), (out, position) -> {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)))
+            {
+                readLabel(in, (byte)'\n');
+                ByteBuffer b = ByteBuffer.allocate(Math.max(BUFFER_SIZE, vector_size * Float.BYTES));
+
+                for (String label : labels)
+                {
+                    readLabel(in, (byte)' ');
+                    if (b.remaining() < vector_size * Float.BYTES) position = write(out, b, position);
+                    in.readFully(b.array(), b.position(), vector_size * Float.BYTES);
+                    b.position(b.position() + vector_size * Float.BYTES);
+                }
+
+                write(out, b, position);
+            }
+        });
+    }
+
+    /**
+     * Reads a map from words to vectors serialized in an XZ-compressed object stream,
+     * as saved by the older tools in {@link edu.emory.mathcs.nlp.dev}; rows are in the order of the words.
+     */
+    @SuppressWarnings("unchecked")
+    static private VectorStore readSerialized(File file, int threads) throws IOException
+    {
+        Map<String,float[]> map;
+
+        try (ObjectInputStream in = IOUtils.createObjectXZBufferedInputStream(file.getPath()))
+        {
+            map = (Map<String,float[]>)in.readObject();
+        }
+        catch (ClassNotFoundException | ClassCastException e) { throw new IOException("Not a map of vectors: "+file, e); }
+
+        String[] labels = map.keySet().toArray(new String[map.size()]);
+        Arrays.sort(labels);
+        int vector_size = labels.length > 0 ? map.get(labels[0]).length : 0;
+        float[] vectors = new float[checkSize(labels.length, vector_size)];
+
+        for (int i=0; i<labels.length; i++)
+        {
+            float[] vector = map.get(labels[i]);
+            if (vector.length != vector_size) throw new IOException(String.format("Expected %d values for \"%s\", found %d: %s", vector_size, labels[i], vector.length, file));
+            System.arraycopy(vector, 0, vectors, i * vector_size, vector_size);
+        }
+
+        return new VectorStore(labels, vectors, vector_size, threads);
+    }
+
+    /** @return true if the file starts with the magic number of XZ. */
+    static private boolean isSerialized(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            byte[] peek = peek(channel);
+            if (peek.length < XZ_MAGIC.length) return false;
+            for (int i=0; i<XZ_MAGIC.length; i++) if (peek[i] != XZ_MAGIC[i]) return false;
+            return true;
+        }
+    }
+
+    /** @return true if the first line with values is text; otherwise, the file is in the binary format of word2vec. */
+    static private boolean isText(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            byte[] peek = peek(channel);
+            int first = lineEnd(peek, 0, peek.length);
+            int[] header = header(peek, first);
+            if (header == null) return true;
+
+            // binary values hardly ever form a line of as many numbers as the dimension
+            int second = lineEnd(peek, first + 1, peek.length);
+            if (tokens(peek, first + 1, second) != header[1] + 1) return false;
+
+            try { parseLine(peek, first + 1, second, null, new float[header[1]], 0, header[1]); return true; }
+            catch (NumberFormatException e) { return false; }
+        }
+    }
+
+//    =================================== Caching ===================================
+
+    /**
+     * Writes the header, the labels, and the rows aligned to a page, all little-endian.
+     * The cache is written to a temporary file first so that a failed write never leaves a corrupted cache behind.
+     * @param sourceSize - size of the file these vectors are parsed from.
+     */
+    public void writeCache(File file, long sourceSize) throws IOException
+    {
+        writeCache(file, labels, vector_size, sourceSize, (channel, position) -> writeFloats(channel, vectors, position));
+    }
+
+    /** Writes the rows of a cache beginning at the position. */
+    interface RowWriter
+    {
+        void write(FileChannel channel, long position) throws IOException;
+    }
+
+    static private void writeCache(File file, String[] labels, int vectorSize, long sourceSize, RowWriter rows) throws IOException
+    {
+        File temp = new File(file.getPath() + ".tmp");
+        long vectors_offset = HEADER_SIZE;
+        for (String label : labels) vectors_offset += Integer.BYTES + label.getBytes(StandardCharsets.UTF_8).length;
+        vectors_offset = (vectors_offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer b = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            b.putInt(MAGIC).putInt(VERSION).putInt(labels.length).putInt(vectorSize).putLong(sourceSize).putLong(vectors_offset);
+            long position = 0;
+
+            for (String label : labels)
+            {
+                byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+                if (b.remaining() < Integer.BYTES + bytes.length) position = write(channel, b, position);
+                b.putInt(bytes.length).put(bytes);
+            }
+
+            write(channel, b, position);
+            rows.write(channel, vectors_offset);
+        }
+        catch (IOException | RuntimeException e) { temp.delete(); throw e; }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Writes the values little-endian beginning at the position; the channel can be written by several threads at different positions. */
+    static private void writeFloats(FileChannel channel, float[] vectors, long position) throws IOException
+    {
+        ByteBuffer b = ByteBuffer.allocate(Math.min(BUFFER_SIZE, vectors.length * Float.BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int i=0; i<vectors.length; i+=b.capacity() / Float.BYTES)
+        {
+            int length = Math.min(b.capacity() / Float.BYTES, vectors.length - i);
+            b.clear();
+            b.asFloatBuffer().put(vectors, i, length);
+            b.position(length * Float.BYTES);
+            position = write(channel, b, position);
+        }
+    }
+
+    /** Writes the buffer up to its position at the position of the channel and clears it. */
+    static private long write(FileChannel channel, ByteBuffer b, long position) throws IOException
+    {
+        b.flip();
+        while (b.hasRemaining()) position += channel.write(b, position);
+        b.clear();
+        return position;
+    }
+
+//    =================================== Access ===================================
+
+    /** @return the number of rows. */
+    @Override
+    public int size()
+    {
+        return labels.length;
+    }
+
+    @Override
+    public int dimension()
+    {
+        return vector_size;
+    }
+
+    @Override
+    public String label(int row)
+    {
+        return labels[row];
+    }
+
+    /** @return the row of the word, or -1 if the word has no vector. */
+    @Override
+    public int indexOf(String word)
+    {
+        return index_map.getInt(word);
+    }
+
+    @Override
+    public boolean contains(String word)
+    {
+        return index_map.containsKey(word);
+    }
+
+    /** @return the backing row-major matrix, in which each row begins at {@link #offset(int)}. */
+    public float[] matrix()
+    {
+        return vectors;
+    }
+
+    /** @return the index of the first value of the row in {@link #matrix()}. */
+    public int offset(int row)
+    {
+        return row * vector_size;
+    }
+
+    /** Copies the row to the vector. */
+    @Override
+    public void get(int row, float[] vector)
+    {
+        System.arraycopy(vectors, row * vector_size, vector, 0, vector_size);
+    }
+
+    /** @return the L2 norm of the row. */
+    public float norm(int row)
+    {
+        return norms[row];
+    }
+
+    public float dot(float[] query, int row)
+    {
+        int offset = row * vector_size;
+        float sum = 0;
+        for (int k=0; k<vector_size; k++) sum += query[k] * vectors[offset+k];
+        return sum;
+    }
+
+    /** @param queryNorm - L2 norm of the query, which is computed once for all rows; see {@link #norm(float[])}. */
+    public float cosine(float[] query, float queryNorm, int row)
+    {
+        return dot(query, row) / (queryNorm * norms[row]);
+    }
+
+    public float cosine(int row1, int row2)
+    {
+        int offset = row1 * vector_size;
+        float sum = 0;
+        for (int k=0, l=row2*vector_size; k<vector_size; k++,l++) sum += vectors[offset+k] * vectors[l];
+        return sum / (norms[row1] * norms[row2]);
+    }
+
+    /** Divides every row by its norm in place so that dot products are cosine similarities; rows of zeros are kept. */
+    public void normalize(int threads)
+    {
+        forEachBlock(threads, (begin, end) -> {
+            for (int i=begin; i<end; i++)
+            {
+                if (norms[i] == 0) continue;
+                for (int k=0, l=i*vector_size; k<vector_size; k++,l++) vectors[l] /= norms[i];
+                norms[i] = 1;
+            }
+        });
+    }
+
+    /** @return the vectors of the words in the order of the collection, skipping words without vectors. */
+    public VectorStore subset(Collection<String> words, int threads)
+    {
+        int[] rows = words.stream().mapToInt(this::indexOf).filter(i -> i >= 0).toArray();
+        String[] sub_labels  = new String[rows.length];
+        float[]  sub_vectors = new float[rows.length * vector_size];
+
+        for (int i=0; i<rows.length; i++)
+        {
+            sub_labels[i] = labels[rows[i]];
+            System.arraycopy(vectors, rows[i] * vector_size, sub_vectors, i * vector_size, vector_size);
+        }
+
+        return new VectorStore(sub_labels, sub_vectors, vector_size, threads);
+    }
+
+    static public float norm(float[] vector)
+    {
+        return norm(vector, 0, vector.length);
+    }
+
+    static private float norm(float[] vectors, int offset, int length)
+    {
+        double sum = 0;
+        for (int k=0; k<length; k++) sum += vectors[offset+k] * vectors[offset+k];
+        return (float)Math.sqrt(sum);
+    }
+
+//    =================================== Parsing ===================================
+
+    /** @return the number of lines with at least one token. */
+    static private int countRows(ByteBuffer text)
+    {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        boolean blank = true;
+        int rows = 0, length;
+        byte c;
+
+        while ((length = Math.min(buffer.length, text.remaining())) > 0)
+        {
+            text.get(buffer, 0, length);
+
+            for (int i=0; i<length; i++)
+            {
+                c = buffer[i];
+                if (c == '\n') { if (!blank) rows++; blank = true; }
+                else if (blank && !isSpace(c)) blank = false;
+            }
+        }
+
+        return blank ? rows : rows + 1;
+    }
+
+    /** @return the labels, the first tokens, of the lines with at least one token. */
+    static private String[] parseLabels(ByteBuffer text)
+    {
+        byte[] bytes = new byte[text.remaining()];
+        List<String> labels = new ArrayList<>();
+        text.get(bytes);
+
+        for (int begin=0, end, i; begin<bytes.length; begin=end+1)
+        {
+            end = lineEnd(bytes, begin, bytes.length);
+            i = skipSpaces(bytes, begin, end);
+            if (i < end) labels.add(new String(bytes, i, skipToken(bytes, i, end) - i, StandardCharsets.UTF_8));
+        }
+
+        return labels.toArray(new String[labels.size()]);
+    }
+
+    /** Parses the lines of the text into the rows beginning at the specific row. */
+    static private void parseRows(ByteBuffer text, String[] labels, float[] vectors, int vectorSize, int row) throws IOException
+    {
+        byte[] bytes = new byte[text.remaining()];
+        text.get(bytes);
+
+        for (int begin=0, end; begin<bytes.length; begin=end+1)
+        {
+            end = lineEnd(bytes, begin, bytes.length);
+            try { if (parseLine(bytes, begin, end, labels, vectors, row, vectorSize)) row++; }
+            catch (NumberFormatException e) { throw new IOException("Cannot parse the vector of row "+row+": "+e.getMessage()); }
+        }
+    }
+
+    /**
+     * Parses a line of the label followed by the values into the row.
+     * @param labels - if null, the label is not decoded.
+     * @return false if the line is blank.
+     */
+    static private boolean parseLine(byte[] line, int begin, int end, String[] labels, float[] vectors, int row, int vectorSize)
+    {
+        int i = skipSpaces(line, begin, end), j = skipToken(line, i, end), k;
+        if (i == end) return false;
+        if (labels != null) labels[row] = new String(line, i, j - i, StandardCharsets.UTF_8);
+        int offset = labels != null ? row * vectorSize : 0;
+
+        for (k=0; k<vectorSize; k++)
+        {
+            i = skipSpaces(line, j, end);
+            if (i == end) throw new NumberFormatException(k+" values found; "+vectorSize+" expected");
+            j = skipToken(line, i, end);
+            vectors[offset+k] = parseFloat(line, i, j);
+        }
+
+        if (skipSpaces(line, j, end) != end) throw new NumberFormatException("more than "+vectorSize+" values found");
+        return true;
+    }
+
+    /**
+     * Parses a decimal number without allocating a string, as {@link Float#parseFloat(String)} does.
+     * The digits and the power of 10 are combined in one correctly rounded double operation when both are exact in a double;
+     * the double is then rounded to a float, which gives the correctly rounded float unless the double lies exactly
+     * halfway between two floats. Those, and any other forms such as "NaN", fall back to {@link Float#parseFloat(String)}.
+     */
+    static public float parseFloat(byte[] text, int begin, int end)
+    {
+        int i = begin, digits = 0, scale = 0, exponent = 0;
+        boolean negative = false, dot = false, number = false;
+        long mantissa = 0;
+        byte c;
+
+        if (i < end && (text[i] == '-' || text[i] == '+')) negative = text[i++] == '-';
+
+        for (; i<end; i++)
+        {
+            c = text[i];
+
+            if ('0' <= c && c <= '9')
+            {
+                number = true;
+                if (mantissa == 0 && c == '0') { if (dot) scale--; continue; }
+                if (++digits > 18) return slowFloat(text, begin, end);
+                mantissa = mantissa * 10 + (c - '0');
+                if (dot) scale--;
+            }
+            else if (c == '.' && !dot) dot = true;
+            else break;
+        }
+
+        if (i < end && (text[i] == 'e' || text[i] == 'E'))
+        {
+            boolean negative_exponent = false;
+            if (++i < end && (text[i] == '-' || text[i] == '+')) negative_exponent = text[i++] == '-';
+            if (i == end) return slowFloat(text, begin, end);
+
+            for (; i<end; i++)
+            {
+                c = text[i];
+                if (c < '0' || '9' < c || exponent > 1000) return slowFloat(text, begin, end);
+                exponent = exponent * 10 + (c - '0');
+            }
+
+            if (negative_exponent) exponent = -exponent;
+        }
+
+        if (i != end || !number) return slowFloat(text, begin, end);
+        if (mantissa == 0) return negative ? -0f : 0f;
+
+        int power = scale + exponent;
+        if (mantissa >= 1L << 53 || power < -22 || power > 22) return slowFloat(text, begin, end);
+
+        double value = power < 0 ? mantissa / POWERS_OF_10[-power] : mantissa * POWERS_OF_10[power];
+        if ((Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) == 0x10000000L) return slowFloat(text, begin, end);
+        return negative ? (float)-value : (float)value;
+    }
+
+    static private final double[] POWERS_OF_10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    static private float slowFloat(byte[] text, int begin, int end)
+    {
+        return Float.parseFloat(new String(text, begin, end - begin, StandardCharsets.ISO_8859_1));
+    }
+
+    /** @return the dimension of the header "rows dimension" if the line is a header; otherwise, null. */
+    static private int[] header(byte[] text, int end)
+    {
+        String[] tokens = new String(text, 0, end, StandardCharsets.UTF_8).trim().split("\\s+");
+        if (tokens.length != 2 || !tokens[0].matches("\\d+") || !tokens[1].matches("\\d+")) return null;
+        return new int[]{Integer.parseInt(tokens[0]), Integer.parseInt(tokens[1])};
+    }
+
+    static private int tokens(byte[] text, int begin, int end)
+    {
+        int count = 0;
+
+        for (int i=skipSpaces(text, begin, end); i<end; i=skipSpaces(text, skipToken(text, i, end), end))
+            count++;
+
+        return count;
+    }
+
+    static private int skipSpaces(byte[] text, int i, int end)
+    {
+        while (i < end && isSpace(text[i])) i++;
+        return i;
+    }
+
+    static private int skipToken(byte[] text, int i, int end)
+    {
+        while (i < end && !isSpace(text[i])) i++;
+        return i;
+    }
+
+    static private boolean isSpace(byte c)
+    {
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+
+    /** @return the index of the first newline from the beginning, or the end if none. */
+    static private int lineEnd(byte[] text, int begin, int end)
+    {
+        while (begin < end && text[begin] != '\n') begin++;
+        return begin;
+    }
+
+    /** @return the bytes up to the delimiter, skipping newlines before them. */
+    static private String readLabel(DataInputStream in, byte delimiter) throws IOException
+    {
+        byte[] bytes = new byte[64];
+        int length = 0, c;
+
+        while ((c = in.read()) != delimiter)
+        {
+            if (c < 0) throw new EOFException();
+            if (c == '\n' && length == 0) continue;
+            if (length == bytes.length) bytes = Arrays.copyOf(bytes, length * 2);
+            bytes[length++] = (byte)c;
+        }
+
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    static private byte[] peek(FileChannel channel) throws IOException
+    {
+        ByteBuffer b = ByteBuffer.allocate((int)Math.min(PEEK_SIZE, channel.size()));
+        while (b.hasRemaining() && channel.read(b, b.position()) > 0);
+        return b.array();
+    }
+
+    /** @return the position after the first newline from the position, or the end of the file. */
+    static private long nextLine(FileChannel channel, long position) throws IOException
+    {
+        ByteBuffer b = ByteBuffer.allocate(BUFFER_SIZE);
+
+        while (position < channel.size())
+        {
+            b.clear();
+            int length = channel.read(b, position);
+            for (int i=0; i<length; i++) if (b.get(i) == '\n') return position + i + 1;
+            position += length;
+        }
+
+        return channel.size();
+    }
+
+//    =================================== Helpers ===================================
+
+    static private ByteBuffer map(FileChannel channel, long position, long size) throws IOException
+    {
+        if (size > Integer.MAX_VALUE) throw new IOException("Section too large to map: "+size);
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static private int checkSize(int rows, int vectorSize) throws IOException
+    {
+        long size = (long)rows * vectorSize;
+        if (size > Integer.MAX_VALUE) throw new IOException("Too many values for one matrix: "+rows+" x "+vectorSize);
+        return (int)size;
+    }
+
+    /** Block of rows [begin, end). */
+    interface BlockTask
+    {
+        void run(int begin, int end);
+    }
+
+    private void forEachBlock(int threads, BlockTask task)
+    {
+        forEachBlock(size(), threads, task);
+    }
+
+    static private void forEachBlock(int rows, int threads, BlockTask task)
+    {
+        try { parallel((rows + BLOCK_ROWS - 1) / BLOCK_ROWS, threads, block -> task.run(block * BLOCK_ROWS, Math.min(rows, (block+1) * BLOCK_ROWS))); }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+
+    /** Runs the tasks on a pool of the specific number of threads. */
+    static private void parallel(int tasks, int threads, IntConsumer task) throws IOException
+    {
+        if (threads <= 1) { IntStream.range(0, tasks).forEach(task); return; }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try { pool.submit(() -> IntStream.range(0, tasks).parallel().forEach(task)).get(); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new IOException(e); }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) throw ((UncheckedIOException)cause).getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            throw new IOException(cause);
+        }
+        finally { pool.shutdown(); }
+    }
+}
@@ -0,0 +1,464 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Writes rows of a weight matrix straight from the weight array in row order, without copying the matrix.
+ * Rows are formatted in parallel chunks, each of which is written to its own position of the file.
+ *
+ * Text: one row per line, the label followed by the values, each followed by a tab.
+ * Binary: the layout of word2vec; a header "rows dimension\n", then for each row
+ * the label, a space, the values as 4-byte little-endian floats, and a newline.
+ * Quantized: the compressed rows read by {@link QuantizedVectors}; see {@link #writeQuantized}.
+ *
+ * This example saves the input vectors of a vocabulary in the binary format with 4 threads:
+ *  new VectorWriter(W, vector_size, vocab.size(), i -> vocab.get(i).form, i -> i * vector_size).write(file, true, false, 4);
+ */
+public class VectorWriter
+{
+    static private final int CHUNK_ROWS     = 1 << 12;
+    static private final int PQ_SAMPLE_ROWS = 1 << 16;   // rows sampled to train the codebooks of PQ
+    static private final int PQ_ITERATIONS  = 20;
+
+    private final float[]            vectors;
+    private final WeightMatrix       matrix;    // used instead of the vectors if not null
+    private final int                vector_size;
+    private final int                rows;
+    private final IntFunction<String> labels;
+    private final IntUnaryOperator   offsets;
+
+    /**
+     * @param rows - number of rows to write.
+     * @param labels - returns the label of each row.
+     * @param offsets - returns the index of the first value of each row in the vectors.
+     */
+    public VectorWriter(float[] vectors, int vectorSize, int rows, IntFunction<String> labels, IntUnaryOperator offsets)
+    {
+        this.vectors = vectors;
+        this.matrix  = null;
+        this.vector_size = vectorSize;
+        this.rows    = rows;
+        this.labels  = labels;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Same as {@link #VectorWriter(float[], int, int, IntFunction, IntUnaryOperator)} for weights not kept in a float array,
+     * whose i'th row is written as the i'th row; the matrix can hold more than 2^31 values.
+     */
+    public VectorWriter(WeightMatrix vectors, int vectorSize, int rows, IntFunction<String> labels)
+    {
+        this.vectors = null;
+        this.matrix  = vectors;
+        this.vector_size = vectorSize;
+        this.rows    = rows;
+        this.labels  = labels;
+        this.offsets = null;
+    }
+
+    /**
+     * @param binary - if true, write the binary format of word2vec; otherwise, text.
+     * @param normalize - if true, write each row divided by its norm; the weights are not modified.
+     * @param threads - number of threads formatting and writing chunks.
+     */
+    public void write(File file, boolean binary, boolean normalize, int threads) throws IOException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            long position = 0;
+
+            if (binary)
+            {
+                ByteBuffer header = ByteBuffer.wrap((rows+" "+vector_size+"\n").getBytes(StandardCharsets.UTF_8));
+                position = write(out, header, 0);
+            }
+
+            int chunks = (rows + CHUNK_ROWS - 1) / CHUNK_ROWS;
+            List<Future<ByteBuffer>> formats = new ArrayList<>();
+            List<Future<Long>> writes = new ArrayList<>();
+
+            // each batch formats one chunk per thread, then writes the chunks to consecutive positions
+            for (int batch=0; batch<chunks; batch+=threads)
+            {
+                formats.clear();
+                writes.clear();
+
+                for (int c=batch; c<Math.min(chunks, batch+threads); c++)
+                {
+                    int begin = c * CHUNK_ROWS, end = Math.min(rows, begin + CHUNK_ROWS);
+                    formats.add(executor.submit(() -> format(begin, end, binary, normalize)));
+                }
+
+                for (Future<ByteBuffer> f : formats)
+                {
+                    ByteBuffer buffer = f.get();
+                    long start = position;
+                    position += buffer.remaining();
+                    writes.add(executor.submit(() -> write(out, buffer, start)));
+                }
+
+                for (Future<Long> f : writes) f.get();
+            }
+        }
+        catch (Exception e)
+        {
+            throw e instanceof IOException ? (IOException)e : new IOException(e);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Writes the rows in a compressed form that is read by {@link QuantizedVectors}.
+     * Rows are encoded in parallel chunks, each of which is written to its own position of the file.
+     * @param subspaces - number of subspaces for {@link QuantizedVectors.Type#PQ}; ignored by the other types.
+     * @param normalize - if true, encode each row divided by its norm; the weights are not modified.
+     * @param threads - number of threads training the codebooks of PQ, and encoding and writing chunks.
+     */
+    public void writeQuantized(File file, QuantizedVectors.Type type, int subspaces, boolean normalize, int threads) throws IOException
+    {
+        ProductQuantizer quantizer = null;
+
+        if (type == QuantizedVectors.Type.PQ)
+        {
+            float[][] sample = new float[Math.min(rows, PQ_SAMPLE_ROWS)][vector_size];
+            for (int i=0; i<sample.length; i++) row((int)((long)i * rows / sample.length), normalize, sample[i]);
+            quantizer = new ProductQuantizer(vector_size, subspaces, Math.max(1, Math.min(ProductQuantizer.MAX_CENTROIDS, rows)));
+            quantizer.train(sample, PQ_ITERATIONS, threads, 1);
+        }
+
+        byte[][] names = new byte[rows][];
+        long size = 0;
+
+        for (int i=0; i<rows; i++)
+        {
+            names[i] = labels.apply(i).getBytes(StandardCharsets.UTF_8);
+            size += Integer.BYTES + names[i].length;
+        }
+
+        int  row_bytes       = QuantizedVectors.rowBytes(type, vector_size, subspaces);
+        long labels_offset   = QuantizedVectors.HEADER_SIZE;
+        long norms_offset    = align(labels_offset + size, Float.BYTES);
+        long codebook_offset = norms_offset + (long)rows * Float.BYTES;
+        long codes_offset    = align(codebook_offset + (quantizer != null ? (long)quantizer.codebooks().length * Float.BYTES : 0), QuantizedVectors.ALIGNMENT);
+        float[] norms = new float[rows];
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            List<Future<Long>> writes = new ArrayList<>();
+            ProductQuantizer pq = quantizer;
+
+            for (int begin=0; begin<rows; begin+=CHUNK_ROWS)
+            {
+                int b = begin, e = Math.min(rows, begin + CHUNK_ROWS);
+                writes.add(executor.submit(() -> write(out, encode(b, e, type, pq, normalize, row_bytes, norms), codes_offset + (long)b * row_bytes)));
+            }
+
+            for (Future<Long> f : writes) f.get();
+
+            ByteBuffer header = ByteBuffer.allocate(QuantizedVectors.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(QuantizedVectors.MAGIC).putInt(QuantizedVectors.VERSION).putInt(type.ordinal()).putInt(rows).putInt(vector_size);
+            header.putInt(quantizer != null ? quantizer.subspaces() : 0).putInt(quantizer != null ? quantizer.centroids() : 0).putInt(row_bytes);
+            header.putLong(labels_offset).putLong(norms_offset).putLong(codebook_offset).putLong(codes_offset);
+            header.rewind();
+            write(out, header, 0);
+
+            long position = labels_offset;
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+            for (byte[] name : names)
+            {
+                if (buffer.remaining() < Integer.BYTES + name.length)
+                {
+                    buffer.flip();
+                    position = write(out, buffer, position);
+                    buffer = ByteBuffer.allocate(Math.max(1 << 16, Integer.BYTES + name.length)).order(ByteOrder.LITTLE_ENDIAN);
+                }
+
+                buffer.putInt(name.length).put(name);
+            }
+
+            buffer.flip();
+            write(out, buffer, position);
+            write(out, floats(norms), norms_offset);
+            if (quantizer != null) write(out, floats(quantizer.codebooks()), codebook_offset);
+        }
+        catch (Exception e)
+        {
+            throw e instanceof IOException ? (IOException)e : new IOException(e);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /** Encodes the rows [begin, end) and measures the norm of each encoded row. */
+    private ByteBuffer encode(int begin, int end, QuantizedVectors.Type type, ProductQuantizer quantizer, boolean normalize, int rowBytes, float[] norms)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate((end - begin) * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+        float[] vector  = new float[vector_size];
+        float[] decoded = new float[vector_size];
+
+        for (int i=begin; i<end; i++)
+        {
+            row(i, normalize, vector);
+            QuantizedVectors.encode(type, quantizer, vector, buffer, (i - begin) * rowBytes, decoded);
+
+            double z = 0;
+            for (float f : decoded) z += f * f;
+            norms[i] = (float)Math.sqrt(z);
+        }
+
+        return buffer;
+    }
+
+    /** Copies the i'th row to the vector. */
+    private void row(int i, boolean normalize, float[] vector)
+    {
+        long l = offset(i);
+        float z = normalize ? norm(l) : 1;
+        for (int k=0; k<vector_size; k++) vector[k] = value(l+k) / z;
+    }
+
+    static private ByteBuffer floats(float[] array)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(array.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(array);
+        return buffer;
+    }
+
+    static private long align(long position, int alignment)
+    {
+        return (position + alignment - 1) / alignment * alignment;
+    }
+
+    private ByteBuffer format(int begin, int end, boolean binary, boolean normalize)
+    {
+        byte[][] names = new byte[end - begin][];
+        int i, k, size = 0;
+        long l;
+
+        for (i=begin; i<end; i++)
+        {
+            names[i-begin] = labels.apply(i).getBytes(StandardCharsets.UTF_8);
+            size += names[i-begin].length + 2 + vector_size * (binary ? 4 : MAX_FLOAT_LENGTH + 1);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] array = buffer.array();
+        int position = 0;
+        float z;
+
+        for (i=begin; i<end; i++)
+        {
+            l = offset(i);
+            z = normalize ? norm(l) : 1;
+            System.arraycopy(names[i-begin], 0, array, position, names[i-begin].length);
+            position += names[i-begin].length;
+            array[position++] = (byte)(binary ? ' ' : '\t');
+
+            for (k=0; k<vector_size; k++)
+            {
+                if (binary)
+                {
+                    buffer.putFloat(position, value(l+k) / z);
+                    position += 4;
+                }
+                else
+                {
+                    position = formatFloat(value(l+k) / z, array, position);
+                    array[position++] = '\t';
+                }
+            }
+
+            array[position++] = '\n';
+        }
+
+        buffer.limit(position);
+        return buffer;
+    }
+
+    private float norm(long offset)
+    {
+        double z = 0;
+        for (int k=0; k<vector_size; k++) z += value(offset+k) * value(offset+k);
+        return z > 0 ? (float)Math.sqrt(z) : 1;
+    }
+
+    /** @return the index of the first value of the i'th row. */
+    private long offset(int i)
+    {
+        return matrix != null ? (long)i * vector_size : offsets.applyAsInt(i);
+    }
+
+    private float value(long index)
+    {
+        return vectors != null ? vectors[(int)index] : matrix.get(index);
+    }
+
+    static private long write(FileChannel out, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+            position += out.write(buffer, position);
+
+        return position;
+    }
+
+//  =================================== Float Formatting ===================================
+
+    /** Maximum number of bytes written by {@link #formatFloat(float, byte[], int)}. */
+    static public final int MAX_FLOAT_LENGTH = 16;
+    static private final int      POWER_OFFSET = 60;
+    static private final double[] POWERS_OF_10 = new double[121];   // 10^-60 ... 10^60, covering subnormal floats
+
+    static
+    {
+        for (int i=0; i<POWERS_OF_10.length; i++)
+            POWERS_OF_10[i] = Double.parseDouble("1e"+(i-POWER_OFFSET));
+    }
+
+    /**
+     * Writes the value with the fewest significant digits, at most 9, from which {@link Float#parseFloat(String)}
+     * reads the same value, e.g., "0.25", "-1.2345678E-4", without allocating.
+     * @return the position after the last written byte.
+     */
+    static public int formatFloat(float value, byte[] buffer, int position)
+    {
+        if (Float.isNaN(value) || Float.isInfinite(value))
+        {
+            for (byte b : Float.toString(value).getBytes(StandardCharsets.US_ASCII)) buffer[position++] = b;
+            return position;
+        }
+
+        if (value < 0 || (value == 0 && 1 / value < 0))
+        {
+            buffer[position++] = '-';
+            value = -value;
+        }
+
+        if (value == 0)
+        {
+            buffer[position++] = '0';
+            buffer[position++] = '.';
+            buffer[position++] = '0';
+            return position;
+        }
+
+        // digits = round(value / 10^(exponent-8)) has exactly 9 digits
+        int exponent = (int)Math.floor(Math.log10(value));
+        long digits = Math.round(value / POWERS_OF_10[exponent - 8 + POWER_OFFSET]);
+        if      (digits >= 1000000000L) { digits = Math.round(value / POWERS_OF_10[exponent - 7 + POWER_OFFSET]); exponent++; }
+        else if (digits <  100000000L)  { digits = Math.round(value / POWERS_OF_10[exponent - 9 + POWER_OFFSET]); exponent--; }
+
+        // use the fewest significant digits that read back as the same value
+        int length = 9;
+
+        for (int precision=6; precision<9; precision++)
+        {
+            int scale = exponent - precision + 1;
+            long d = Math.round(value / POWERS_OF_10[scale + POWER_OFFSET]);
+            double read = scale < 0 ? d / POWERS_OF_10[-scale + POWER_OFFSET] : d * POWERS_OF_10[scale + POWER_OFFSET];
+
+            if (d < POWERS_OF_10[precision + POWER_OFFSET] && (float)read == value)
+            {
+                digits = d;
+                length = precision;
+                break;
+            }
+        }
+
+        // drop trailing zeros
+        while (length > 1 && digits % 10 == 0) { digits /= 10; length--; }
+
+        // plain notation for values between 0.001 and 10^7; otherwise, scientific notation
+        if (-3 <= exponent && exponent < 0)
+        {
+            buffer[position++] = '0';
+            buffer[position++] = '.';
+            for (int i=-1; i>exponent; i--) buffer[position++] = '0';
+            position = writeDigits(digits, length, buffer, position);
+        }
+        else if (0 <= exponent && exponent < 7)
+        {
+            int integer = exponent + 1;
+
+            if (length <= integer)
+            {
+                position = writeDigits(digits, length, buffer, position);
+                for (int i=length; i<integer; i++) buffer[position++] = '0';
+                buffer[position++] = '.';
+                buffer[position++] = '0';
+            }
+            else
+            {
+                int end = writeDigits(digits, length, buffer, position + 1);
+                System.arraycopy(buffer, position + 1, buffer, position, integer);
+                buffer[position + integer] = '.';
+                position = end;
+            }
+        }
+        else
+        {
+            int end = writeDigits(digits, length, buffer, position + 1);
+            buffer[position] = buffer[position + 1];
+
+            if (length > 1) buffer[position + 1] = '.';
+            else { buffer[position + 1] = '.'; buffer[position + 2] = '0'; end++; }
+
+            position = end;
+            buffer[position++] = 'E';
+            if (exponent < 0) { buffer[position++] = '-'; exponent = -exponent; }
+            if (exponent >= 10) buffer[position++] = (byte)('0' + exponent / 10);
+            buffer[position++] = (byte)('0' + exponent % 10);
+        }
+
+        return position;
+    }
+
+    /** Writes the number of the specific length in decimal, most significant digit first. */
+    static private int writeDigits(long digits, int length, byte[] buffer, int position)
+    {
+        for (int i=position+length-1; i>=position; i--)
+        {
+            buffer[i] = (byte)('0' + digits % 10);
+            digits /= 10;
+        }
+
+        return position + length;
+    }
+}
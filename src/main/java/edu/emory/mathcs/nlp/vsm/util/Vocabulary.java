@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.stream.Stream;
 
 import edu.emory.mathcs.nlp.common.util.Joiner;
 
@@ -91,6 +92,23 @@ public class Vocabulary implements Serializable
 		sort(min_word_count);
 	}
 
+	/**
+	 * Add every word in the sentences to vocabulary, then sort vocabulary.
+	 * If the stream is parallel (e.g., {@link Reader#sentences()}), each worker
+	 * counts into its own vocabulary and the vocabularies are merged at the end.
+	 * Remove words with count less than min_word_count
+	 *
+	 * @param sentences - stream of sentences
+	 * @param min_word_count - words with counts less than this will be removed
+	 */
+	public void learn(Stream<List<String>> sentences, int min_word_count)
+	{
+		addAll(sentences.collect(Vocabulary::new, (v, words) -> words.forEach(v::add), Vocabulary::addAll));
+		sort(min_word_count);
+
+		System.out.println(total_count + " total word count");
+	}
+
 	/**
 	 * Add every word in readers to vocabulary in parallel,
 	 * then sort vocabulary and restart reader.
@@ -179,22 +197,25 @@ public class Vocabulary implements Serializable
 	 * @return the word object either already existing or newly introduced.
 	 */
 	public Word add(String word)
+	{
+		return get(addIndex(word));
+	}
+
+	/**
+	 * Adds the word to the vocabulary if absent, and increments its count by 1.
+	 * @return the index of the word; indices change when this vocabulary is sorted or reduced.
+	 */
+	public int addIndex(String word)
 	{
 		int index = index_map.computeIfAbsent(word, k -> size());
-		Word w;
 		
 		if (index < size())
-		{
-			w = get(index);
-			w.increment(1);
-		}
+			get(index).increment(1);
 		else
-		{
-			w = new Word(word, 1);
-			word_list.add(w);
-		}
+			word_list.add(new Word(word, 1));
+
 		total_count++;  // I only added this line - Austin
-		return w;
+		return index;
 	}
 
 	/**
@@ -286,6 +307,22 @@ public class Vocabulary implements Serializable
 		return reduce(minCount, true);
 	}
 	
+	/**
+	 * Sorts {@link #word_list} as {@link #sort(int)} does.
+	 * @return map from the index of each word before sorting to its index after sorting; -1 if the word is discarded.
+	 */
+	public int[] sortAndMap(int minCount)
+	{
+		List<Word> list = word_list;
+		sort(minCount);
+		int[] map = new int[list.size()];
+
+		for (int i=0; i<map.length; i++)
+			map[i] = indexOf(list.get(i).form);
+
+		return map;
+	}
+
 	/**
 	 * Reduces the vocabulary by removing infrequent words.
 	 * @return total number of word counts after reducing.
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2016, Emory University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.emory.mathcs.nlp.vsm.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Weights that are not kept in a plain float array, e.g., in 16 bits or on disk.
+ * Rows are decoded to 32-bit buffers for arithmetic and written back as a whole,
+ * so that the training kernels are the same for every storage.
+ * Rows are addressed by their indices and single values by long indices,
+ * so that a matrix can hold more than 2^31 values.
+ */
+public abstract class WeightMatrix implements Closeable
+{
+    /** @return the number of values, which can exceed the range of int for matrices not kept in memory. */
+    public abstract long size();
+
+    public abstract float get(long index);
+
+    public abstract void set(long index, float value);
+
+    /** Decodes the row'th row, values[row*vector.length ... (row+1)*vector.length-1], to the vector. */
+    public abstract void getRow(int row, float[] vector);
+
+    /**
+     * Sets the row'th row to the vector.
+     * @param seed - random bits for storages that round stochastically; must not be 0.
+     */
+    public abstract void setRow(int row, float[] vector, int seed);
+
+    /** Adds the delta to the row'th row. */
+    public abstract void addRow(int row, float[] delta, int seed);
+
+    /**
+     * @return all values in a float array.
+     * @throws ArithmeticException if there are more values than an array can hold.
+     */
+    public float[] toFloats()
+    {
+        float[] floats = new float[Math.toIntExact(size())];
+        for (int i=0; i<floats.length; i++) floats[i] = get(i);
+        return floats;
+    }
+
+    /** @return statistics of this storage to report with the progress, or null if none. */
+    public String stats()
+    {
+        return null;
+    }
+
+    /** Releases the resources of this storage, e.g., files. */
+    @Override
+    public void close() throws IOException {}
+}
@@ -0,0 +1,58 @@
+package edu.emory.mathcs.nlp.vsm.context;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.component.template.node.NLPNode;
+import edu.emory.mathcs.nlp.vsm.reader.DEPTreeReader;
+
+public class ContextExtractorsTest {
+
+    @Test
+    public void testCompile() throws Exception
+    {
+        DEPTreeReader reader = new DEPTreeReader(Arrays.asList(new File("resources/dat/dep_test_files/dep_test1.txt")));
+        reader.open();
+        List<NLPNode> nodes = reader.next();
+        reader.close();
+
+        // every node is encoded as its own ID so that contexts can be compared to nodes
+        ContextBuffer buffer = new ContextBuffer(NLPNode::getID);
+        ContextExtractor extractor = ContextExtractors.compile("dep2h", 2);
+        buffer.setSentence(nodes);
+
+        for (int i=1; i<nodes.size(); i++)
+        {
+            NLPNode node = nodes.get(i);
+            Set<Integer> expected = new HashSet<>();
+            for (NLPNode n : node.getDependentList())      expected.add(n.getID());
+            for (NLPNode n : node.getGrandDependentList()) expected.add(n.getID());
+            if (node.getDependencyHead() != null)           expected.add(node.getDependencyHead().getID());
+
+            buffer.clear();
+            extractor.extract(nodes, i, buffer);
+            assertEquals(expected.size(), buffer.size());
+            for (int j=0; j<buffer.size(); j++) assertEquals(true, expected.contains(buffer.get(j)));
+        }
+
+        // window contexts are clipped at the sentence boundaries and skip the token itself
+        buffer.clear();
+        ContextExtractors.compile("w2v", 2).extract(nodes, 1, buffer);
+        assertEquals(3, buffer.size());
+        assertEquals(0, buffer.get(0));
+        assertEquals(3, buffer.get(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownStructure()
+    {
+        ContextExtractors.compile("dep3", 2);
+    }
+}
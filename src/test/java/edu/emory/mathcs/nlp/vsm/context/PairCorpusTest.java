@@ -0,0 +1,65 @@
+package edu.emory.mathcs.nlp.vsm.context;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.common.util.FileUtils;
+import edu.emory.mathcs.nlp.component.template.node.NLPNode;
+import edu.emory.mathcs.nlp.vsm.reader.DEPTreeReader;
+import edu.emory.mathcs.nlp.vsm.reader.Reader;
+
+public class PairCorpusTest {
+
+    @Test
+    public void testExtract() throws Exception
+    {
+        List<File> files = FileUtils.getFileList("resources/dat/dep_test_files", "*")
+                .stream().map(File::new).collect(Collectors.toList());
+        ContextExtractor extractor = ContextExtractors.compile("deph", 0);
+
+        // pairs of (target ID, context ID) counted sentence by sentence
+        Map<Long,Integer> expected = new HashMap<>();
+        ContextBuffer buffer = new ContextBuffer(NLPNode::getID);
+        Reader<NLPNode> reader = new DEPTreeReader(files);
+        List<NLPNode> nodes;
+        reader.open();
+
+        while ((nodes = reader.next()) != null)
+        {
+            buffer.setSentence(nodes);
+
+            for (int i=0; i<nodes.size(); i++)
+            {
+                buffer.clear();
+                extractor.extract(nodes, i, buffer);
+                for (int j=0; j<buffer.size(); j++) expected.merge(pair(i, buffer.get(j)), 1, Integer::sum);
+            }
+        }
+
+        reader.close();
+
+        PairCorpus corpus = new PairCorpus(null, 3);
+        corpus.extract(new DEPTreeReader(files).splitParallel(2), extractor, NLPNode::getID, NLPNode::getID, 7);
+        Map<Long,Integer> actual = new HashMap<>();
+
+        for (PairCorpus.Chunk chunk : corpus.chunks())
+            for (long i=0; i<chunk.size(); i++)
+                actual.merge(pair(chunk.target(i), chunk.context(i)), 1, Integer::sum);
+
+        corpus.close();
+        assertEquals(expected.values().stream().mapToLong(Integer::longValue).sum(), corpus.pairCount());
+        assertEquals(expected, actual);
+    }
+
+    static private long pair(int target, int context)
+    {
+        return (long)target << 32 | context;
+    }
+}
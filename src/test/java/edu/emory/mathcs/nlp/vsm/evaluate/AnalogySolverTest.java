@@ -0,0 +1,72 @@
+package edu.emory.mathcs.nlp.vsm.evaluate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.vsm.util.TopKHeap;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
+
+public class AnalogySolverTest {
+
+    @Test
+    public void testTopKHeap()
+    {
+        TopKHeap heap = new TopKHeap(3);
+        float[] scores = {0.5f, 0.1f, 0.9f, 0.3f, 0.7f, 0.2f};
+        for (int i=0; i<scores.length; i++) heap.add(i, scores[i]);
+
+        assertEquals(0.5f, heap.threshold(), 0);
+        assertArrayEquals(new int[]{2, 4, 0}, heap.toSortedIds());
+        assertEquals(0.9f, heap.score(0), 0);
+    }
+
+    @Test
+    public void testSolve()
+    {
+        int rows = 3000, size = 20, k = 5;
+        Random rand = new Random(1);
+        String[] labels = new String[rows];
+        float[] matrix = new float[rows * size];
+        for (int i=0; i<rows; i++) labels[i] = "w"+i;
+        for (int i=0; i<matrix.length; i++) matrix[i] = (float)rand.nextGaussian();
+
+        VectorStore vectors = new VectorStore(labels, matrix, size, 2);
+        int[][] questions = new int[103][];
+        for (int q=0; q<questions.length; q++) questions[q] = new int[]{rand.nextInt(rows), rand.nextInt(rows), rand.nextInt(rows)};
+        questions[7] = new int[]{0, -1, 2};
+
+        for (int max_rows : new int[]{0, 1000})
+        {
+            AnalogySolver solver = new AnalogySolver(vectors, max_rows, 3);
+            int[][] top = solver.solve(questions, k);
+            assertNull(top[7]);
+
+            for (int q=0; q<questions.length; q++)
+                if (q != 7) assertArrayEquals(scan(vectors, questions[q], solver.rows(), k), top[q]);
+        }
+    }
+
+    /** @return the top-k rows of b - a + c by cosine similarity, one row at a time. */
+    private int[] scan(VectorStore vectors, int[] question, int rows, int k)
+    {
+        float[] a = new float[vectors.dimension()], b = new float[a.length], c = new float[a.length], query = new float[a.length];
+        vectors.get(question[0], a);
+        vectors.get(question[1], b);
+        vectors.get(question[2], c);
+        for (int j=0; j<query.length; j++) query[j] = b[j] - a[j] + c[j];
+
+        TopKHeap heap = new TopKHeap(k);
+        float norm = VectorStore.norm(query);
+
+        for (int i=0; i<rows; i++)
+            if (i != question[0] && i != question[1] && i != question[2])
+                heap.add(i, vectors.cosine(query, norm, i));
+
+        return heap.toSortedIds();
+    }
+}
@@ -0,0 +1,66 @@
+package edu.emory.mathcs.nlp.vsm.evaluate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class EvaluationHarnessTest {
+
+    @Test
+    public void testRun()
+    {
+        EvaluationHarness harness = new EvaluationHarness(4);
+        int size = 10007;
+
+        // accumulators are merged in the order of the questions
+        List<Integer> order = harness.run(size, ArrayList::new, List::add, List::addAll);
+        assertEquals(size, order.size());
+        for (int i=0; i<size; i++) assertEquals(i, order.get(i).intValue());
+
+        EvaluationHarness.Scores scores = harness.run(size, () -> new EvaluationHarness.Scores(3), (s, i) -> s.add(i % 3, i % 5 - 1), EvaluationHarness.Scores::merge);
+        EvaluationHarness.Scores expected = new EvaluationHarness.Scores(3);
+        for (int i=0; i<size; i++) expected.add(i % 3, i % 5 - 1);
+
+        assertArrayEquals(expected.total,   scores.total);
+        assertArrayEquals(expected.correct, scores.correct);
+        assertArrayEquals(expected.oov,     scores.oov);
+    }
+
+    @Test
+    public void testMemo()
+    {
+        EvaluationHarness harness = new EvaluationHarness(4);
+        List<float[]> vectors = harness.run(1000, ArrayList::new, (list, i) -> list.add(harness.memo("key" + i % 10, k -> new float[]{k.length()})), List::addAll);
+
+        // every worker gets the first vector stored for the key
+        for (int i=0; i<vectors.size(); i++) assertSame(vectors.get(i % 10), vectors.get(i));
+    }
+
+    @Test
+    public void testReadAnalogies() throws Exception
+    {
+        File file = File.createTempFile("analogies", ".txt");
+        Writer out = new FileWriter(file);
+        out.write("x y z w\n");   // before any category
+        for (String category : new String[]{"zeta", "alpha", "mu"})
+            out.write(": " + category + "\na b c d\n\ne f g h\n");
+        out.write("too short\n");
+        out.close();
+
+        Map<String,List<String[]>> analogies = EvaluationHarness.readAnalogies(file);
+        assertArrayEquals(new String[]{"[zeta]", "[alpha]", "[mu]"}, analogies.keySet().toArray());
+        assertEquals(2, analogies.get("[zeta]").size());
+        assertEquals(2, analogies.get("[mu]").size());
+        assertEquals(6, analogies.get("[alpha]").get(1).length);
+        file.delete();
+    }
+}
@@ -0,0 +1,166 @@
+package edu.emory.mathcs.nlp.vsm.evaluate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
+
+public class EvaluationRunnerTest {
+
+    @Test
+    public void testEvaluate() throws Exception
+    {
+        int words = 200, size = 10;
+        Random rand = new Random(1);
+        float[][] vectors = new float[words][size];
+
+        // every word is a unit vector, then the words 40-59 become d = b - a + c of the 20 questions
+        for (int i=0; i<words; i++)
+        {
+            float norm = 0;
+            for (int j=0; j<size; j++) { vectors[i][j] = (float)rand.nextGaussian(); norm += vectors[i][j] * vectors[i][j]; }
+            for (int j=0; j<size; j++) vectors[i][j] /= (float)Math.sqrt(norm);
+        }
+
+        File analogy = File.createTempFile("analogy", ".txt");
+        Writer out = new FileWriter(analogy);
+
+        for (int q=0; q<20; q++)
+        {
+            int a = q, b = q + 20, c = (q + 1) % 20, d = q + 40;
+            for (int j=0; j<size; j++) vectors[d][j] = vectors[b][j] - vectors[a][j] + vectors[c][j];
+            if (q % 10 == 0) out.write(": category"+q/10+"\n");
+            out.write("w"+a+" w"+b+" w"+c+" W"+d+"\n");
+        }
+
+        out.write("w0 w1 w2 unknown\n");
+        out.close();
+
+        File triad = File.createTempFile("triads", ".csv");
+        out = new FileWriter(triad);
+        out.write("w0,w1,w2,3,1\nw3,w4,w5,0,2\nw6,w7,unknown,1,0\n");
+        out.close();
+
+        List<File> models = new ArrayList<>();
+        models.add(write(vectors, "w%d", rand, 0));
+        models.add(write(vectors, "x%d", rand, 0));
+        models.add(write(vectors, "w%d", rand, 1));
+        models.add(new File(models.get(0).getPath() + ".missing"));
+
+        EvaluationRunner runner = new EvaluationRunner(analogy, triad, 2, 1, 2);
+        List<EvaluationRunner.Result> results = runner.evaluate(models);
+
+        // the first and third models share their vocabulary
+        assertEquals(2, runner.resolved.size());
+        assertEquals(4, results.size());
+        for (int i=0; i<3; i++) assertEquals(models.get(i).getPath(), results.get(i).model);
+
+        assertEquals(20f/21, results.get(0).analogy(), 1e-6);
+        assertEquals(1, results.get(0).analogy(0), 0);
+        assertEquals(10f/11, results.get(0).analogy(1), 1e-6);
+        assertEquals(0, results.get(1).analogy(), 0);
+        assertEquals(21, results.get(1).oov());
+        assertEquals(2, results.get(0).triad_count);
+        assertEquals(triads(vectors, 0, 1, 2, 3, 1) + triads(vectors, 3, 4, 5, 0, 2), results.get(0).triad_agree);
+        assertEquals(4, results.get(0).triad_weight);
+        assertNull(results.get(0).error);
+        assertNotNull(results.get(3).error);
+
+        File table = File.createTempFile("results", ".tsv");
+        runner.write(table, results);
+        List<String> lines = Files.readAllLines(table.toPath());
+        assertEquals(Arrays.asList("model", "words", "dimension", "analogy", "analogy-oov", "[category0]", "[category1]", "triads", "triad-count", "seconds"), Arrays.asList(lines.get(0).split("\t")));
+        assertEquals(5, lines.size());
+        assertTrue(lines.get(1).startsWith(results.get(0).model+"\t200\t10\t"+20f/21+"\t0\t1.0\t"+10f/11+"\t"));
+        assertTrue(lines.get(4).contains("\terror: "));
+
+        for (File model : models) { model.delete(); new File(model.getPath() + ".cache").delete(); }
+        analogy.delete();
+        triad.delete();
+        table.delete();
+    }
+
+    @Test
+    public void testResolveByLabels() throws Exception
+    {
+        File triad = File.createTempFile("triads", ".csv");
+        Writer out = new FileWriter(triad);
+        out.write("a,b,c,3,1\n");
+        out.close();
+
+        EvaluationRunner runner = new EvaluationRunner(null, triad, 1, 1, 1);
+        VectorStore abc = new VectorStore(new String[]{"a", "b", "c"}, new float[6], 2, 1);
+        VectorStore cba = new VectorStore(new String[]{"c", "b", "a"}, new float[6], 2, 1);
+
+        VectorStore ab_c = new VectorStore(new String[]{"ab", "c", "a"}, new float[6], 2, 1);
+        VectorStore a_bc = new VectorStore(new String[]{"a", "bc", "a"}, new float[6], 2, 1);
+
+        // vocabularies of the same labels in another order, or of the same concatenated labels, are resolved separately
+        assertFalse(EvaluationRunner.fingerprint(abc).equals(EvaluationRunner.fingerprint(cba)));
+        assertFalse(EvaluationRunner.fingerprint(ab_c).equals(EvaluationRunner.fingerprint(a_bc)));
+        assertEquals(EvaluationRunner.fingerprint(abc), EvaluationRunner.fingerprint(new VectorStore(new String[]{"a", "b", "c"}, new float[6], 2, 1)));
+        assertEquals(0, runner.resolve(abc).triads[0][0]);
+        EvaluationRunner.Tests tests = runner.resolve(cba);
+        assertEquals(2, tests.triads[0][0]);
+        assertEquals(0, tests.triads[0][2]);
+        assertEquals(3, tests.triads[0][3]);
+
+        // counts are validated when the file is read
+        out = new FileWriter(triad);
+        out.write("a,b,c,3,x\n");
+        out.close();
+
+        try { new EvaluationRunner(null, triad, 1, 1, 1); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage().contains("a,b,c,3,x")); }
+        triad.delete();
+    }
+
+    /** @return the weight of the triad if the vectors agree with the participants. */
+    private long triads(float[][] vectors, int w0, int w1, int w2, int c1, int c2)
+    {
+        return (c1 > c2) == (cosine(vectors[w1], vectors[w0]) > cosine(vectors[w2], vectors[w0])) ? Math.abs(c1 - c2) : 0;
+    }
+
+    private double cosine(float[] v1, float[] v2)
+    {
+        double dot = 0, n1 = 0, n2 = 0;
+        for (int j=0; j<v1.length; j++) { dot += v1[j] * v2[j]; n1 += v1[j] * v1[j]; n2 += v2[j] * v2[j]; }
+        return dot / Math.sqrt(n1 * n2);
+    }
+
+    /**
+     * Writes the vectors with the labels in the format, lowercased as the analogy tests are.
+     * @param noise - standard deviation of the noise added to every value.
+     */
+    private File write(float[][] vectors, String format, Random rand, float noise) throws Exception
+    {
+        File file = File.createTempFile("vectors", ".txt");
+        Writer out = new FileWriter(file);
+
+        for (int i=0; i<vectors.length; i++)
+        {
+            out.write(String.format(format, i));
+            for (float v : vectors[i]) out.write(" " + (v + noise * (float)rand.nextGaussian()));
+            out.write("\n");
+        }
+
+        out.close();
+        return file;
+    }
+}
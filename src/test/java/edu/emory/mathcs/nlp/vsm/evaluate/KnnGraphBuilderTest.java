@@ -0,0 +1,97 @@
+package edu.emory.mathcs.nlp.vsm.evaluate;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.common.util.IOUtils;
+import edu.emory.mathcs.nlp.vsm.util.TopKHeap;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
+
+public class KnnGraphBuilderTest {
+
+    @Test
+    public void testWrite() throws Exception
+    {
+        int rows = 500, size = 8, k = 5;
+        Random rand = new Random(1);
+        Map<String,float[]> map = new HashMap<>();
+
+        for (int i=0; i<rows; i++)
+        {
+            float[] vector = new float[size];
+            for (int j=0; j<size; j++) vector[j] = (float)rand.nextGaussian();
+            map.put("w"+i, vector);
+        }
+
+        // the XZ-serialized map is read in the order of the words
+        File input = File.createTempFile("vectors", ".xz");
+        ObjectOutputStream out = IOUtils.createObjectXZBufferedOutputStream(input.getPath());
+        out.writeObject(map);
+        out.close();
+
+        VectorStore vectors = VectorStore.load(input, 2);
+        assertEquals(rows, vectors.size());
+        assertEquals("w1", vectors.label(1));
+        assertEquals("w10", vectors.label(2));
+
+        File tsv = File.createTempFile("knn", ".tsv"), bin = File.createTempFile("knn", ".bin");
+        KnnGraphBuilder.write(vectors, k, 0, 3, tsv, false, false);
+        KnnGraphBuilder.write(vectors, k, 0, 3, bin, true, false);
+
+        List<String> lines = Files.readAllLines(tsv.toPath());
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(bin.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(rows, lines.size());
+        assertEquals(KnnGraphBuilder.MAGIC, b.getInt());
+        assertEquals(KnnGraphBuilder.VERSION, b.getInt());
+        assertEquals(rows, b.getInt());
+        assertEquals(k, b.getInt());
+
+        for (int i=0; i<rows; i++)
+        {
+            byte[] label = new byte[b.getInt()];
+            b.get(label);
+            assertEquals(vectors.label(i), new String(label, StandardCharsets.UTF_8));
+        }
+
+        for (int i=0; i<rows; i++)
+        {
+            int[] expected = scan(vectors, i, k);
+            String[] fields = lines.get(i).split("\t");
+            assertEquals(vectors.label(i), fields[0]);
+
+            for (int j=0; j<k; j++)
+            {
+                assertEquals(vectors.label(expected[j]), fields[j+1]);
+                assertEquals(expected[j], b.getInt());
+            }
+
+            b.position(b.position() + k * Float.BYTES);
+        }
+
+        input.delete();
+        new File(input.getPath() + VectorStore.CACHE_EXTENSION).delete();
+        tsv.delete();
+        bin.delete();
+    }
+
+    /** @return the k rows most similar to the row, one row at a time. */
+    private int[] scan(VectorStore vectors, int row, int k)
+    {
+        TopKHeap heap = new TopKHeap(k);
+        for (int i=0; i<vectors.size(); i++)
+            if (i != row) heap.add(i, vectors.cosine(row, i));
+        return heap.toSortedIds();
+    }
+}
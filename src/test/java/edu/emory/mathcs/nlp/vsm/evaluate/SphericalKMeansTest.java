@@ -0,0 +1,86 @@
+package edu.emory.mathcs.nlp.vsm.evaluate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
+
+public class SphericalKMeansTest {
+
+    @Test
+    public void testCluster() throws Exception
+    {
+        int rows = 3000, size = 20, k = 10;
+        Random rand = new Random(1);
+        float[] centers = new float[k * size], matrix = new float[rows * size];
+        String[] labels = new String[rows];
+        int[] gold = new int[rows];
+        for (int i=0; i<centers.length; i++) centers[i] = (float)rand.nextGaussian();
+
+        for (int i=0; i<rows; i++)
+        {
+            gold[i] = i % k;
+            labels[i] = "w"+i;
+            for (int j=0; j<size; j++) matrix[i*size+j] = centers[gold[i]*size+j] + (float)rand.nextGaussian() * 0.2f;
+        }
+
+        for (int batch : new int[]{0, 500})
+        {
+            SphericalKMeans kmeans = new SphericalKMeans(new VectorStore(labels, matrix.clone(), size, 2), k, 3, 1);
+            kmeans.seed(0);
+            for (int iter=0; iter<(batch == 0 ? 10 : 50); iter++) kmeans.update(batch);
+
+            // every gold cluster is found as one cluster
+            int[] clusters = kmeans.assign(false);
+            for (int i=k; i<rows; i++) assertEquals(clusters[i - k], clusters[i]);
+            assertArrayEquals(clusters, kmeans.assign(true));
+
+            kmeans.update(batch);
+            assertArrayEquals(kmeans.assign(false), kmeans.assign(true));
+
+            StringWriter out = new StringWriter();
+            assertTrue(kmeans.write(out, true) > 0.9f);
+            assertEquals("w0\t" + clusters[0], out.toString().substring(0, out.toString().indexOf('\t', 3)));
+        }
+    }
+
+    @Test
+    public void testPrunedUpdate() throws Exception
+    {
+        int rows = 3000, size = 20, k = 10;
+        Random rand = new Random(2);
+        float[] centers = new float[k * size], matrix = new float[rows * size];
+        String[] labels = new String[rows];
+        for (int i=0; i<centers.length; i++) centers[i] = (float)rand.nextGaussian();
+
+        for (int i=0; i<rows; i++)
+        {
+            labels[i] = "w"+i;
+            for (int j=0; j<size; j++) matrix[i*size+j] = centers[(i % k)*size+j] + (float)rand.nextGaussian() * 0.2f;
+        }
+
+        SphericalKMeans exact  = new SphericalKMeans(new VectorStore(labels, matrix.clone(), size, 2), k, 3, 1);
+        SphericalKMeans pruned = new SphericalKMeans(new VectorStore(labels, matrix.clone(), size, 2), k, 3, 1);
+        exact.seed(0);
+        pruned.seed(0);
+        long skipped = 0;
+
+        for (int iter=0; iter<10; iter++)
+        {
+            assertEquals(exact.update(0), pruned.update(0, true), 0);
+            assertArrayEquals(exact.centroids(), pruned.centroids(), 0);
+            skipped += pruned.prunedCount();
+        }
+
+        // the first update compares every row; the later ones skip most rows once the centroids settle
+        assertTrue(skipped > rows * 5);
+        assertArrayEquals(exact.assign(false), pruned.assign(true));
+        assertEquals(rows, pruned.prunedCount());
+    }
+}
@@ -0,0 +1,64 @@
+package edu.emory.mathcs.nlp.vsm.evaluate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.vsm.util.Vocabulary;
+
+public class VecFeaturesTest {
+
+    @Test
+    public void testTopRows() throws Exception
+    {
+        int rows = 5000, size = 8, N = 10;
+        Random rand = new Random(1);
+        Vocabulary vocab = new Vocabulary();
+        float[] V = new float[rows * size];
+        for (int v=0; v<rows; v++) vocab.add("w"+v).count = 1 + rand.nextInt(1000);
+        for (int i=0; i<V.length; i++) V[i] = (float)rand.nextGaussian();
+
+        // every value of the last component is negative, which leaves it without words
+        for (int v=0; v<rows; v++) V[v*size + size-1] = -Math.abs(V[v*size + size-1]);
+        VecFeatures.Rows reader = (v, vector) -> System.arraycopy(V, v*size, vector, 0, size);
+
+        for (int threads : new int[]{1, 3})
+        {
+            int[][] top = VecFeatures.topRows(vocab, size, reader, N, 0.75, threads);
+            for (int k=0; k<size-1; k++) assertArrayEquals(scan(vocab, V, size, k, N), top[k]);
+            assertEquals(0, top[size-1].length);
+        }
+
+        File file = File.createTempFile("features", ".txt");
+        VecFeatures.saveFeatures(file, vocab, size, reader, N, 0.75, 2);
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertEquals(size, lines.size());
+        assertEquals("0\tw"+scan(vocab, V, size, 0, N)[0]+"\t", lines.get(0).substring(0, lines.get(0).indexOf('\t', 2)+1));
+        assertEquals((size-1)+"\t", lines.get(size-1));
+        file.delete();
+    }
+
+    /** @return the rows of the N highest positive weighted values of the component, sorting every row. */
+    private int[] scan(Vocabulary vocab, float[] V, int size, int k, int N)
+    {
+        List<Integer> rows = new ArrayList<>();
+        for (int v=0; v<vocab.size(); v++) if (V[v*size+k] > 0) rows.add(v);
+        rows.sort((v1, v2) -> Float.compare(value(vocab, V, size, k, v2), value(vocab, V, size, k, v1)));
+
+        int[] top = new int[Math.min(N, rows.size())];
+        for (int i=0; i<top.length; i++) top[i] = rows.get(i);
+        return top;
+    }
+
+    private float value(Vocabulary vocab, float[] V, int size, int k, int v)
+    {
+        return V[v*size+k] * (float)Math.pow(vocab.get(v).count, 0.75);
+    }
+}
@@ -0,0 +1,109 @@
+package edu.emory.mathcs.nlp.vsm.evaluate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.vsm.util.TopKHeap;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
+
+public class VecServerTest {
+
+    @Test
+    public void testAnswer()
+    {
+        int rows = 10000, size = 20;
+        Random rand = new Random(1);
+        String[] labels = new String[rows];
+        float[] matrix = new float[rows * size];
+        for (int i=0; i<rows; i++) labels[i] = "w"+i;
+        for (int i=0; i<matrix.length; i++) matrix[i] = (float)rand.nextGaussian();
+
+        VectorStore vectors = new VectorStore(labels, matrix, size, 2);
+        VecServer server = new VecServer(vectors, null, 5, 2, 3);
+
+        assertEquals(expected(vectors, 5, 1), server.answer("w1"));
+        assertEquals(expected(vectors, 3, 1, 2, 3), server.answer("top 3 w1 -w2 + w3"));
+        assertEquals(expected(vectors, 3, 1, 2, 3), server.answer("  top 3   w1 -w2   + w3"));
+        assertTrue(server.answer("vector w7").startsWith("w7 "+vectors.get("w7")[0]+" "));
+        assertTrue(server.answer("w1 + x").startsWith("error: Cannot find word vector x."));
+        assertTrue(server.answer("top 0 w1").startsWith("error: "));
+
+        // one cache hit, the errors are not cached, and the cache keeps the 2 most recent answers
+        assertTrue(server.stats().startsWith("queries: 6, cache hits: 1 "));
+        server.answer("w1");
+        assertTrue(server.stats().startsWith("queries: 7, cache hits: 1 "));
+        server.answer("vector w7");
+        assertTrue(server.stats().startsWith("queries: 8, cache hits: 2 "));
+        assertTrue(server.answer("stats").contains("p99: "));
+    }
+
+    @Test
+    public void testListen() throws Exception
+    {
+        VectorStore vectors = new VectorStore(new String[]{"a", "b", "c"}, new float[]{1, 0, 1, 1, 0, 1}, 2, 1);
+        VecServer server = new VecServer(vectors, null, 1, 10, 1);
+        ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread listener = new Thread(() -> { try { server.listen(socket); } catch (Exception e) { throw new IllegalStateException(e); } });
+        listener.start();
+
+        // both connections stay open while the other one is served
+        Socket s1 = new Socket(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+        Socket s2 = new Socket(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+        assertEquals("b\t" + (float)Math.sqrt(0.5), query(s1, "a"));
+        assertEquals("b\t" + (float)Math.sqrt(0.5), query(s2, "c"));
+        assertTrue(query(s1, "b - a").startsWith("c\t0.923"));
+
+        s1.close();
+        s2.close();
+        socket.close();
+        listener.join();
+    }
+
+    private String query(Socket socket, String query) throws Exception
+    {
+        Writer out = new OutputStreamWriter(socket.getOutputStream());
+        out.write(query+"\n");
+        out.flush();
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        String line = in.readLine();
+        assertEquals("", in.readLine());
+        return line;
+    }
+
+    /** @return the answer of the k closest rows to the sum of the rows, scanning one row at a time. */
+    private String expected(VectorStore vectors, int k, int... rows)
+    {
+        float[] query = new float[vectors.dimension()], vector = new float[query.length];
+
+        for (int r=0; r<rows.length; r++)
+        {
+            vectors.get(rows[r], vector);
+            for (int j=0; j<query.length; j++) query[j] += r == 1 ? -vector[j] : vector[j];
+        }
+
+        TopKHeap heap = new TopKHeap(k);
+        float norm = VectorStore.norm(query);
+        for (int j=0; j<query.length; j++) query[j] /= norm;
+
+        for (int i=0; i<vectors.size(); i++)
+            if (i != rows[0] && (rows.length == 1 || (i != rows[1] && i != rows[2])))
+                heap.add(i, vectors.dot(query, i));
+
+        heap.sort();
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<heap.size(); i++) sb.append(vectors.label(heap.id(i))).append("\t").append(heap.score(i)).append("\n");
+        return sb.toString();
+    }
+}
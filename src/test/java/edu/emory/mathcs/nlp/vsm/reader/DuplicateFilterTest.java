@@ -0,0 +1,69 @@
+package edu.emory.mathcs.nlp.vsm.reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.vsm.util.FingerprintSet;
+
+public class DuplicateFilterTest {
+
+    @Test
+    public void testFingerprintSet() throws Exception
+    {
+        for (boolean bloom : new boolean[]{false, true})
+        {
+            FingerprintSet set = FingerprintSet.create(bloom, 1 << 20);
+            Thread[] threads = new Thread[4];
+
+            // every thread adds the same fingerprints; each must be added exactly once
+            for (int i=0; i<threads.length; i++)
+            {
+                threads[i] = new Thread(() -> { for (long f=0; f<10000; f++) set.add(f * 31); });
+                threads[i].start();
+            }
+            for (Thread t : threads) t.join();
+
+            System.out.println((bloom ? "bloom" : "exact")+": "+set.uniqueCount()+" unique, "+set.duplicateCount()+" duplicates");
+            if (bloom) assertTrue(set.uniqueCount() <= 10000 + threads.length && set.uniqueCount() > 9900);
+            else       assertEquals(10000, set.uniqueCount());
+            assertEquals(40000, set.uniqueCount() + set.duplicateCount());
+        }
+    }
+
+    @Test
+    public void testRemoveDuplicates() throws Exception
+    {
+        File file = File.createTempFile("dedup", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), Arrays.asList("a b c", "Accept cookies", "d e", "accept  cookies!", "a b c", "f"));
+
+        for (boolean normalize : new boolean[]{false, true})
+        {
+            FingerprintSet set = FingerprintSet.create(false, 1 << 16);
+            Reader<String> reader = new SentenceReader(Arrays.asList(file)).removeDuplicates(set, normalize);
+
+            // the second pass uses the recorded decisions and must agree with the first
+            for (int epoch=0; epoch<2; epoch++)
+            {
+                List<String> sentences = new ArrayList<>();
+                List<String> words;
+                reader.open();
+                while ((words = reader.next()) != null) sentences.add(String.join(" ", words));
+                reader.close();
+
+                System.out.println(sentences);
+                assertEquals(normalize ? 4 : 5, sentences.size());
+            }
+
+            assertEquals(normalize ? 2 : 1, set.duplicateCount());
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package edu.emory.mathcs.nlp.vsm.reader;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.common.util.FileUtils;
+
+public class PrefetcherTest {
+
+    @Test
+    public void testTake() throws Exception
+    {
+        List<File> files = FileUtils.getFileList("resources/dat/test_files", "*")
+                .stream().map(File::new).collect(Collectors.toList());
+
+        // count words sentence by sentence without prefetching
+        Reader<String> reader = new SentenceReader(files);
+        int sentences = 0, words = 0;
+        List<String> list;
+        reader.open();
+        while ((list = reader.next()) != null) { sentences++; words += list.size(); }
+        reader.close();
+
+        int epochs = 3;
+        Prefetcher<String> prefetcher = new Prefetcher<>(new SentenceReader(files).splitParallel(4), String::length, 2, epochs, 4);
+        AtomicInteger sentence_count = new AtomicInteger(), word_count = new AtomicInteger();
+
+        prefetcher.start();
+        Thread[] trainers = new Thread[3];
+        for (int i=0; i<trainers.length; i++)
+        {
+            trainers[i] = new Thread(() -> {
+                Prefetcher.Sentence sentence;
+                while ((sentence = prefetcher.take()) != null)
+                {
+                    sentence_count.incrementAndGet();
+                    word_count.addAndGet(sentence.length);
+                    prefetcher.recycle(sentence);
+                }
+            });
+            trainers[i].start();
+        }
+        for (Thread t : trainers) t.join();
+
+        System.out.println(prefetcher.stats(trainers.length));
+        assertEquals(sentences * epochs, sentence_count.get());
+        assertEquals(words * epochs, word_count.get());
+        assertEquals(1f, prefetcher.progress(), 0.001f);
+    }
+}
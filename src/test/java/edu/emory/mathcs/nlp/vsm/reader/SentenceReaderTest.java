@@ -1,10 +1,15 @@
 package edu.emory.mathcs.nlp.vsm.reader;
 
+import static org.junit.Assert.assertEquals;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 import org.junit.Test;
 
@@ -107,6 +112,73 @@ public class SentenceReaderTest {
         }
     }
 
+    @Test
+    public void testSplitByFile() throws Exception
+    {
+        List<String> filenames = FileUtils.getFileList("resources/dat/test_files","*");
+        List<Reader<String>> readers = new SentenceReader(filenames.stream().map(File::new).collect(Collectors.toList())).splitByFile();
+        assertEquals(filenames.size(), readers.size());
+
+        for (int i=0; i<filenames.size(); i++)
+        {
+            SentenceReader file = new SentenceReader(Collections.singletonList(new File(filenames.get(i))));
+            assertEquals(file.length(), readers.get(i).length());
+            assertEquals(readAll(file), readAll(readers.get(i)));
+        }
+    }
+
+    @Test
+    public void testSplitBySize() throws Exception
+    {
+        Reader<String> reader = new SentenceReader(FileUtils.getFileList("resources/dat/test_files","*")
+                .stream().map(File::new).collect(Collectors.toList()));
+
+        List<String> expected = readAll(reader);
+        List<String> actual = new ArrayList<>();
+        long length = 0;
+
+        List<Reader<String>> readers = reader.splitBySize(2);
+        assertEquals(2, readers.size());
+
+        for (Reader<String> r : readers)
+        {
+            System.out.println(r.length());
+            length += r.length();
+            actual.addAll(readAll(r));
+        }
+
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(reader.length(), length);
+        assertEquals(expected, actual);
+        assertEquals(3, reader.splitBySize(10).size());
+    }
+
+    @Test
+    public void testSentences() throws Exception
+    {
+        SentenceReader reader = new SentenceReader(FileUtils.getFileList("resources/dat/test_files","*")
+                .stream().map(File::new).collect(Collectors.toList()));
+
+        List<String> expected = readAll(reader);
+        List<String> actual = StreamSupport.stream(new ReaderSpliterator<>(reader, 0, reader.length(), 16), true)
+                .map(words -> String.join(" ", words)).collect(Collectors.toList());
+
+        System.out.println(actual);
+        assertEquals(expected, actual);
+        assertEquals(expected.size(), reader.sentences().count());
+    }
+
+    private List<String> readAll(Reader<String> reader) throws Exception
+    {
+        List<String> sentences = new ArrayList<>();
+        List<String> words;
+        reader.open();
+        while ((words = reader.next()) != null) sentences.add(String.join(" ", words));
+        reader.close();
+        return sentences;
+    }
+
     @Test
     public void testTrainAndTest() throws Exception
     {
@@ -0,0 +1,103 @@
+package edu.emory.mathcs.nlp.vsm.reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.common.util.FileUtils;
+import edu.emory.mathcs.nlp.vsm.util.FingerprintSet;
+import edu.emory.mathcs.nlp.vsm.util.Vocabulary;
+
+public class StreamReaderTest {
+
+    @Test
+    public void testSpill() throws Exception
+    {
+        List<File> files = FileUtils.getFileList("resources/dat/test_files", "*")
+                .stream().map(File::new).collect(Collectors.toList());
+
+        // count sentences and words of the files
+        Reader<String> reader = new SentenceReader(files);
+        int sentences = 0, words = 0;
+        List<String> list;
+        reader.open();
+        while ((list = reader.next()) != null) { sentences++; words += list.size(); }
+        reader.close();
+
+        StringBuilder sb = new StringBuilder();
+        for (File f : files) sb.append(new String(Files.readAllBytes(f.toPath())));
+
+        StreamReader stream = new StreamReader(new ByteArrayInputStream(sb.toString().getBytes()));
+        Vocabulary vocab = new Vocabulary();
+        SpillCache cache = new SpillCache(null, 2);
+        cache.spill(stream, vocab::addIndex);
+        cache.map(vocab.sortAndMap(0));
+
+        assertEquals(sentences, stream.sentenceCount());
+        assertEquals(sb.length(), stream.bytesRead());
+        assertEquals(sentences, cache.sentenceCount());
+        assertEquals(words, cache.wordCount());
+
+        int epochs = 2;
+        Prefetcher<String> prefetcher = new Prefetcher<>(cache.sources(), 2, epochs, 4);
+        AtomicInteger sentence_count = new AtomicInteger(), word_count = new AtomicInteger();
+        Prefetcher.Sentence sentence;
+
+        prefetcher.start();
+        while ((sentence = prefetcher.take()) != null)
+        {
+            sentence_count.incrementAndGet();
+            word_count.addAndGet(sentence.length);
+            for (int i=0; i<sentence.length; i++) System.out.print(vocab.get(sentence.words[i]).form+" ");
+            System.out.println();
+            prefetcher.recycle(sentence);
+        }
+
+        cache.close();
+        assertEquals(sentences * epochs, sentence_count.get());
+        assertEquals(words * epochs, word_count.get());
+    }
+
+    @Test
+    public void testSinglePass() throws Exception
+    {
+        String text = "a b c\n\nb c\na b c\nc d\n";
+        Vocabulary vocab = new Vocabulary();
+        for (String w : new String[]{"a", "b", "c"}) vocab.addIndex(w);
+
+        StreamReader stream = new StreamReader(new ByteArrayInputStream(text.getBytes())).removeDuplicates(FingerprintSet.create(false, 1 << 16), false);
+        Prefetcher.Source source = stream.source(vocab::indexOf, 6);
+        Prefetcher<String> prefetcher = new Prefetcher<>(Collections.singletonList(source), 1, 1, 4);
+        int sentence_count = 0, word_count = 0;
+        Prefetcher.Sentence sentence;
+
+        prefetcher.start();
+        while ((sentence = prefetcher.take()) != null)
+        {
+            sentence_count++;
+            word_count += sentence.length;
+            prefetcher.recycle(sentence);
+        }
+
+        // the duplicate "a b c" is removed and "d" is not in the vocabulary
+        assertEquals(3, sentence_count);
+        assertEquals(6, word_count);
+        assertEquals(4, stream.sentenceCount());
+        assertEquals(1, stream.duplicateCount());
+        assertEquals(text.length(), stream.bytesRead());
+        assertEquals(100f, source.progress(), 0f);
+
+        try { source.restart(); fail(); }
+        catch (IOException e) {}
+    }
+}
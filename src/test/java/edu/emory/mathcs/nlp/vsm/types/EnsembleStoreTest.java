@@ -0,0 +1,76 @@
+package edu.emory.mathcs.nlp.vsm.types;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.vsm.util.EnsembleStore;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
+
+public class EnsembleStoreTest {
+
+    @Test
+    public void testEnsemble() throws Exception
+    {
+        File a = write("a 3 4\nb 0 2\nc 1 0\n");
+        File b = write("c 0 1\nd 2 0\na 0 5\n");
+        Map<String,File> files = new LinkedHashMap<>();
+        files.put("first", a);
+        files.put("second", b);
+
+        EnsembleStore ensemble = EnsembleStore.open(files, 2);
+        assertEquals(4, ensemble.size());
+        assertEquals("d", ensemble.label(3));
+        assertEquals(Arrays.asList("first", "second"), ensemble.names());
+        assertTrue(new File(b.getPath() + VectorStore.CACHE_EXTENSION).isFile());
+
+        EnsembleStore.Member second = ensemble.member("second");
+        assertEquals(3, second.size());
+        assertEquals(2, second.indexOf("a"));
+        assertFalse(second.contains("b"));
+        assertNull(second.get("b"));
+        assertEquals("d", second.label(1));
+        assertArrayEquals(new float[]{0, 5}, second.get("a"), 0);
+        assertEquals(5, second.norm(2), 0);
+        assertEquals(1, second.cosine(new float[]{0, 3}, 3, 0), 1e-6);
+        assertNull(ensemble.member("third"));
+
+        // only "a" and "c" are in both models
+        VectorStore concat = ensemble.combine(ensemble.names(), false, 2);
+        assertEquals(2, concat.size());
+        assertEquals(4, concat.dimension());
+        assertArrayEquals(new float[]{0.6f, 0.8f, 0, 1}, concat.get("a"), 1e-6f);
+
+        VectorStore average = ensemble.combine(ensemble.names(), true, 2);
+        assertArrayEquals(new float[]{0.5f, 0.5f}, average.get("c"), 1e-6f);
+
+        EnsembleStore.Member wrapped = EnsembleStore.wrap("average", average).member("average");
+        assertArrayEquals(average.get("a"), wrapped.get("a"), 0);
+
+        for (File f : new File[]{a, b})
+        {
+            f.delete();
+            new File(f.getPath() + VectorStore.CACHE_EXTENSION).delete();
+        }
+    }
+
+    private File write(String text) throws Exception
+    {
+        File file = File.createTempFile("vectors", ".txt");
+        Writer out = new FileWriter(file);
+        out.write(text);
+        out.close();
+        return file;
+    }
+}
@@ -0,0 +1,54 @@
+package edu.emory.mathcs.nlp.vsm.types;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.vsm.util.HalfMatrix;
+
+public class HalfMatrixTest {
+
+    @Test
+    public void testBfloat16()
+    {
+        assertEquals(0x3F80, HalfMatrix.toBfloat16(1f) & 0xFFFF);
+        assertEquals(0x3F80, HalfMatrix.toBfloat16(Float.intBitsToFloat(0x3F808000)) & 0xFFFF);   // tie rounds to even
+        assertEquals(0x3F82, HalfMatrix.toBfloat16(Float.intBitsToFloat(0x3F818000)) & 0xFFFF);
+        assertEquals(0x3F81, HalfMatrix.toBfloat16(Float.intBitsToFloat(0x3F808000), 0x8000) & 0xFFFF);
+        assertEquals(0x3F80, HalfMatrix.toBfloat16(Float.intBitsToFloat(0x3F808000), 0x7FFF) & 0xFFFF);
+    }
+
+    @Test
+    public void testStochasticRounding()
+    {
+        for (HalfMatrix.Precision precision : HalfMatrix.Precision.values())
+        {
+            HalfMatrix nearest    = new HalfMatrix(new float[]{1f}, precision);
+            HalfMatrix stochastic = new HalfMatrix(4, precision);
+            float[] row = new float[4], delta = {1e-4f, -1e-4f, 1e-4f, 0};
+            Random rand = new Random(1);
+
+            stochastic.getRow(0, row);
+            row[0] = row[1] = row[2] = 1f;
+            stochastic.setRow(0, row, rand.nextInt());
+
+            // updates far below the precision of 1 are lost by rounding to nearest but not stochastically
+            for (int i=0; i<10000; i++)
+            {
+                nearest.set(0, nearest.get(0) + 1e-4f);
+                stochastic.addRow(0, delta, rand.nextInt());
+            }
+
+            assertEquals(1f, nearest.get(0), 0);
+            assertEquals(2f, stochastic.get(0), 0.1f);
+            assertEquals(0f, stochastic.get(1), 0.1f);
+            assertEquals(2f, stochastic.get(2), 0.1f);
+            assertEquals(0f, stochastic.get(3), 0);
+
+            float[] floats = stochastic.toFloats();
+            for (int k=0; k<floats.length; k++) assertEquals(stochastic.get(k), floats[k], 0);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package edu.emory.mathcs.nlp.vsm.types;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.vsm.util.HnswIndex;
+import edu.emory.mathcs.nlp.vsm.util.TopKHeap;
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
+
+public class HnswIndexTest {
+
+    @Test
+    public void testSearch() throws Exception
+    {
+        int rows = 5000, size = 16, clusters = 50;
+        Random rand = new Random(1);
+        float[] centers = new float[clusters * size], matrix = new float[rows * size];
+        String[] labels = new String[rows];
+        for (int i=0; i<centers.length; i++) centers[i] = (float)rand.nextGaussian();
+
+        for (int i=0; i<rows; i++)
+        {
+            int c = rand.nextInt(clusters);
+            labels[i] = "w"+i;
+            for (int k=0; k<size; k++) matrix[i*size+k] = centers[c*size+k] + (float)rand.nextGaussian() * 0.3f;
+        }
+
+        VectorStore vectors = new VectorStore(labels, matrix, size, 2);
+        HnswIndex index = HnswIndex.build(vectors, 8, 100, 3, 1);
+        assertTrue(index.recall(200, 10, 50, 2, 1) > 0.95f);
+
+        // every row is its own nearest neighbor
+        float[] query = new float[size];
+        vectors.get(42, query);
+        TopKHeap top = index.search(query, 5, 50);
+        assertEquals(5, top.size());
+        assertEquals(42, top.id(0));
+
+        File file = File.createTempFile("vectors", ".hnsw");
+        index.save(file);
+        assertTrue(HnswIndex.isIndex(file));
+        HnswIndex opened = HnswIndex.open(file, vectors, 1);
+
+        for (int i=0; i<100; i++)
+        {
+            vectors.get(rand.nextInt(rows), query);
+            assertArrayEquals(index.search(query, 10, 50).toSortedIds(), opened.search(query, 10, 50).toSortedIds());
+        }
+
+        file.delete();
+    }
+}
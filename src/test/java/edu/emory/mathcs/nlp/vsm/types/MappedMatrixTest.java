@@ -0,0 +1,84 @@
+package edu.emory.mathcs.nlp.vsm.types;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.vsm.util.MappedMatrix;
+
+public class MappedMatrixTest {
+
+    @Test
+    public void testHotAndColdRows() throws Exception
+    {
+        File file = File.createTempFile("mapped", ".W");
+        int rows = 10, vector_size = 3;
+        MappedMatrix matrix = new MappedMatrix(file, rows, vector_size, 4);
+        float[] row = new float[vector_size];
+
+        for (int i=0; i<matrix.size(); i++) matrix.set(i, i);
+
+        // rows 0-3 are hot, rows 4-9 are mapped
+        for (int r : new int[]{1, 7})
+        {
+            matrix.getRow(r, row);
+            for (int k=0; k<vector_size; k++) assertEquals(r * vector_size + k, row[k], 0);
+
+            matrix.addRow(r, new float[]{1, 2, 3}, 0);
+            for (int k=0; k<vector_size; k++) assertEquals(r * vector_size + k + k + 1, matrix.get(r * vector_size + k), 0);
+
+            matrix.setRow(r, new float[]{-1, -2, -3}, 0);
+            matrix.getRow(r, row);
+            for (int k=0; k<vector_size; k++) assertEquals(-k - 1, row[k], 0);
+        }
+
+        assertEquals(3, matrix.hotCount());
+        assertEquals(3, matrix.coldCount());
+        assertTrue(matrix.stats().startsWith("Hot rows: 4/10"));
+
+        float[] floats = matrix.toFloats();
+        assertEquals(rows * vector_size, floats.length);
+        assertEquals(-1, floats[ 7 * vector_size], 0);
+        assertEquals(29, floats[29], 0);
+
+        matrix.close();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testBeyondIntRange() throws Exception
+    {
+        // 2^21+2 rows of 1024 values are 8GB, which is mapped from a sparse file; only the touched pages are written
+        File file = File.createTempFile("mapped", ".W");
+        int rows = (1 << 21) + 2, vector_size = 1024;
+        MappedMatrix matrix = new MappedMatrix(file, rows, vector_size, 1);
+        float[] row = new float[vector_size];
+        long last = (long)rows * vector_size - 1;
+
+        assertEquals(last + 1, matrix.size());
+        assertTrue(last > Integer.MAX_VALUE);
+
+        // the first value of row 2^21 is at 2^31, beyond the range of int
+        row[0] = 1; row[vector_size-1] = 2;
+        matrix.setRow(1 << 21, row, 0);
+        assertEquals(1, matrix.get(1L << 31), 0);
+        assertEquals(2, matrix.get((1L << 31) + vector_size - 1), 0);
+
+        matrix.set(last, 3);
+        matrix.addRow(rows - 1, row, 0);
+        matrix.getRow(rows - 1, row);
+        assertEquals(1, row[0], 0);
+        assertEquals(5, row[vector_size-1], 0);
+
+        // rows before the boundary are untouched
+        matrix.getRow((1 << 21) - 1, row);
+        for (float f : row) assertEquals(0, f, 0);
+
+        matrix.close();
+        assertFalse(file.exists());
+    }
+}
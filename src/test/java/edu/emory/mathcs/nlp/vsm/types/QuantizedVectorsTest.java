@@ -0,0 +1,107 @@
+package edu.emory.mathcs.nlp.vsm.types;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.vsm.util.Float16;
+import edu.emory.mathcs.nlp.vsm.util.QuantizedVectors;
+import edu.emory.mathcs.nlp.vsm.util.VectorSource;
+import edu.emory.mathcs.nlp.vsm.util.VectorWriter;
+
+public class QuantizedVectorsTest {
+
+    @Test
+    public void testFloat16()
+    {
+        assertEquals(0x3C00, Float16.toHalf(1f) & 0xFFFF);
+        assertEquals(0xC000, Float16.toHalf(-2f) & 0xFFFF);
+        assertEquals(0x7BFF, Float16.toHalf(65504f) & 0xFFFF);
+        assertEquals(0x7C00, Float16.toHalf(70000f) & 0xFFFF);
+        assertEquals(0x0001, Float16.toHalf(0x1p-24f) & 0xFFFF);
+        assertEquals(0x3C00, Float16.toHalf(1f + 0x1p-11f) & 0xFFFF);   // tie rounds to even
+        assertEquals(0x3C01, Float16.toHalf(1f + 0x1.8p-11f) & 0xFFFF);
+        assertTrue(Float.isNaN(Float16.toFloat(Float16.toHalf(Float.NaN))));
+
+        Random rand = new Random(1);
+
+        for (int i=0; i<10000; i++)
+        {
+            float f = (rand.nextFloat() - 0.5f) * 100;
+            assertEquals(f, Float16.toFloat(Float16.toHalf(f)), Math.abs(f) / 1024);
+        }
+    }
+
+    @Test
+    public void testQuantize() throws Exception
+    {
+        int rows = 500, vector_size = 32;
+        float[] vectors = new float[rows * vector_size];
+        Random rand = new Random(1);
+        for (int i=0; i<vectors.length; i++) vectors[i] = rand.nextFloat() - 0.5f;
+
+        VectorWriter writer = new VectorWriter(vectors, vector_size, rows, i -> "w"+i, i -> i * vector_size);
+        File file = File.createTempFile("vectors", ".q");
+        file.deleteOnExit();
+
+        float[] query = new float[vector_size];
+        for (int k=0; k<vector_size; k++) query[k] = vectors[7*vector_size+k];
+
+        for (QuantizedVectors.Type type : QuantizedVectors.Type.values())
+        {
+            writer.writeQuantized(file, type, 8, false, 3);
+            float tolerance = type == QuantizedVectors.Type.PQ ? 0.3f : 0.02f;
+
+            try (QuantizedVectors quantized = QuantizedVectors.open(file))
+            {
+                assertEquals(type, quantized.type());
+                assertEquals(rows, quantized.size());
+                assertEquals(vector_size, quantized.dimension());
+                assertEquals(42, quantized.indexOf("w42"));
+                assertEquals(-1, quantized.indexOf("none"));
+                assertEquals("w42", quantized.label(42));
+
+                VectorSource source = quantized;
+                float[] expected = new float[vector_size];
+                quantized.get(42, expected);
+                assertTrue(source.contains("w42"));
+                assertFalse(source.contains("none"));
+                assertArrayEquals(expected, source.get("w42"), 0);
+                assertNull(source.get("none"));
+
+                QuantizedVectors.Scorer scorer = quantized.scorer(query);
+                float[] decoded = new float[vector_size];
+
+                for (int i=0; i<rows; i++)
+                {
+                    quantized.get(i, decoded);
+                    assertEquals(cosine(query, vectors, i*vector_size), scorer.cosine(i), tolerance);
+                    assertEquals(cosine(query, decoded, 0), scorer.cosine(i), 0.0001f);
+                }
+            }
+        }
+
+        assertTrue(file.length() < rows * vector_size * 4);
+    }
+
+    float cosine(float[] query, float[] vectors, int offset)
+    {
+        double dot = 0, z1 = 0, z2 = 0;
+
+        for (int k=0; k<query.length; k++)
+        {
+            dot += query[k] * vectors[offset+k];
+            z1  += query[k] * query[k];
+            z2  += vectors[offset+k] * vectors[offset+k];
+        }
+
+        return (float)(dot / Math.sqrt(z1 * z2));
+    }
+}
@@ -0,0 +1,171 @@
+package edu.emory.mathcs.nlp.vsm.types;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.vsm.util.VectorStore;
+import edu.emory.mathcs.nlp.vsm.util.VectorWriter;
+
+public class VectorStoreTest {
+
+    @Test
+    public void testParseFloat()
+    {
+        byte[] buffer = new byte[VectorWriter.MAX_FLOAT_LENGTH];
+        String[] values = {"0", "-0.0", "1", "+2.5", "-1.5E-4", "3.5e-1", "0.015625", "123456.78", "1e7", "3.4028235E38", "1.4E-45", "NaN", "-Infinity", "00012.50"};
+        Random rand = new Random(1);
+
+        for (String value : values) assertParse(value);
+        for (int i=0; i<100000; i++) assertParse(Float.toString(Float.intBitsToFloat(rand.nextInt())));
+        for (int i=0; i<100000; i++) assertParse(String.format("%.6f", rand.nextGaussian()));
+
+        for (int i=0; i<100000; i++)
+        {
+            float f = (float)(rand.nextGaussian() / 10);
+            int length = VectorWriter.formatFloat(f, buffer, 0);
+            assertEquals(Float.floatToIntBits(f), Float.floatToIntBits(VectorStore.parseFloat(buffer, 0, length)));
+        }
+    }
+
+    private void assertParse(String value)
+    {
+        byte[] bytes = value.getBytes();
+        assertEquals(value, Float.floatToIntBits(Float.parseFloat(value)), Float.floatToIntBits(VectorStore.parseFloat(bytes, 0, bytes.length)));
+    }
+
+    @Test
+    public void testLoad() throws Exception
+    {
+        int rows = 20000, size = 7;
+        float[] vectors = new float[rows * size];
+        Random rand = new Random(1);
+        for (int i=0; i<vectors.length; i++) vectors[i] = (float)rand.nextGaussian();
+        VectorWriter writer = new VectorWriter(vectors, size, rows, i -> "w"+i, i -> i * size);
+
+        for (boolean binary : new boolean[]{false, true})
+        {
+            File file = File.createTempFile("vectors", binary ? ".bin" : ".txt");
+            File cache = new File(file.getPath() + VectorStore.CACHE_EXTENSION);
+            writer.write(file, binary, false, 2);
+            cache.delete();
+
+            // parsed in chunks, then copied from the cache
+            assertStore(vectors, size, VectorStore.load(file, 4));
+            assertTrue(cache.isFile());
+            assertStore(vectors, size, VectorStore.load(file, 4));
+            assertStore(vectors, size, VectorStore.load(cache, 1));
+
+            file.delete();
+            cache.delete();
+        }
+    }
+
+    @Test
+    public void testCache() throws Exception
+    {
+        int rows = 50000, size = 9;
+        float[] vectors = new float[rows * size];
+        Random rand = new Random(2);
+        for (int i=0; i<vectors.length; i++) vectors[i] = (float)rand.nextGaussian();
+        VectorWriter writer = new VectorWriter(vectors, size, rows, i -> "w"+i, i -> i * size);
+
+        for (boolean binary : new boolean[]{false, true})
+        {
+            File file = File.createTempFile("vectors", binary ? ".bin" : ".txt");
+            File cache = new File(file.getPath() + VectorStore.CACHE_EXTENSION);
+            writer.write(file, binary, false, 2);
+            cache.delete();
+
+            // written as parsed, the same as the cache of the loaded vectors
+            assertEquals(cache, VectorStore.cache(file, 4));
+            byte[] streamed = Files.readAllBytes(cache.toPath());
+            assertStore(vectors, size, VectorStore.load(cache, 2));
+            cache.delete();
+
+            VectorStore.load(file, 4);
+            assertArrayEquals(Files.readAllBytes(cache.toPath()), streamed);
+
+            file.delete();
+            cache.delete();
+        }
+    }
+
+    @Test
+    public void testText() throws Exception
+    {
+        File file = File.createTempFile("vectors", ".txt");
+        Writer out = new FileWriter(file);
+        out.write("3 2\n");
+        out.write("a 1 0\n\n");
+        out.write("b\t0\t2\t\n");
+        out.write("c  3.5e-1 -1\r\n");
+        out.close();
+
+        VectorStore store = VectorStore.load(file, 2);
+        assertEquals(3, store.size());
+        assertEquals(2, store.dimension());
+        assertEquals("c", store.label(2));
+        assertEquals(Arrays.toString(new float[]{0.35f, -1}), Arrays.toString(store.get("c")));
+        assertEquals(2, store.norm(1), 0);
+        assertEquals(0, store.cosine(0, 1), 0);
+        assertEquals(1, store.cosine(new float[]{0, 3}, 3, 1), 1e-6);
+        assertNull(store.get("d"));
+        assertEquals(-1, store.indexOf("d"));
+
+        VectorStore subset = store.subset(Arrays.asList("c", "d", "a"), 1);
+        assertEquals(2, subset.size());
+        assertEquals("a", subset.label(1));
+
+        store.normalize(2);
+        assertEquals(1, store.norm(1), 0);
+        assertEquals(1, store.get("b")[1], 0);
+
+        file.delete();
+        new File(file.getPath() + VectorStore.CACHE_EXTENSION).delete();
+    }
+
+    @Test
+    public void testStaleCache() throws Exception
+    {
+        File file = File.createTempFile("vectors", ".txt");
+        File cache = new File(file.getPath() + VectorStore.CACHE_EXTENSION);
+        Writer out = new FileWriter(file);
+        out.write("a\t1\t0\n");
+        out.close();
+        assertEquals(1, VectorStore.load(file, 1).size());
+
+        out = new FileWriter(file, true);
+        out.write("b\t0\t1\n");
+        out.close();
+        assertTrue(cache.isFile());
+        assertEquals(2, VectorStore.load(file, 1).size());
+
+        file.delete();
+        cache.delete();
+    }
+
+    private void assertStore(float[] vectors, int size, VectorStore store)
+    {
+        float[] vector = new float[size];
+        assertEquals(vectors.length / size, store.size());
+        assertEquals(size, store.dimension());
+
+        for (int i=0; i<store.size(); i++)
+        {
+            assertEquals(i, store.indexOf("w"+i));
+            store.get(i, vector);
+            for (int k=0; k<size; k++) assertEquals(vectors[i*size+k], vector[k], 0);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package edu.emory.mathcs.nlp.vsm.types;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.vsm.util.VectorWriter;
+
+public class VectorWriterTest {
+
+    @Test
+    public void testFormatFloat()
+    {
+        byte[] buffer = new byte[VectorWriter.MAX_FLOAT_LENGTH];
+        float[] values = {0f, -0f, 1f, -2.5f, 1200f, 0.001f, 1e-4f, 123456.78f, 1e7f, 3.4028235e38f, Float.MIN_VALUE, Float.MIN_NORMAL};
+        Random rand = new Random(1);
+
+        for (float f : values) assertRoundTrip(f, buffer);
+        for (int i=0; i<100000; i++) assertRoundTrip(Float.intBitsToFloat(rand.nextInt()), buffer);
+        for (int i=0; i<100000; i++) assertRoundTrip((float)(rand.nextGaussian() / 10), buffer);
+
+        int length = VectorWriter.formatFloat(-1.5e-4f, buffer, 0);
+        assertEquals("-1.5E-4", new String(buffer, 0, length));
+        length = VectorWriter.formatFloat(0.015625f, buffer, 0);
+        assertEquals("0.015625", new String(buffer, 0, length));
+    }
+
+    private void assertRoundTrip(float f, byte[] buffer)
+    {
+        int length = VectorWriter.formatFloat(f, buffer, 0);
+        if (!Float.isNaN(f)) assertEquals(Float.toString(f), Float.floatToIntBits(f), Float.floatToIntBits(Float.parseFloat(new String(buffer, 0, length))));
+    }
+
+    @Test
+    public void testWrite() throws Exception
+    {
+        int rows = 10000, size = 3;
+        float[] vectors = new float[rows * size];
+        for (int i=0; i<vectors.length; i++) vectors[i] = i / 7f;
+
+        // text
+        File file = File.createTempFile("vectors", ".txt");
+        new VectorWriter(vectors, size, rows, i -> "w"+i, i -> i * size).write(file, false, false, 3);
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        String line;
+        int row = 0;
+
+        while ((line = in.readLine()) != null)
+        {
+            String[] split = line.split("\t");
+            assertEquals("w"+row, split[0]);
+            for (int k=0; k<size; k++) assertEquals(vectors[row*size+k], Float.parseFloat(split[k+1]), 0);
+            row++;
+        }
+
+        in.close();
+        assertEquals(rows, row);
+
+        // binary
+        new VectorWriter(vectors, size, rows, i -> "w"+i, i -> i * size).write(file, true, false, 3);
+        DataInputStream din = new DataInputStream(new FileInputStream(file));
+        byte[] bytes = new byte[(int)file.length()];
+        din.readFully(bytes);
+        din.close();
+        file.delete();
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        String header = rows+" "+size+"\n";
+        assertEquals(header, new String(bytes, 0, header.length()));
+        buffer.position(header.length());
+
+        for (row=0; row<rows; row++)
+        {
+            StringBuilder word = new StringBuilder();
+            byte b;
+            while ((b = buffer.get()) != ' ') word.append((char)b);
+            assertEquals("w"+row, word.toString());
+            for (int k=0; k<size; k++) assertEquals(vectors[row*size+k], buffer.getFloat(), 0);
+            assertEquals('\n', buffer.get());
+        }
+
+        assertEquals(bytes.length, buffer.position());
+    }
+}
@@ -0,0 +1,93 @@
+package edu.emory.mathcs.nlp.vsm.word2vec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.emory.mathcs.nlp.vsm.MappedModel;
+import edu.emory.mathcs.nlp.vsm.util.HalfMatrix;
+import edu.emory.mathcs.nlp.vsm.util.MappedMatrix;
+import edu.emory.mathcs.nlp.vsm.util.Vocabulary;
+import edu.emory.mathcs.nlp.vsm.util.Word;
+
+public class MappedModelTest {
+
+    @Test
+    public void testWriteOpen() throws Exception
+    {
+        int vector_size = 7;
+        Vocabulary in_vocab = new Vocabulary(), out_vocab = new Vocabulary();
+        in_vocab.add(new Word("dog", 5));
+        in_vocab.add(new Word("cät", 3));
+        in_vocab.add(new Word("bird", 1));
+        out_vocab.add(new Word("nsubj", 2));
+        out_vocab.add(new Word("dobj", 4));
+
+        Random rand = new Random(1);
+        float[] W = new float[in_vocab.size() * vector_size];
+        float[] V = new float[out_vocab.size() * vector_size];
+        for (int i=0; i<W.length; i++) W[i] = rand.nextFloat() - 0.5f;
+        for (int i=0; i<V.length; i++) V[i] = rand.nextFloat() - 0.5f;
+
+        Properties hyperparameters = new Properties();
+        hyperparameters.setProperty("window", "5");
+
+        File file = File.createTempFile("mapped", ".model");
+        file.deleteOnExit();
+        MappedModel.write(file, vector_size, in_vocab, out_vocab, W, V, hyperparameters);
+        assertTrue(MappedModel.isMappedModel(file));
+
+        try (MappedModel model = MappedModel.open(file))
+        {
+            assertEquals(vector_size, model.vectorSize());
+            assertEquals("5", model.hyperparameters().getProperty("window"));
+            assertEquals(in_vocab.size() , model.inVocab().size());
+            assertEquals(out_vocab.size(), model.outVocab().size());
+            assertEquals(1, model.inVocab().indexOf("cät"));
+            assertEquals(3, model.inVocab().get(1).count);
+            assertEquals(4, model.outVocab().get(1).count);
+            assertEquals(in_vocab.totalCount(), model.inVocab().totalCount());
+
+            assertArrayEquals(W, model.loadW(1), 0);
+            assertArrayEquals(V, model.loadV(4), 0);
+            assertEquals(W[2*vector_size+3], model.w(2, 3), 0);
+            assertEquals(V[1*vector_size+6], model.v(1, 6), 0);
+
+            float[] vector = new float[vector_size];
+            model.getW(1, vector);
+            for (int k=0; k<vector_size; k++) assertEquals(W[vector_size+k], vector[k], 0);
+
+            // paged row by row into weights that are not kept in a float array
+            File weights = File.createTempFile("mapped", ".W");
+            MappedMatrix matrix = new MappedMatrix(weights, in_vocab.size(), vector_size, 1);
+            model.loadW(matrix, 2);
+            assertArrayEquals(W, matrix.toFloats(), 0);
+            matrix.close();
+
+            HalfMatrix half = new HalfMatrix(V.length, HalfMatrix.Precision.BF16);
+            model.loadV(half, 1);
+            assertArrayEquals(new HalfMatrix(V, HalfMatrix.Precision.BF16).toFloats(), half.toFloats(), 0);
+        }
+
+        // a shared vocabulary is saved once and opened as the same object
+        MappedModel.write(file, vector_size, in_vocab, in_vocab, W, W, hyperparameters);
+
+        try (MappedModel model = MappedModel.open(file))
+        {
+            assertSame(model.inVocab(), model.outVocab());
+            assertArrayEquals(W, model.loadV(2), 0);
+        }
+
+        File legacy = File.createTempFile("legacy", ".model");
+        legacy.deleteOnExit();
+        assertFalse(MappedModel.isMappedModel(legacy));
+    }
+}
@@ -1,10 +1,14 @@
 package edu.emory.mathcs.nlp.vsm.word2vec;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
 import edu.emory.mathcs.nlp.vsm.PolysemousWord2Vec;
 
 import java.io.IOException;
+import java.util.BitSet;
 
 /**
  * Created by austin on 1/20/2016.
@@ -23,13 +27,71 @@ public class PolysemousWord2VecTest {
         }
 
 
+        @Test
+        public void testAdaptiveSenses() throws Exception {
+            String[] params = {	"-train","resources/dat/test_files",
+                    "-output","resources/dat/skip_vectors",
+                    "-size",""+vector_size,
+                    "-threads",  "2",
+                    "-min-count","1",
+                    "-senses", ""+senses,
+                    "-sense-min-count", "20",
+                    "-sense-threshold", "0.6"};
+            PolysemousWord2Vec word2vec = new PolysemousWord2Vec(params);
+            int total = 0, grown = 0;
+            BitSet rows = new BitSet();
+
+            for (int i=0; i<word2vec.in_vocab.size(); i++)
+            {
+                int n = word2vec.senseCount(i);
+                assertTrue(1 <= n && n <= senses);
+                if (word2vec.in_vocab.get(i).count >= 20) assertEquals(senses, n);
+                else if (n > 1) grown++;
+
+                // senses of a word are contiguous and the rows of different words never overlap
+                int first = word2vec.senseOffset(i, 0) / vector_size, reserved = n == 1 ? 1 : senses;
+                assertEquals(word2vec.senseOffset(i, 0) + (n-1)*vector_size, word2vec.senseOffset(i, n-1));
+                assertTrue(first + reserved <= word2vec.senseRows());
+                assertTrue(rows.get(first, first + reserved).isEmpty());
+                rows.set(first, first + reserved);
+                total += n;
+            }
+
+            // words below -sense-min-count started with one sense and gained more
+            assertTrue(grown > 0);
+            assertEquals(total, word2vec.toMap(false).size());
+        }
+
+        @Test
+        public void testOneSenseByDefault() throws Exception {
+            PolysemousWord2Vec word2vec = new PolysemousWord2Vec(new String[]{"-train","resources/dat/test_files", "-output","resources/dat/cbow_vectors", "-size",""+vector_size, "-min-count","1", "-cbow", "-senses",""+senses});
+            for (int i=0; i<word2vec.in_vocab.size(); i++) assertEquals(1, word2vec.senseCount(i));
+            assertEquals(word2vec.in_vocab.size(), word2vec.senseRows());
+        }
+
+        @Test(expected = IllegalArgumentException.class)
+        public void testRejectThresholdWithCbow() {
+            new PolysemousWord2Vec(new String[]{"-train","resources/dat/test_files", "-output","resources/dat/cbow_vectors", "-senses",""+senses, "-cbow", "-sense-threshold","0.4"});
+        }
+
+        @Test(expected = IllegalArgumentException.class)
+        public void testRejectPrecision() {
+            new PolysemousWord2Vec(new String[]{"-train","resources/dat/test_files", "-output","resources/dat/skip_vectors", "-senses",""+senses, "-precision","fp16"});
+        }
+
+        @Test(expected = IllegalArgumentException.class)
+        public void testRejectWeightFile() {
+            new PolysemousWord2Vec(new String[]{"-train","resources/dat/test_files", "-output","resources/dat/skip_vectors", "-senses",""+senses, "-weight-file","resources/dat/skip_weights"});
+        }
+
         public static void test_skipgrams() throws IOException {
             String[] params = {	"-train","resources/dat/test_files",
                     "-output","resources/dat/skip_vectors",
                     "-size",""+vector_size,
                     "-threads",  "2",
                     "-min-count","1",
-                    "-senses", ""+senses};
+                    "-senses", ""+senses,
+                    "-sense-min-count", "1"};
             test(params);
         }
 
@@ -40,7 +102,8 @@ public class PolysemousWord2VecTest {
                     "-threads","2",
                     "-min-count","1",
                     "-cbow",
-                    "-senses",""+senses};
+                    "-senses",""+senses,
+                    "-sense-min-count","1"};
             test(params);
         }
 
@@ -51,7 +114,7 @@ public class PolysemousWord2VecTest {
             {
                 System.out.print(word2vec.in_vocab.get(i).form+s+" ");
                 for(int j=0; j<vector_size; j++)
-                    System.out.print(String.format("%1$,.6f",word2vec.S[s][i*vector_size+j])+" ");
+                    System.out.print(String.format("%1$,.6f",word2vec.senseVectors()[word2vec.senseOffset(i,s)+j])+" ");
                 System.out.println();
             }
         }
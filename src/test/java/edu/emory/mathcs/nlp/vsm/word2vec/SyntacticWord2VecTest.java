@@ -6,7 +6,12 @@ import org.junit.Test;
 import edu.emory.mathcs.nlp.vsm.SyntacticWord2Vec;
 import edu.emory.mathcs.nlp.vsm.Word2Vec;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by austin on 12/1/2015.
@@ -23,6 +28,34 @@ public class SyntacticWord2VecTest {
         test_cbow();
     }
 
+    /** Each structure trained in one scan ends up with the same vectors as when it is trained alone. */
+    @Test
+    public void testMultipleStructures() throws Exception {
+        String[] structures = {"dep", "w2v"};
+        String vocab = "resources/dat/multi_vocab";
+        new SyntacticWord2Vec(params("resources/dat/multi_vectors", String.join(",", structures), "-structureIsList", "-write-vocab", vocab));
+        assertTrue(new File(vocab).isFile());
+
+        for (String structure : structures) {
+            String single = "resources/dat/single_vectors";
+            new SyntacticWord2Vec(params(single, structure));
+            assertArrayEquals(structure, Files.readAllBytes(new File(single).toPath()), Files.readAllBytes(new File("resources/dat/multi_vectors." + structure).toPath()));
+        }
+    }
+
+    static String[] params(String output, String structure, String... rest) {
+        String[] params = {"-train","resources/dat/dep_test_files",
+                "-output",output,
+                "-structure",structure,
+                "-size",""+vector_size,
+                "-threads","1",
+                "-min-count","1"};
+        String[] all = new String[params.length + rest.length];
+        System.arraycopy(params, 0, all, 0, params.length);
+        System.arraycopy(rest, 0, all, params.length, rest.length);
+        return all;
+    }
+
     public static void test_skipgrams() throws IOException {
         String[] params = {	"-train","resources/dat/dep_test_files",
                 "-output","resources/dat/skip_vectors",
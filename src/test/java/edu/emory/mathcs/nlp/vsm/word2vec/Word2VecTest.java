@@ -21,6 +21,11 @@ public class Word2VecTest {
         test_cbow();
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectPQSubspaces() {
+        new Word2Vec(new String[]{"-train","resources/dat/test_files", "-output","resources/dat/skip_vectors", "-size",""+vector_size, "-quantize","pq", "-pq-subspaces",""+(vector_size+1)});
+    }
+
 
     public static void test_skipgrams() throws IOException {
         String[] params = {	"-train","resources/dat/test_files",